@@ -18,11 +18,9 @@ import com.google.android.gms.location.LocationServices;
 import com.loopj.android.http.AsyncHttpResponseHandler;
 import com.loopj.android.http.RequestParams;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Locale;
 import java.util.TimeZone;
 
 public class LocationService extends Service implements
@@ -40,11 +38,16 @@ public class LocationService extends Service implements
     private LocationRequest locationRequest;
     private GoogleApiClient googleApiClient;
 
+    // formatted for mysql datetime format. created once and only used from the main thread
+    // in sendLocationDataToWebsite, so there is no need to allocate a new one for every fix
+    private final DateFormat gpsTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
     @Override
     public void onCreate() {
         super.onCreate();
 
         defaultUploadWebsite = getString(R.string.default_upload_website);
+        gpsTimeFormat.setTimeZone(TimeZone.getDefault());
     }
 
     @Override
@@ -91,11 +94,6 @@ public class LocationService extends Service implements
     }
 
     protected void sendLocationDataToWebsite(Location location) {
-        // formatted for mysql datetime format
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        dateFormat.setTimeZone(TimeZone.getDefault());
-        Date date = new Date(location.getTime());
-
         SharedPreferences sharedPreferences = this.getSharedPreferences("com.websmithing.gpstracker.prefs", Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = sharedPreferences.edit();
 
@@ -137,9 +135,8 @@ public class LocationService extends Service implements
             requestParams.put("distance", 0); // in miles
         }
 
-        try {
-            requestParams.put("gpstime", URLEncoder.encode(dateFormat.format(date), "UTF-8"));
-        } catch (UnsupportedEncodingException e) {}
+        // RequestParams url-encodes values itself, encoding here as well double-encoded the date
+        requestParams.put("gpstime", gpsTimeFormat.format(location.getTime()));
 
         requestParams.put("locationmethod", location.getProvider());
         Double accuracyInFeet = location.getAccuracy()* 3.28;
@@ -10,6 +10,11 @@ import android.net.Uri
 import android.os.Build
 import android.os.Bundle
 import android.provider.Settings
+import android.text.InputType
+import android.text.format.DateUtils
+import android.text.format.Formatter
+import android.view.Menu
+import android.view.MenuItem
 import android.view.View
 import android.view.inputmethod.EditorInfo
 import timber.log.Timber
@@ -23,6 +28,7 @@ import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import androidx.core.app.ActivityCompat
 import androidx.core.content.ContextCompat
+import androidx.core.content.FileProvider
 import androidx.core.widget.addTextChangedListener
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.lifecycleScope
@@ -31,13 +37,19 @@ import kotlinx.coroutines.launch
 import com.google.android.gms.common.ConnectionResult
 import com.google.android.gms.common.GoogleApiAvailability
 import com.google.android.material.snackbar.Snackbar
+import com.websmithing.gpstracker2.data.export.ExportFormat
+import com.websmithing.gpstracker2.data.repository.SessionStats
 import com.websmithing.gpstracker2.data.repository.UploadStatus 
+import com.websmithing.gpstracker2.network.DataBudget
+import com.websmithing.gpstracker2.network.DataUsage
+import com.websmithing.gpstracker2.ui.LocationSnapshot
+import com.websmithing.gpstracker2.ui.TrackingUiState
 import com.websmithing.gpstracker2.ui.TrackingViewModel 
 import dagger.hilt.android.AndroidEntryPoint
+import java.io.File
 import java.text.DecimalFormat 
 import java.text.SimpleDateFormat 
 import java.util.*
-import android.location.Location 
 import android.widget.TextView 
 
 /**
@@ -49,6 +61,7 @@ import android.widget.TextView
  * - Permission management for location tracking
  * - Starting and stopping the tracking service
  * - Displaying real-time location data and tracking statistics
+ * - Sharing exported sessions through the share sheet
  * - Communicating with the backend ViewModel that manages data and services
  *
  * The activity is integrated with Hilt for dependency injection.
@@ -106,12 +119,22 @@ class GpsTrackerActivity : AppCompatActivity() {
      * TextView for displaying the total distance traveled
      */
     private lateinit var tvDistance: TextView
+
+    /**
+     * TextView for displaying the session statistics
+     */
+    private lateinit var tvSessionStats: TextView
     
     /**
      * TextView for displaying the timestamp of the last update and its status
      */
     private lateinit var tvLastUpdate: TextView
     
+    /**
+     * TextView for displaying the data exchanged with the server today and this month
+     */
+    private lateinit var tvDataUsage: TextView
+    
     /**
      * TextView for displaying the current GPS signal strength
      */
@@ -123,6 +146,11 @@ class GpsTrackerActivity : AppCompatActivity() {
      */
     private val viewModel: TrackingViewModel by viewModels()
 
+    /**
+     * The state currently on screen, used to skip views that did not change
+     */
+    private var renderedState: TrackingUiState? = null
+
     // --- Formatting ---
     /**
      * Formatter for displaying latitude and longitude with 5 decimal places
@@ -179,6 +207,23 @@ class GpsTrackerActivity : AppCompatActivity() {
             }
         }
 
+    /**
+     * Activity result launcher for requesting the physical activity permission
+     *
+     * The step detector used for dead reckoning needs it on Android Q (10) and above.
+     * Dead reckoning stays enabled either way; without the permission the service
+     * records GPS fixes only.
+     */
+    private val requestActivityRecognitionLauncher =
+        registerForActivityResult(ActivityResultContracts.RequestPermission()) { isGranted ->
+            if (isGranted) {
+                Timber.i("Activity recognition permission granted.")
+            } else {
+                Timber.w("Activity recognition permission denied.")
+                showPermissionDeniedSnackbar(getString(R.string.permission_denied_activity_recognition))
+            }
+        }
+
     // --- Activity Lifecycle ---
     /**
      * Called when the activity is first created.
@@ -202,6 +247,77 @@ class GpsTrackerActivity : AppCompatActivity() {
         checkIfGooglePlayEnabled()
     }
 
+    /**
+     * Inflates the options menu with the live mode toggle and the session export actions
+     */
+    override fun onCreateOptionsMenu(menu: Menu): Boolean {
+        menuInflater.inflate(R.menu.menu_tracker, menu)
+        return true
+    }
+
+    /**
+     * Shows the current capture settings each time the menu opens
+     */
+    override fun onPrepareOptionsMenu(menu: Menu): Boolean {
+        menu.findItem(R.id.action_live_mode)?.isChecked = viewModel.uiState.value.liveMode
+        menu.findItem(R.id.action_dual_resolution)?.isChecked = viewModel.uiState.value.dualResolution
+        menu.findItem(R.id.action_dead_reckoning)?.isChecked = viewModel.uiState.value.deadReckoning
+        menu.findItem(R.id.action_passive_mode)?.isChecked = viewModel.uiState.value.passiveMode
+        return super.onPrepareOptionsMenu(menu)
+    }
+
+    /**
+     * Handles options menu selections
+     *
+     * @param item The selected menu item
+     * @return True if the selection was handled
+     */
+    override fun onOptionsItemSelected(item: MenuItem): Boolean {
+        return when (item.itemId) {
+            R.id.action_live_mode -> {
+                viewModel.onLiveModeChanged(!item.isChecked)
+                true
+            }
+            R.id.action_dual_resolution -> {
+                viewModel.onDualResolutionChanged(!item.isChecked)
+                true
+            }
+            R.id.action_dead_reckoning -> {
+                val enabled = !item.isChecked
+                viewModel.onDeadReckoningChanged(enabled)
+                if (enabled && !hasActivityRecognitionPermission()) {
+                    requestActivityRecognitionLauncher.launch(Manifest.permission.ACTIVITY_RECOGNITION)
+                }
+                true
+            }
+            R.id.action_passive_mode -> {
+                viewModel.onPassiveModeChanged(!item.isChecked)
+                true
+            }
+            R.id.action_udp_uplink -> {
+                showUdpUplinkDialog()
+                true
+            }
+            R.id.action_battery_budget -> {
+                showBatteryBudgetDialog()
+                true
+            }
+            R.id.action_data_budget -> {
+                showDataBudgetDialog()
+                true
+            }
+            R.id.action_export_gpx -> {
+                viewModel.exportLatestSession(ExportFormat.GPX)
+                true
+            }
+            R.id.action_export_geojson -> {
+                viewModel.exportLatestSession(ExportFormat.GEOJSON)
+                true
+            }
+            else -> super.onOptionsItemSelected(item)
+        }
+    }
+
     // --- Setup Methods ---
     /**
      * Configures the app's toolbar with the app logo
@@ -232,12 +348,15 @@ class GpsTrackerActivity : AppCompatActivity() {
         tvAccuracy = findViewById(R.id.tvAccuracy)
         tvBearing = findViewById(R.id.tvBearing)
         tvDistance = findViewById(R.id.tvDistance)
+        tvSessionStats = findViewById(R.id.tvSessionStats)
         tvLastUpdate = findViewById(R.id.tvLastUpdate)
+        tvDataUsage = findViewById(R.id.tvDataUsage)
         tvSignalStrength = findViewById(R.id.tvSignalStrength)
 
         // Set initial default text (could also be done in XML)
         updateLocationDisplay(null)
         updateDistanceDisplay(0f)
+        updateSessionStatsDisplay(SessionStats())
         updateUploadStatusDisplay(UploadStatus.Idle, null)
     }
 
@@ -287,81 +406,80 @@ class GpsTrackerActivity : AppCompatActivity() {
     }
 
     /**
-     * Sets up observers for ViewModel data changes to update the UI accordingly
+     * Collects the ViewModel's UI state while the activity is at least started
+     *
+     * The state is already limited to one emission per frame, and collection stops when
+     * the activity goes to the background, so nothing is rendered off screen.
      */
     private fun observeViewModel() {
-        // Observe Tracking State
-        viewModel.isTracking.observe(this) { isTracking ->
-            Timber.d("Observed isTracking state: $isTracking")
-            setTrackingButtonState(isTracking)
-            // Reset display fields when tracking stops
-            if (!isTracking) {
-                 updateLocationDisplay(null)
-                 updateDistanceDisplay(0f)
-                 updateUploadStatusDisplay(UploadStatus.Idle, null)
+        lifecycleScope.launch {
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                viewModel.uiState.collect { state -> render(state) }
             }
         }
+    }
 
-        viewModel.userName.observe(this) { name ->
-            if (txtUserName.text.toString() != name) {
-                txtUserName.setText(name)
-            }
-        }
+    /**
+     * Applies a UI state to the views
+     *
+     * Only the parts that differ from the previously rendered state are touched, so a new
+     * fix updates the location text without re-setting inputs or the tracking button.
+     *
+     * @param state The state to render
+     */
+    private fun render(state: TrackingUiState) {
+        val previous = renderedState
+        renderedState = state
 
-        viewModel.websiteUrl.observe(this) { url ->
-            if (txtWebsite.text.toString() != url) {
-                txtWebsite.setText(url)
-            }
+        if (previous == null || previous.isTracking != state.isTracking) {
+            Timber.d("Rendering tracking state: ${state.isTracking}")
+            setTrackingButtonState(state.isTracking)
         }
 
-        // Observe Location Data using Flows (using repeatOnLifecycle)
-        lifecycleScope.launch {
-            repeatOnLifecycle(Lifecycle.State.STARTED) {
-                // Observe Latest Location
-                viewModel.latestLocation.collect { location ->
-                    updateLocationDisplay(location)
-                    // Update upload status display as well, as it includes timestamp
-                    updateUploadStatusDisplay(viewModel.lastUploadStatus.value, location?.time)
-                }
-            }
+        if (txtUserName.text.toString() != state.userName) {
+            txtUserName.setText(state.userName)
+        }
+        if (txtWebsite.text.toString() != state.websiteUrl) {
+            txtWebsite.setText(state.websiteUrl)
         }
 
-        lifecycleScope.launch {
-            repeatOnLifecycle(Lifecycle.State.STARTED) {
-                // Observe Total Distance
-                viewModel.totalDistance.collect { distanceMeters ->
-                    updateDistanceDisplay(distanceMeters)
-                }
-            }
+        val checkId = when (state.trackingInterval) {
+            1 -> R.id.i1
+            5 -> R.id.i5
+            15 -> R.id.i15
+            else -> R.id.i1
+        }
+        if (intervalRadioGroup.checkedRadioButtonId != checkId) {
+            intervalRadioGroup.check(checkId)
         }
 
-        lifecycleScope.launch {
-            repeatOnLifecycle(Lifecycle.State.STARTED) {
-                // Observe Upload Status
-                viewModel.lastUploadStatus.collect { status ->
-                    updateUploadStatusDisplay(status, viewModel.latestLocation.value?.time)
-                }
-            }
+        if (previous == null || previous.location != state.location) {
+            updateLocationDisplay(state.location)
+        }
+        if (previous == null || previous.totalDistanceMeters != state.totalDistanceMeters) {
+            updateDistanceDisplay(state.totalDistanceMeters)
+        }
+        if (previous == null || previous.sessionStats != state.sessionStats) {
+            updateSessionStatsDisplay(state.sessionStats)
+        }
+        // The status line includes the fix time, so it follows both inputs
+        if (previous == null || previous.uploadStatus != state.uploadStatus ||
+            previous.location?.time != state.location?.time) {
+            updateUploadStatusDisplay(state.uploadStatus, state.location?.time)
+        }
+        if (previous == null || previous.dataUsage != state.dataUsage || previous.dataBudget != state.dataBudget) {
+            updateDataUsageDisplay(state.dataUsage, state.dataBudget)
         }
 
-        viewModel.trackingInterval.observe(this) { interval ->
-            val checkId = when (interval) {
-                1 -> R.id.i1
-                5 -> R.id.i5
-                15 -> R.id.i15
-                else -> R.id.i1
-            }
-            if (intervalRadioGroup.checkedRadioButtonId != checkId) {
-                 intervalRadioGroup.check(checkId)
-            }
+        // One-shot events; the guards keep a state still in flight from repeating them
+        state.pendingExport?.takeIf { it != previous?.pendingExport }?.let {
+            shareExport(it)
+            viewModel.onExportShared()
         }
 
-        // Observe Snackbar Messages
-        viewModel.snackbarMessage.observe(this) { message ->
-            message?.let {
-                Snackbar.make(findViewById(android.R.id.content), it, Snackbar.LENGTH_SHORT).show()
-                viewModel.onSnackbarMessageShown()
-            }
+        state.userMessage?.takeIf { it != previous?.userMessage }?.let {
+            Snackbar.make(findViewById(android.R.id.content), it, Snackbar.LENGTH_SHORT).show()
+            viewModel.onSnackbarMessageShown()
         }
     }
 
@@ -375,7 +493,7 @@ class GpsTrackerActivity : AppCompatActivity() {
     private fun handleTrackingButtonClick() {
         if (!validateInputs()) return
 
-        if (viewModel.isTracking.value == false) {
+        if (!viewModel.uiState.value.isTracking) {
             checkAndRequestForegroundLocationPermissions()
         } else {
             viewModel.stopTracking()
@@ -499,6 +617,17 @@ class GpsTrackerActivity : AppCompatActivity() {
         } else { true }
     }
 
+    /**
+     * Checks if the app may use the step detector
+     *
+     * @return True if activity recognition permission is granted or if running on Android < Q
+     */
+    private fun hasActivityRecognitionPermission(): Boolean {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || ContextCompat.checkSelfPermission(
+            this, Manifest.permission.ACTIVITY_RECOGNITION
+        ) == PackageManager.PERMISSION_GRANTED
+    }
+
     /**
      * Requests foreground location permissions (and notification permission on Android 13+)
      */
@@ -530,7 +659,7 @@ class GpsTrackerActivity : AppCompatActivity() {
      *
      * @param location The location to display, or null to reset to default values
      */
-     private fun updateLocationDisplay(location: Location?) {
+     private fun updateLocationDisplay(location: LocationSnapshot?) {
          if (location != null) {
              tvLatLon.text = getString(R.string.lat_lon_format,
                  coordinateFormatter.format(location.latitude),
@@ -561,6 +690,27 @@ class GpsTrackerActivity : AppCompatActivity() {
          tvDistance.text = getString(R.string.distance_format_km, distanceFormatter.format(distanceKm))
      }
  
+    /**
+     * Updates the session statistics display
+     *
+     * @param stats The statistics to display; empty statistics show placeholders
+     */
+     private fun updateSessionStatsDisplay(stats: SessionStats) {
+         if (stats.isEmpty) {
+             tvSessionStats.text = getString(R.string.session_stats_default)
+             return
+         }
+         tvSessionStats.text = getString(
+             R.string.session_stats_format,
+             DateUtils.formatElapsedTime(stats.movingMillis / 1000L),
+             DateUtils.formatElapsedTime(stats.stoppedMillis / 1000L),
+             stats.averageMovingSpeed * 3.6f,
+             stats.maxSpeed * 3.6f,
+             Math.round(stats.elevationGainMeters).toInt(),
+             stats.stopCount
+         )
+     }
+
     /**
      * Updates the upload status display with the provided status and timestamp
      *
@@ -577,6 +727,26 @@ class GpsTrackerActivity : AppCompatActivity() {
          tvLastUpdate.text = statusText
      }
  
+    /**
+     * Updates the data usage display, showing each total against its limit if one is set
+     *
+     * @param usage Bytes exchanged today and this month
+     * @param budget The daily and monthly limits
+     */
+     private fun updateDataUsageDisplay(usage: DataUsage, budget: DataBudget) {
+         fun amount(bytes: Long, limitMegabytes: Int): String {
+             val used = Formatter.formatShortFileSize(this, bytes)
+             if (limitMegabytes <= 0) return used
+             val limit = Formatter.formatShortFileSize(this, limitMegabytes * DataBudget.BYTES_PER_MEGABYTE)
+             return getString(R.string.data_usage_of_limit, used, limit)
+         }
+         tvDataUsage.text = getString(
+             R.string.data_usage_format,
+             amount(usage.dayBytes, budget.dailyMegabytes),
+             amount(usage.monthBytes, budget.monthlyMegabytes)
+         )
+     }
+
     /**
      * Gets a human-readable description of signal strength based on accuracy
      *
@@ -593,6 +763,62 @@ class GpsTrackerActivity : AppCompatActivity() {
          }
      }
 
+    /**
+     * Asks for the key shared with the server's UDP uplink receiver; a blank key turns the
+     * uplink off
+     */
+    private fun showUdpUplinkDialog() {
+        val input = EditText(this).apply {
+            inputType = InputType.TYPE_CLASS_TEXT or InputType.TYPE_TEXT_VARIATION_PASSWORD
+            setText(viewModel.uiState.value.udpUplinkKey)
+        }
+        AlertDialog.Builder(this)
+            .setTitle(R.string.udp_uplink)
+            .setMessage(R.string.udp_uplink_message)
+            .setView(input)
+            .setPositiveButton(android.R.string.ok) { _, _ ->
+                viewModel.onUdpUplinkKeyChanged(input.text.toString())
+            }
+            .setNegativeButton(android.R.string.cancel) { dialog, _ -> dialog.dismiss() }
+            .show()
+    }
+
+    /**
+     * Lets the user pick a battery budget, or none for fixed high-accuracy tracking
+     */
+    private fun showBatteryBudgetDialog() {
+        val budgets = resources.getIntArray(R.array.battery_budget_values)
+        val checked = budgets.indexOf(viewModel.uiState.value.batteryBudget).coerceAtLeast(0)
+        AlertDialog.Builder(this)
+            .setTitle(R.string.battery_budget)
+            .setSingleChoiceItems(R.array.battery_budget_labels, checked) { dialog, which ->
+                viewModel.onBatteryBudgetChanged(budgets[which])
+                dialog.dismiss()
+            }
+            .setNegativeButton(android.R.string.cancel) { dialog, _ -> dialog.dismiss() }
+            .show()
+    }
+
+    /**
+     * Lets the user pick a mobile data budget, or none to only count usage
+     */
+    private fun showDataBudgetDialog() {
+        val daily = resources.getIntArray(R.array.data_budget_daily_values)
+        val monthly = resources.getIntArray(R.array.data_budget_monthly_values)
+        val current = viewModel.uiState.value.dataBudget
+        val checked = daily.indices.firstOrNull {
+            daily[it] == current.dailyMegabytes && monthly[it] == current.monthlyMegabytes
+        } ?: 0
+        AlertDialog.Builder(this)
+            .setTitle(R.string.data_budget)
+            .setSingleChoiceItems(R.array.data_budget_labels, checked) { dialog, which ->
+                viewModel.onDataBudgetChanged(DataBudget(daily[which], monthly[which]))
+                dialog.dismiss()
+            }
+            .setNegativeButton(android.R.string.cancel) { dialog, _ -> dialog.dismiss() }
+            .show()
+    }
+
     // --- UI Feedback for Permissions ---
 
     /**
@@ -642,6 +868,23 @@ class GpsTrackerActivity : AppCompatActivity() {
             .show()
     }
 
+    /**
+     * Opens the share sheet for an exported session file
+     *
+     * @param file The exported file inside the cache export directory
+     */
+    private fun shareExport(file: File) {
+        val uri = FileProvider.getUriForFile(this, "$packageName.fileprovider", file)
+        val mimeType = ExportFormat.values().firstOrNull { it.extension == file.extension }?.mimeType
+            ?: "application/octet-stream"
+        val sendIntent = Intent(Intent.ACTION_SEND).apply {
+            type = mimeType
+            putExtra(Intent.EXTRA_STREAM, uri)
+            addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        }
+        startActivity(Intent.createChooser(sendIntent, getString(R.string.export_share_title)))
+    }
+
     // --- UI Update Method ---
 
     /**
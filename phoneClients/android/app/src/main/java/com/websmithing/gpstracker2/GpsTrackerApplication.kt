@@ -21,18 +21,20 @@ class GpsTrackerApplication : Application() {
      * 
      * Sets up Timber for logging with different configurations based on the build type:
      * - Debug builds: Uses [Timber.DebugTree] for detailed console logging
-     * - Release builds: Placeholder for a production-appropriate logging implementation
+     * - Release builds: No tree is planted, so log calls return immediately and app
+     *   start does not pay for tag lookup or formatting
+     *
+     * Nothing else is initialized here; network and database singletons are created
+     * on first use. This also runs in the tracking service's `:tracking` process, which
+     * therefore only builds the part of the graph the service injects and never loads
+     * the activity or its UI toolkit.
      */
     override fun onCreate() {
         super.onCreate()
         // Initialize Timber
-        // TODO: Plant a different tree for release builds (e.g., one that logs to crash reporting)
         if (BuildConfig.DEBUG) { // BuildConfig needs to be generated by Gradle sync
             Timber.plant(Timber.DebugTree())
             Timber.d("Timber DebugTree planted.")
-        } else {
-            // Timber.plant(CrashReportingTree()) // Example for release
-            Timber.d("Timber ReleaseTree planted (placeholder).") // Placeholder log
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,241 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/export/TrackExporter.kt
+package com.websmithing.gpstracker2.data.export
+
+import com.websmithing.gpstracker2.data.repository.TrackHistoryRepository
+import com.websmithing.gpstracker2.data.repository.TrackPointCursor
+import java.io.Writer
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * File formats supported by [TrackExporter].
+ *
+ * @property mimeType MIME type used when sharing the exported file
+ * @property extension File name extension without the dot
+ */
+enum class ExportFormat(val mimeType: String, val extension: String) {
+    GPX("application/gpx+xml", "gpx"),
+    GEOJSON("application/geo+json", "geojson")
+}
+
+/**
+ * Exports sessions from the on-device track history as GPX or GeoJSON.
+ *
+ * This class handles:
+ * - Reading a session through a [TrackPointCursor], one row at a time
+ * - Writing each point straight to the destination [Writer]
+ *
+ * Nothing is collected in memory, so memory use stays constant regardless of session
+ * length. Numbers and timestamps are written digit by digit instead of through
+ * `String.format`, which keeps a 500k-point export free of per-point garbage.
+ *
+ * @param trackHistoryRepository Repository for the on-device track history
+ */
+@Singleton
+class TrackExporter @Inject constructor(
+    private val trackHistoryRepository: TrackHistoryRepository
+) {
+
+    /**
+     * Streams a stored session to [writer] in the given format.
+     *
+     * The writer is flushed but not closed.
+     *
+     * @param sessionId The tracking session to export
+     * @param format The output format
+     * @param writer Destination for the exported document
+     * @return The number of points written
+     */
+    suspend fun exportSession(sessionId: String, format: ExportFormat, writer: Writer): Int =
+        trackHistoryRepository.readSessionPoints(sessionId) { points ->
+            write(format, sessionId, points, writer)
+        }
+
+    /**
+     * Constants and format writers used by the exporter
+     */
+    companion object {
+        private const val MILLIS_PER_DAY = 86_400_000L
+
+        /**
+         * Coordinate precision: 7 digits is about 1 cm, matching the upload format
+         */
+        private const val COORDINATE_DIGITS = 7
+
+        /**
+         * Writes all remaining points of [points] to [writer] in the given format.
+         *
+         * @param format The output format
+         * @param trackName Name recorded in the document
+         * @param points Source of points, consumed until [TrackPointCursor.moveToNext] returns false
+         * @param writer Destination for the exported document
+         * @return The number of points written
+         */
+        fun write(format: ExportFormat, trackName: String, points: TrackPointCursor, writer: Writer): Int {
+            val out = TextSink(writer)
+            val count = when (format) {
+                ExportFormat.GPX -> writeGpx(trackName, points, out)
+                ExportFormat.GEOJSON -> writeGeoJson(trackName, points, out)
+            }
+            writer.flush()
+            return count
+        }
+
+        private fun writeGpx(trackName: String, points: TrackPointCursor, out: TextSink): Int {
+            out.raw("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+            out.raw("<gpx version=\"1.1\" creator=\"GpsTracker\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n")
+            out.raw("<trk><name>").xml(trackName).raw("</name><trkseg>\n")
+
+            var count = 0
+            while (points.moveToNext()) {
+                out.raw("<trkpt lat=\"").decimal(points.latitude, COORDINATE_DIGITS)
+                    .raw("\" lon=\"").decimal(points.longitude, COORDINATE_DIGITS)
+                    .raw("\"><ele>").decimal(points.altitude, 1)
+                    .raw("</ele><time>").isoTime(points.time)
+                    .raw("</time></trkpt>\n")
+                count++
+            }
+
+            out.raw("</trkseg></trk>\n</gpx>\n")
+            return count
+        }
+
+        private fun writeGeoJson(trackName: String, points: TrackPointCursor, out: TextSink): Int {
+            // One Point feature per fix keeps the per-point properties next to their
+            // coordinates, so the document can be written in a single pass
+            out.raw("{\"type\":\"FeatureCollection\",\"name\":\"").json(trackName).raw("\",\"features\":[")
+
+            var count = 0
+            while (points.moveToNext()) {
+                if (count > 0) out.raw(",")
+                out.raw("\n{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .decimal(points.longitude, COORDINATE_DIGITS).raw(",")
+                    .decimal(points.latitude, COORDINATE_DIGITS).raw(",")
+                    .decimal(points.altitude, 1)
+                    .raw("]},\"properties\":{\"time\":\"").isoTime(points.time)
+                    .raw("\",\"speed\":").decimal(points.speed.toDouble(), 2)
+                    .raw(",\"bearing\":").decimal(points.bearing.toDouble(), 1)
+                    .raw(",\"accuracy\":").decimal(points.accuracy.toDouble(), 1)
+                    .raw("}}")
+                count++
+            }
+
+            out.raw("\n]}\n")
+            return count
+        }
+    }
+
+    /**
+     * Thin wrapper around a [Writer] with allocation-free number and time formatting.
+     */
+    private class TextSink(private val writer: Writer) {
+
+        /**
+         * Scratch space for digits, written in reverse
+         */
+        private val digits = CharArray(20)
+
+        fun raw(text: String): TextSink {
+            writer.write(text)
+            return this
+        }
+
+        fun xml(text: String): TextSink {
+            for (ch in text) {
+                when (ch) {
+                    '<' -> writer.write("&lt;")
+                    '>' -> writer.write("&gt;")
+                    '&' -> writer.write("&amp;")
+                    '"' -> writer.write("&quot;")
+                    '\'' -> writer.write("&apos;")
+                    else -> writer.write(ch.code)
+                }
+            }
+            return this
+        }
+
+        fun json(text: String): TextSink {
+            for (ch in text) {
+                when {
+                    ch == '"' -> writer.write("\\\"")
+                    ch == '\\' -> writer.write("\\\\")
+                    ch < ' ' -> {
+                        writer.write("\\u00")
+                        writer.write(HEX[ch.code shr 4].code)
+                        writer.write(HEX[ch.code and 0xF].code)
+                    }
+                    else -> writer.write(ch.code)
+                }
+            }
+            return this
+        }
+
+        /**
+         * Writes [value] rounded half-up to [fractionDigits] places, never in exponent notation
+         */
+        fun decimal(value: Double, fractionDigits: Int): TextSink {
+            if (value.isNaN() || value.isInfinite()) {
+                writer.write('0'.code)
+                return this
+            }
+            var scale = 1L
+            repeat(fractionDigits) { scale *= 10 }
+            val scaled = Math.round(Math.abs(value) * scale)
+            if (value < 0 && scaled != 0L) writer.write('-'.code)
+            padded(scaled / scale, 1)
+            if (fractionDigits > 0) {
+                writer.write('.'.code)
+                padded(scaled % scale, fractionDigits)
+            }
+            return this
+        }
+
+        /**
+         * Writes an ISO-8601 UTC timestamp, e.g. `2024-05-01T13:05:09Z`
+         */
+        fun isoTime(epochMillis: Long): TextSink {
+            val epochDay = Math.floorDiv(epochMillis, MILLIS_PER_DAY)
+            val secondOfDay = (Math.floorMod(epochMillis, MILLIS_PER_DAY) / 1000L).toInt()
+
+            // Civil-from-days conversion (proleptic Gregorian calendar)
+            val z = epochDay + 719_468L
+            val era = Math.floorDiv(z, 146_097L)
+            val dayOfEra = z - era * 146_097L
+            val yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365
+            val dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100)
+            val mp = (5 * dayOfYear + 2) / 153
+            val day = dayOfYear - (153 * mp + 2) / 5 + 1
+            val month = if (mp < 10) mp + 3 else mp - 9
+            val year = yearOfEra + era * 400 + if (month <= 2) 1 else 0
+
+            padded(year, 4)
+            writer.write('-'.code)
+            padded(month, 2)
+            writer.write('-'.code)
+            padded(day, 2)
+            writer.write('T'.code)
+            padded((secondOfDay / 3600).toLong(), 2)
+            writer.write(':'.code)
+            padded((secondOfDay / 60 % 60).toLong(), 2)
+            writer.write(':'.code)
+            padded((secondOfDay % 60).toLong(), 2)
+            writer.write('Z'.code)
+            return this
+        }
+
+        private fun padded(value: Long, width: Int) {
+            var v = value
+            var count = 0
+            do {
+                digits[count++] = '0' + (v % 10).toInt()
+                v /= 10
+            } while (v != 0L)
+            repeat(width - count) { writer.write('0'.code) }
+            while (count > 0) writer.write(digits[--count].code)
+        }
+
+        companion object {
+            private const val HEX = "0123456789abcdef"
+        }
+    }
+}
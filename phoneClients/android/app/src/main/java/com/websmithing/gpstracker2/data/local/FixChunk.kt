@@ -0,0 +1,344 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/local/FixChunk.kt
+package com.websmithing.gpstracker2.data.local
+
+import com.websmithing.gpstracker2.data.repository.TrackPointCursor
+import java.io.ByteArrayOutputStream
+import kotlin.math.roundToLong
+
+/**
+ * Compressed columnar storage format for runs of fixes, in the spirit of Gorilla
+ * time-series compression.
+ *
+ * A chunk stores up to [MAX_FIXES] fixes of one session as separate columns, each
+ * encoded so that the regular shape of a GPS track costs close to nothing:
+ * - time: first value, first delta, then delta-of-delta (0 for a steady interval)
+ * - latitude/longitude: scaled integers (1e-7 degrees, the upload precision) stored as
+ *   deltas, so neighbouring fixes cost one or two bytes
+ * - altitude: decimeters, as deltas
+ * - speed and accuracy: small integers in tenths of a unit
+ * - bearing: whole degrees, as the shortest turn from the previous fix
+ * - local ID and trip number: deltas (usually 1 and 0)
+ * - provider: index into a per-chunk dictionary
+ *
+ * All values are zigzag-encoded varints rather than bit-packed words, which keeps
+ * encoding and decoding branch-light and byte-aligned. A typical 1 Hz track packs into
+ * about a tenth of the space its `fixes` rows take.
+ *
+ * The format is lossy only below the precision listed above; times, IDs, trips and
+ * providers round-trip exactly. Client fix IDs are not kept: chunks only hold fixes the
+ * server has already accepted.
+ *
+ * Layout: version byte, fix count, provider dictionary, the byte length of every
+ * column, then the columns back to back.
+ */
+object FixChunk {
+    /**
+     * Format version written as the first byte of every chunk
+     */
+    const val VERSION = 1
+
+    /**
+     * Maximum number of fixes per chunk; keeps a chunk small enough to decode on demand
+     */
+    const val MAX_FIXES = 1024
+
+    private const val COL_TIME = 0
+    private const val COL_LATITUDE = 1
+    private const val COL_LONGITUDE = 2
+    private const val COL_ALTITUDE = 3
+    private const val COL_SPEED = 4
+    private const val COL_BEARING = 5
+    private const val COL_ACCURACY = 6
+    private const val COL_ID = 7
+    private const val COL_TRIP = 8
+    private const val COL_PROVIDER = 9
+    private const val COLUMN_COUNT = 10
+
+    private const val COORDINATE_SCALE = 1e7
+    private const val TENTHS = 10.0
+
+    /**
+     * Builds one chunk from fixes added in chronological order.
+     *
+     * Besides the encoded bytes it tracks the chunk's time range and bounding box, which
+     * the store indexes so queries only decode chunks that can match.
+     */
+    class Encoder {
+        private val columns = Array(COLUMN_COUNT) { ByteArrayOutputStream() }
+        private val providers = ArrayList<String>()
+
+        var size = 0
+            private set
+        var firstTime = 0L
+            private set
+        var lastTime = 0L
+            private set
+        var minLatitude = Double.POSITIVE_INFINITY
+            private set
+        var maxLatitude = Double.NEGATIVE_INFINITY
+            private set
+        var minLongitude = Double.POSITIVE_INFINITY
+            private set
+        var maxLongitude = Double.NEGATIVE_INFINITY
+            private set
+
+        private var previousDelta = 0L
+        private var previousLatitude = 0L
+        private var previousLongitude = 0L
+        private var previousAltitude = 0L
+        private var previousBearing = 0
+        private var previousId = 0L
+        private var previousTrip = 0
+
+        /**
+         * Appends a fix.
+         *
+         * @param id Local ID of the fix
+         * @param time Fix time in epoch milliseconds, not earlier than the previous fix
+         * @param latitude Latitude in decimal degrees
+         * @param longitude Longitude in decimal degrees
+         * @param altitude Altitude in meters
+         * @param speed Speed in meters per second
+         * @param bearing Bearing in degrees
+         * @param accuracy Horizontal accuracy in meters
+         * @param provider The location provider that produced the fix
+         * @param tripNumber Trip within the session the fix belongs to
+         */
+        fun add(
+            id: Long,
+            time: Long,
+            latitude: Double,
+            longitude: Double,
+            altitude: Double,
+            speed: Float,
+            bearing: Float,
+            accuracy: Float,
+            provider: String,
+            tripNumber: Int
+        ) {
+            when (size) {
+                0 -> {
+                    writeSigned(COL_TIME, time)
+                    firstTime = time
+                }
+                1 -> {
+                    previousDelta = time - lastTime
+                    writeSigned(COL_TIME, previousDelta)
+                }
+                else -> {
+                    val delta = time - lastTime
+                    writeSigned(COL_TIME, delta - previousDelta)
+                    previousDelta = delta
+                }
+            }
+            lastTime = time
+
+            val scaledLatitude = (latitude * COORDINATE_SCALE).roundToLong()
+            val scaledLongitude = (longitude * COORDINATE_SCALE).roundToLong()
+            writeSigned(COL_LATITUDE, scaledLatitude - previousLatitude)
+            writeSigned(COL_LONGITUDE, scaledLongitude - previousLongitude)
+            previousLatitude = scaledLatitude
+            previousLongitude = scaledLongitude
+
+            val scaledAltitude = (altitude * TENTHS).roundToLong()
+            writeSigned(COL_ALTITUDE, scaledAltitude - previousAltitude)
+            previousAltitude = scaledAltitude
+
+            writeUnsigned(COL_SPEED, Math.round(speed * TENTHS.toFloat()).coerceAtLeast(0).toLong())
+            writeUnsigned(COL_ACCURACY, Math.round(accuracy * TENTHS.toFloat()).coerceAtLeast(0).toLong())
+
+            val wholeBearing = Math.floorMod(Math.round(bearing), 360)
+            writeSigned(COL_BEARING, (Math.floorMod(wholeBearing - previousBearing + 180, 360) - 180).toLong())
+            previousBearing = wholeBearing
+
+            writeSigned(COL_ID, id - previousId)
+            previousId = id
+            writeSigned(COL_TRIP, (tripNumber - previousTrip).toLong())
+            previousTrip = tripNumber
+
+            var providerIndex = providers.indexOf(provider)
+            if (providerIndex < 0) {
+                providerIndex = providers.size
+                providers.add(provider)
+            }
+            writeUnsigned(COL_PROVIDER, providerIndex.toLong())
+
+            minLatitude = minOf(minLatitude, latitude)
+            maxLatitude = maxOf(maxLatitude, latitude)
+            minLongitude = minOf(minLongitude, longitude)
+            maxLongitude = maxOf(maxLongitude, longitude)
+            size++
+        }
+
+        /**
+         * Returns the encoded chunk.
+         */
+        fun toByteArray(): ByteArray {
+            val out = ByteArrayOutputStream(columns.sumOf { it.size() } + 64)
+            out.write(VERSION)
+            writeVarint(out, size.toLong())
+            writeVarint(out, providers.size.toLong())
+            for (provider in providers) {
+                val bytes = provider.toByteArray(Charsets.UTF_8)
+                writeVarint(out, bytes.size.toLong())
+                out.write(bytes)
+            }
+            for (column in columns) writeVarint(out, column.size().toLong())
+            for (column in columns) column.writeTo(out)
+            return out.toByteArray()
+        }
+
+        /**
+         * Clears the encoder so it can build the next chunk.
+         */
+        fun reset() {
+            columns.forEach { it.reset() }
+            providers.clear()
+            size = 0
+            firstTime = 0L
+            lastTime = 0L
+            minLatitude = Double.POSITIVE_INFINITY
+            maxLatitude = Double.NEGATIVE_INFINITY
+            minLongitude = Double.POSITIVE_INFINITY
+            maxLongitude = Double.NEGATIVE_INFINITY
+            previousDelta = 0L
+            previousLatitude = 0L
+            previousLongitude = 0L
+            previousAltitude = 0L
+            previousBearing = 0
+            previousId = 0L
+            previousTrip = 0
+        }
+
+        private fun writeSigned(column: Int, value: Long) = writeVarint(columns[column], (value shl 1) xor (value shr 63))
+
+        private fun writeUnsigned(column: Int, value: Long) = writeVarint(columns[column], value)
+    }
+
+    /**
+     * Decodes a chunk one fix at a time.
+     *
+     * Each column keeps its own read position, so stepping forward decodes one value per
+     * column straight into primitive properties; no per-fix objects are allocated.
+     *
+     * @param data An encoded chunk
+     * @throws IllegalArgumentException if the chunk was written by an unknown format version
+     */
+    class Reader(private val data: ByteArray) : TrackPointCursor {
+        /**
+         * Number of fixes in the chunk
+         */
+        val count: Int
+
+        private val providers: Array<String>
+        private val positions = IntArray(COLUMN_COUNT + 1)
+        private var index = -1
+
+        private var previousDelta = 0L
+        private var scaledLatitude = 0L
+        private var scaledLongitude = 0L
+        private var scaledAltitude = 0L
+        private var wholeBearing = 0
+
+        var id = 0L
+            private set
+        override var time = 0L
+            private set
+        override val latitude: Double
+            get() = scaledLatitude / COORDINATE_SCALE
+        override val longitude: Double
+            get() = scaledLongitude / COORDINATE_SCALE
+        override val altitude: Double
+            get() = scaledAltitude / TENTHS
+        override var speed = 0f
+            private set
+        override val bearing: Float
+            get() = wholeBearing.toFloat()
+        override var accuracy = 0f
+            private set
+        var tripNumber = 0
+            private set
+        var provider = ""
+            private set
+
+        init {
+            require(data.isNotEmpty() && data[0].toInt() == VERSION) { "Unsupported fix chunk version" }
+            positions[HEADER] = 1
+            count = readVarint(HEADER).toInt()
+            providers = Array(readVarint(HEADER).toInt()) {
+                val length = readVarint(HEADER).toInt()
+                val start = positions[HEADER]
+                positions[HEADER] = start + length
+                String(data, start, length, Charsets.UTF_8)
+            }
+            val lengths = IntArray(COLUMN_COUNT) { readVarint(HEADER).toInt() }
+            var start = positions[HEADER]
+            for (column in 0 until COLUMN_COUNT) {
+                positions[column] = start
+                start += lengths[column]
+            }
+        }
+
+        override fun moveToNext(): Boolean {
+            if (index + 1 >= count) return false
+            index++
+
+            when (index) {
+                0 -> time = readSigned(COL_TIME)
+                1 -> {
+                    previousDelta = readSigned(COL_TIME)
+                    time += previousDelta
+                }
+                else -> {
+                    previousDelta += readSigned(COL_TIME)
+                    time += previousDelta
+                }
+            }
+            scaledLatitude += readSigned(COL_LATITUDE)
+            scaledLongitude += readSigned(COL_LONGITUDE)
+            scaledAltitude += readSigned(COL_ALTITUDE)
+            speed = (readVarint(COL_SPEED) / TENTHS).toFloat()
+            wholeBearing = Math.floorMod(wholeBearing + readSigned(COL_BEARING).toInt(), 360)
+            accuracy = (readVarint(COL_ACCURACY) / TENTHS).toFloat()
+            id += readSigned(COL_ID)
+            tripNumber += readSigned(COL_TRIP).toInt()
+            provider = providers[readVarint(COL_PROVIDER).toInt()]
+            return true
+        }
+
+        private fun readSigned(column: Int): Long {
+            val value = readVarint(column)
+            return (value ushr 1) xor -(value and 1)
+        }
+
+        private fun readVarint(column: Int): Long {
+            var position = positions[column]
+            var result = 0L
+            var shift = 0
+            while (true) {
+                val byte = data[position++].toInt()
+                result = result or ((byte and 0x7F).toLong() shl shift)
+                if (byte and 0x80 == 0) break
+                shift += 7
+            }
+            positions[column] = position
+            return result
+        }
+
+        private companion object {
+            /**
+             * Read position slot used while parsing the header
+             */
+            const val HEADER = COLUMN_COUNT
+        }
+    }
+
+    private fun writeVarint(out: ByteArrayOutputStream, value: Long) {
+        var remaining = value
+        while (remaining and 0x7FL.inv() != 0L) {
+            out.write(((remaining and 0x7F) or 0x80).toInt())
+            remaining = remaining ushr 7
+        }
+        out.write(remaining.toInt())
+    }
+}
@@ -0,0 +1,266 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/local/TrackDatabase.kt
+package com.websmithing.gpstracker2.data.local
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import timber.log.Timber
+
+/**
+ * SQLite database holding the on-device track history.
+ *
+ * Schema:
+ * - `fixes`: one row per recorded fix, indexed by session + time, by time alone
+ *   (for "where was I at ..." lookups), by [com.websmithing.gpstracker2.util.GeoCell]
+ *   ID (for bounding-box queries) and, partially, by pending upload state; each fix
+ *   carries the number of the trip it belongs to within its session and the distance
+ *   the session had covered when it was recorded
+ * - `sessions`: one row per tracking session with incrementally maintained summary
+ *   values and [com.websmithing.gpstracker2.data.repository.SessionStats], so summaries
+ *   never require a scan of the session's fixes
+ * - `fix_chunks`: fixes of finished, fully uploaded sessions packed into [FixChunk]s,
+ *   indexed by session + time and by time; each chunk records its time range and
+ *   bounding box so queries only decode chunks that can match
+ *
+ * The database uses incremental auto-vacuum so space freed by retention can be returned
+ * to the file system without a full `VACUUM`.
+ *
+ * @param context The application context
+ */
+class TrackDatabase(context: Context) : SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
+
+    /**
+     * Enables write-ahead logging so the UI can read while the service writes
+     */
+    override fun onConfigure(db: SQLiteDatabase) {
+        super.onConfigure(db)
+        db.enableWriteAheadLogging()
+    }
+
+    /**
+     * Creates the schema for a fresh install.
+     *
+     * @param db The database being created
+     */
+    override fun onCreate(db: SQLiteDatabase) {
+        // Must run before any table exists to take effect
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+
+        db.execSQL(
+            """
+            CREATE TABLE $TABLE_FIXES (
+                $COL_ID INTEGER PRIMARY KEY AUTOINCREMENT,
+                $COL_SESSION_ID TEXT NOT NULL,
+                $COL_TIME INTEGER NOT NULL,
+                $COL_LATITUDE REAL NOT NULL,
+                $COL_LONGITUDE REAL NOT NULL,
+                $COL_ALTITUDE REAL NOT NULL DEFAULT 0,
+                $COL_SPEED REAL NOT NULL DEFAULT 0,
+                $COL_BEARING REAL NOT NULL DEFAULT 0,
+                $COL_ACCURACY REAL NOT NULL DEFAULT 0,
+                $COL_PROVIDER TEXT NOT NULL DEFAULT '',
+                $COL_CELL INTEGER NOT NULL,
+                $COL_UPLOADED INTEGER NOT NULL DEFAULT 0,
+                $COL_FIX_ID TEXT
+            )
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX idx_fixes_session_time ON $TABLE_FIXES ($COL_SESSION_ID, $COL_TIME)")
+        db.execSQL("CREATE INDEX idx_fixes_time ON $TABLE_FIXES ($COL_TIME)")
+        db.execSQL("CREATE INDEX idx_fixes_cell ON $TABLE_FIXES ($COL_CELL)")
+        createPendingIndex(db)
+
+        db.execSQL(
+            """
+            CREATE TABLE $TABLE_SESSIONS (
+                $COL_SESSION_ID TEXT PRIMARY KEY,
+                $COL_STARTED_AT INTEGER NOT NULL,
+                $COL_ENDED_AT INTEGER NOT NULL,
+                $COL_FIX_COUNT INTEGER NOT NULL DEFAULT 0,
+                $COL_DISTANCE REAL NOT NULL DEFAULT 0,
+                $COL_MAX_SPEED REAL NOT NULL DEFAULT 0,
+                $COL_MIN_LATITUDE REAL NOT NULL,
+                $COL_MAX_LATITUDE REAL NOT NULL,
+                $COL_MIN_LONGITUDE REAL NOT NULL,
+                $COL_MAX_LONGITUDE REAL NOT NULL,
+                $COL_LAST_LATITUDE REAL NOT NULL,
+                $COL_LAST_LONGITUDE REAL NOT NULL
+            )
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX idx_sessions_ended_at ON $TABLE_SESSIONS ($COL_ENDED_AT)")
+        addSessionStatsColumns(db)
+        addTripColumns(db)
+        createChunkTable(db)
+        addFixDistanceColumn(db)
+        Timber.d("Track database created.")
+    }
+
+    /**
+     * Upgrades the schema between versions.
+     *
+     * @param db The database being upgraded
+     * @param oldVersion The version on disk
+     * @param newVersion The version expected by this build
+     */
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        Timber.i("Upgrading track database from $oldVersion to $newVersion")
+        if (oldVersion < 2) {
+            // Version 2: client-generated fix IDs for idempotent uploads
+            db.execSQL("ALTER TABLE $TABLE_FIXES ADD COLUMN $COL_FIX_ID TEXT")
+        }
+        if (oldVersion < 3) {
+            // Version 3: partial index feeding the backfill upload lane
+            createPendingIndex(db)
+        }
+        if (oldVersion < 4) {
+            // Version 4: session statistics (moving time, stops, elevation gain)
+            addSessionStatsColumns(db)
+        }
+        if (oldVersion < 5) {
+            // Version 5: trip segmentation at long stops
+            addTripColumns(db)
+        }
+        if (oldVersion < 6) {
+            // Version 6: compressed chunks for the uploaded history
+            createChunkTable(db)
+        }
+        if (oldVersion < 7) {
+            // Version 7: session distance with every fix, for backfilled uploads
+            addFixDistanceColumn(db)
+        }
+    }
+
+    /**
+     * Indexes only fixes still waiting for upload, so the backfill lane finds them without
+     * scanning the (much larger) uploaded history
+     */
+    private fun createPendingIndex(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX idx_fixes_pending ON $TABLE_FIXES ($COL_ID) WHERE $COL_UPLOADED = 0")
+    }
+
+    /**
+     * Adds the columns holding a session's [com.websmithing.gpstracker2.data.repository.SessionStats];
+     * sessions recorded before version 4 keep empty statistics
+     */
+    private fun addSessionStatsColumns(db: SQLiteDatabase) {
+        for (column in listOf(
+            "$COL_MOVING_DISTANCE REAL NOT NULL DEFAULT 0",
+            "$COL_MOVING_MILLIS INTEGER NOT NULL DEFAULT 0",
+            "$COL_STOPPED_MILLIS INTEGER NOT NULL DEFAULT 0",
+            "$COL_ELEVATION_GAIN REAL NOT NULL DEFAULT 0",
+            "$COL_STOP_COUNT INTEGER NOT NULL DEFAULT 0",
+            "$COL_STATS_MAX_SPEED REAL NOT NULL DEFAULT 0",
+            "$COL_LAST_FIX_TIME INTEGER NOT NULL DEFAULT 0",
+            "$COL_STOPPED_SINCE INTEGER NOT NULL DEFAULT 0",
+            "$COL_ALTITUDE_BASELINE REAL"
+        )) {
+            db.execSQL("ALTER TABLE $TABLE_SESSIONS ADD COLUMN $column")
+        }
+    }
+
+    /**
+     * Adds each fix's trip number and the trip segmentation state of a session; fixes
+     * recorded before version 5 belong to trip 1
+     */
+    private fun addTripColumns(db: SQLiteDatabase) {
+        db.execSQL("ALTER TABLE $TABLE_FIXES ADD COLUMN $COL_TRIP INTEGER NOT NULL DEFAULT 1")
+        for (column in listOf(
+            "$COL_TRIP_NUMBER INTEGER NOT NULL DEFAULT 1",
+            "$COL_TRIP_ANCHOR_LATITUDE REAL",
+            "$COL_TRIP_ANCHOR_LONGITUDE REAL",
+            "$COL_TRIP_ANCHOR_TIME INTEGER NOT NULL DEFAULT 0",
+            "$COL_TRIP_DWELLING INTEGER NOT NULL DEFAULT 0"
+        )) {
+            db.execSQL("ALTER TABLE $TABLE_SESSIONS ADD COLUMN $column")
+        }
+    }
+
+    /**
+     * Adds the session distance recorded with each fix; fixes recorded before version 7
+     * report 0
+     */
+    private fun addFixDistanceColumn(db: SQLiteDatabase) {
+        db.execSQL("ALTER TABLE $TABLE_FIXES ADD COLUMN $COL_DISTANCE REAL NOT NULL DEFAULT 0")
+    }
+
+    /**
+     * Creates the table holding packed runs of fixes, see [FixChunk]
+     */
+    private fun createChunkTable(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE $TABLE_CHUNKS (
+                $COL_ID INTEGER PRIMARY KEY AUTOINCREMENT,
+                $COL_SESSION_ID TEXT NOT NULL,
+                $COL_FIRST_TIME INTEGER NOT NULL,
+                $COL_LAST_TIME INTEGER NOT NULL,
+                $COL_FIX_COUNT INTEGER NOT NULL,
+                $COL_MIN_LATITUDE REAL NOT NULL,
+                $COL_MAX_LATITUDE REAL NOT NULL,
+                $COL_MIN_LONGITUDE REAL NOT NULL,
+                $COL_MAX_LONGITUDE REAL NOT NULL,
+                $COL_DATA BLOB NOT NULL
+            )
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX idx_chunks_session_time ON $TABLE_CHUNKS ($COL_SESSION_ID, $COL_FIRST_TIME)")
+        db.execSQL("CREATE INDEX idx_chunks_time ON $TABLE_CHUNKS ($COL_FIRST_TIME)")
+    }
+
+    /**
+     * Table and column names
+     */
+    companion object {
+        const val DATABASE_NAME = "track_history.db"
+        const val DATABASE_VERSION = 7
+
+        const val TABLE_FIXES = "fixes"
+        const val TABLE_SESSIONS = "sessions"
+        const val TABLE_CHUNKS = "fix_chunks"
+
+        const val COL_ID = "id"
+        const val COL_SESSION_ID = "session_id"
+        const val COL_TIME = "time"
+        const val COL_LATITUDE = "latitude"
+        const val COL_LONGITUDE = "longitude"
+        const val COL_ALTITUDE = "altitude"
+        const val COL_SPEED = "speed"
+        const val COL_BEARING = "bearing"
+        const val COL_ACCURACY = "accuracy"
+        const val COL_PROVIDER = "provider"
+        const val COL_CELL = "cell"
+        const val COL_UPLOADED = "uploaded"
+        const val COL_FIX_ID = "fix_id"
+        const val COL_TRIP = "trip"
+
+        const val COL_STARTED_AT = "started_at"
+        const val COL_ENDED_AT = "ended_at"
+        const val COL_FIX_COUNT = "fix_count"
+        const val COL_DISTANCE = "distance_meters"
+        const val COL_MAX_SPEED = "max_speed"
+        const val COL_MIN_LATITUDE = "min_latitude"
+        const val COL_MAX_LATITUDE = "max_latitude"
+        const val COL_MIN_LONGITUDE = "min_longitude"
+        const val COL_MAX_LONGITUDE = "max_longitude"
+        const val COL_LAST_LATITUDE = "last_latitude"
+        const val COL_LAST_LONGITUDE = "last_longitude"
+        const val COL_MOVING_DISTANCE = "moving_distance_meters"
+        const val COL_MOVING_MILLIS = "moving_ms"
+        const val COL_STOPPED_MILLIS = "stopped_ms"
+        const val COL_ELEVATION_GAIN = "elevation_gain_meters"
+        const val COL_STOP_COUNT = "stop_count"
+        const val COL_STATS_MAX_SPEED = "stats_max_speed"
+        const val COL_LAST_FIX_TIME = "stats_last_fix_time"
+        const val COL_STOPPED_SINCE = "stats_stopped_since"
+        const val COL_ALTITUDE_BASELINE = "stats_altitude_baseline"
+        const val COL_TRIP_NUMBER = "trip_number"
+        const val COL_TRIP_ANCHOR_LATITUDE = "trip_anchor_latitude"
+        const val COL_TRIP_ANCHOR_LONGITUDE = "trip_anchor_longitude"
+        const val COL_TRIP_ANCHOR_TIME = "trip_anchor_time"
+        const val COL_TRIP_DWELLING = "trip_dwelling"
+        const val COL_FIRST_TIME = "first_time"
+        const val COL_LAST_TIME = "last_time"
+        const val COL_DATA = "data"
+    }
+}
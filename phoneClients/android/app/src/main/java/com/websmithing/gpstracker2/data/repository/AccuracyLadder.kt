@@ -0,0 +1,109 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/repository/AccuracyLadder.kt
+package com.websmithing.gpstracker2.data.repository
+
+import android.location.Location
+import com.google.android.gms.location.Priority
+import timber.log.Timber
+
+/**
+ * Fix acquisition strategy that only powers up GPS when cheaper sources are not good enough.
+ *
+ * Each rung is tried in turn and the first fix meeting [Config.targetAccuracyMeters] wins:
+ * 1. The last known location, if it is at most [Config.maxLastKnownAgeMillis] old; free and instant
+ * 2. A balanced (Wi-Fi and cell) fix within [Config.balancedTimeoutMillis]
+ * 3. A high-accuracy (GNSS) fix within [Config.highAccuracyTimeoutMillis]
+ *
+ * If no rung meets the target, the most accurate fresh fix obtained is returned, so a
+ * slow GPS lock still yields a position. A stale last known location is never returned.
+ *
+ * @param source Where fixes come from
+ * @param config Accuracy target and deadlines
+ * @param clock Wall-clock time source in epoch milliseconds, compared with [Location.getTime]
+ */
+class AccuracyLadder(
+    private val source: FixSource,
+    private val config: Config = Config(),
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    /**
+     * Provider of the fixes the ladder chooses from
+     */
+    interface FixSource {
+        /**
+         * The last location known to the provider, without powering anything up
+         *
+         * @return The last known location, or null if there is none
+         */
+        suspend fun lastKnown(): Location?
+
+        /**
+         * A fresh fix at the given priority
+         *
+         * @param priority Location request priority
+         * @param timeoutMillis Longest time to wait for the fix
+         * @return The fix, or null if none arrived in time
+         */
+        suspend fun current(priority: Int, timeoutMillis: Long): Location?
+    }
+
+    /**
+     * Accuracy target and deadlines of the ladder
+     *
+     * @property targetAccuracyMeters Horizontal accuracy that ends the climb
+     * @property maxLastKnownAgeMillis Oldest last known location that may be used
+     * @property balancedTimeoutMillis Deadline for the balanced fix
+     * @property highAccuracyTimeoutMillis Deadline for the high-accuracy fix
+     */
+    data class Config(
+        val targetAccuracyMeters: Float = 50f,
+        val maxLastKnownAgeMillis: Long = 60_000L,
+        val balancedTimeoutMillis: Long = 5_000L,
+        val highAccuracyTimeoutMillis: Long = 30_000L
+    )
+
+    /**
+     * Climbs the ladder until a fix meets the accuracy target.
+     *
+     * @return The first fix meeting the target, else the most accurate fresh fix, else null
+     */
+    suspend fun acquire(): Location? {
+        var best: Location? = null
+
+        val lastKnown = source.lastKnown()?.takeIf { clock() - it.time <= config.maxLastKnownAgeMillis }
+        if (lastKnown != null) {
+            if (meetsTarget(lastKnown)) {
+                Timber.d("AccuracyLadder: Using last known location (${lastKnown.accuracy} m)")
+                return lastKnown
+            }
+            best = lastKnown
+        }
+
+        val balanced = source.current(Priority.PRIORITY_BALANCED_POWER_ACCURACY, config.balancedTimeoutMillis)
+        if (balanced != null) {
+            if (meetsTarget(balanced)) {
+                Timber.d("AccuracyLadder: Using balanced fix (${balanced.accuracy} m)")
+                return balanced
+            }
+            best = moreAccurate(best, balanced)
+        }
+
+        Timber.d("AccuracyLadder: Escalating to high accuracy")
+        val high = source.current(Priority.PRIORITY_HIGH_ACCURACY, config.highAccuracyTimeoutMillis)
+        return moreAccurate(best, high)
+    }
+
+    private fun meetsTarget(location: Location): Boolean =
+        location.hasAccuracy() && location.accuracy <= config.targetAccuracyMeters
+
+    /**
+     * The more accurate of two fixes; the later one wins ties and unknown accuracy loses
+     */
+    private fun moreAccurate(earlier: Location?, later: Location?): Location? {
+        if (earlier == null) return later
+        if (later == null) return earlier
+        if (!later.hasAccuracy()) return if (earlier.hasAccuracy()) earlier else later
+        if (!earlier.hasAccuracy()) return later
+        return if (later.accuracy <= earlier.accuracy) later else earlier
+    }
+}
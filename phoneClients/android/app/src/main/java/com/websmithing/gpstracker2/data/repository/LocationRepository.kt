@@ -2,7 +2,10 @@
 package com.websmithing.gpstracker2.data.repository
 
 import android.location.Location
+import com.websmithing.gpstracker2.network.UploadHints
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import java.io.File
 
 /**
  * Represents the status of a location upload attempt.
@@ -36,8 +39,9 @@ sealed class UploadStatus {
  *
  * This interface defines the contract for location-related operations:
  * - Retrieving and observing location data
- * - Tracking distance traveled
+ * - Tracking distance traveled and per-session statistics
  * - Uploading location data to a remote server
+ * - Tracking the server's upload rate hints
  * - Managing location state for calculations
  */
 interface LocationRepository {
@@ -54,19 +58,44 @@ interface LocationRepository {
      */
     val totalDistance: Flow<Float>
 
+    /**
+     * Running statistics of the current session, updated with every saved fix.
+     */
+    val sessionStats: StateFlow<SessionStats>
+
     /**
      * A flow emitting the status of the last location upload attempt.
      */
     val lastUploadStatus: Flow<UploadStatus>
 
+    /**
+     * The rate hints from the most recent server response.
+     *
+     * Starts as [UploadHints.NONE] and is updated by every upload, successful or not.
+     */
+    val uploadHints: StateFlow<UploadHints>
+
     /**
      * Fetches the current device location synchronously.
+     *
+     * Uses the cheapest source that meets the accuracy target: a fresh last known location,
+     * then a balanced fix, and only then GPS, each within a deadline.
      * 
      * @return The current location or null if location could not be determined
      * @throws SecurityException if location permissions are not granted
      */
     suspend fun getCurrentLocation(): Location?
 
+    /**
+     * Sets the server URL uploads go to, in place of the one stored in settings.
+     *
+     * The tracking service runs in its own process and receives the URL from the UI;
+     * see [com.websmithing.gpstracker2.service.TrackingSettings].
+     *
+     * @param websiteUrl The upload URL
+     */
+    fun setWebsiteUrl(websiteUrl: String)
+
     /**
      * Uploads the provided location data to the remote server.
      * 
@@ -75,6 +104,8 @@ interface LocationRepository {
      * @param appId Unique identifier for this device/installation
      * @param sessionId Unique identifier for this tracking session
      * @param eventType Type of tracking event (e.g., "start", "stop", "update")
+     * @param fixId Stable client-generated ID of this fix; retries must reuse it
+     * @param tripNumber Trip within the session the fix belongs to
      * @return true if upload was successful, false otherwise
      */
     suspend fun uploadLocationData(
@@ -82,7 +113,64 @@ interface LocationRepository {
         username: String,
         appId: String,
         sessionId: String,
-        eventType: String
+        eventType: String,
+        fixId: String,
+        tripNumber: Int = 1
+    ): Boolean
+
+    /**
+     * Uploads a batch of stored fixes in a single request.
+     *
+     * @param points The stored fixes to upload, oldest first
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @param compact Whether to send fewer fields and coarser coordinates, to save data
+     * @return true if the server accepted the batch, false otherwise
+     */
+    suspend fun uploadBatch(points: List<TrackPoint>, username: String, appId: String, compact: Boolean = false): Boolean
+
+    /**
+     * Uploads a bulk upload file, resuming at the offset the server has committed.
+     *
+     * @param file A gzip-compressed NDJSON file written by [com.websmithing.gpstracker2.network.LocationBatchEncoder.writeNdjsonGzip]
+     * @param uploadId ID of the upload, unique per device and stable across attempts
+     * @param appId Unique identifier for this device/installation
+     * @return true once the server has stored the whole file; false if the upload was
+     *   interrupted (call again to resume) or the server has no bulk endpoint
+     */
+    suspend fun uploadBulk(file: File, uploadId: String, appId: String): Boolean
+
+    /**
+     * Uploads the summary of a session, so the server does not have to compute it from
+     * the session's fixes.
+     *
+     * @param summary The session summary to upload
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @return true if the server stored the summary, false otherwise
+     */
+    suspend fun uploadSessionSummary(summary: SessionSummary, username: String, appId: String): Boolean
+
+    /**
+     * Tells the server the device is still there without uploading a fix.
+     *
+     * Sent instead of a fix while the position is unchanged; the server records it as
+     * "last seen" on the device rather than as a new location.
+     *
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @param sessionId Unique identifier for this tracking session
+     * @param timeMillis Time of the fix the heartbeat stands in for, in epoch milliseconds
+     * @param batteryPercent Battery level in percent, or null if unknown
+     * @return true if the server recorded the heartbeat; false if it failed or the server
+     *   has no heartbeat endpoint, and the fix should be uploaded instead
+     */
+    suspend fun sendHeartbeat(
+        username: String,
+        appId: String,
+        sessionId: String,
+        timeMillis: Long,
+        batteryPercent: Int?
     ): Boolean
 
     /**
@@ -94,17 +182,25 @@ interface LocationRepository {
 
     /**
      * Saves the current location as the "previous" location for the next calculation.
-     * Also updates the total distance calculation based on this new location.
+     * Also updates the total distance and the session statistics based on this new location.
      * 
      * @param location The location to save as the current location
      */
     suspend fun saveAsPreviousLocation(location: Location)
 
+    /**
+     * Continues the session statistics from a stored value, e.g. after the process was
+     * restarted in the middle of a session.
+     *
+     * @param stats The statistics stored with the session
+     */
+    suspend fun restoreSessionStats(stats: SessionStats)
+
     /**
      * Resets the location state for a new tracking session.
      * 
-     * Clears the previous location, resets the total distance to zero,
-     * and resets the upload status to Idle.
+     * Clears the previous location, resets the total distance and the session statistics
+     * to zero, and resets the upload status to Idle.
      */
     suspend fun resetLocationState()
 }
\ No newline at end of file
@@ -5,14 +5,24 @@ import android.annotation.SuppressLint
 import android.content.Context
 import android.content.SharedPreferences
 import android.location.Location
+import com.google.android.gms.location.CurrentLocationRequest
 import com.google.android.gms.location.FusedLocationProviderClient
-import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
-import okhttp3.OkHttpClient
+import com.google.android.gms.tasks.CancellationTokenSource
+import com.google.android.gms.tasks.Task
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
 import retrofit2.Retrofit
 import timber.log.Timber
 import com.google.android.gms.location.Priority
 import com.websmithing.gpstracker2.network.ApiService
+import com.websmithing.gpstracker2.network.BulkUpload
+import com.websmithing.gpstracker2.network.LocationBatchEncoder
+import com.websmithing.gpstracker2.network.LocationFormEncoder
+import com.websmithing.gpstracker2.network.ServerUrls
+import com.websmithing.gpstracker2.network.UploadHints
+import com.websmithing.gpstracker2.util.GeoCell
 import com.websmithing.gpstracker2.util.PermissionChecker
+import dagger.Lazy
 import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
@@ -22,28 +32,28 @@ import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.withContext
-import java.net.URLEncoder
-import java.text.SimpleDateFormat
-import java.util.*
+import java.io.File
+import java.io.RandomAccessFile
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
 import kotlin.math.roundToInt
 
 /**
  * Implementation of the [LocationRepository] interface.
  *
  * This class handles:
- * - Retrieving location from Google Play Services
- * - Calculating distance traveled
+ * - Retrieving location from Google Play Services, through the [AccuracyLadder]
+ * - Calculating distance traveled and folding every fix into the [SessionStats]
  * - Persisting location state between app sessions
  * - Formatting and uploading location data to a remote server
+ * - Publishing the server's upload rate hints
  * - Managing StateFlows for real-time UI updates
  *
  * It uses:
  * - [FusedLocationProviderClient] for location data
- * - Retrofit/OkHttp for network communication
+ * - Retrofit/OkHttp for network communication, created on the first upload rather than
+ *   when the repository is injected, so app and service start pay nothing for them
  * - SharedPreferences for local state persistence
  * - Coroutines for asynchronous operations
  * - StateFlows for reactive data updates
@@ -52,8 +62,7 @@ import kotlin.math.roundToInt
 class LocationRepositoryImpl @Inject constructor(
     @ApplicationContext private val appContext: Context,
     private val fusedLocationClient: FusedLocationProviderClient,
-    private val okHttpClient: OkHttpClient,
-    private val retrofitBuilder: Retrofit.Builder,
+    private val retrofitBuilder: Lazy<Retrofit.Builder>,
     private val settingsRepository: SettingsRepository,
     private val permissionChecker: PermissionChecker
 ) : LocationRepository {
@@ -65,6 +74,18 @@ class LocationRepositoryImpl @Inject constructor(
     private val sharedPreferences: SharedPreferences =
         appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
 
+    /**
+     * API service for the most recently used base URL, built on first use
+     */
+    @Volatile
+    private var cachedApiService: Pair<String, ApiService>? = null
+
+    /**
+     * Upload URL set by the tracking service, or null to use the one in settings
+     */
+    @Volatile
+    private var websiteUrl: String? = null
+
     // --- State Flows ---
     /**
      * Internal mutable state flow for the latest location
@@ -86,6 +107,16 @@ class LocationRepositoryImpl @Inject constructor(
      */
     override val totalDistance: StateFlow<Float> = _totalDistance.asStateFlow()
 
+    /**
+     * Internal mutable state flow for the session statistics
+     */
+    private val _sessionStats = MutableStateFlow(SessionStats())
+
+    /**
+     * Publicly exposed immutable state flow of the session statistics
+     */
+    override val sessionStats: StateFlow<SessionStats> = _sessionStats.asStateFlow()
+
     /**
      * Internal mutable state flow for the upload status
      */
@@ -96,6 +127,39 @@ class LocationRepositoryImpl @Inject constructor(
      */
     override val lastUploadStatus: StateFlow<UploadStatus> = _lastUploadStatus.asStateFlow()
 
+    /**
+     * Internal mutable state flow for the server's upload hints
+     */
+    private val _uploadHints = MutableStateFlow(UploadHints.NONE)
+
+    /**
+     * Publicly exposed immutable state flow of the server's upload hints
+     */
+    override val uploadHints: StateFlow<UploadHints> = _uploadHints.asStateFlow()
+
+    /**
+     * The fused location provider as the accuracy ladder's fix source
+     */
+    private val fixSource = object : AccuracyLadder.FixSource {
+        @SuppressLint("MissingPermission")
+        override suspend fun lastKnown(): Location? = fusedLocationClient.lastLocation.awaitLocation(null)
+
+        @SuppressLint("MissingPermission")
+        override suspend fun current(priority: Int, timeoutMillis: Long): Location? {
+            val request = CurrentLocationRequest.Builder()
+                .setPriority(priority)
+                .setDurationMillis(timeoutMillis)
+                .build()
+            val cancellation = CancellationTokenSource()
+            return fusedLocationClient.getCurrentLocation(request, cancellation.token).awaitLocation(cancellation)
+        }
+    }
+
+    /**
+     * Strategy used by [getCurrentLocation]
+     */
+    private val accuracyLadder = AccuracyLadder(fixSource)
+
     /**
      * Initializes the repository with fresh state.
      * 
@@ -109,42 +173,62 @@ class LocationRepositoryImpl @Inject constructor(
     /**
      * Gets the current device location using the FusedLocationProviderClient.
      *
-     * This method uses a suspendCancellableCoroutine to convert the callback-based
-     * FusedLocationProviderClient API into a coroutine-compatible suspending function.
+     * Climbs the [AccuracyLadder]: a fresh last known location, then a balanced fix, and
+     * a high-accuracy fix only if neither meets the accuracy target in time. Every rung
+     * has a deadline, so this never waits indefinitely.
      *
      * @return The current location, or null if location could not be determined
      * @throws SecurityException If location permissions are not granted
      */
-    @SuppressLint("MissingPermission")
     override suspend fun getCurrentLocation(): Location? = withContext(Dispatchers.IO) {
         if (!permissionChecker.hasLocationPermission()) {
             Timber.e("Attempted to get location without permission")
             throw SecurityException("Location permission not granted.")
         }
 
+        Timber.d("Requesting current location...")
+        accuracyLadder.acquire()
+    }
+
+    /**
+     * Sets the server URL uploads go to; the next upload builds its API service for it.
+     *
+     * @param websiteUrl The upload URL
+     */
+    override fun setWebsiteUrl(websiteUrl: String) {
+        this.websiteUrl = websiteUrl
+    }
+
+    /**
+     * Suspends until a location task completes.
+     *
+     * Failures are logged and yield null, so one failing rung of the ladder does not
+     * prevent the next one from being tried.
+     *
+     * @param cancellation Cancels the underlying request if the coroutine is cancelled
+     * @return The task's location, or null if it had none, failed or was cancelled
+     */
+    private suspend fun Task<Location>.awaitLocation(cancellation: CancellationTokenSource?): Location? =
         suspendCancellableCoroutine { continuation ->
-            Timber.d("Requesting current location...")
-            fusedLocationClient.getCurrentLocation(Priority.PRIORITY_BALANCED_POWER_ACCURACY, null)
-                .addOnSuccessListener { location: Location? ->
-                    if (continuation.isActive) continuation.resume(location)
-                }
-                .addOnFailureListener { e ->
-                    Timber.e(e, "Location failure")
-                    if (continuation.isActive) continuation.resumeWithException(e)
-                }
-                .addOnCanceledListener {
-                    Timber.d("Location request cancelled")
-                    if (continuation.isActive) continuation.cancel()
-                }
-            continuation.invokeOnCancellation { /* Optional: Cancel location request */ }
+            addOnSuccessListener { location: Location? ->
+                if (continuation.isActive) continuation.resume(location)
+            }
+            addOnFailureListener { e ->
+                Timber.e(e, "Location failure")
+                if (continuation.isActive) continuation.resume(null)
+            }
+            addOnCanceledListener {
+                Timber.d("Location request cancelled")
+                if (continuation.isActive) continuation.resume(null)
+            }
+            continuation.invokeOnCancellation { cancellation?.cancel() }
         }
-    }
 
     /**
      * Uploads location data to a remote server.
      *
      * This method:
-     * 1. Formats and encodes location data
+     * 1. Encodes location data into a form body (see [encodeLocationBody])
      * 2. Determines the correct server URL (with fallbacks)
      * 3. Creates a dynamic Retrofit service with the target URL
      * 4. Makes the network request
@@ -155,6 +239,8 @@ class LocationRepositoryImpl @Inject constructor(
      * @param appId Unique identifier for this device/installation
      * @param sessionId Unique identifier for this tracking session
      * @param eventType Type of tracking event (e.g., "start", "stop", "update")
+     * @param fixId Stable client-generated ID of this fix; retries must reuse it
+     * @param tripNumber Trip within the session the fix belongs to
      * @return true if upload was successful, false otherwise
      */
     override suspend fun uploadLocationData(
@@ -162,103 +248,25 @@ class LocationRepositoryImpl @Inject constructor(
         username: String,
         appId: String,
         sessionId: String,
-        eventType: String
+        eventType: String,
+        fixId: String,
+        tripNumber: Int
     ): Boolean = withContext(Dispatchers.IO) {
         var success = false
         var errorMessage: String? = null
         try {
             Timber.tag(TAG).i("REPO-CRITICAL: Starting location upload process")
             
-            // Format and encode data
-            val formattedDate = SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).apply {
-                timeZone = TimeZone.getDefault()
-            }.format(Date(location.time))
-            val encodedDate = try { URLEncoder.encode(formattedDate, "UTF-8") } catch (e: Exception) { formattedDate }
-            val encodedMethod = try { URLEncoder.encode(location.provider ?: "unknown", "UTF-8") } catch (e: Exception) { location.provider ?: "unknown" }
-
-            // Prepare numeric data
-            val speedMph = (location.speed * 2.2369).roundToInt()
-            val accuracyMeters = location.accuracy.roundToInt()
-            val altitudeMeters = location.altitude.roundToInt()
-            val direction = location.bearing.roundToInt()
-            val currentTotalDistanceMeters = _totalDistance.value
-            val totalDistanceMiles = currentTotalDistanceMeters / 1609.34f // Convert meters to miles for API
-            
-            // Get server URL
-            var targetUrl = settingsRepository.getCurrentWebsiteUrl()
-            Timber.tag(TAG).i("REPO-CRITICAL: Got URL from settings: $targetUrl")
-            if (targetUrl.isBlank()) {
-                 Timber.tag(TAG).e("Website URL is blank. Using default URL.")
-                 targetUrl = "https://www.websmithing.com/gpstracker/api/locations/update"
-            }
-            
-            // Ensure URL is properly formatted
-            if (!targetUrl.startsWith("http://") && !targetUrl.startsWith("https://")) {
-                targetUrl = "https://" + targetUrl
-                Timber.tag(TAG).d("Added https:// to URL: $targetUrl")
-            }
-            
-            // Ensure URL has the correct endpoint
-            if (!targetUrl.contains("/update") && !targetUrl.contains("/api/")) {
-                if (targetUrl.endsWith("/")) {
-                    targetUrl += "gpstracker/api/locations/update"
-                } else {
-                    targetUrl += "/gpstracker/api/locations/update"
-                }
-                Timber.tag(TAG).d("Appended default endpoint: $targetUrl")
-            }
+            // Encode the form body once, directly into this thread's reusable buffer
+            val body = encodeLocationBody(location, username, appId, sessionId, eventType, fixId, tripNumber)
 
-            // Parse URL for Retrofit
-            val httpUrl = targetUrl.toHttpUrlOrNull()
-            if (httpUrl == null) {
-                Timber.tag(TAG).e("Invalid URL format after processing: $targetUrl")
-                return@withContext false
-            }
-            
-            // Build base URL
-            val pathSegments = httpUrl.pathSegments.filter { it.isNotEmpty() }
-            val baseUrl: String
-            
-            if (pathSegments.size <= 1) {
-                val tempUrl = httpUrl.newBuilder().query(null).fragment(null).build().toString()
-                baseUrl = if (tempUrl.endsWith("/")) tempUrl else "$tempUrl/"
-            } else {
-                val basePath = "/" + pathSegments.dropLast(1).joinToString("/") + "/"
-                baseUrl = httpUrl.newBuilder()
-                    .encodedPath(basePath)
-                    .query(null)
-                    .fragment(null)
-                    .build()
-                    .toString()
-            }
-            
-            // Ensure baseUrl ends with a slash
-            val finalBaseUrl = if (!baseUrl.endsWith("/")) "$baseUrl/" else baseUrl
-            Timber.tag(TAG).d("Using base URL: $finalBaseUrl")
-
-            // Create API service
-            val dynamicApiService = retrofitBuilder
-                .baseUrl(finalBaseUrl)
-                .build()
-                .create(ApiService::class.java)
+            // Create API service for the configured server
+            val dynamicApiService = createApiService() ?: return@withContext false
 
             // Make API call with error handling
             val response = try {
                 Timber.tag(TAG).i("REPO-CRITICAL: About to make API call with Retrofit")
-                dynamicApiService.updateLocation(
-                    latitude = location.latitude.toString(),
-                    longitude = location.longitude.toString(),
-                    speed = speedMph,
-                    direction = direction,
-                    date = encodedDate,
-                    locationMethod = encodedMethod,
-                    username = username,
-                    phoneNumber = appId,
-                    sessionId = sessionId,
-                    accuracy = accuracyMeters,
-                    extraInfo = altitudeMeters.toString(),
-                    eventType = eventType
-                )
+                dynamicApiService.updateLocation(body)
             } catch (e: Exception) {
                 Timber.tag(TAG).e(e, "REPO-CRITICAL: Exception during API call")
                 return@withContext false
@@ -268,6 +276,11 @@ class LocationRepositoryImpl @Inject constructor(
 
             // Process response
             val responseBody = response.body()
+            val errorBodyString = if (response.isSuccessful) null else {
+                try { response.errorBody()?.string() } catch (e: Exception) { "Error reading error body: ${e.message}" }
+            }
+            updateHints(responseBody ?: errorBodyString, response.headers()[HEADER_RETRY_AFTER])
+
             if (response.isSuccessful && responseBody != null && responseBody != "-1") {
                 Timber.tag(TAG).i("Upload successful. Server response: $responseBody")
                 success = true
@@ -275,10 +288,8 @@ class LocationRepositoryImpl @Inject constructor(
             } else {
                 // Log more details about the failure
                 val failureReason = when {
-                    !response.isSuccessful -> {
-                        val errorBodyString = try { response.errorBody()?.string() } catch (e: Exception) { "Error reading error body: ${e.message}" }
+                    !response.isSuccessful ->
                         "HTTP error. Code: ${response.code()}, Message: ${response.message()}, Body: $errorBodyString"
-                    }
                     responseBody == null -> "Response body was null."
                     responseBody == "-1" -> "Server returned error code: -1."
                     else -> "Unexpected successful response body: $responseBody"
@@ -299,6 +310,271 @@ class LocationRepositoryImpl @Inject constructor(
         return@withContext success
     }
 
+    /**
+     * Uploads a batch of stored fixes in one request.
+     *
+     * Used by the backfill lane to drain fixes that missed their live upload. The body is a
+     * JSON document produced by [LocationBatchEncoder]; every fix carries its original fix ID,
+     * so replaying a batch after a timeout cannot create duplicates on the server.
+     * Does not touch [lastUploadStatus], which reflects the live lane only.
+     *
+     * @param points The stored fixes to upload, oldest first
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @param compact Whether to use [LocationBatchEncoder]'s compact form
+     * @return true if the server accepted the batch, false otherwise
+     */
+    override suspend fun uploadBatch(
+        points: List<TrackPoint>,
+        username: String,
+        appId: String,
+        compact: Boolean
+    ): Boolean = withContext(Dispatchers.IO) {
+        if (points.isEmpty()) return@withContext true
+        try {
+            val apiService = createApiService() ?: return@withContext false
+            val response = apiService.uploadBatch(LocationBatchEncoder.encode(points, username, appId, compact))
+            val errorBodyString = if (response.isSuccessful) null else {
+                try { response.errorBody()?.string() } catch (e: Exception) { null }
+            }
+            updateHints(response.body() ?: errorBodyString, response.headers()[HEADER_RETRY_AFTER])
+            if (response.isSuccessful) {
+                Timber.tag(TAG).i("Batch of ${points.size} fixes accepted. Server response: ${response.body()}")
+                true
+            } else {
+                Timber.tag(TAG).w("Batch upload failed. Code: ${response.code()}, Message: ${response.message()}")
+                false
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "Exception during batch upload")
+            false
+        }
+    }
+
+    /**
+     * Uploads a bulk upload file in pieces of [BulkUpload.PIECE_BYTES].
+     *
+     * Starts by asking the server for its committed offset, so an upload interrupted by a
+     * dropped connection or a killed process continues where it stopped. A 409 answer
+     * carries the server's offset and is followed like any other status; the loop gives up
+     * when a request makes no progress. Publishes the upload hints of every response but
+     * does not touch [lastUploadStatus].
+     *
+     * @param file A gzip-compressed NDJSON file written by [LocationBatchEncoder.writeNdjsonGzip]
+     * @param uploadId ID of the upload, unique per device and stable across attempts
+     * @param appId Unique identifier for this device/installation
+     * @return true once the server has stored the whole file, false otherwise
+     */
+    override suspend fun uploadBulk(file: File, uploadId: String, appId: String): Boolean = withContext(Dispatchers.IO) {
+        try {
+            val apiService = createApiService() ?: return@withContext false
+            val statusResponse = apiService.getBulkUploadStatus(uploadId, appId)
+            var status = BulkUpload.parseStatus(statusResponse.body()) ?: run {
+                Timber.tag(TAG).w("Bulk upload unavailable. Code: ${statusResponse.code()}")
+                return@withContext false
+            }
+            val total = file.length()
+            val buffer = ByteArray(BulkUpload.PIECE_BYTES)
+
+            RandomAccessFile(file, "r").use { input ->
+                while (!status.complete) {
+                    if (status.offset > total) {
+                        Timber.tag(TAG).w("Server holds more of bulk upload $uploadId than the file; giving up")
+                        return@withContext false
+                    }
+                    val length = minOf(BulkUpload.PIECE_BYTES.toLong(), total - status.offset).toInt()
+                    input.seek(status.offset)
+                    input.readFully(buffer, 0, length)
+
+                    val response = apiService.appendBulkUpload(
+                        uploadId,
+                        appId,
+                        BulkUpload.contentRange(status.offset, length, total),
+                        buffer.toRequestBody(BulkUpload.GZIP_MEDIA_TYPE, 0, length)
+                    )
+                    val responseBody = response.body() ?: try { response.errorBody()?.string() } catch (e: Exception) { null }
+                    updateHints(responseBody, response.headers()[HEADER_RETRY_AFTER])
+                    val next = BulkUpload.parseStatus(responseBody)
+                    if (next == null || next == status || (!response.isSuccessful && response.code() != HTTP_CONFLICT)) {
+                        Timber.tag(TAG).w("Bulk upload $uploadId stopped at ${status.offset}/$total. Code: ${response.code()}")
+                        return@withContext false
+                    }
+                    status = next
+                }
+            }
+            Timber.tag(TAG).i("Bulk upload $uploadId of $total bytes complete")
+            true
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "Exception during bulk upload")
+            false
+        }
+    }
+
+    /**
+     * Uploads a session summary.
+     *
+     * Best effort: servers without the summary endpoint answer 404 and simply keep
+     * computing what they need from the fixes. Does not touch [lastUploadStatus] or the
+     * upload hints.
+     *
+     * @param summary The session summary to upload
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @return true if the server stored the summary, false otherwise
+     */
+    override suspend fun uploadSessionSummary(
+        summary: SessionSummary,
+        username: String,
+        appId: String
+    ): Boolean = withContext(Dispatchers.IO) {
+        try {
+            val apiService = createApiService() ?: return@withContext false
+            val response = apiService.uploadSessionSummary(LocationBatchEncoder.encodeSummary(summary, username, appId))
+            if (response.isSuccessful) {
+                Timber.tag(TAG).i("Summary of session ${summary.sessionId} stored.")
+                true
+            } else {
+                Timber.tag(TAG).w("Summary upload failed. Code: ${response.code()}, Message: ${response.message()}")
+                false
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "Exception during summary upload")
+            false
+        }
+    }
+
+    /**
+     * Sends a heartbeat as a form body of a handful of fields.
+     *
+     * Publishes the upload hints the server returns, like a fix upload, but does not touch
+     * [lastUploadStatus]: the fix it stands in for was not uploaded.
+     *
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @param sessionId Unique identifier for this tracking session
+     * @param timeMillis Time of the fix the heartbeat stands in for, in epoch milliseconds
+     * @param batteryPercent Battery level in percent, or null if unknown
+     * @return true if the server recorded the heartbeat, false otherwise
+     */
+    override suspend fun sendHeartbeat(
+        username: String,
+        appId: String,
+        sessionId: String,
+        timeMillis: Long,
+        batteryPercent: Int?
+    ): Boolean = withContext(Dispatchers.IO) {
+        try {
+            val apiService = createApiService() ?: return@withContext false
+            val encoder = LocationFormEncoder.forCurrentThread()
+                .add("username", username)
+                .add("phonenumber", appId)
+                .add("sessionid", sessionId)
+                .addIsoTimestamp("date", timeMillis)
+            if (batteryPercent != null) encoder.add("battery", batteryPercent)
+            val response = apiService.sendHeartbeat(encoder.toRequestBody())
+            val body = if (response.isSuccessful) response.body() else null
+            updateHints(body, response.headers()[HEADER_RETRY_AFTER])
+            if (response.isSuccessful && body?.contains("\"success\"") == true) {
+                Timber.tag(TAG).d("Heartbeat recorded for session $sessionId")
+                true
+            } else {
+                Timber.tag(TAG).w("Heartbeat failed. Code: ${response.code()}, Message: ${response.message()}")
+                false
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "Exception during heartbeat")
+            false
+        }
+    }
+
+    /**
+     * Publishes the rate hints carried by a server response.
+     *
+     * Hints in the body win; a bare `Retry-After` header (e.g. from a proxy) is honored
+     * when the body has none. Responses without either leave the previous hints in place.
+     *
+     * @param body The response or error body
+     * @param retryAfter The `Retry-After` header value, if any
+     */
+    private fun updateHints(body: String?, retryAfter: String?) {
+        val now = System.currentTimeMillis()
+        val hints = UploadHints.parse(body, now) ?: UploadHints.fromRetryAfter(retryAfter, now) ?: return
+        if (hints != _uploadHints.value) {
+            Timber.tag(TAG).i("Server upload hints: $hints")
+            _uploadHints.value = hints
+        }
+    }
+
+    /**
+     * Creates a Retrofit service for the server configured in settings, or set with [setWebsiteUrl].
+     *
+     * Uses the API directory of the configured upload URL (see [ServerUrls.apiBaseUrl]) as
+     * the base URL, so sibling endpoints such as `update` and `batch` resolve against it.
+     *
+     * @return The API service, or null if the configured URL cannot be parsed
+     */
+    private suspend fun createApiService(): ApiService? {
+        // Get server URL
+        val targetUrl = websiteUrl ?: settingsRepository.getCurrentWebsiteUrl()
+        Timber.tag(TAG).i("REPO-CRITICAL: Got URL from settings: $targetUrl")
+        val finalBaseUrl = ServerUrls.apiBaseUrl(targetUrl) ?: return null
+        Timber.tag(TAG).d("Using base URL: $finalBaseUrl")
+
+        // Reuse the service while the base URL is unchanged
+        cachedApiService?.let { (cachedUrl, service) ->
+            if (cachedUrl == finalBaseUrl) return service
+        }
+
+        // Create API service
+        val service = retrofitBuilder.get()
+            .baseUrl(finalBaseUrl)
+            .build()
+            .create(ApiService::class.java)
+        cachedApiService = finalBaseUrl to service
+        return service
+    }
+
+    /**
+     * Encodes a fix into a form-urlencoded request body.
+     *
+     * Uses the calling thread's [LocationFormEncoder], so no date formatter, URL encoder or
+     * intermediate strings are allocated per fix. The timestamp is sent as ISO-8601 UTC,
+     * which the server converts to its own time zone. The fix ID lets the server ignore
+     * repeats of a fix it has already stored; the trip number lets it split the session
+     * into trips. The [GeoCell] ID saves the server computing the spatial index key.
+     *
+     * @return The encoded request body
+     */
+    private fun encodeLocationBody(
+        location: Location,
+        username: String,
+        appId: String,
+        sessionId: String,
+        eventType: String,
+        fixId: String,
+        tripNumber: Int
+    ): RequestBody {
+        val totalDistanceMiles = _totalDistance.value / 1609.34 // Convert meters to miles for API
+        return LocationFormEncoder.forCurrentThread()
+            .addDecimal("latitude", location.latitude, 7)
+            .addDecimal("longitude", location.longitude, 7)
+            .add("speed", (location.speed * 2.2369).roundToInt())
+            .add("direction", location.bearing.roundToInt())
+            .addDecimal("distance", totalDistanceMiles, 1)
+            .addIsoTimestamp("date", location.time)
+            .add("locationmethod", location.provider ?: "unknown")
+            .add("username", username)
+            .add("phonenumber", appId)
+            .add("sessionid", sessionId)
+            .add("accuracy", location.accuracy.roundToInt())
+            .add("extrainfo", location.altitude.roundToInt())
+            .add("eventtype", eventType)
+            .add("fixid", fixId)
+            .add("tripid", tripNumber)
+            .add("cellid", GeoCell.encode(location.latitude, location.longitude))
+            .toRequestBody()
+    }
+
     /**
      * Retrieves the previously saved location from SharedPreferences.
      *
@@ -325,21 +601,36 @@ class LocationRepositoryImpl @Inject constructor(
      * 1. Retrieves the previous location from the state flow
      * 2. Calculates the distance increment if there was a previous location
      * 3. Updates the total distance state flow
-     * 4. Updates the latest location state flow
-     * 5. Persists the current location to SharedPreferences
+     * 4. Folds the fix into the session statistics
+     * 5. Updates the latest location state flow
+     * 6. Persists the current location to SharedPreferences
      *
      * @param location The new location to save
      */
     override suspend fun saveAsPreviousLocation(location: Location) = withContext(Dispatchers.IO) {
         val previousLocation = _latestLocation.value
 
+        val distanceIncrement = if (previousLocation != null) {
+            location.distanceTo(previousLocation) // Distance in meters
+        } else {
+            0f
+        }
         if (previousLocation != null) {
-            val distanceIncrement = location.distanceTo(previousLocation) // Distance in meters
             _totalDistance.update { it + distanceIncrement }
             Timber.d("Distance updated: +${distanceIncrement}m, Total: ${_totalDistance.value}m")
         } else {
              Timber.d("First location received, distance starts at 0.")
         }
+        _sessionStats.update {
+            it.add(
+                location.time,
+                distanceIncrement,
+                if (location.hasSpeed()) location.speed else null,
+                if (location.hasAltitude()) location.altitude else null,
+                location.latitude,
+                location.longitude
+            )
+        }
 
         // Update the latest location flow
         _latestLocation.value = location
@@ -353,18 +644,29 @@ class LocationRepositoryImpl @Inject constructor(
         Timber.tag(TAG).d("Updated location state: Lat=${location.latitude}, Lon=${location.longitude}, TotalDist=${_totalDistance.value}m")
     }
 
+    /**
+     * Replaces the session statistics with those stored for the session.
+     *
+     * @param stats The statistics stored with the session
+     */
+    override suspend fun restoreSessionStats(stats: SessionStats) {
+        _sessionStats.value = stats
+        Timber.tag(TAG).i("Session statistics restored: $stats")
+    }
+
     /**
      * Resets all location state for a new tracking session.
      *
      * This method:
      * 1. Clears the latest location state flow
-     * 2. Resets the total distance to zero
+     * 2. Resets the total distance and the session statistics to zero
      * 3. Sets the upload status to Idle
      * 4. Removes persisted location data from SharedPreferences
      */
      override suspend fun resetLocationState() = withContext(Dispatchers.IO) {
         _latestLocation.value = null
         _totalDistance.value = 0f
+        _sessionStats.value = SessionStats()
         _lastUploadStatus.value = UploadStatus.Idle
         sharedPreferences.edit().apply {
             remove(KEY_PREVIOUS_LATITUDE)
@@ -382,5 +684,7 @@ class LocationRepositoryImpl @Inject constructor(
         private const val PREFS_NAME = "com.websmithing.gpstracker2.location_prefs"
         private const val KEY_PREVIOUS_LATITUDE = "previousLatitude"
         private const val KEY_PREVIOUS_LONGITUDE = "previousLongitude"
+        private const val HEADER_RETRY_AFTER = "Retry-After"
+        private const val HTTP_CONFLICT = 409
     }
 }
\ No newline at end of file
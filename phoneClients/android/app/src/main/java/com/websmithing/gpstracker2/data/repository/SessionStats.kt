@@ -0,0 +1,144 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/repository/SessionStats.kt
+package com.websmithing.gpstracker2.data.repository
+
+import kotlin.math.max
+
+/**
+ * Running statistics of a tracking session, folded in one fix at a time.
+ *
+ * Every [add] is O(1) and returns a new value, so the current statistics can be published
+ * through a `StateFlow` and stored with the session without ever re-scanning its fixes.
+ * Besides the reported figures, the value carries the little state the fold needs
+ * ([lastFixTime], [stoppedSince], [altitudeBaseline]), so statistics restored from storage
+ * continue exactly where they left off.
+ *
+ * Each interval between two fixes is attributed to moving or stopped time by the speed at
+ * its end. A stop is counted once the device has been stopped for [MIN_STOP_MILLIS] after
+ * having moved, so waiting at a traffic light does not count. Elevation gain only counts
+ * climbs of at least [CLIMB_THRESHOLD_METERS] from the last turning point, which filters
+ * out GPS altitude noise. Positions, when given, also feed the [trip] segmenter.
+ *
+ * @property movingDistanceMeters Distance covered while moving, in meters
+ * @property movingMillis Time spent moving
+ * @property stoppedMillis Time spent stopped
+ * @property maxSpeed Maximum speed in meters per second
+ * @property elevationGainMeters Total climb in meters
+ * @property stopCount Number of stops
+ * @property lastFixTime Time of the last fix folded in, 0 before the first fix
+ * @property stoppedSince Start of the current stop, 0 while moving
+ * @property altitudeBaseline Altitude of the last climb or descent turning point, NaN before the first altitude
+ * @property trip Trip segmentation of the session at long stops
+ */
+data class SessionStats(
+    val movingDistanceMeters: Double = 0.0,
+    val movingMillis: Long = 0L,
+    val stoppedMillis: Long = 0L,
+    val maxSpeed: Float = 0f,
+    val elevationGainMeters: Double = 0.0,
+    val stopCount: Int = 0,
+    val lastFixTime: Long = 0L,
+    val stoppedSince: Long = 0L,
+    val altitudeBaseline: Double = Double.NaN,
+    val trip: TripSegmenter = TripSegmenter()
+) {
+    /**
+     * Whether no fix has been folded in yet
+     */
+    val isEmpty: Boolean
+        get() = lastFixTime == 0L
+
+    /**
+     * Average speed while moving, in meters per second
+     */
+    val averageMovingSpeed: Float
+        get() = if (movingMillis > 0) (movingDistanceMeters * 1000.0 / movingMillis).toFloat() else 0f
+
+    /**
+     * Folds in the next fix.
+     *
+     * Fixes that are not newer than the last one are ignored.
+     *
+     * @param timeMillis Fix time in epoch milliseconds
+     * @param distanceMeters Distance from the previous fix in meters
+     * @param speed Reported speed in meters per second, or null to derive it from the distance
+     * @param altitude Altitude in meters, or null if the fix has none
+     * @param latitude Fix latitude in degrees, or NaN to leave trip segmentation alone
+     * @param longitude Fix longitude in degrees, or NaN to leave trip segmentation alone
+     * @return The updated statistics
+     */
+    fun add(
+        timeMillis: Long,
+        distanceMeters: Float,
+        speed: Float?,
+        altitude: Double?,
+        latitude: Double = Double.NaN,
+        longitude: Double = Double.NaN
+    ): SessionStats {
+        val nextTrip = if (latitude.isNaN() || longitude.isNaN()) trip else trip.add(timeMillis, latitude, longitude)
+        if (isEmpty) {
+            val moving = (speed ?: 0f) >= MOVING_SPEED
+            return copy(
+                maxSpeed = max(maxSpeed, speed ?: 0f),
+                lastFixTime = timeMillis,
+                stoppedSince = if (moving) 0L else timeMillis,
+                altitudeBaseline = altitude ?: altitudeBaseline,
+                trip = nextTrip
+            )
+        }
+        val elapsed = timeMillis - lastFixTime
+        if (elapsed <= 0L) return this
+
+        val segmentSpeed = speed ?: (distanceMeters * 1000f / elapsed)
+        var next = if (segmentSpeed >= MOVING_SPEED) {
+            copy(
+                movingDistanceMeters = movingDistanceMeters + distanceMeters,
+                movingMillis = movingMillis + elapsed,
+                maxSpeed = max(maxSpeed, segmentSpeed),
+                stoppedSince = 0L
+            )
+        } else {
+            val since = if (stoppedSince == 0L) lastFixTime else stoppedSince
+            val stopCompleted = movingMillis > 0 &&
+                lastFixTime - since < MIN_STOP_MILLIS && timeMillis - since >= MIN_STOP_MILLIS
+            copy(
+                stoppedMillis = stoppedMillis + elapsed,
+                stopCount = if (stopCompleted) stopCount + 1 else stopCount,
+                stoppedSince = since
+            )
+        }
+
+        if (altitude != null) {
+            next = when {
+                altitudeBaseline.isNaN() -> next.copy(altitudeBaseline = altitude)
+                altitude - altitudeBaseline >= CLIMB_THRESHOLD_METERS -> next.copy(
+                    elevationGainMeters = elevationGainMeters + (altitude - altitudeBaseline),
+                    altitudeBaseline = altitude
+                )
+                altitudeBaseline - altitude >= CLIMB_THRESHOLD_METERS -> next.copy(altitudeBaseline = altitude)
+                else -> next
+            }
+        }
+        return next.copy(lastFixTime = timeMillis, trip = nextTrip)
+    }
+
+    /**
+     * Thresholds of the fold
+     */
+    companion object {
+        /**
+         * Speed at or above which the device counts as moving: 0.5 m/s, below walking pace
+         * and above the drift of a stationary receiver
+         */
+        const val MOVING_SPEED = 0.5f
+
+        /**
+         * Time the device has to stay stopped for the stop to be counted
+         */
+        const val MIN_STOP_MILLIS = 2 * 60 * 1000L
+
+        /**
+         * Smallest change in altitude treated as a real climb or descent
+         */
+        const val CLIMB_THRESHOLD_METERS = 5.0
+    }
+}
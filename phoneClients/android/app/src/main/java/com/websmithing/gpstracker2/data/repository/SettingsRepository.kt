@@ -1,6 +1,7 @@
 // # android/app/src/main/java/com/websmithing/gpstracker2/data/repository/SettingsRepository.kt
 package com.websmithing.gpstracker2.data.repository
 
+import com.websmithing.gpstracker2.network.DataBudget
 import kotlinx.coroutines.flow.Flow
 
 /**
@@ -34,6 +35,14 @@ interface SettingsRepository {
      */
     suspend fun getCurrentTrackingState(): Boolean
 
+    /**
+     * Waits until every setting saved so far has reached storage.
+     *
+     * The tracking service runs in another process and reads settings from storage, so
+     * this is called before it is started or restarted.
+     */
+    suspend fun awaitWrites()
+
     // --- User Settings ---
     /**
      * Saves the username for identifying this tracker's data.
@@ -98,6 +107,129 @@ interface SettingsRepository {
      */
     suspend fun getCurrentWebsiteUrl(): String
 
+    /**
+     * Saves whether live mode is enabled.
+     *
+     * In live mode fixes are taken every few seconds and streamed over a persistent
+     * WebSocket instead of one HTTP request each.
+     *
+     * @param enabled True to enable live mode
+     */
+    suspend fun saveLiveMode(enabled: Boolean)
+
+    /**
+     * Gets whether live mode is enabled synchronously.
+     *
+     * @return True if live mode is enabled
+     */
+    suspend fun getCurrentLiveMode(): Boolean
+
+    /**
+     * Saves whether dual-resolution capture is enabled.
+     *
+     * With dual resolution, fixes are recorded every second while only one per tracking
+     * interval is uploaded live; the full-resolution track is uploaded later, on an
+     * unmetered network while charging.
+     *
+     * @param enabled True to enable dual-resolution capture
+     */
+    suspend fun saveDualResolution(enabled: Boolean)
+
+    /**
+     * Gets whether dual-resolution capture is enabled synchronously.
+     *
+     * @return True if dual-resolution capture is enabled
+     */
+    suspend fun getCurrentDualResolution(): Boolean
+
+    /**
+     * Saves whether dead reckoning between fixes is enabled.
+     *
+     * With dead reckoning, the step detector and rotation vector sensors estimate the
+     * path walked between sparse GPS fixes, and each new fix adds the corrected points in
+     * between to the track.
+     *
+     * @param enabled True to enable dead reckoning
+     */
+    suspend fun saveDeadReckoning(enabled: Boolean)
+
+    /**
+     * Gets whether dead reckoning between fixes is enabled synchronously.
+     *
+     * @return True if dead reckoning is enabled
+     */
+    suspend fun getCurrentDeadReckoning(): Boolean
+
+    /**
+     * Saves whether passive mode is enabled.
+     *
+     * In passive mode the app takes the fixes other apps already request instead of
+     * running GPS itself, and only asks for a fix of its own when none arrived for a while.
+     *
+     * @param enabled True to enable passive mode
+     */
+    suspend fun savePassiveMode(enabled: Boolean)
+
+    /**
+     * Gets whether passive mode is enabled synchronously.
+     *
+     * @return True if passive mode is enabled
+     */
+    suspend fun getCurrentPassiveMode(): Boolean
+
+    /**
+     * Saves the secret shared with the server's UDP uplink receiver.
+     *
+     * A non-blank key enables the UDP uplink, which sends fixes as small signed
+     * datagrams and falls back to HTTP when they are not acknowledged.
+     *
+     * @param key The shared key, or blank to disable the uplink
+     */
+    suspend fun saveUdpUplinkKey(key: String)
+
+    /**
+     * Gets the UDP uplink key synchronously.
+     *
+     * @return The shared key, blank if the uplink is disabled
+     */
+    suspend fun getCurrentUdpUplinkKey(): String
+
+    /**
+     * Saves the battery budget for tracking.
+     *
+     * With a budget set, the tracking service picks the location priority, interval and
+     * batching that keep its drain within the budget, instead of always using high accuracy
+     * at the chosen interval.
+     *
+     * @param percentPerHour Budget in percent of the battery per hour, or 0 to turn it off
+     */
+    suspend fun saveBatteryBudget(percentPerHour: Int)
+
+    /**
+     * Gets the battery budget synchronously.
+     *
+     * @return Budget in percent of the battery per hour, 0 if none is set
+     */
+    suspend fun getCurrentBatteryBudget(): Int
+
+    /**
+     * Saves the mobile data budget for uploads.
+     *
+     * Close to either limit, the tracking service sends fixes in compact batches and
+     * leaves backfill for unmetered networks; once a limit is reached it sends nothing on
+     * metered networks.
+     *
+     * @param budget Daily and monthly limits; [DataBudget.NONE] turns the budget off
+     */
+    suspend fun saveDataBudget(budget: DataBudget)
+
+    /**
+     * Gets the mobile data budget synchronously.
+     *
+     * @return The daily and monthly limits, [DataBudget.NONE] if none are set
+     */
+    suspend fun getCurrentDataBudget(): DataBudget
+
     // --- Session/Device IDs ---
     /**
      * Saves a new session ID for the current tracking session.
@@ -113,9 +245,9 @@ interface SettingsRepository {
     
     /**
      * Gets the current session ID synchronously.
-     * If no session ID exists, generates and saves a new one.
+     * Sessions are started with [saveSessionId]; this never writes.
      *
-     * @return The current session ID
+     * @return The current session ID, or an empty string if no session is active
      */
     suspend fun getCurrentSessionId(): String
 
@@ -127,6 +259,14 @@ interface SettingsRepository {
      */
     suspend fun getAppId(): String
 
+    /**
+     * Gets the stored app ID without generating one if it is missing.
+     * Safe to call from the tracking service's process, which must not write the settings.
+     *
+     * @return The app ID, or an empty string if none has been generated yet
+     */
+    suspend fun getStoredAppId(): String
+
     // --- First Time Check ---
     /**
      * Checks if this is the first time the app is being loaded.
@@ -150,6 +290,18 @@ interface SettingsRepository {
      */
     suspend fun generateAndSaveAppId(): String
 
+    // --- Fix Identity ---
+    /**
+     * Allocates the next fix sequence number.
+     *
+     * Sequence numbers increase monotonically for the lifetime of the installation and are
+     * combined with the app ID to give every fix a stable ID, so the server can drop
+     * retried and replayed uploads.
+     *
+     * @return The allocated sequence number, starting at 1
+     */
+    suspend fun nextFixSequence(): Long
+
     // --- Location State ---
     /**
      * Resets location state for a new tracking session.
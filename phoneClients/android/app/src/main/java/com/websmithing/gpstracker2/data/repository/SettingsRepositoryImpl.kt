@@ -2,6 +2,7 @@
 package com.websmithing.gpstracker2.data.repository
 
 import android.content.SharedPreferences
+import com.websmithing.gpstracker2.network.DataBudget
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flow
@@ -21,10 +22,18 @@ import javax.inject.Singleton
  *
  * All methods use Kotlin coroutines with the IO dispatcher to ensure
  * that shared preferences operations don't block the main thread.
+ *
+ * The UI and the tracking service run in separate processes, and a process writing a
+ * preferences file writes its whole cached copy. Settings are therefore only written by
+ * the UI, and the fix sequence, the one value the service writes, lives in a file of its own.
+ *
+ * @param sharedPreferences Settings, written by the UI process
+ * @param fixSequencePreferences Fix sequence, written by the tracking service's process
  */
 @Singleton
 class SettingsRepositoryImpl @Inject constructor(
-    private val sharedPreferences: SharedPreferences
+    private val sharedPreferences: SharedPreferences,
+    private val fixSequencePreferences: SharedPreferences
 ) : SettingsRepository {
 
     // --- Tracking State ---
@@ -62,6 +71,18 @@ class SettingsRepositoryImpl @Inject constructor(
         }
     }
 
+    /**
+     * Waits until every setting saved so far has reached storage.
+     *
+     * An empty commit writes the in-memory state, including edits still queued by
+     * earlier apply() calls, before it returns.
+     */
+    override suspend fun awaitWrites() {
+        withContext(Dispatchers.IO) {
+            sharedPreferences.edit().commit()
+        }
+    }
+
     // --- User Settings ---
     /**
      * Saves the username for identifying this tracker's data.
@@ -157,6 +178,166 @@ class SettingsRepositoryImpl @Inject constructor(
         }
     }
 
+    /**
+     * Saves whether live mode is enabled.
+     *
+     * @param enabled True to enable live mode
+     */
+    override suspend fun saveLiveMode(enabled: Boolean) {
+        withContext(Dispatchers.IO) {
+            sharedPreferences.edit().putBoolean(KEY_LIVE_MODE, enabled).apply()
+        }
+    }
+
+    /**
+     * Gets whether live mode is enabled synchronously.
+     *
+     * @return True if live mode is enabled, false by default
+     */
+    override suspend fun getCurrentLiveMode(): Boolean {
+        return withContext(Dispatchers.IO) {
+            sharedPreferences.getBoolean(KEY_LIVE_MODE, false)
+        }
+    }
+
+    /**
+     * Saves whether dual-resolution capture is enabled.
+     *
+     * @param enabled True to enable dual-resolution capture
+     */
+    override suspend fun saveDualResolution(enabled: Boolean) {
+        withContext(Dispatchers.IO) {
+            sharedPreferences.edit().putBoolean(KEY_DUAL_RESOLUTION, enabled).apply()
+        }
+    }
+
+    /**
+     * Gets whether dual-resolution capture is enabled synchronously.
+     *
+     * @return True if dual-resolution capture is enabled, false by default
+     */
+    override suspend fun getCurrentDualResolution(): Boolean {
+        return withContext(Dispatchers.IO) {
+            sharedPreferences.getBoolean(KEY_DUAL_RESOLUTION, false)
+        }
+    }
+
+    /**
+     * Saves whether dead reckoning between fixes is enabled.
+     *
+     * @param enabled True to enable dead reckoning
+     */
+    override suspend fun saveDeadReckoning(enabled: Boolean) {
+        withContext(Dispatchers.IO) {
+            sharedPreferences.edit().putBoolean(KEY_DEAD_RECKONING, enabled).apply()
+        }
+    }
+
+    /**
+     * Gets whether dead reckoning between fixes is enabled synchronously.
+     *
+     * @return True if dead reckoning is enabled, false by default
+     */
+    override suspend fun getCurrentDeadReckoning(): Boolean {
+        return withContext(Dispatchers.IO) {
+            sharedPreferences.getBoolean(KEY_DEAD_RECKONING, false)
+        }
+    }
+
+    /**
+     * Saves whether passive mode is enabled.
+     *
+     * @param enabled True to enable passive mode
+     */
+    override suspend fun savePassiveMode(enabled: Boolean) {
+        withContext(Dispatchers.IO) {
+            sharedPreferences.edit().putBoolean(KEY_PASSIVE_MODE, enabled).apply()
+        }
+    }
+
+    /**
+     * Gets whether passive mode is enabled synchronously.
+     *
+     * @return True if passive mode is enabled, false by default
+     */
+    override suspend fun getCurrentPassiveMode(): Boolean {
+        return withContext(Dispatchers.IO) {
+            sharedPreferences.getBoolean(KEY_PASSIVE_MODE, false)
+        }
+    }
+
+    /**
+     * Saves the secret shared with the server's UDP uplink receiver.
+     *
+     * @param key The shared key, or blank to disable the uplink
+     */
+    override suspend fun saveUdpUplinkKey(key: String) {
+        withContext(Dispatchers.IO) {
+            sharedPreferences.edit().putString(KEY_UDP_UPLINK_KEY, key.trim()).apply()
+        }
+    }
+
+    /**
+     * Gets the UDP uplink key synchronously.
+     *
+     * @return The shared key, blank by default (uplink disabled)
+     */
+    override suspend fun getCurrentUdpUplinkKey(): String {
+        return withContext(Dispatchers.IO) {
+            sharedPreferences.getString(KEY_UDP_UPLINK_KEY, "") ?: ""
+        }
+    }
+
+    /**
+     * Saves the battery budget for tracking.
+     *
+     * @param percentPerHour Budget in percent of the battery per hour, or 0 to turn it off
+     */
+    override suspend fun saveBatteryBudget(percentPerHour: Int) {
+        withContext(Dispatchers.IO) {
+            sharedPreferences.edit().putInt(KEY_BATTERY_BUDGET, percentPerHour.coerceAtLeast(0)).apply()
+        }
+    }
+
+    /**
+     * Gets the battery budget synchronously.
+     *
+     * @return Budget in percent of the battery per hour, 0 by default (no budget)
+     */
+    override suspend fun getCurrentBatteryBudget(): Int {
+        return withContext(Dispatchers.IO) {
+            sharedPreferences.getInt(KEY_BATTERY_BUDGET, 0)
+        }
+    }
+
+    /**
+     * Saves the mobile data budget for uploads.
+     *
+     * @param budget Daily and monthly limits in megabytes; zero turns a limit off
+     */
+    override suspend fun saveDataBudget(budget: DataBudget) {
+        withContext(Dispatchers.IO) {
+            sharedPreferences.edit()
+                .putInt(KEY_DATA_BUDGET_DAILY, budget.dailyMegabytes.coerceAtLeast(0))
+                .putInt(KEY_DATA_BUDGET_MONTHLY, budget.monthlyMegabytes.coerceAtLeast(0))
+                .apply()
+        }
+    }
+
+    /**
+     * Gets the mobile data budget synchronously.
+     *
+     * @return The daily and monthly limits, [DataBudget.NONE] by default
+     */
+    override suspend fun getCurrentDataBudget(): DataBudget {
+        return withContext(Dispatchers.IO) {
+            DataBudget(
+                dailyMegabytes = sharedPreferences.getInt(KEY_DATA_BUDGET_DAILY, 0),
+                monthlyMegabytes = sharedPreferences.getInt(KEY_DATA_BUDGET_MONTHLY, 0)
+            )
+        }
+    }
+
     // --- Session/Device IDs ---
     /**
      * Saves a new session ID for the current tracking session.
@@ -180,20 +361,13 @@ class SettingsRepositoryImpl @Inject constructor(
 
     /**
      * Gets the current session ID synchronously.
-     * If no session ID exists, generates and saves a new one.
+     * Sessions are started with [saveSessionId]; this never writes.
      *
-     * @return The current session ID
+     * @return The current session ID, or an empty string if no session is active
      */
     override suspend fun getCurrentSessionId(): String {
         return withContext(Dispatchers.IO) {
-            val storedSessionId = sharedPreferences.getString(KEY_SESSION_ID, "") ?: ""
-            if (storedSessionId.isBlank()) {
-                // Force a default session ID if none is set
-                val defaultSessionId = UUID.randomUUID().toString()
-                sharedPreferences.edit().putString(KEY_SESSION_ID, defaultSessionId).apply()
-                return@withContext defaultSessionId
-            }
-            storedSessionId
+            sharedPreferences.getString(KEY_SESSION_ID, "") ?: ""
         }
     }
 
@@ -213,6 +387,17 @@ class SettingsRepositoryImpl @Inject constructor(
         }
     }
 
+    /**
+     * Gets the stored app ID without generating one if it is missing.
+     *
+     * @return The app ID, or an empty string if none has been generated yet
+     */
+    override suspend fun getStoredAppId(): String {
+        return withContext(Dispatchers.IO) {
+            sharedPreferences.getString(KEY_APP_ID, null) ?: ""
+        }
+    }
+
     // --- First Time Check ---
     /**
      * Checks if this is the first time the app is being loaded.
@@ -265,6 +450,32 @@ class SettingsRepositoryImpl @Inject constructor(
         return generateAndSaveAppIdInternal()
     }
 
+    // --- Fix Identity ---
+    /**
+     * Allocates the next fix sequence number.
+     *
+     * The new value is committed synchronously: if the process died before an asynchronous
+     * write reached disk, the number could be handed out again and the server would
+     * discard a genuinely new fix as a duplicate.
+     *
+     * Earlier versions kept the sequence with the settings; it continues from there.
+     *
+     * @return The allocated sequence number, starting at 1
+     */
+    override suspend fun nextFixSequence(): Long {
+        return withContext(Dispatchers.IO) {
+            synchronized(this@SettingsRepositoryImpl) {
+                val last = fixSequencePreferences.getLong(
+                    KEY_FIX_SEQUENCE,
+                    sharedPreferences.getLong(KEY_FIX_SEQUENCE, 0L)
+                )
+                val next = last + 1
+                fixSequencePreferences.edit().putLong(KEY_FIX_SEQUENCE, next).commit()
+                next
+            }
+        }
+    }
+
     // --- Location State ---
     /**
      * Resets location state for a new tracking session.
@@ -325,6 +536,11 @@ class SettingsRepositoryImpl @Inject constructor(
      */
     companion object {
         private const val PREFS_NAME = "com.websmithing.gpstracker2.prefs"
+
+        /**
+         * Name of the preferences file holding the fix sequence
+         */
+        const val FIX_SEQUENCE_PREFS_NAME = "com.websmithing.gpstracker2.fix_sequence"
         private const val KEY_CURRENTLY_TRACKING = "currentlyTracking"
         private const val KEY_USER_NAME = "userName"
         private const val KEY_INTERVAL_MINUTES = "intervalInMinutes"
@@ -336,5 +552,14 @@ class SettingsRepositoryImpl @Inject constructor(
         private const val KEY_PREVIOUS_LATITUDE = "previousLatitude"
         private const val KEY_PREVIOUS_LONGITUDE = "previousLongitude"
         private const val KEY_WEBSITE_URL = "defaultUploadWebsite"
+        private const val KEY_FIX_SEQUENCE = "fixSequence"
+        private const val KEY_LIVE_MODE = "liveMode"
+        private const val KEY_DUAL_RESOLUTION = "dualResolution"
+        private const val KEY_DEAD_RECKONING = "deadReckoning"
+        private const val KEY_PASSIVE_MODE = "passiveMode"
+        private const val KEY_UDP_UPLINK_KEY = "udpUplinkKey"
+        private const val KEY_BATTERY_BUDGET = "batteryBudgetPercentPerHour"
+        private const val KEY_DATA_BUDGET_DAILY = "dataBudgetDailyMegabytes"
+        private const val KEY_DATA_BUDGET_MONTHLY = "dataBudgetMonthlyMegabytes"
     }
 }
\ No newline at end of file
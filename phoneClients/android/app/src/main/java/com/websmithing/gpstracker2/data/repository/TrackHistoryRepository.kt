@@ -0,0 +1,257 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/repository/TrackHistoryRepository.kt
+package com.websmithing.gpstracker2.data.repository
+
+import android.location.Location
+
+/**
+ * A single fix stored in the on-device track history.
+ *
+ * @property id Local row ID
+ * @property sessionId The tracking session the fix belongs to
+ * @property time Fix time in epoch milliseconds
+ * @property latitude Latitude in decimal degrees
+ * @property longitude Longitude in decimal degrees
+ * @property altitude Altitude in meters
+ * @property speed Speed in meters per second
+ * @property bearing Bearing in degrees
+ * @property accuracy Horizontal accuracy in meters
+ * @property provider The location provider that produced the fix
+ * @property uploaded Whether the fix has been accepted by the server
+ * @property fixId Client-generated ID sent with the upload, empty for fixes recorded before IDs existed
+ *   and for uploaded fixes packed into compressed chunks
+ * @property tripNumber Trip within the session the fix belongs to, see [TripSegmenter]
+ * @property distanceMeters Distance the session had covered at this fix, 0 for fixes recorded
+ *   before it was stored and for uploaded fixes packed into compressed chunks
+ */
+data class TrackPoint(
+    val id: Long,
+    val sessionId: String,
+    val time: Long,
+    val latitude: Double,
+    val longitude: Double,
+    val altitude: Double,
+    val speed: Float,
+    val bearing: Float,
+    val accuracy: Float,
+    val provider: String,
+    val uploaded: Boolean,
+    val fixId: String,
+    val tripNumber: Int = 1,
+    val distanceMeters: Double = 0.0
+)
+
+/**
+ * Summary of a tracking session, maintained incrementally as fixes are recorded.
+ *
+ * @property sessionId The tracking session ID
+ * @property startedAt Time of the first fix in epoch milliseconds
+ * @property endedAt Time of the last fix in epoch milliseconds
+ * @property fixCount Number of recorded fixes
+ * @property distanceMeters Distance traveled in meters
+ * @property maxSpeed Maximum speed in meters per second
+ * @property minLatitude Southern edge of the session's bounding box
+ * @property minLongitude Western edge of the session's bounding box
+ * @property maxLatitude Northern edge of the session's bounding box
+ * @property maxLongitude Eastern edge of the session's bounding box
+ * @property stats Moving/stopped time, elevation gain and stops, as last stored with a fix
+ */
+data class SessionSummary(
+    val sessionId: String,
+    val startedAt: Long,
+    val endedAt: Long,
+    val fixCount: Int,
+    val distanceMeters: Double,
+    val maxSpeed: Float,
+    val minLatitude: Double,
+    val minLongitude: Double,
+    val maxLatitude: Double,
+    val maxLongitude: Double,
+    val stats: SessionStats = SessionStats()
+) {
+    /**
+     * Session duration in milliseconds
+     */
+    val durationMillis: Long
+        get() = endedAt - startedAt
+}
+
+/**
+ * Forward-only view over a sequence of stored fixes.
+ *
+ * Unlike [TrackPoint] lists, a cursor exposes one fix at a time through primitive
+ * properties, so consumers such as exporters can walk sessions of any length without
+ * materializing them. Property values are only valid after [moveToNext] returned true.
+ */
+interface TrackPointCursor {
+    /**
+     * Advances to the next fix.
+     *
+     * @return true if a fix is available, false when the sequence is exhausted
+     */
+    fun moveToNext(): Boolean
+
+    val time: Long
+    val latitude: Double
+    val longitude: Double
+    val altitude: Double
+    val speed: Float
+    val bearing: Float
+    val accuracy: Float
+}
+
+/**
+ * Repository interface for the on-device track history.
+ *
+ * Every fix handled by the tracking service is recorded locally, so past routes can be
+ * rendered and queried without a round trip to the server. Queries are served from a time
+ * index and a spatial cell index; session summaries are precomputed.
+ */
+interface TrackHistoryRepository {
+
+    /**
+     * Records a fix for a session and updates the session summary.
+     *
+     * @param sessionId The tracking session the fix belongs to
+     * @param location The fix to record
+     * @param fixId Client-generated ID that uploads of this fix will carry
+     * @param stats Session statistics including this fix, stored with the summary; null
+     *   leaves the stored statistics unchanged
+     * @param distanceMeters Distance the session has covered including this fix, sent with
+     *   later uploads of the fix
+     * @return The local ID of the stored fix
+     */
+    suspend fun recordFix(
+        sessionId: String,
+        location: Location,
+        fixId: String,
+        stats: SessionStats? = null,
+        distanceMeters: Double = 0.0
+    ): Long
+
+    /**
+     * Marks a previously recorded fix as accepted by the server.
+     *
+     * @param fixId The local ID returned by [recordFix]
+     */
+    suspend fun markUploaded(fixId: Long)
+
+    /**
+     * Marks several recorded fixes as accepted by the server in one transaction.
+     *
+     * @param fixIds Local IDs returned by [recordFix]
+     */
+    suspend fun markUploaded(fixIds: List<Long>)
+
+    /**
+     * Marks every recorded fix with a local ID in `firstId..lastId` as accepted by the server.
+     *
+     * Used after a bulk upload, whose file covers a contiguous run of pending fixes and
+     * only records its ID range.
+     *
+     * @param firstId Local ID of the first fix of the range
+     * @param lastId Local ID of the last fix of the range
+     */
+    suspend fun markUploadedRange(firstId: Long, lastId: Long)
+
+    /**
+     * Returns the oldest fixes not yet accepted by the server.
+     *
+     * @param beforeId Only fixes with a local ID below this are returned, which keeps the
+     *   fix currently owned by the live upload lane out of the backfill
+     * @param limit Maximum number of fixes to return
+     * @return Pending fixes, oldest first
+     */
+    suspend fun getPendingUploads(beforeId: Long, limit: Int): List<TrackPoint>
+
+    /**
+     * Returns the fixes of a session in chronological order.
+     *
+     * @param sessionId The tracking session ID
+     * @return The session's fixes, oldest first
+     */
+    suspend fun getSessionPoints(sessionId: String): List<TrackPoint>
+
+    /**
+     * Streams a session's fixes in chronological order without loading them into memory.
+     *
+     * The cursor is only valid inside [block] and is closed when it returns.
+     *
+     * @param sessionId The tracking session ID
+     * @param block Consumer of the session's fixes
+     * @return The value returned by [block]
+     */
+    suspend fun <R> readSessionPoints(sessionId: String, block: (TrackPointCursor) -> R): R
+
+    /**
+     * Returns all fixes recorded in a time window, e.g. today's route.
+     *
+     * @param fromMillis Start of the window (inclusive) in epoch milliseconds
+     * @param toMillis End of the window (exclusive) in epoch milliseconds
+     * @return Matching fixes, oldest first
+     */
+    suspend fun getPointsBetween(fromMillis: Long, toMillis: Long): List<TrackPoint>
+
+    /**
+     * Finds the fix closest in time to the given instant ("where was I at 14:05").
+     *
+     * @param timeMillis The instant in epoch milliseconds
+     * @param maxGapMillis Maximum allowed distance in time between the instant and the fix
+     * @return The closest fix, or null if none lies within [maxGapMillis]
+     */
+    suspend fun findNearestInTime(timeMillis: Long, maxGapMillis: Long = DEFAULT_MAX_GAP_MILLIS): TrackPoint?
+
+    /**
+     * Returns fixes inside a bounding box.
+     *
+     * @param minLatitude Southern edge of the box
+     * @param minLongitude Western edge of the box
+     * @param maxLatitude Northern edge of the box
+     * @param maxLongitude Eastern edge of the box
+     * @param limit Maximum number of fixes to return
+     * @return Matching fixes, oldest first
+     */
+    suspend fun findInBoundingBox(
+        minLatitude: Double,
+        minLongitude: Double,
+        maxLatitude: Double,
+        maxLongitude: Double,
+        limit: Int = 1000
+    ): List<TrackPoint>
+
+    /**
+     * Returns the precomputed summary of a session.
+     *
+     * @param sessionId The tracking session ID
+     * @return The summary, or null if nothing was recorded for the session
+     */
+    suspend fun getSessionSummary(sessionId: String): SessionSummary?
+
+    /**
+     * Returns summaries of all stored sessions, most recent first.
+     *
+     * @return Session summaries
+     */
+    suspend fun getSessions(): List<SessionSummary>
+
+    /**
+     * Applies the retention policy and compacts the database.
+     *
+     * Deletes sessions that ended before the retention window and, if the store is still
+     * above its size bound, the oldest sessions until it fits; the active session and
+     * sessions with fixes waiting for upload are kept (see [TrackRetention]). Finished
+     * sessions whose fixes have all been uploaded are then packed into compressed chunks,
+     * and freed pages are returned to the file system.
+     *
+     * @param activeSessionId The session being recorded, or null if none
+     * @param nowMillis The current time in epoch milliseconds
+     * @return The number of fixes deleted
+     */
+    suspend fun enforceRetention(activeSessionId: String?, nowMillis: Long = System.currentTimeMillis()): Int
+
+    companion object {
+        /**
+         * Default gap allowed by [findNearestInTime]: 15 minutes
+         */
+        const val DEFAULT_MAX_GAP_MILLIS = 15 * 60 * 1000L
+    }
+}
@@ -0,0 +1,703 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/repository/TrackHistoryRepositoryImpl.kt
+package com.websmithing.gpstracker2.data.repository
+
+import android.content.ContentValues
+import android.database.Cursor
+import android.location.Location
+import com.websmithing.gpstracker2.data.local.FixChunk
+import com.websmithing.gpstracker2.data.local.TrackDatabase
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_ACCURACY
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_ALTITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_ALTITUDE_BASELINE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_BEARING
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_CELL
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_DATA
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_DISTANCE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_ELEVATION_GAIN
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_ENDED_AT
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_FIX_COUNT
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_FIRST_TIME
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_FIX_ID
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_ID
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_LAST_FIX_TIME
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_LAST_LATITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_LAST_LONGITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_LAST_TIME
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_LATITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_LONGITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_MAX_LATITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_MAX_LONGITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_MAX_SPEED
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_MIN_LATITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_MIN_LONGITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_MOVING_DISTANCE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_MOVING_MILLIS
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_PROVIDER
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_SESSION_ID
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_SPEED
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_STARTED_AT
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_STATS_MAX_SPEED
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_STOPPED_MILLIS
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_STOPPED_SINCE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_STOP_COUNT
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_TIME
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_TRIP
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_TRIP_ANCHOR_LATITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_TRIP_ANCHOR_LONGITUDE
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_TRIP_ANCHOR_TIME
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_TRIP_DWELLING
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_TRIP_NUMBER
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.COL_UPLOADED
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.TABLE_CHUNKS
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.TABLE_FIXES
+import com.websmithing.gpstracker2.data.local.TrackDatabase.Companion.TABLE_SESSIONS
+import com.websmithing.gpstracker2.util.GeoCell
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * SQLite-backed implementation of [TrackHistoryRepository].
+ *
+ * This class handles:
+ * - Recording fixes together with their spatial cell ID
+ * - Maintaining per-session summaries in O(1) per fix (no re-scan of the session),
+ *   including the [SessionStats] handed in with each fix
+ * - Time, session and bounding-box queries served from indexes
+ * - Packing the uploaded history of finished sessions into compressed [FixChunk]s;
+ *   every query reads chunks and rows alike
+ * - Bounded retention with incremental vacuum
+ *
+ * All database work runs on the IO dispatcher.
+ *
+ * @param database The track history database
+ */
+@Singleton
+class TrackHistoryRepositoryImpl @Inject constructor(
+    private val database: TrackDatabase
+) : TrackHistoryRepository {
+
+    /**
+     * Records a fix and folds it into the session summary inside one transaction.
+     *
+     * @param sessionId The tracking session the fix belongs to
+     * @param location The fix to record
+     * @param fixId Client-generated ID that uploads of this fix will carry
+     * @param stats Session statistics including this fix, or null to leave them unchanged
+     * @param distanceMeters Distance the session has covered including this fix
+     * @return The local ID of the stored fix
+     */
+    override suspend fun recordFix(
+        sessionId: String,
+        location: Location,
+        fixId: String,
+        stats: SessionStats?,
+        distanceMeters: Double
+    ): Long = withContext(Dispatchers.IO) {
+        val db = database.writableDatabase
+        db.beginTransaction()
+        try {
+            val localId = db.insertOrThrow(TABLE_FIXES, null, ContentValues().apply {
+                put(COL_SESSION_ID, sessionId)
+                put(COL_TIME, location.time)
+                put(COL_LATITUDE, location.latitude)
+                put(COL_LONGITUDE, location.longitude)
+                put(COL_ALTITUDE, location.altitude)
+                put(COL_SPEED, location.speed)
+                put(COL_BEARING, location.bearing)
+                put(COL_ACCURACY, location.accuracy)
+                put(COL_PROVIDER, location.provider ?: "")
+                put(COL_CELL, GeoCell.encode(location.latitude, location.longitude))
+                put(COL_FIX_ID, fixId)
+                put(COL_TRIP, stats?.trip?.tripNumber ?: 1)
+                put(COL_DISTANCE, distanceMeters)
+            })
+            updateSessionSummary(sessionId, location)
+            if (stats != null) {
+                db.update(TABLE_SESSIONS, stats.toContentValues(), "$COL_SESSION_ID = ?", arrayOf(sessionId))
+            }
+            db.setTransactionSuccessful()
+            localId
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Marks a recorded fix as uploaded.
+     *
+     * @param fixId The local ID of the fix
+     */
+    override suspend fun markUploaded(fixId: Long) {
+        withContext(Dispatchers.IO) {
+            database.writableDatabase.update(
+                TABLE_FIXES,
+                ContentValues().apply { put(COL_UPLOADED, 1) },
+                "$COL_ID = ?",
+                arrayOf(fixId.toString())
+            )
+        }
+    }
+
+    /**
+     * Marks a batch of fixes as uploaded.
+     */
+    override suspend fun markUploaded(fixIds: List<Long>) {
+        if (fixIds.isEmpty()) return
+        withContext(Dispatchers.IO) {
+            val db = database.writableDatabase
+            val values = ContentValues().apply { put(COL_UPLOADED, 1) }
+            val args = arrayOfNulls<String>(1)
+            db.beginTransaction()
+            try {
+                for (fixId in fixIds) {
+                    args[0] = fixId.toString()
+                    db.update(TABLE_FIXES, values, "$COL_ID = ?", args)
+                }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+    }
+
+    /**
+     * Marks a range of fixes as uploaded with a single statement.
+     */
+    override suspend fun markUploadedRange(firstId: Long, lastId: Long) {
+        withContext(Dispatchers.IO) {
+            database.writableDatabase.update(
+                TABLE_FIXES,
+                ContentValues().apply { put(COL_UPLOADED, 1) },
+                "$COL_UPLOADED = 0 AND $COL_ID BETWEEN ? AND ?",
+                arrayOf(firstId.toString(), lastId.toString())
+            )
+        }
+    }
+
+    /**
+     * Returns pending fixes from the partial pending-upload index.
+     */
+    override suspend fun getPendingUploads(beforeId: Long, limit: Int): List<TrackPoint> = withContext(Dispatchers.IO) {
+        queryPoints(
+            "$COL_UPLOADED = 0 AND $COL_ID < ?",
+            arrayOf(beforeId.toString()),
+            "$COL_ID ASC",
+            limit.toString()
+        )
+    }
+
+    /**
+     * Returns a session's fixes using the (session, time) index.
+     */
+    override suspend fun getSessionPoints(sessionId: String): List<TrackPoint> = withContext(Dispatchers.IO) {
+        // Chunks only hold a session's history up to the time it was packed
+        val packed = chunkPoints("$COL_SESSION_ID = ?", arrayOf(sessionId)) { true }
+        val rows = queryPoints("$COL_SESSION_ID = ?", arrayOf(sessionId), "$COL_TIME ASC", null)
+        if (packed.isEmpty()) rows else packed + rows
+    }
+
+    /**
+     * Streams a session's fixes straight from database cursors.
+     *
+     * Packed chunks are decoded one at a time in place, followed by the rows recorded
+     * after the session was packed.
+     */
+    override suspend fun <R> readSessionPoints(sessionId: String, block: (TrackPointCursor) -> R): R = withContext(Dispatchers.IO) {
+        val db = database.readableDatabase
+        db.query(
+            TABLE_CHUNKS, arrayOf(COL_DATA), "$COL_SESSION_ID = ?", arrayOf(sessionId), null, null, "$COL_FIRST_TIME ASC"
+        ).use { chunks ->
+            db.query(
+                TABLE_FIXES, FIX_COLUMNS, "$COL_SESSION_ID = ?", arrayOf(sessionId), null, null, "$COL_TIME ASC"
+            ).use { cursor ->
+                block(object : TrackPointCursor {
+                    private var chunk: FixChunk.Reader? = null
+
+                    override fun moveToNext(): Boolean {
+                        while (true) {
+                            if (chunk?.moveToNext() == true) return true
+                            if (!chunks.moveToNext()) break
+                            chunk = FixChunk.Reader(chunks.getBlob(0))
+                        }
+                        chunk = null
+                        return cursor.moveToNext()
+                    }
+
+                    override val time get() = chunk.let { if (it != null) it.time else cursor.getLong(2) }
+                    override val latitude get() = chunk.let { if (it != null) it.latitude else cursor.getDouble(3) }
+                    override val longitude get() = chunk.let { if (it != null) it.longitude else cursor.getDouble(4) }
+                    override val altitude get() = chunk.let { if (it != null) it.altitude else cursor.getDouble(5) }
+                    override val speed get() = chunk.let { if (it != null) it.speed else cursor.getFloat(6) }
+                    override val bearing get() = chunk.let { if (it != null) it.bearing else cursor.getFloat(7) }
+                    override val accuracy get() = chunk.let { if (it != null) it.accuracy else cursor.getFloat(8) }
+                })
+            }
+        }
+    }
+
+    /**
+     * Returns fixes in a time window using the time index.
+     */
+    override suspend fun getPointsBetween(fromMillis: Long, toMillis: Long): List<TrackPoint> = withContext(Dispatchers.IO) {
+        val packed = chunkPoints(
+            "$COL_LAST_TIME >= ? AND $COL_FIRST_TIME < ?",
+            arrayOf(fromMillis.toString(), toMillis.toString())
+        ) { it.time in fromMillis until toMillis }
+        val rows = queryPoints(
+            "$COL_TIME >= ? AND $COL_TIME < ?",
+            arrayOf(fromMillis.toString(), toMillis.toString()),
+            "$COL_TIME ASC",
+            null
+        )
+        if (packed.isEmpty()) rows else (packed + rows).sortedBy { it.time }
+    }
+
+    /**
+     * Finds the closest fix in time with two single-row index seeks, one in each direction,
+     * plus a scan of the chunks overlapping the allowed gap.
+     */
+    override suspend fun findNearestInTime(timeMillis: Long, maxGapMillis: Long): TrackPoint? = withContext(Dispatchers.IO) {
+        val packed = chunkPoints(
+            "$COL_LAST_TIME >= ? AND $COL_FIRST_TIME <= ?",
+            arrayOf((timeMillis - maxGapMillis).toString(), (timeMillis + maxGapMillis).toString())
+        ) { it.time in (timeMillis - maxGapMillis)..(timeMillis + maxGapMillis) }
+        val before = queryPoints(
+            "$COL_TIME <= ? AND $COL_TIME >= ?",
+            arrayOf(timeMillis.toString(), (timeMillis - maxGapMillis).toString()),
+            "$COL_TIME DESC",
+            "1"
+        ).firstOrNull().let { row ->
+            packed.lastOrNull { it.time <= timeMillis }?.takeIf { row == null || it.time > row.time } ?: row
+        }
+        val after = queryPoints(
+            "$COL_TIME > ? AND $COL_TIME <= ?",
+            arrayOf(timeMillis.toString(), (timeMillis + maxGapMillis).toString()),
+            "$COL_TIME ASC",
+            "1"
+        ).firstOrNull().let { row ->
+            packed.firstOrNull { it.time > timeMillis }?.takeIf { row == null || it.time < row.time } ?: row
+        }
+
+        when {
+            before == null -> after
+            after == null -> before
+            timeMillis - before.time <= after.time - timeMillis -> before
+            else -> after
+        }
+    }
+
+    /**
+     * Finds fixes in a bounding box.
+     *
+     * The box is covered by a handful of cell ID ranges, each answered from the cell index;
+     * the exact coordinate filter then removes points from the edges of the covering cells.
+     * Chunks are picked by their bounding boxes and filtered point by point.
+     */
+    override suspend fun findInBoundingBox(
+        minLatitude: Double,
+        minLongitude: Double,
+        maxLatitude: Double,
+        maxLongitude: Double,
+        limit: Int
+    ): List<TrackPoint> = withContext(Dispatchers.IO) {
+        val ranges = GeoCell.coveringRanges(minLatitude, minLongitude, maxLatitude, maxLongitude)
+        val selection = StringBuilder("(")
+        val args = ArrayList<String>(ranges.size * 2 + 4)
+        ranges.forEachIndexed { index, range ->
+            if (index > 0) selection.append(" OR ")
+            selection.append("$COL_CELL BETWEEN ? AND ?")
+            args.add(range.first.toString())
+            args.add(range.last.toString())
+        }
+        selection.append(") AND $COL_LATITUDE BETWEEN ? AND ? AND $COL_LONGITUDE BETWEEN ? AND ?")
+        args.add(minOf(minLatitude, maxLatitude).toString())
+        args.add(maxOf(minLatitude, maxLatitude).toString())
+        args.add(minOf(minLongitude, maxLongitude).toString())
+        args.add(maxOf(minLongitude, maxLongitude).toString())
+
+        val rows = queryPoints(selection.toString(), args.toTypedArray(), "$COL_TIME ASC", limit.toString())
+
+        val south = minOf(minLatitude, maxLatitude)
+        val north = maxOf(minLatitude, maxLatitude)
+        val west = minOf(minLongitude, maxLongitude)
+        val east = maxOf(minLongitude, maxLongitude)
+        val packed = chunkPoints(
+            "$COL_MAX_LATITUDE >= ? AND $COL_MIN_LATITUDE <= ? AND $COL_MAX_LONGITUDE >= ? AND $COL_MIN_LONGITUDE <= ?",
+            arrayOf(south.toString(), north.toString(), west.toString(), east.toString()),
+            limit
+        ) { it.latitude in south..north && it.longitude in west..east }
+        if (packed.isEmpty()) rows else (packed + rows).sortedBy { it.time }.take(limit)
+    }
+
+    /**
+     * Reads a precomputed session summary.
+     */
+    override suspend fun getSessionSummary(sessionId: String): SessionSummary? = withContext(Dispatchers.IO) {
+        database.readableDatabase.query(
+            TABLE_SESSIONS, null, "$COL_SESSION_ID = ?", arrayOf(sessionId), null, null, null, "1"
+        ).use { cursor ->
+            if (cursor.moveToFirst()) cursor.toSessionSummary() else null
+        }
+    }
+
+    /**
+     * Reads all session summaries, most recent first.
+     */
+    override suspend fun getSessions(): List<SessionSummary> = withContext(Dispatchers.IO) {
+        database.readableDatabase.query(
+            TABLE_SESSIONS, null, null, null, null, null, "$COL_ENDED_AT DESC"
+        ).use { cursor ->
+            val sessions = ArrayList<SessionSummary>(cursor.count)
+            while (cursor.moveToNext()) sessions.add(cursor.toSessionSummary())
+            sessions
+        }
+    }
+
+    /**
+     * Deletes expired and excess sessions, packs the uploaded history of finished sessions
+     * into chunks, then runs an incremental vacuum.
+     */
+    override suspend fun enforceRetention(activeSessionId: String?, nowMillis: Long): Int = withContext(Dispatchers.IO) {
+        val db = database.writableDatabase
+        var deleted = 0
+
+        // 1. + 2. Sessions that ended before the retention window, then the oldest sessions
+        //    while the store exceeds its size bound, sparing the active session and any
+        //    session with fixes still waiting for upload
+        val sessions = db.rawQuery(
+            """
+            SELECT $COL_SESSION_ID, $COL_ENDED_AT, $COL_FIX_COUNT,
+                EXISTS (SELECT 1 FROM $TABLE_FIXES f WHERE f.$COL_SESSION_ID = s.$COL_SESSION_ID AND f.$COL_UPLOADED = 0)
+            FROM $TABLE_SESSIONS s
+            """.trimIndent(),
+            null
+        ).use { cursor ->
+            val sessions = ArrayList<TrackRetention.Session>(cursor.count)
+            while (cursor.moveToNext()) {
+                sessions.add(TrackRetention.Session(cursor.getString(0), cursor.getLong(1), cursor.getLong(2), cursor.getInt(3) != 0))
+            }
+            sessions
+        }
+        val cutoff = nowMillis - TimeUnit.DAYS.toMillis(RETENTION_DAYS)
+        for (sessionId in TrackRetention.sessionsToDelete(sessions, cutoff, activeSessionId, countFixes(), MAX_FIXES)) {
+            deleted += deleteSession(sessionId)
+        }
+
+        // 3. Packing: sessions idle long enough to be finished, with every fix uploaded
+        val idleCutoff = nowMillis - TimeUnit.HOURS.toMillis(PACK_AFTER_HOURS)
+        val packable = db.rawQuery(
+            """
+            SELECT $COL_SESSION_ID FROM $TABLE_SESSIONS s
+            WHERE $COL_ENDED_AT < ?
+                AND EXISTS (SELECT 1 FROM $TABLE_FIXES f WHERE f.$COL_SESSION_ID = s.$COL_SESSION_ID)
+                AND NOT EXISTS (SELECT 1 FROM $TABLE_FIXES f WHERE f.$COL_SESSION_ID = s.$COL_SESSION_ID AND f.$COL_UPLOADED = 0)
+            """.trimIndent(),
+            arrayOf(idleCutoff.toString())
+        ).use { cursor ->
+            val sessionIds = ArrayList<String>(cursor.count)
+            while (cursor.moveToNext()) sessionIds.add(cursor.getString(0))
+            sessionIds
+        }
+        var packed = 0
+        for (sessionId in packable) packed += packSession(sessionId)
+
+        // 4. Compaction: return freed pages to the file system
+        if (deleted > 0 || packed > 0) {
+            db.rawQuery("PRAGMA incremental_vacuum", null).use { cursor -> while (cursor.moveToNext()) { /* drain */ } }
+            Timber.i("Track history retention removed $deleted fixes and packed $packed.")
+        }
+        deleted
+    }
+
+    // --- Private Helper Methods ---
+
+    /**
+     * Folds a new fix into its session row. Must be called inside a transaction.
+     */
+    private fun updateSessionSummary(sessionId: String, location: Location) {
+        val db = database.writableDatabase
+        val existing = db.query(
+            TABLE_SESSIONS,
+            arrayOf(COL_LAST_LATITUDE, COL_LAST_LONGITUDE),
+            "$COL_SESSION_ID = ?",
+            arrayOf(sessionId),
+            null, null, null, "1"
+        ).use { cursor -> if (cursor.moveToFirst()) doubleArrayOf(cursor.getDouble(0), cursor.getDouble(1)) else null }
+
+        if (existing == null) {
+            db.insertOrThrow(TABLE_SESSIONS, null, ContentValues().apply {
+                put(COL_SESSION_ID, sessionId)
+                put(COL_STARTED_AT, location.time)
+                put(COL_ENDED_AT, location.time)
+                put(COL_FIX_COUNT, 1)
+                put(COL_DISTANCE, 0.0)
+                put(COL_MAX_SPEED, location.speed)
+                put(COL_MIN_LATITUDE, location.latitude)
+                put(COL_MAX_LATITUDE, location.latitude)
+                put(COL_MIN_LONGITUDE, location.longitude)
+                put(COL_MAX_LONGITUDE, location.longitude)
+                put(COL_LAST_LATITUDE, location.latitude)
+                put(COL_LAST_LONGITUDE, location.longitude)
+            })
+            return
+        }
+
+        val increment = FloatArray(1)
+        Location.distanceBetween(existing[0], existing[1], location.latitude, location.longitude, increment)
+        db.execSQL(
+            """
+            UPDATE $TABLE_SESSIONS SET
+                $COL_STARTED_AT = MIN($COL_STARTED_AT, ?),
+                $COL_ENDED_AT = MAX($COL_ENDED_AT, ?),
+                $COL_FIX_COUNT = $COL_FIX_COUNT + 1,
+                $COL_DISTANCE = $COL_DISTANCE + ?,
+                $COL_MAX_SPEED = MAX($COL_MAX_SPEED, ?),
+                $COL_MIN_LATITUDE = MIN($COL_MIN_LATITUDE, ?),
+                $COL_MAX_LATITUDE = MAX($COL_MAX_LATITUDE, ?),
+                $COL_MIN_LONGITUDE = MIN($COL_MIN_LONGITUDE, ?),
+                $COL_MAX_LONGITUDE = MAX($COL_MAX_LONGITUDE, ?),
+                $COL_LAST_LATITUDE = ?,
+                $COL_LAST_LONGITUDE = ?
+            WHERE $COL_SESSION_ID = ?
+            """.trimIndent(),
+            arrayOf<Any>(
+                location.time, location.time, increment[0].toDouble(), location.speed.toDouble(),
+                location.latitude, location.latitude, location.longitude, location.longitude,
+                location.latitude, location.longitude, sessionId
+            )
+        )
+    }
+
+    private fun SessionStats.toContentValues() = ContentValues().apply {
+        put(COL_MOVING_DISTANCE, movingDistanceMeters)
+        put(COL_MOVING_MILLIS, movingMillis)
+        put(COL_STOPPED_MILLIS, stoppedMillis)
+        put(COL_ELEVATION_GAIN, elevationGainMeters)
+        put(COL_STOP_COUNT, stopCount)
+        put(COL_STATS_MAX_SPEED, maxSpeed)
+        put(COL_LAST_FIX_TIME, lastFixTime)
+        put(COL_STOPPED_SINCE, stoppedSince)
+        if (altitudeBaseline.isNaN()) putNull(COL_ALTITUDE_BASELINE) else put(COL_ALTITUDE_BASELINE, altitudeBaseline)
+        put(COL_TRIP_NUMBER, trip.tripNumber)
+        if (trip.anchorLatitude.isNaN()) putNull(COL_TRIP_ANCHOR_LATITUDE) else put(COL_TRIP_ANCHOR_LATITUDE, trip.anchorLatitude)
+        if (trip.anchorLongitude.isNaN()) putNull(COL_TRIP_ANCHOR_LONGITUDE) else put(COL_TRIP_ANCHOR_LONGITUDE, trip.anchorLongitude)
+        put(COL_TRIP_ANCHOR_TIME, trip.anchorTime)
+        put(COL_TRIP_DWELLING, if (trip.dwelling) 1 else 0)
+    }
+
+    private fun deleteSession(sessionId: String): Int {
+        val db = database.writableDatabase
+        db.beginTransaction()
+        try {
+            val packed = db.rawQuery(
+                "SELECT IFNULL(SUM($COL_FIX_COUNT), 0) FROM $TABLE_CHUNKS WHERE $COL_SESSION_ID = ?", arrayOf(sessionId)
+            ).use { cursor -> if (cursor.moveToFirst()) cursor.getInt(0) else 0 }
+            val removed = db.delete(TABLE_FIXES, "$COL_SESSION_ID = ?", arrayOf(sessionId))
+            db.delete(TABLE_CHUNKS, "$COL_SESSION_ID = ?", arrayOf(sessionId))
+            db.delete(TABLE_SESSIONS, "$COL_SESSION_ID = ?", arrayOf(sessionId))
+            db.setTransactionSuccessful()
+            return removed + packed
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Moves all rows of a session into chunks of up to [FixChunk.MAX_FIXES] fixes in one
+     * transaction.
+     *
+     * @return The number of fixes packed
+     */
+    private fun packSession(sessionId: String): Int {
+        val db = database.writableDatabase
+        val encoder = FixChunk.Encoder()
+        db.beginTransaction()
+        try {
+            db.query(
+                TABLE_FIXES, FIX_COLUMNS, "$COL_SESSION_ID = ?", arrayOf(sessionId), null, null, "$COL_TIME ASC"
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    encoder.add(
+                        id = cursor.getLong(0),
+                        time = cursor.getLong(2),
+                        latitude = cursor.getDouble(3),
+                        longitude = cursor.getDouble(4),
+                        altitude = cursor.getDouble(5),
+                        speed = cursor.getFloat(6),
+                        bearing = cursor.getFloat(7),
+                        accuracy = cursor.getFloat(8),
+                        provider = cursor.getString(9),
+                        tripNumber = cursor.getInt(12)
+                    )
+                    if (encoder.size == FixChunk.MAX_FIXES) insertChunk(sessionId, encoder)
+                }
+            }
+            if (encoder.size > 0) insertChunk(sessionId, encoder)
+            val packed = db.delete(TABLE_FIXES, "$COL_SESSION_ID = ?", arrayOf(sessionId))
+            db.setTransactionSuccessful()
+            return packed
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Stores the chunk built by [encoder] and resets it. Must be called inside a transaction.
+     */
+    private fun insertChunk(sessionId: String, encoder: FixChunk.Encoder) {
+        database.writableDatabase.insertOrThrow(TABLE_CHUNKS, null, ContentValues().apply {
+            put(COL_SESSION_ID, sessionId)
+            put(COL_FIRST_TIME, encoder.firstTime)
+            put(COL_LAST_TIME, encoder.lastTime)
+            put(COL_FIX_COUNT, encoder.size)
+            put(COL_MIN_LATITUDE, encoder.minLatitude)
+            put(COL_MAX_LATITUDE, encoder.maxLatitude)
+            put(COL_MIN_LONGITUDE, encoder.minLongitude)
+            put(COL_MAX_LONGITUDE, encoder.maxLongitude)
+            put(COL_DATA, encoder.toByteArray())
+        })
+        encoder.reset()
+    }
+
+    private fun countFixes(): Long =
+        database.readableDatabase.rawQuery(
+            "SELECT (SELECT COUNT(*) FROM $TABLE_FIXES) + (SELECT IFNULL(SUM($COL_FIX_COUNT), 0) FROM $TABLE_CHUNKS)", null
+        ).use { cursor -> if (cursor.moveToFirst()) cursor.getLong(0) else 0L }
+
+    /**
+     * Decodes the chunks matching [selection], oldest first, and returns the fixes
+     * accepted by [filter].
+     *
+     * Stored sessions do not overlap in time, so chunks in start time order yield fixes
+     * in time order and decoding can stop once [limit] fixes were found.
+     */
+    private inline fun chunkPoints(
+        selection: String,
+        args: Array<String>,
+        limit: Int = Int.MAX_VALUE,
+        filter: (FixChunk.Reader) -> Boolean
+    ): List<TrackPoint> {
+        val points = ArrayList<TrackPoint>()
+        database.readableDatabase.query(
+            TABLE_CHUNKS, arrayOf(COL_SESSION_ID, COL_DATA), selection, args, null, null, "$COL_FIRST_TIME ASC"
+        ).use { cursor ->
+            while (points.size < limit && cursor.moveToNext()) {
+                val sessionId = cursor.getString(0)
+                val chunk = FixChunk.Reader(cursor.getBlob(1))
+                while (points.size < limit && chunk.moveToNext()) {
+                    if (filter(chunk)) points.add(chunk.toTrackPoint(sessionId))
+                }
+            }
+        }
+        return points
+    }
+
+    private fun queryPoints(selection: String, args: Array<String>, orderBy: String, limit: String?): List<TrackPoint> =
+        database.readableDatabase.query(TABLE_FIXES, FIX_COLUMNS, selection, args, null, null, orderBy, limit)
+            .use { cursor ->
+                val points = ArrayList<TrackPoint>(cursor.count)
+                while (cursor.moveToNext()) points.add(cursor.toTrackPoint())
+                points
+            }
+
+    private fun Cursor.toTrackPoint() = TrackPoint(
+        id = getLong(0),
+        sessionId = getString(1),
+        time = getLong(2),
+        latitude = getDouble(3),
+        longitude = getDouble(4),
+        altitude = getDouble(5),
+        speed = getFloat(6),
+        bearing = getFloat(7),
+        accuracy = getFloat(8),
+        provider = getString(9),
+        uploaded = getInt(10) != 0,
+        fixId = getString(11) ?: "",
+        tripNumber = getInt(12),
+        distanceMeters = getDouble(13)
+    )
+
+    private fun FixChunk.Reader.toTrackPoint(sessionId: String) = TrackPoint(
+        id = id,
+        sessionId = sessionId,
+        time = time,
+        latitude = latitude,
+        longitude = longitude,
+        altitude = altitude,
+        speed = speed,
+        bearing = bearing,
+        accuracy = accuracy,
+        provider = provider,
+        uploaded = true,
+        fixId = "",
+        tripNumber = tripNumber
+    )
+
+    private fun Cursor.toSessionSummary() = SessionSummary(
+        sessionId = getString(getColumnIndexOrThrow(COL_SESSION_ID)),
+        startedAt = getLong(getColumnIndexOrThrow(COL_STARTED_AT)),
+        endedAt = getLong(getColumnIndexOrThrow(COL_ENDED_AT)),
+        fixCount = getInt(getColumnIndexOrThrow(COL_FIX_COUNT)),
+        distanceMeters = getDouble(getColumnIndexOrThrow(COL_DISTANCE)),
+        maxSpeed = getFloat(getColumnIndexOrThrow(COL_MAX_SPEED)),
+        minLatitude = getDouble(getColumnIndexOrThrow(COL_MIN_LATITUDE)),
+        minLongitude = getDouble(getColumnIndexOrThrow(COL_MIN_LONGITUDE)),
+        maxLatitude = getDouble(getColumnIndexOrThrow(COL_MAX_LATITUDE)),
+        maxLongitude = getDouble(getColumnIndexOrThrow(COL_MAX_LONGITUDE)),
+        stats = SessionStats(
+            movingDistanceMeters = getDouble(getColumnIndexOrThrow(COL_MOVING_DISTANCE)),
+            movingMillis = getLong(getColumnIndexOrThrow(COL_MOVING_MILLIS)),
+            stoppedMillis = getLong(getColumnIndexOrThrow(COL_STOPPED_MILLIS)),
+            maxSpeed = getFloat(getColumnIndexOrThrow(COL_STATS_MAX_SPEED)),
+            elevationGainMeters = getDouble(getColumnIndexOrThrow(COL_ELEVATION_GAIN)),
+            stopCount = getInt(getColumnIndexOrThrow(COL_STOP_COUNT)),
+            lastFixTime = getLong(getColumnIndexOrThrow(COL_LAST_FIX_TIME)),
+            stoppedSince = getLong(getColumnIndexOrThrow(COL_STOPPED_SINCE)),
+            altitudeBaseline = getColumnIndexOrThrow(COL_ALTITUDE_BASELINE)
+                .let { if (isNull(it)) Double.NaN else getDouble(it) },
+            trip = TripSegmenter(
+                tripNumber = getInt(getColumnIndexOrThrow(COL_TRIP_NUMBER)),
+                anchorLatitude = getColumnIndexOrThrow(COL_TRIP_ANCHOR_LATITUDE)
+                    .let { if (isNull(it)) Double.NaN else getDouble(it) },
+                anchorLongitude = getColumnIndexOrThrow(COL_TRIP_ANCHOR_LONGITUDE)
+                    .let { if (isNull(it)) Double.NaN else getDouble(it) },
+                anchorTime = getLong(getColumnIndexOrThrow(COL_TRIP_ANCHOR_TIME)),
+                dwelling = getInt(getColumnIndexOrThrow(COL_TRIP_DWELLING)) != 0
+            )
+        )
+    )
+
+    /**
+     * Constants used by this repository implementation
+     */
+    companion object {
+        /**
+         * Sessions that ended longer ago than this are deleted
+         */
+        const val RETENTION_DAYS = 30L
+
+        /**
+         * Upper bound on stored fixes; oldest sessions are dropped beyond it, unless they
+         * still have fixes to upload
+         */
+        const val MAX_FIXES = 500_000L
+
+        /**
+         * Sessions without a new fix for this long are considered finished and, once fully
+         * uploaded, packed into chunks
+         */
+        const val PACK_AFTER_HOURS = 24L
+
+        /**
+         * Column order expected by [toTrackPoint] and [packSession]
+         */
+        private val FIX_COLUMNS = arrayOf(
+            COL_ID, COL_SESSION_ID, COL_TIME, COL_LATITUDE, COL_LONGITUDE, COL_ALTITUDE,
+            COL_SPEED, COL_BEARING, COL_ACCURACY, COL_PROVIDER, COL_UPLOADED, COL_FIX_ID, COL_TRIP, COL_DISTANCE
+        )
+    }
+}
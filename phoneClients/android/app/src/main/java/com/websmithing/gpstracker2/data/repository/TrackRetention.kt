@@ -0,0 +1,57 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/repository/TrackRetention.kt
+package com.websmithing.gpstracker2.data.repository
+
+/**
+ * Chooses the sessions the track history deletes under its retention policy.
+ *
+ * Sessions that ended before the retention window go first, then the oldest sessions
+ * while the store holds more fixes than its bound. A session that is still being
+ * recorded, or that still has fixes waiting for upload, is never deleted: those fixes
+ * would be lost before the server has them. Until they are uploaded the store may stay
+ * above its bound.
+ */
+object TrackRetention {
+
+    /**
+     * What retention needs to know about a stored session
+     *
+     * @property sessionId The tracking session ID
+     * @property endedAt Time of the session's last fix in epoch milliseconds
+     * @property fixCount Number of fixes stored for the session
+     * @property hasPending Whether any of its fixes is still waiting for upload
+     */
+    data class Session(
+        val sessionId: String,
+        val endedAt: Long,
+        val fixCount: Long,
+        val hasPending: Boolean
+    )
+
+    /**
+     * Picks the sessions to delete.
+     *
+     * @param sessions Every stored session, in any order
+     * @param cutoffMillis Sessions that ended before this time are expired
+     * @param activeSessionId The session being recorded, or null if none
+     * @param totalFixes Number of fixes in the store
+     * @param maxFixes Upper bound on stored fixes
+     * @return IDs of the sessions to delete, oldest first
+     */
+    fun sessionsToDelete(
+        sessions: List<Session>,
+        cutoffMillis: Long,
+        activeSessionId: String?,
+        totalFixes: Long,
+        maxFixes: Long
+    ): List<String> {
+        val result = ArrayList<String>()
+        var remaining = totalFixes
+        for (session in sessions.sortedBy { it.endedAt }) {
+            if (session.hasPending || session.sessionId == activeSessionId) continue
+            if (session.endedAt >= cutoffMillis && remaining <= maxFixes) break
+            result.add(session.sessionId)
+            remaining -= session.fixCount
+        }
+        return result
+    }
+}
@@ -0,0 +1,74 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/data/repository/TripSegmenter.kt
+package com.websmithing.gpstracker2.data.repository
+
+import com.websmithing.gpstracker2.util.GeoDistance
+
+/**
+ * Splits a tracking session into trips at long stops, one fix at a time.
+ *
+ * A dwell is detected from positions alone: once fixes have stayed within
+ * [DWELL_RADIUS_METERS] of an anchor fix for at least [MIN_DWELL_MILLIS], the device is
+ * dwelling, and the first fix outside the radius starts the next trip. Fixes taken while
+ * dwelling belong to the trip that ended at the stop. Leaving the radius before the dwell
+ * time is up only moves the anchor, so slow traffic and short stops never split a trip.
+ * A gap between fixes alone does not split a trip either; long tracking intervals would
+ * otherwise end a trip at every fix.
+ *
+ * Like [SessionStats], which carries it, the value is immutable and holds all the state
+ * the fold needs, so a session restored from storage keeps numbering its trips.
+ *
+ * @property tripNumber Number of the current trip within the session, starting at 1
+ * @property anchorLatitude Latitude of the fix the dwell radius is measured from, NaN before the first fix
+ * @property anchorLongitude Longitude of the anchor fix, NaN before the first fix
+ * @property anchorTime Time of the anchor fix in epoch milliseconds
+ * @property dwelling Whether the device has stayed near the anchor for the dwell time
+ */
+data class TripSegmenter(
+    val tripNumber: Int = 1,
+    val anchorLatitude: Double = Double.NaN,
+    val anchorLongitude: Double = Double.NaN,
+    val anchorTime: Long = 0L,
+    val dwelling: Boolean = false
+) {
+    /**
+     * Folds in the next fix.
+     *
+     * @param timeMillis Fix time in epoch milliseconds
+     * @param latitude Fix latitude in degrees
+     * @param longitude Fix longitude in degrees
+     * @return The updated segmenter; its [tripNumber] is the trip the fix belongs to
+     */
+    fun add(timeMillis: Long, latitude: Double, longitude: Double): TripSegmenter {
+        if (anchorLatitude.isNaN() || anchorLongitude.isNaN()) return anchorAt(timeMillis, latitude, longitude)
+
+        val distance = GeoDistance.meters(anchorLatitude, anchorLongitude, latitude, longitude)
+        if (distance <= DWELL_RADIUS_METERS) {
+            return if (!dwelling && timeMillis - anchorTime >= MIN_DWELL_MILLIS) copy(dwelling = true) else this
+        }
+        val next = if (dwelling) copy(tripNumber = tripNumber + 1) else this
+        return next.anchorAt(timeMillis, latitude, longitude)
+    }
+
+    private fun anchorAt(timeMillis: Long, latitude: Double, longitude: Double) = copy(
+        anchorLatitude = latitude,
+        anchorLongitude = longitude,
+        anchorTime = timeMillis,
+        dwelling = false
+    )
+
+    /**
+     * Thresholds of the dwell detector
+     */
+    companion object {
+        /**
+         * Radius the device has to stay within to be dwelling; wide enough to absorb
+         * indoor GPS drift at a stop
+         */
+        const val DWELL_RADIUS_METERS = 150.0
+
+        /**
+         * Time the device has to stay within the radius before the stop ends the trip
+         */
+        const val MIN_DWELL_MILLIS = 10 * 60 * 1000L
+    }
+}
@@ -3,9 +3,13 @@ package com.websmithing.gpstracker2.di
 
 import android.content.Context
 import android.content.SharedPreferences
+import com.websmithing.gpstracker2.BuildConfig
 import com.google.android.gms.location.FusedLocationProviderClient
 import com.google.android.gms.location.LocationServices
+import com.websmithing.gpstracker2.data.local.TrackDatabase
 import com.websmithing.gpstracker2.network.ApiService
+import com.websmithing.gpstracker2.network.DataUsageInterceptor
+import com.websmithing.gpstracker2.network.DataUsageMeter
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
@@ -14,7 +18,7 @@ import dagger.hilt.components.SingletonComponent
 import okhttp3.OkHttpClient
 import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
-import retrofit2.converter.gson.GsonConverterFactory
+import retrofit2.converter.scalars.ScalarsConverterFactory
 import java.util.concurrent.TimeUnit
 import javax.inject.Singleton
 
@@ -25,6 +29,7 @@ import javax.inject.Singleton
  * instances of various dependencies used throughout the application, including:
  * - SharedPreferences for persistent storage
  * - FusedLocationProviderClient for location services
+ * - TrackDatabase for the on-device track history
  * - OkHttpClient and Retrofit for networking
  *
  * All dependencies provided by this module are scoped as singletons, meaning they
@@ -68,29 +73,48 @@ object AppModule {
         return LocationServices.getFusedLocationProviderClient(context)
     }
 
+    // --- Track History ---
+    /**
+     * Provides a singleton instance of the track history database.
+     *
+     * @param context The application context
+     * @return The TrackDatabase helper
+     */
+    @Provides
+    @Singleton
+    fun provideTrackDatabase(@ApplicationContext context: Context): TrackDatabase {
+        return TrackDatabase(context)
+    }
+
     // --- Network ---
     /**
      * Provides a singleton instance of OkHttpClient.
      *
-     * Configures the HTTP client with logging interceptors and timeouts.
-     * Longer timeouts are used to accommodate potential network issues when
-     * uploading location data from areas with poor connectivity.
+     * Configures the HTTP client with timeouts, byte accounting for the data budget and,
+     * in debug builds only, a body logging interceptor. Longer timeouts are used to
+     * accommodate potential network issues when uploading location data from areas with
+     * poor connectivity.
+     *
+     * Consumers inject this through [dagger.Lazy] so it is not built during app start.
      *
+     * @param dataUsageMeter Receives the bytes of every exchange
      * @return A configured OkHttpClient instance
      */
     @Provides
     @Singleton
-    fun provideOkHttpClient(): OkHttpClient {
-        val logging = HttpLoggingInterceptor().apply {
-            // TODO: Set level based on BuildConfig.DEBUG later
-            level = HttpLoggingInterceptor.Level.BODY
-        }
-        return OkHttpClient.Builder()
-            .addInterceptor(logging)
+    fun provideOkHttpClient(dataUsageMeter: DataUsageMeter): OkHttpClient {
+        val builder = OkHttpClient.Builder()
             .connectTimeout(60, TimeUnit.SECONDS)
             .readTimeout(60, TimeUnit.SECONDS)
             .writeTimeout(60, TimeUnit.SECONDS)
-            .build()
+            // A network interceptor sees what goes over the wire, including retries and redirects
+            .addNetworkInterceptor(DataUsageInterceptor(dataUsageMeter::record))
+        if (BuildConfig.DEBUG) {
+            builder.addInterceptor(HttpLoggingInterceptor().apply {
+                level = HttpLoggingInterceptor.Level.BODY
+            })
+        }
+        return builder.build()
     }
 
     /**
@@ -100,15 +124,23 @@ object AppModule {
      * setting a base URL. This allows the repository to dynamically set the base URL
      * at runtime based on user settings.
      *
+     * Only the scalars converter is installed. Every endpoint takes form fields or a
+     * prebuilt request body and returns `Response<String>`, and the JSON exchanged with the
+     * server (batches, upload hints, bulk upload status) is written and scanned by hand in
+     * [com.websmithing.gpstracker2.network.LocationBatchEncoder],
+     * [com.websmithing.gpstracker2.network.UploadHints] and
+     * [com.websmithing.gpstracker2.network.BulkUpload]. No reflection-based converter is
+     * loaded on the upload path.
+     *
      * @param okHttpClient The OkHttpClient to use for HTTP requests
-     * @return A Retrofit.Builder instance configured with the OkHttpClient and converter factory
+     * @return A Retrofit.Builder instance configured with the OkHttpClient and the scalars converter
      */
     @Provides
     @Singleton
     fun provideRetrofitBuilder(okHttpClient: OkHttpClient): Retrofit.Builder {
         return Retrofit.Builder()
             .client(okHttpClient)
-            .addConverterFactory(GsonConverterFactory.create())
+            .addConverterFactory(ScalarsConverterFactory.create())
             // No base URL here, it will be set dynamically in the repository
     }
 }
\ No newline at end of file
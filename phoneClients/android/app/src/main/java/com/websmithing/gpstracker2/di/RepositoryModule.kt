@@ -4,14 +4,17 @@ package com.websmithing.gpstracker2.di
 import android.content.Context
 import android.content.SharedPreferences
 import com.google.android.gms.location.FusedLocationProviderClient
+import com.websmithing.gpstracker2.data.local.TrackDatabase
 import com.websmithing.gpstracker2.data.repository.LocationRepository
 import com.websmithing.gpstracker2.data.repository.LocationRepositoryImpl
 import com.websmithing.gpstracker2.data.repository.SettingsRepository
 import com.websmithing.gpstracker2.data.repository.SettingsRepositoryImpl
+import com.websmithing.gpstracker2.data.repository.TrackHistoryRepository
+import com.websmithing.gpstracker2.data.repository.TrackHistoryRepositoryImpl
 import com.websmithing.gpstracker2.util.PermissionChecker
+import dagger.Lazy
 import dagger.Module
 import dagger.Provides
-import okhttp3.OkHttpClient
 import retrofit2.Retrofit
 import dagger.hilt.InstallIn
 import dagger.hilt.android.qualifiers.ApplicationContext
@@ -38,13 +41,20 @@ object RepositoryModule {
      * The SettingsRepository handles user preferences and app settings,
      * persisting them using SharedPreferences.
      *
+     * @param context The application context, for the fix sequence's own preferences file
      * @param sharedPreferences The SharedPreferences instance for storing settings
      * @return An implementation of SettingsRepository
      */
     @Provides
     @Singleton
-    fun provideSettingsRepository(sharedPreferences: SharedPreferences): SettingsRepository {
-        return SettingsRepositoryImpl(sharedPreferences)
+    fun provideSettingsRepository(
+        @ApplicationContext context: Context,
+        sharedPreferences: SharedPreferences
+    ): SettingsRepository {
+        return SettingsRepositoryImpl(
+            sharedPreferences,
+            context.getSharedPreferences(SettingsRepositoryImpl.FIX_SEQUENCE_PREFS_NAME, Context.MODE_PRIVATE)
+        )
     }
 
     /**
@@ -58,8 +68,8 @@ object RepositoryModule {
      *
      * @param context The application context
      * @param fusedLocationProviderClient Client for accessing location services
-     * @param okHttpClient HTTP client for network requests
-     * @param retrofitBuilder Builder for creating Retrofit instances with dynamic base URLs
+     * @param retrofitBuilder Builder for creating Retrofit instances with dynamic base URLs;
+     *   lazy so the HTTP stack is only built when the first upload needs it
      * @param settingsRepository Repository for accessing user settings
      * @param permissionChecker Utility for checking location permissions
      * @return An implementation of LocationRepository
@@ -69,18 +79,31 @@ object RepositoryModule {
     fun provideLocationRepository(
         @ApplicationContext context: Context,
         fusedLocationProviderClient: FusedLocationProviderClient,
-        okHttpClient: OkHttpClient,
-        retrofitBuilder: Retrofit.Builder,
+        retrofitBuilder: Lazy<Retrofit.Builder>,
         settingsRepository: SettingsRepository,
         permissionChecker: PermissionChecker
     ): LocationRepository {
         return LocationRepositoryImpl(
             context,
             fusedLocationProviderClient,
-            okHttpClient,
             retrofitBuilder,
             settingsRepository,
             permissionChecker
         )
     }
+
+    /**
+     * Provides a singleton implementation of the TrackHistoryRepository interface.
+     *
+     * The TrackHistoryRepository stores every handled fix on the device and answers
+     * session, time and bounding-box queries against it.
+     *
+     * @param trackDatabase The track history database
+     * @return An implementation of TrackHistoryRepository
+     */
+    @Provides
+    @Singleton
+    fun provideTrackHistoryRepository(trackDatabase: TrackDatabase): TrackHistoryRepository {
+        return TrackHistoryRepositoryImpl(trackDatabase)
+    }
 }
\ No newline at end of file
@@ -1,10 +1,15 @@
 // # android/app/src/main/java/com/websmithing/gpstracker2/network/ApiService.kt
 package com.websmithing.gpstracker2.network
 
+import okhttp3.RequestBody
 import retrofit2.Response
+import retrofit2.http.Body
 import retrofit2.http.Field
 import retrofit2.http.FormUrlEncoded
+import retrofit2.http.GET
+import retrofit2.http.Header
 import retrofit2.http.POST
+import retrofit2.http.Query
 
 /**
  * Retrofit API interface for the GPS Tracker backend.
@@ -21,41 +26,116 @@ interface ApiService {
      * Sends location data to the server.
      *
      * This method uploads the device's location information to the GPS Tracker server
-     * using HTTP POST with form URL encoding. The server expects a specific set of
-     * parameters with the location details.
+     * using HTTP POST with form URL encoding. The body is produced by [LocationFormEncoder],
+     * which encodes each field exactly once into a reusable buffer, so Retrofit passes it
+     * through untouched.
      *
      * Endpoint: https://www.websmithing.com/gpstracker/api/locations/update
      * Content-Type: application/x-www-form-urlencoded
      *
-     * @param latitude The device's latitude coordinate as a string
-     * @param longitude The device's longitude coordinate as a string
-     * @param speed The device's speed in miles per hour
-     * @param direction The device's bearing/direction in degrees (0-359)
-     * @param date The date and time of the location reading in "YYYY-MM-DD HH:MM:SS" format (URL-encoded)
-     * @param locationMethod The location provider method (e.g., "gps", "network") (URL-encoded)
-     * @param username The username identifying this tracker
-     * @param phoneNumber The unique identifier for this device (using app ID UUID)
-     * @param sessionId The UUID for the current tracking session
-     * @param accuracy The location accuracy in meters
-     * @param extraInfo Additional information (typically used for altitude in meters)
-     * @param eventType The type of event triggering this update (e.g., "periodic-android")
-     * @return A Response containing a String. Success returns the database ID or timestamp, failure returns "-1"
+     * Expected fields: latitude, longitude, speed (mph), direction (degrees), distance (miles),
+     * date (ISO-8601 UTC), locationmethod, username, phonenumber (app ID), sessionid,
+     * accuracy (meters), extrainfo (altitude in meters) and eventtype.
+     *
+     * @param body The pre-encoded form body
+     * @return A Response containing the raw JSON body, e.g. `{"status":"success","hints":{...}}`
+     *   (see [UploadHints]); legacy servers return "-1" on failure
      */
-    @FormUrlEncoded
     @POST("update")
-    suspend fun updateLocation(
-        @Field("latitude") latitude: String,
-        @Field("longitude") longitude: String,
-        @Field("speed") speed: Int,
-        @Field("direction") direction: Int,
-        @Field("date") date: String,
-        @Field("locationmethod") locationMethod: String,
-        @Field("username") username: String,
-        @Field("phonenumber") phoneNumber: String,
-        @Field("sessionid") sessionId: String,
-        @Field("accuracy") accuracy: Int,
-        @Field("extrainfo") extraInfo: String,
-        @Field("eventtype") eventType: String
+    suspend fun updateLocation(@Body body: RequestBody): Response<String>
+
+    /**
+     * Sends a batch of stored fixes to the server.
+     *
+     * Used to drain fixes that missed their live upload. The body is produced by
+     * [LocationBatchEncoder]: a JSON object whose `locations` array holds one object per
+     * fix with the same field names as [updateLocation], including the fix ID.
+     *
+     * Endpoint: https://www.websmithing.com/gpstracker/api/locations/batch
+     * Content-Type: application/json
+     *
+     * @param body The pre-encoded JSON body
+     * @return A Response containing the server's JSON summary of the batch and its [UploadHints]
+     */
+    @POST("batch")
+    suspend fun uploadBatch(@Body body: RequestBody): Response<String>
+
+    /**
+     * Sends the summary of a tracking session.
+     *
+     * Optional for servers: the client uploads it once when tracking stops, and a server
+     * without this endpoint keeps deriving what it needs from the fixes. The body is
+     * produced by [LocationBatchEncoder.encodeSummary].
+     *
+     * Endpoint: https://www.websmithing.com/gpstracker/api/locations/summary
+     * Content-Type: application/json
+     *
+     * @param body The pre-encoded JSON body
+     * @return A Response containing the server's JSON status
+     */
+    @POST("summary")
+    suspend fun uploadSessionSummary(@Body body: RequestBody): Response<String>
+
+    /**
+     * Tells the server a stationary device is still tracking.
+     *
+     * Sent instead of a fix whose position is unchanged; the server updates the device's
+     * "last seen" row rather than storing a location. Servers without this endpoint answer
+     * 404, and the client uploads the fix instead.
+     *
+     * Endpoint: https://www.websmithing.com/gpstracker/api/locations/heartbeat
+     * Content-Type: application/x-www-form-urlencoded
+     *
+     * Expected fields: username, phonenumber (app ID), sessionid, date (ISO-8601 UTC) and,
+     * if known, battery (percent).
+     *
+     * @param body The pre-encoded form body
+     * @return A Response containing the raw JSON body, e.g. `{"status":"success","hints":{...}}`
+     */
+    @POST("heartbeat")
+    suspend fun sendHeartbeat(@Body body: RequestBody): Response<String>
+
+    /**
+     * Asks how much of a bulk upload the server has committed.
+     *
+     * Sent before the first piece of a bulk upload and whenever one is resumed (see
+     * [BulkUpload]). Servers without this endpoint answer 404, and the client falls back to
+     * batch uploads.
+     *
+     * Endpoint: https://www.websmithing.com/gpstracker/api/locations/bulk
+     *
+     * @param uploadId Client-chosen ID of the upload, unique per device
+     * @param phoneNumber The device identifier (app ID)
+     * @return A Response containing the JSON status, e.g. `{"status":"success","offset":0,"complete":false}`
+     */
+    @GET("bulk")
+    suspend fun getBulkUploadStatus(
+        @Query("uploadid") uploadId: String,
+        @Query("phonenumber") phoneNumber: String
+    ): Response<String>
+
+    /**
+     * Appends a piece to a bulk upload.
+     *
+     * The body holds the bytes named by [contentRange] of a gzip-compressed NDJSON file
+     * produced by [LocationBatchEncoder.writeNdjsonGzip]. A piece that does not start at the
+     * committed offset is answered with 409 and the offset to resume from.
+     *
+     * Endpoint: https://www.websmithing.com/gpstracker/api/locations/bulk
+     * Content-Type: application/gzip
+     *
+     * @param uploadId Client-chosen ID of the upload, unique per device
+     * @param phoneNumber The device identifier (app ID)
+     * @param contentRange The piece's range, see [BulkUpload.contentRange]
+     * @param body The piece's bytes
+     * @return A Response containing the JSON status, its [UploadHints] and, once complete, the stored count
+     */
+    @POST("bulk")
+    suspend fun appendBulkUpload(
+        @Query("uploadid") uploadId: String,
+        @Query("phonenumber") phoneNumber: String,
+        @Header("Content-Range") contentRange: String,
+        @Body body: RequestBody
     ): Response<String>
     
     /**
@@ -0,0 +1,67 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/BulkUpload.kt
+package com.websmithing.gpstracker2.network
+
+import okhttp3.MediaType.Companion.toMediaType
+
+/**
+ * Protocol helpers for resumable bulk uploads.
+ *
+ * After a long offline period the backfill lane packages pending fixes into a
+ * gzip-compressed NDJSON file ([LocationBatchEncoder.writeNdjsonGzip]) and uploads it in
+ * pieces instead of posting thousands of batches:
+ *
+ * - `GET bulk` reports how many bytes of the upload the server has committed
+ * - `POST bulk` with `Content-Range: bytes start-end/total` appends the next piece; the
+ *   server refuses (409) a piece that does not start at its committed offset
+ * - when the last byte arrives the server stores the fixes and reports the upload complete
+ *
+ * A dropped connection therefore only costs the piece in flight: the next attempt asks
+ * for the offset and continues from there.
+ */
+object BulkUpload {
+
+    /**
+     * Media type of a bulk upload file
+     */
+    val GZIP_MEDIA_TYPE = "application/gzip".toMediaType()
+
+    /**
+     * Bytes sent per request; small enough that a piece usually survives a flaky link
+     */
+    const val PIECE_BYTES = 256 * 1024
+
+    /**
+     * The server's view of an upload
+     *
+     * @property offset Number of bytes committed
+     * @property complete Whether the whole file was received and stored
+     */
+    data class Status(val offset: Long, val complete: Boolean)
+
+    /**
+     * Reads the status from a bulk response body, e.g.
+     * `{"status":"success","offset":262144,"complete":false,"hints":{...}}`.
+     *
+     * @param body The response or error body
+     * @return The status, or null if the body carries no offset
+     */
+    fun parseStatus(body: String?): Status? {
+        if (body == null) return null
+        val end = body.indexOf("\"hints\"").let { if (it < 0) body.length else it }
+        val offset = UploadHints.longField(body, "offset", 0, end) ?: return null
+        return Status(offset, body.indexOf("\"complete\":true").let { it in 0 until end })
+    }
+
+    /**
+     * Formats the `Content-Range` header for a piece.
+     *
+     * For an empty piece the range is replaced by an asterisk, which asks the server to
+     * complete an upload whose bytes all arrived but whose final response was lost.
+     *
+     * @param start Offset of the piece's first byte
+     * @param length Number of bytes in the piece
+     * @param total Size of the whole file
+     */
+    fun contentRange(start: Long, length: Int, total: Long): String =
+        if (length == 0) "bytes */$total" else "bytes $start-${start + length - 1}/$total"
+}
@@ -0,0 +1,81 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/DataBudget.kt
+package com.websmithing.gpstracker2.network
+
+/**
+ * Mobile data budget for uploads, with a daily and a monthly limit.
+ *
+ * Either limit may be zero, meaning "no limit". The tighter of the two decides how close
+ * the tracker is to its budget, see [levelFor].
+ *
+ * @property dailyMegabytes Limit per local day in megabytes, 0 for none
+ * @property monthlyMegabytes Limit per local month in megabytes, 0 for none
+ */
+data class DataBudget(
+    val dailyMegabytes: Int = 0,
+    val monthlyMegabytes: Int = 0
+) {
+
+    /**
+     * How much the tracker should save on metered networks
+     */
+    enum class Level {
+        /** Well within the budget: fixes are uploaded as usual */
+        NORMAL,
+
+        /** Close to the budget: fixes are sent in compact batches and backfill waits for Wi-Fi */
+        SAVING,
+
+        /** Budget used up: nothing is sent until the device is on an unmetered network */
+        EXHAUSTED
+    }
+
+    /**
+     * Whether any limit is set
+     */
+    val isSet: Boolean
+        get() = dailyMegabytes > 0 || monthlyMegabytes > 0
+
+    /**
+     * Fraction of the tighter limit already used; 0 when no limit is set
+     *
+     * @param usage Usage of the current period, see [DataUsage.asOf]
+     */
+    fun fractionUsed(usage: DataUsage): Double = maxOf(
+        if (dailyMegabytes > 0) usage.dayBytes.toDouble() / (dailyMegabytes * BYTES_PER_MEGABYTE) else 0.0,
+        if (monthlyMegabytes > 0) usage.monthBytes.toDouble() / (monthlyMegabytes * BYTES_PER_MEGABYTE) else 0.0
+    )
+
+    /**
+     * Picks the saving level for the given usage
+     *
+     * @param usage Usage of the current period, see [DataUsage.asOf]
+     */
+    fun levelFor(usage: DataUsage): Level {
+        val used = fractionUsed(usage)
+        return when {
+            used >= 1.0 -> Level.EXHAUSTED
+            used >= SAVING_THRESHOLD -> Level.SAVING
+            else -> Level.NORMAL
+        }
+    }
+
+    /**
+     * Thresholds of the budget
+     */
+    companion object {
+        /**
+         * No limits: data use is only accounted
+         */
+        val NONE = DataBudget()
+
+        /**
+         * Fraction of a limit at which the tracker starts saving data
+         */
+        const val SAVING_THRESHOLD = 0.8
+
+        /**
+         * Bytes per megabyte, as the budget is entered
+         */
+        const val BYTES_PER_MEGABYTE = 1_000_000L
+    }
+}
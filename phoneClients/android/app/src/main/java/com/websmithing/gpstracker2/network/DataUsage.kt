@@ -0,0 +1,45 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/DataUsage.kt
+package com.websmithing.gpstracker2.network
+
+/**
+ * Bytes exchanged with the server in the current day and month.
+ *
+ * Each counter belongs to a period and restarts from zero when a byte is counted in a
+ * later one, so no scheduled reset is needed.
+ *
+ * @property day Local day the day counter belongs to, as yyyyMMdd
+ * @property dayBytes Bytes sent and received on [day]
+ * @property month Local month the month counter belongs to, as yyyyMM
+ * @property monthBytes Bytes sent and received in [month]
+ */
+data class DataUsage(
+    val day: Int = 0,
+    val dayBytes: Long = 0L,
+    val month: Int = 0,
+    val monthBytes: Long = 0L
+) {
+
+    /**
+     * Adds bytes counted on the given day.
+     *
+     * @param bytes Number of bytes to add
+     * @param day Local day, as yyyyMMdd
+     * @return The usage including [bytes]; a counter of an earlier period starts over
+     */
+    fun plus(bytes: Long, day: Int): DataUsage {
+        val month = day / 100
+        return DataUsage(
+            day = day,
+            dayBytes = (if (day == this.day) dayBytes else 0L) + bytes,
+            month = month,
+            monthBytes = (if (month == this.month) monthBytes else 0L) + bytes
+        )
+    }
+
+    /**
+     * The usage as seen on the given day: counters of earlier periods read as zero.
+     *
+     * @param day Local day, as yyyyMMdd
+     */
+    fun asOf(day: Int): DataUsage = plus(0L, day)
+}
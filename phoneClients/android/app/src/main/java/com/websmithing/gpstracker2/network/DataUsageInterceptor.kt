@@ -0,0 +1,85 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/DataUsageInterceptor.kt
+package com.websmithing.gpstracker2.network
+
+import okhttp3.Headers
+import okhttp3.Interceptor
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.asResponseBody
+import okio.Buffer
+import okio.ForwardingSource
+import okio.buffer
+
+/**
+ * Network interceptor that counts the bytes of every HTTP exchange.
+ *
+ * Counts the request line, headers and body as sent, and the status line, headers and
+ * body as received; the response body is counted as the caller reads it, so a response
+ * that is never read costs only its headers. TLS framing and TCP overhead are not visible at
+ * this layer, so the totals slightly undercount what the carrier bills. WebSocket frames
+ * exchanged after the upgrade are not seen either.
+ *
+ * @param record Receives byte counts, e.g. [DataUsageMeter.record]
+ */
+class DataUsageInterceptor(private val record: (Long) -> Unit) : Interceptor {
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        record(requestBytes(request))
+
+        val response = chain.proceed(request)
+        record(STATUS_LINE_BYTES + headerBytes(response.headers))
+
+        val body = response.body ?: return response
+        // Reported once the body is exhausted or closed rather than per read
+        val counting = object : ForwardingSource(body.source()) {
+            private var unreported = 0L
+
+            override fun read(sink: Buffer, byteCount: Long): Long {
+                val read = super.read(sink, byteCount)
+                if (read > 0L) unreported += read else report()
+                return read
+            }
+
+            override fun close() {
+                report()
+                super.close()
+            }
+
+            private fun report() {
+                if (unreported > 0L) record(unreported)
+                unreported = 0L
+            }
+        }
+        return response.newBuilder()
+            .body(counting.buffer().asResponseBody(body.contentType(), body.contentLength()))
+            .build()
+    }
+
+    private fun requestBytes(request: Request): Long {
+        val url = request.url
+        val target = url.encodedPath.length + (url.encodedQuery?.let { it.length + 1 } ?: 0)
+        val line = request.method.length + 1 + target + REQUEST_LINE_SUFFIX_BYTES
+        return line + headerBytes(request.headers) + (request.body?.contentLength()?.coerceAtLeast(0L) ?: 0L)
+    }
+
+    /**
+     * Bytes of a header block on the wire: "Name: value\r\n" per header plus the blank line
+     */
+    private fun headerBytes(headers: Headers): Long = headers.byteCount() + headers.size * 4L + 2L
+
+    /**
+     * Sizes of the fixed parts of HTTP/1.1 start lines
+     */
+    companion object {
+        /**
+         * " HTTP/1.1\r\n" after the request target
+         */
+        private const val REQUEST_LINE_SUFFIX_BYTES = 11
+
+        /**
+         * A typical "HTTP/1.1 200 OK\r\n"
+         */
+        private const val STATUS_LINE_BYTES = 17L
+    }
+}
@@ -0,0 +1,89 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/DataUsageMeter.kt
+package com.websmithing.gpstracker2.network
+
+import android.content.Context
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.updateAndGet
+import java.util.Calendar
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Keeps the day and month totals of bytes exchanged with the server.
+ *
+ * Fed by [DataUsageInterceptor] for every HTTP exchange of the shared client, and
+ * persisted so the totals survive process restarts. Thread-safe.
+ *
+ * Bytes are counted in the tracking service's process; the UI process shows the totals
+ * read at start and then those passed to [adopt].
+ */
+@Singleton
+class DataUsageMeter @Inject constructor(
+    @ApplicationContext context: Context
+) {
+    private val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    private val _usage = MutableStateFlow(
+        DataUsage(
+            day = prefs.getInt(KEY_DAY, 0),
+            dayBytes = prefs.getLong(KEY_DAY_BYTES, 0L),
+            month = prefs.getInt(KEY_MONTH, 0),
+            monthBytes = prefs.getLong(KEY_MONTH_BYTES, 0L)
+        )
+    )
+
+    /**
+     * Totals as last counted; they may belong to an earlier day, see [current]
+     */
+    val usage: StateFlow<DataUsage> = _usage.asStateFlow()
+
+    /**
+     * Counts bytes sent or received now.
+     *
+     * @param bytes Number of bytes
+     */
+    fun record(bytes: Long) {
+        if (bytes <= 0L) return
+        val usage = _usage.updateAndGet { it.plus(bytes, today()) }
+        prefs.edit()
+            .putInt(KEY_DAY, usage.day)
+            .putLong(KEY_DAY_BYTES, usage.dayBytes)
+            .putInt(KEY_MONTH, usage.month)
+            .putLong(KEY_MONTH_BYTES, usage.monthBytes)
+            .apply()
+    }
+
+    /**
+     * Takes over totals counted by the tracking service, which runs in its own process
+     * and persists them there; nothing is written here.
+     *
+     * @param usage Totals reported by the service
+     */
+    fun adopt(usage: DataUsage) {
+        _usage.value = usage
+    }
+
+    /**
+     * The totals of the current day and month
+     */
+    fun current(): DataUsage = _usage.value.asOf(today())
+
+    private fun today(): Int {
+        val now = Calendar.getInstance()
+        return now.get(Calendar.YEAR) * 10_000 + (now.get(Calendar.MONTH) + 1) * 100 + now.get(Calendar.DAY_OF_MONTH)
+    }
+
+    /**
+     * Constants used by the meter
+     */
+    companion object {
+        private const val PREFS_NAME = "com.websmithing.gpstracker2.data_usage"
+        private const val KEY_DAY = "day"
+        private const val KEY_DAY_BYTES = "dayBytes"
+        private const val KEY_MONTH = "month"
+        private const val KEY_MONTH_BYTES = "monthBytes"
+    }
+}
@@ -0,0 +1,32 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/FixedPoint.kt
+package com.websmithing.gpstracker2.network
+
+/**
+ * Appends a decimal in fixed-point notation, rounded half-up to [fractionDigits] places and
+ * always written with a '.' separator regardless of the device locale.
+ *
+ * Used by the compact wire formats, which must not allocate formatters per fix.
+ *
+ * @param value The value to append; NaN and infinities are written as 0
+ * @param fractionDigits Number of digits after the decimal point (0-9)
+ * @return This builder for chaining
+ */
+internal fun StringBuilder.appendFixedPoint(value: Double, fractionDigits: Int): StringBuilder {
+    if (value.isNaN() || value.isInfinite()) return append('0')
+    var scale = 1L
+    repeat(fractionDigits) { scale *= 10 }
+    val scaled = Math.round(Math.abs(value) * scale)
+    if (value < 0 && scaled != 0L) append('-')
+    append(scaled / scale)
+    if (fractionDigits > 0) {
+        append('.')
+        val fraction = scaled % scale
+        var pad = scale / 10
+        while (pad > 1 && fraction < pad) {
+            append('0')
+            pad /= 10
+        }
+        append(fraction)
+    }
+    return this
+}
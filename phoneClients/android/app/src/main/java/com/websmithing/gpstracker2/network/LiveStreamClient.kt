@@ -0,0 +1,279 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/LiveStreamClient.kt
+package com.websmithing.gpstracker2.network
+
+import android.location.Location
+import android.os.SystemClock
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+import kotlin.math.roundToInt
+
+/**
+ * Persistent WebSocket uplink for live mode.
+ *
+ * At 1-5 second intervals a full HTTP POST per fix costs more in headers, form fields and
+ * round trips than the fix itself. In live mode fixes are instead written as compact text
+ * frames onto one long-lived socket, and the server acknowledges each stored fix by its
+ * fix ID. Frames are `|`-separated:
+ *
+ * - client hello: `H|1|<username>|<appId>|<sessionId>`
+ * - client fix: `F|<fixId>|<timeMillis>|<lat>|<lon>|<speedMph>|<bearing>|<accuracy>|<altitude>|<distanceMiles>|<provider>|<tripNumber>`
+ * - server ack: `A|<fixId>`
+ * - server nack: `N|<fixId>|<reason>`
+ *
+ * The client never retries on its own. [send] returns false whenever the socket is not
+ * open, so the caller falls back to the HTTP upload; fixes that were sent but never
+ * acknowledged stay pending locally and are delivered later by the backfill lane. The
+ * fix IDs make any resulting duplicates harmless. After a failure, [connect] waits with
+ * exponential backoff before opening a new socket.
+ *
+ * Instances are intended to be driven from a single thread ([connect], [send]); listener
+ * callbacks arrive on OkHttp's reader thread.
+ *
+ * @param okHttpClient Base client; a derived client with ping frames and no read timeout is used for the socket
+ * @param listener Receives acknowledgements and disconnects
+ * @param elapsedRealtime Monotonic clock in milliseconds, used for the reconnect backoff
+ */
+class LiveStreamClient(
+    okHttpClient: OkHttpClient,
+    private val listener: Listener,
+    private val elapsedRealtime: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    /**
+     * Callbacks for stream events
+     */
+    interface Listener {
+        /**
+         * The server stored the fix with the given ID
+         */
+        fun onAck(fixId: String)
+
+        /**
+         * The server could not store the fix with the given ID
+         */
+        fun onNack(fixId: String, reason: String)
+
+        /**
+         * The socket closed or failed; unacknowledged fixes will not be acknowledged anymore
+         */
+        fun onDisconnected()
+    }
+
+    /**
+     * Client used for the socket: no read timeout, since a quiet socket is normal, and
+     * pings so dead connections are noticed
+     */
+    private val socketClient = okHttpClient.newBuilder()
+        .readTimeout(0, TimeUnit.MILLISECONDS)
+        .pingInterval(PING_INTERVAL_SECONDS, TimeUnit.SECONDS)
+        .build()
+
+    /**
+     * The current socket, or null when disconnected
+     */
+    @Volatile
+    private var webSocket: WebSocket? = null
+
+    /**
+     * Whether the server accepted the handshake on [webSocket]
+     */
+    @Volatile
+    private var open = false
+
+    /**
+     * Current reconnect delay; doubled after every failure, reset once a socket opens
+     */
+    private var backoffMillis = INITIAL_BACKOFF_MS
+
+    /**
+     * Earliest time (elapsed milliseconds) at which [connect] may open a new socket
+     */
+    @Volatile
+    private var nextAttemptAtMillis = 0L
+
+    /**
+     * Reused buffer for encoding fix frames
+     */
+    private val frame = StringBuilder(FRAME_CAPACITY)
+
+    /**
+     * Whether fixes can currently be sent over the stream
+     */
+    val isOpen: Boolean
+        get() = open
+
+    /**
+     * Opens the socket unless one is open or opening, or the reconnect backoff has not
+     * elapsed yet. Returns immediately; the hello frame is queued behind the handshake.
+     *
+     * @param url The stream URL (see [ServerUrls.streamUrl])
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @param sessionId Unique identifier for this tracking session
+     */
+    fun connect(url: String, username: String, appId: String, sessionId: String) {
+        if (webSocket != null || elapsedRealtime() < nextAttemptAtMillis) return
+        Timber.tag(TAG).i("Opening live stream to $url")
+        val request = Request.Builder().url(url).build()
+        val socket = socketClient.newWebSocket(request, SocketListener())
+        webSocket = socket
+        socket.send(helloFrame(username, appId, sessionId))
+    }
+
+    /**
+     * Sends a fix over the open socket.
+     *
+     * @param location The fix to send
+     * @param fixId Stable client-generated ID of this fix
+     * @param distanceMiles Total distance of the session so far, in miles
+     * @param tripNumber Trip within the session the fix belongs to
+     * @return true if the frame was queued on an open socket and an ack can be expected;
+     *   false if the caller should upload the fix another way
+     */
+    fun send(location: Location, fixId: String, distanceMiles: Double, tripNumber: Int): Boolean {
+        val socket = webSocket ?: return false
+        if (!open) return false
+        return socket.send(fixFrame(frame, location, fixId, distanceMiles, tripNumber))
+    }
+
+    /**
+     * Closes the socket. Safe to call when not connected.
+     */
+    fun close() {
+        webSocket?.close(CLOSE_NORMAL, null)
+        webSocket = null
+        open = false
+    }
+
+    /**
+     * Marks [socket] as gone and schedules the next connection attempt
+     */
+    private fun disconnected(socket: WebSocket, failed: Boolean) {
+        if (webSocket !== socket) return
+        webSocket = null
+        open = false
+        if (failed) {
+            nextAttemptAtMillis = elapsedRealtime() + backoffMillis
+            backoffMillis = minOf(backoffMillis * 2, MAX_BACKOFF_MS)
+        }
+        listener.onDisconnected()
+    }
+
+    /**
+     * Routes socket events to the client state and the [listener]
+     */
+    private inner class SocketListener : WebSocketListener() {
+        override fun onOpen(webSocket: WebSocket, response: Response) {
+            if (this@LiveStreamClient.webSocket !== webSocket) return
+            Timber.tag(TAG).i("Live stream open")
+            open = true
+            backoffMillis = INITIAL_BACKOFF_MS
+        }
+
+        override fun onMessage(webSocket: WebSocket, text: String) {
+            val fields = text.split('|')
+            when (fields[0]) {
+                "A" -> if (fields.size >= 2) listener.onAck(fields[1])
+                "N" -> if (fields.size >= 2) listener.onNack(fields[1], fields.getOrElse(2) { "" })
+                else -> Timber.tag(TAG).w("Unknown live stream frame: $text")
+            }
+        }
+
+        override fun onClosing(webSocket: WebSocket, code: Int, reason: String) {
+            Timber.tag(TAG).i("Live stream closed by server: $code $reason")
+            webSocket.close(CLOSE_NORMAL, null)
+            disconnected(webSocket, failed = code != CLOSE_NORMAL)
+        }
+
+        override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
+            Timber.tag(TAG).w(t, "Live stream failed (HTTP ${response?.code})")
+            disconnected(webSocket, failed = true)
+        }
+    }
+
+    /**
+     * Constants and frame encoding for the live stream
+     */
+    companion object {
+        private const val TAG = "LiveStreamClient"
+
+        /**
+         * Protocol version sent in the hello frame
+         */
+        const val PROTOCOL_VERSION = 1
+
+        /**
+         * WebSocket close code for a normal closure
+         */
+        private const val CLOSE_NORMAL = 1000
+
+        /**
+         * Interval between WebSocket pings
+         */
+        private const val PING_INTERVAL_SECONDS = 20L
+
+        /**
+         * First reconnect delay after a failure
+         */
+        private const val INITIAL_BACKOFF_MS = 2_000L
+
+        /**
+         * Longest reconnect delay
+         */
+        private const val MAX_BACKOFF_MS = 60_000L
+
+        /**
+         * Initial capacity of the frame buffer; a typical fix frame is about 80 characters
+         */
+        private const val FRAME_CAPACITY = 128
+
+        /**
+         * Encodes the hello frame that identifies the tracker on a new socket
+         */
+        fun helloFrame(username: String, appId: String, sessionId: String): String =
+            StringBuilder(FRAME_CAPACITY)
+                .append("H|").append(PROTOCOL_VERSION)
+                .append('|').appendField(username)
+                .append('|').appendField(appId)
+                .append('|').appendField(sessionId)
+                .toString()
+
+        /**
+         * Encodes a fix frame into [out], which is cleared first.
+         *
+         * Units and rounding match the HTTP form upload, so the server stores identical rows
+         * whichever path a fix took.
+         *
+         * @return The encoded frame
+         */
+        fun fixFrame(out: StringBuilder, location: Location, fixId: String, distanceMiles: Double, tripNumber: Int): String {
+            out.setLength(0)
+            out.append("F|").appendField(fixId)
+                .append('|').append(location.time)
+                .append('|').appendFixedPoint(location.latitude, 7)
+                .append('|').appendFixedPoint(location.longitude, 7)
+                .append('|').append((location.speed * 2.2369).roundToInt())
+                .append('|').append(location.bearing.roundToInt())
+                .append('|').append(location.accuracy.roundToInt())
+                .append('|').append(location.altitude.roundToInt())
+                .append('|').appendFixedPoint(distanceMiles, 1)
+                .append('|').appendField(location.provider ?: "unknown")
+                .append('|').append(tripNumber)
+            return out.toString()
+        }
+
+        /**
+         * Appends a text field, replacing the separator and line breaks so a field can
+         * never split the frame
+         */
+        private fun StringBuilder.appendField(value: String): StringBuilder {
+            for (c in value) append(if (c == '|' || c == '\n' || c == '\r') '_' else c)
+            return this
+        }
+    }
+}
@@ -0,0 +1,183 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/LocationBatchEncoder.kt
+package com.websmithing.gpstracker2.network
+
+import com.websmithing.gpstracker2.data.repository.SessionSummary
+import com.websmithing.gpstracker2.data.repository.TrackPoint
+import com.websmithing.gpstracker2.util.GeoCell
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
+import java.io.OutputStream
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.TimeZone
+import java.util.zip.GZIPOutputStream
+import kotlin.math.roundToInt
+
+/**
+ * Encodes stored fixes into the JSON body of a batch upload, and session summaries into
+ * the body of a summary upload.
+ *
+ * The batch document has the shape `{"locations":[{...},{...}]}`, where each object uses the
+ * same field names and units as the single-fix form upload, so the server can run both
+ * through the same sanitization. Written by hand to keep reflection-based JSON libraries
+ * off the upload path.
+ */
+object LocationBatchEncoder {
+
+    /**
+     * Media type of the encoded batch
+     */
+    val JSON_MEDIA_TYPE = "application/json; charset=utf-8".toMediaType()
+
+    /**
+     * Event type reported for fixes delivered by the backfill lane
+     */
+    const val EVENT_TYPE_BACKFILL = "backfill"
+
+    /**
+     * Decimals kept of each coordinate in compact batches
+     */
+    private const val COMPACT_COORDINATE_DIGITS = 5
+
+    /**
+     * Encodes a batch of fixes.
+     *
+     * @param points The fixes to encode, oldest first
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @param compact Whether to use the compact form of [appendFix], for data saving
+     * @return The JSON request body
+     */
+    fun encode(points: List<TrackPoint>, username: String, appId: String, compact: Boolean = false): RequestBody {
+        val isoFormat = isoFormat()
+        val json = StringBuilder(points.size * 320 + 16)
+        json.append("{\"locations\":[")
+        points.forEachIndexed { index, point ->
+            if (index > 0) json.append(',')
+            json.appendFix(point, username, appId, isoFormat, compact)
+        }
+        json.append("]}")
+        return json.toString().toRequestBody(JSON_MEDIA_TYPE)
+    }
+
+    /**
+     * Writes fixes as gzip-compressed NDJSON: one batch entry object per line.
+     *
+     * This is the file format of a bulk upload ([BulkUpload]). Fixes are written one at a
+     * time, so a large backlog never has to exist as a single string.
+     *
+     * @param out The stream to write to; it is finished but not closed
+     * @param points The fixes to encode, oldest first
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     */
+    fun writeNdjsonGzip(out: OutputStream, points: List<TrackPoint>, username: String, appId: String) {
+        val isoFormat = isoFormat()
+        val gzip = GZIPOutputStream(out, 8 * 1024)
+        val writer = gzip.writer(Charsets.UTF_8)
+        val line = StringBuilder(384)
+        for (point in points) {
+            line.setLength(0)
+            line.appendFix(point, username, appId, isoFormat).append('\n')
+            writer.append(line)
+        }
+        writer.flush()
+        gzip.finish()
+    }
+
+    /**
+     * Encodes a session summary.
+     *
+     * Units follow the fix uploads: distance in miles, speeds in mph, elevation gain in
+     * meters; durations are in seconds.
+     *
+     * @param summary The session summary
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @return The JSON request body
+     */
+    fun encodeSummary(summary: SessionSummary, username: String, appId: String): RequestBody {
+        val isoFormat = isoFormat()
+        val stats = summary.stats
+        val json = StringBuilder(384)
+        json.append("{\"sessionid\":").appendString(summary.sessionId)
+        json.append(",\"username\":").appendString(username)
+        json.append(",\"phonenumber\":").appendString(appId)
+        json.append(",\"startedat\":").appendString(isoFormat.format(summary.startedAt))
+        json.append(",\"endedat\":").appendString(isoFormat.format(summary.endedAt))
+        json.append(",\"fixcount\":").append(summary.fixCount)
+        json.append(",\"distance\":").appendFixedPoint(summary.distanceMeters / 1609.34, 2)
+        json.append(",\"movingtime\":").append(stats.movingMillis / 1000L)
+        json.append(",\"stoppedtime\":").append(stats.stoppedMillis / 1000L)
+        json.append(",\"avgspeed\":").appendFixedPoint(stats.averageMovingSpeed * 2.2369, 1)
+        json.append(",\"maxspeed\":").appendFixedPoint(stats.maxSpeed * 2.2369, 1)
+        json.append(",\"elevationgain\":").append(stats.elevationGainMeters.roundToInt())
+        json.append(",\"stops\":").append(stats.stopCount)
+        json.append('}')
+        return json.toString().toRequestBody(JSON_MEDIA_TYPE)
+    }
+
+    /**
+     * Creates the ISO-8601 UTC formatter for the `date` fields; not thread-safe, so one per call
+     */
+    private fun isoFormat() = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US).apply {
+        timeZone = TimeZone.getTimeZone("UTC")
+    }
+
+    /**
+     * Appends one fix as a JSON object with the field names of the single-fix form upload.
+     *
+     * The compact form rounds coordinates to 5 decimals (about 1 m) and leaves out the
+     * informational fields (location method, altitude, event type) and the [GeoCell] ID,
+     * which the server defaults or derives; it is about a third smaller.
+     */
+    private fun StringBuilder.appendFix(
+        point: TrackPoint,
+        username: String,
+        appId: String,
+        isoFormat: SimpleDateFormat,
+        compact: Boolean = false
+    ): StringBuilder {
+        if (compact) {
+            append("{\"latitude\":").appendFixedPoint(point.latitude, COMPACT_COORDINATE_DIGITS)
+            append(",\"longitude\":").appendFixedPoint(point.longitude, COMPACT_COORDINATE_DIGITS)
+        } else {
+            append("{\"latitude\":").append(point.latitude)
+            append(",\"longitude\":").append(point.longitude)
+        }
+        append(",\"speed\":").append((point.speed * 2.2369).roundToInt())
+        append(",\"direction\":").append(point.bearing.roundToInt())
+        append(",\"distance\":").appendFixedPoint(point.distanceMeters / 1609.34, 1)
+        append(",\"date\":").appendString(isoFormat.format(point.time))
+        if (!compact) append(",\"locationmethod\":").appendString(point.provider.ifEmpty { "unknown" })
+        append(",\"username\":").appendString(username)
+        append(",\"phonenumber\":").appendString(appId)
+        append(",\"sessionid\":").appendString(point.sessionId)
+        append(",\"accuracy\":").append(point.accuracy.roundToInt())
+        if (!compact) {
+            append(",\"extrainfo\":").appendString(point.altitude.roundToInt().toString())
+            append(",\"eventtype\":").appendString(EVENT_TYPE_BACKFILL)
+        }
+        append(",\"fixid\":").appendString(point.fixId)
+        append(",\"tripid\":").append(point.tripNumber)
+        if (!compact) append(",\"cellid\":").append(GeoCell.encode(point.latitude, point.longitude))
+        return append('}')
+    }
+
+    /**
+     * Appends [value] as a quoted, escaped JSON string
+     */
+    private fun StringBuilder.appendString(value: String): StringBuilder {
+        append('"')
+        for (ch in value) {
+            when {
+                ch == '"' -> append("\\\"")
+                ch == '\\' -> append("\\\\")
+                ch < ' ' -> append("\\u").append(String.format(Locale.US, "%04x", ch.code))
+                else -> append(ch)
+            }
+        }
+        return append('"')
+    }
+}
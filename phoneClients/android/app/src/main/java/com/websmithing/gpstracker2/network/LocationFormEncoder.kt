@@ -0,0 +1,304 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/LocationFormEncoder.kt
+package com.websmithing.gpstracker2.network
+
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
+
+/**
+ * Reusable encoder for `application/x-www-form-urlencoded` location upload bodies.
+ *
+ * Fields are percent-encoded straight into an internal byte buffer that is reused between
+ * fixes, so encoding a fix does not allocate formatters, intermediate strings or boxed numbers.
+ * Values are encoded exactly once; the resulting body is handed to Retrofit as a raw
+ * [RequestBody], which avoids the double encoding that `@Field` parameters caused for
+ * pre-encoded values such as the date.
+ *
+ * Instances are **not** thread-safe. Each thread should own its own encoder (see
+ * [LocationFormEncoder.forCurrentThread]) and must not suspend between [reset] and
+ * [toRequestBody].
+ *
+ * @param initialCapacity Initial size of the internal buffer in bytes
+ */
+class LocationFormEncoder(initialCapacity: Int = DEFAULT_CAPACITY) {
+
+    /**
+     * Backing buffer holding the encoded form body
+     */
+    private var buffer = ByteArray(initialCapacity)
+
+    /**
+     * Number of bytes currently written to [buffer]
+     */
+    private var length = 0
+
+    /**
+     * Scratch space used to render integer digits in reverse order
+     */
+    private val digits = ByteArray(20)
+
+    /**
+     * The number of encoded bytes currently held by the encoder
+     */
+    val size: Int
+        get() = length
+
+    /**
+     * Clears the encoder so it can be used for the next body.
+     *
+     * @return This encoder for chaining
+     */
+    fun reset(): LocationFormEncoder {
+        length = 0
+        return this
+    }
+
+    /**
+     * Appends a string field, percent-encoding both name and value as UTF-8.
+     *
+     * @param name The form field name
+     * @param value The field value
+     * @return This encoder for chaining
+     */
+    fun add(name: String, value: String): LocationFormEncoder {
+        startField(name)
+        writeEncoded(value)
+        return this
+    }
+
+    /**
+     * Appends an integer field.
+     *
+     * @param name The form field name
+     * @param value The field value
+     * @return This encoder for chaining
+     */
+    fun add(name: String, value: Int): LocationFormEncoder = add(name, value.toLong())
+
+    /**
+     * Appends a long integer field.
+     *
+     * @param name The form field name
+     * @param value The field value
+     * @return This encoder for chaining
+     */
+    fun add(name: String, value: Long): LocationFormEncoder {
+        startField(name)
+        writeLong(value)
+        return this
+    }
+
+    /**
+     * Appends a decimal field rendered in fixed-point notation.
+     *
+     * The value is rounded half-up to [fractionDigits] places and always written with a
+     * '.' separator regardless of the device locale.
+     *
+     * @param name The form field name
+     * @param value The field value
+     * @param fractionDigits Number of digits after the decimal point (0-9)
+     * @return This encoder for chaining
+     */
+    fun addDecimal(name: String, value: Double, fractionDigits: Int): LocationFormEncoder {
+        require(fractionDigits in 0..9) { "fractionDigits must be between 0 and 9" }
+        startField(name)
+        if (value.isNaN() || value.isInfinite()) {
+            writeByte('0'.code)
+            return this
+        }
+        var scale = 1L
+        repeat(fractionDigits) { scale *= 10 }
+        val scaled = Math.round(Math.abs(value) * scale)
+        if (value < 0 && scaled != 0L) writeByte('-'.code)
+        writeLong(scaled / scale)
+        if (fractionDigits > 0) {
+            writeByte('.'.code)
+            writePadded(scaled % scale, fractionDigits)
+        }
+        return this
+    }
+
+    /**
+     * Appends a timestamp field as an ISO-8601 UTC string, e.g. `2024-05-01T13:05:09Z`.
+     *
+     * @param name The form field name
+     * @param epochMillis Milliseconds since the Unix epoch
+     * @return This encoder for chaining
+     */
+    fun addIsoTimestamp(name: String, epochMillis: Long): LocationFormEncoder {
+        startField(name)
+        val epochDay = Math.floorDiv(epochMillis, MILLIS_PER_DAY)
+        val secondOfDay = (Math.floorMod(epochMillis, MILLIS_PER_DAY) / 1000L).toInt()
+
+        // Civil-from-days conversion (proleptic Gregorian calendar)
+        val z = epochDay + 719_468L
+        val era = Math.floorDiv(z, 146_097L)
+        val dayOfEra = z - era * 146_097L
+        val yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365
+        val dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100)
+        val mp = (5 * dayOfYear + 2) / 153
+        val day = dayOfYear - (153 * mp + 2) / 5 + 1
+        val month = if (mp < 10) mp + 3 else mp - 9
+        val year = yearOfEra + era * 400 + if (month <= 2) 1 else 0
+
+        writePadded(year, 4)
+        writeByte('-'.code)
+        writePadded(month, 2)
+        writeByte('-'.code)
+        writePadded(day, 2)
+        writeByte('T'.code)
+        writePadded((secondOfDay / 3600).toLong(), 2)
+        writeEscapedColon()
+        writePadded((secondOfDay / 60 % 60).toLong(), 2)
+        writeEscapedColon()
+        writePadded((secondOfDay % 60).toLong(), 2)
+        writeByte('Z'.code)
+        return this
+    }
+
+    /**
+     * Creates a request body from the currently encoded fields.
+     *
+     * The bytes are copied so the encoder can be reset and reused immediately, even while
+     * OkHttp is still writing (or retrying) the returned body.
+     *
+     * @return A form-encoded [RequestBody]
+     */
+    fun toRequestBody(): RequestBody = buffer.copyOf(length).toRequestBody(FORM_MEDIA_TYPE)
+
+    /**
+     * Returns the encoded body as a string. Intended for logging and tests.
+     */
+    override fun toString(): String = String(buffer, 0, length, Charsets.US_ASCII)
+
+    // --- Private Helper Methods ---
+
+    /**
+     * Writes the field separator (if needed) followed by the encoded name and '='
+     */
+    private fun startField(name: String) {
+        if (length > 0) writeByte('&'.code)
+        writeEncoded(name)
+        writeByte('='.code)
+    }
+
+    /**
+     * Percent-encodes [value] as UTF-8 following the form-urlencoded rules used by
+     * [java.net.URLEncoder]: unreserved characters are copied, space becomes '+'.
+     */
+    private fun writeEncoded(value: String) {
+        var i = 0
+        val n = value.length
+        while (i < n) {
+            val c = value[i].code
+            when {
+                isUnreserved(c) -> writeByte(c)
+                c == ' '.code -> writeByte('+'.code)
+                c < 0x80 -> writePercent(c)
+                c < 0x800 -> {
+                    writePercent(0xC0 or (c shr 6))
+                    writePercent(0x80 or (c and 0x3F))
+                }
+                Character.isHighSurrogate(value[i]) && i + 1 < n && Character.isLowSurrogate(value[i + 1]) -> {
+                    val cp = Character.toCodePoint(value[i], value[i + 1])
+                    writePercent(0xF0 or (cp shr 18))
+                    writePercent(0x80 or ((cp shr 12) and 0x3F))
+                    writePercent(0x80 or ((cp shr 6) and 0x3F))
+                    writePercent(0x80 or (cp and 0x3F))
+                    i++
+                }
+                else -> {
+                    writePercent(0xE0 or (c shr 12))
+                    writePercent(0x80 or ((c shr 6) and 0x3F))
+                    writePercent(0x80 or (c and 0x3F))
+                }
+            }
+            i++
+        }
+    }
+
+    private fun isUnreserved(c: Int): Boolean =
+        (c in 'a'.code..'z'.code) || (c in 'A'.code..'Z'.code) || (c in '0'.code..'9'.code) ||
+            c == '-'.code || c == '_'.code || c == '.'.code || c == '*'.code
+
+    private fun writePercent(b: Int) {
+        ensureCapacity(3)
+        buffer[length++] = '%'.code.toByte()
+        buffer[length++] = HEX[(b shr 4) and 0x0F]
+        buffer[length++] = HEX[b and 0x0F]
+    }
+
+    private fun writeEscapedColon() = writePercent(':'.code)
+
+    private fun writeLong(value: Long) {
+        if (value == Long.MIN_VALUE) {
+            // Cannot be negated; never produced by location data but keep the encoder total
+            for (ch in Long.MIN_VALUE.toString()) writeByte(ch.code)
+            return
+        }
+        var v = value
+        if (v < 0) {
+            writeByte('-'.code)
+            v = -v
+        }
+        var count = 0
+        do {
+            digits[count++] = ('0'.code + (v % 10).toInt()).toByte()
+            v /= 10
+        } while (v != 0L)
+        ensureCapacity(count)
+        while (count > 0) buffer[length++] = digits[--count]
+    }
+
+    private fun writePadded(value: Long, width: Int) {
+        var v = value
+        var count = 0
+        do {
+            digits[count++] = ('0'.code + (v % 10).toInt()).toByte()
+            v /= 10
+        } while (v != 0L)
+        ensureCapacity(maxOf(count, width))
+        repeat(width - count) { buffer[length++] = '0'.code.toByte() }
+        while (count > 0) buffer[length++] = digits[--count]
+    }
+
+    private fun writeByte(b: Int) {
+        ensureCapacity(1)
+        buffer[length++] = b.toByte()
+    }
+
+    private fun ensureCapacity(extra: Int) {
+        if (length + extra > buffer.size) {
+            buffer = buffer.copyOf(maxOf(buffer.size * 2, length + extra))
+        }
+    }
+
+    /**
+     * Constants and per-thread instances
+     */
+    companion object {
+        private const val DEFAULT_CAPACITY = 512
+        private const val MILLIS_PER_DAY = 86_400_000L
+        private val HEX = "0123456789ABCDEF".toByteArray(Charsets.US_ASCII)
+
+        /**
+         * Media type used for all encoded bodies
+         */
+        val FORM_MEDIA_TYPE: MediaType = "application/x-www-form-urlencoded".toMediaType()
+
+        /**
+         * One encoder per thread; ThreadLocal.withInitial is unavailable below API 26
+         */
+        private val perThread = object : ThreadLocal<LocationFormEncoder>() {
+            override fun initialValue() = LocationFormEncoder()
+        }
+
+        /**
+         * Returns the calling thread's encoder, already [reset].
+         *
+         * @return A thread-confined encoder ready for a new body
+         */
+        fun forCurrentThread(): LocationFormEncoder = perThread.get()!!.reset()
+    }
+}
@@ -0,0 +1,103 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/ServerUrls.kt
+package com.websmithing.gpstracker2.network
+
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import timber.log.Timber
+
+/**
+ * Derives server endpoints from the website URL entered in settings.
+ *
+ * Users enter anything from a bare host name to the full upload URL, so the value is
+ * normalized (scheme, default endpoint) before use. All HTTP endpoints are siblings in
+ * the same API directory: `update`, `batch` and the live `stream` socket; the UDP uplink
+ * uses the same host.
+ */
+object ServerUrls {
+
+    /**
+     * Upload URL used when the setting is blank
+     */
+    const val DEFAULT_UPLOAD_URL = "https://www.websmithing.com/gpstracker/api/locations/update"
+
+    /**
+     * Path of the live streaming WebSocket, relative to the API base URL
+     */
+    const val STREAM_PATH = "stream"
+
+    /**
+     * Tag used for logging
+     */
+    private const val TAG = "ServerUrls"
+
+    /**
+     * Returns the API directory of the configured upload URL, ending with a slash.
+     *
+     * @param configured The website URL from settings
+     * @return The base URL, or null if the configured URL cannot be parsed
+     */
+    fun apiBaseUrl(configured: String): String? {
+        var targetUrl = configured
+        if (targetUrl.isBlank()) {
+            Timber.tag(TAG).e("Website URL is blank. Using default URL.")
+            targetUrl = DEFAULT_UPLOAD_URL
+        }
+
+        // Ensure URL is properly formatted
+        if (!targetUrl.startsWith("http://") && !targetUrl.startsWith("https://")) {
+            targetUrl = "https://" + targetUrl
+            Timber.tag(TAG).d("Added https:// to URL: $targetUrl")
+        }
+
+        // Ensure URL has the correct endpoint
+        if (!targetUrl.contains("/update") && !targetUrl.contains("/api/")) {
+            if (targetUrl.endsWith("/")) {
+                targetUrl += "gpstracker/api/locations/update"
+            } else {
+                targetUrl += "/gpstracker/api/locations/update"
+            }
+            Timber.tag(TAG).d("Appended default endpoint: $targetUrl")
+        }
+
+        // Parse URL
+        val httpUrl = targetUrl.toHttpUrlOrNull()
+        if (httpUrl == null) {
+            Timber.tag(TAG).e("Invalid URL format after processing: $targetUrl")
+            return null
+        }
+
+        // Build base URL
+        val pathSegments = httpUrl.pathSegments.filter { it.isNotEmpty() }
+        val baseUrl = if (pathSegments.size <= 1) {
+            httpUrl.newBuilder().query(null).fragment(null).build().toString()
+        } else {
+            val basePath = "/" + pathSegments.dropLast(1).joinToString("/") + "/"
+            httpUrl.newBuilder()
+                .encodedPath(basePath)
+                .query(null)
+                .fragment(null)
+                .build()
+                .toString()
+        }
+
+        // Ensure baseUrl ends with a slash
+        return if (baseUrl.endsWith("/")) baseUrl else "$baseUrl/"
+    }
+
+    /**
+     * Returns the URL of the live streaming socket.
+     *
+     * The URL keeps its http(s) scheme; OkHttp upgrades it to ws(s) when the socket opens.
+     *
+     * @param configured The website URL from settings
+     * @return The stream URL, or null if the configured URL cannot be parsed
+     */
+    fun streamUrl(configured: String): String? = apiBaseUrl(configured)?.let { it + STREAM_PATH }
+
+    /**
+     * Returns the host name of the API server, e.g. for the UDP uplink.
+     *
+     * @param configured The website URL from settings
+     * @return The host, or null if the configured URL cannot be parsed
+     */
+    fun apiHost(configured: String): String? = apiBaseUrl(configured)?.toHttpUrlOrNull()?.host
+}
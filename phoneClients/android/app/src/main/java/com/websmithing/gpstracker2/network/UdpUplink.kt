@@ -0,0 +1,275 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/UdpUplink.kt
+package com.websmithing.gpstracker2.network
+
+import android.os.SystemClock
+import com.websmithing.gpstracker2.data.repository.TrackPoint
+import timber.log.Timber
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.SocketTimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+import kotlin.math.roundToInt
+import kotlin.random.Random
+
+/**
+ * Optional datagram uplink modeled on the TK103 hardware tracker protocol.
+ *
+ * An HTTPS upload of one fix costs a TCP and TLS handshake plus about a kilobyte of headers
+ * and form fields. Here a fix, or a small batch of fixes from one session, is sent as one
+ * comma-separated datagram that the server answers with a one-line ack:
+ *
+ * ```
+ * GT,3,<appId>,<seq>,<username>,<sessionId>,<count>,
+ *     <fixId>,<unixTime>,<lat>,<lon>,<speedMph>,<bearing>,<accuracy>,<altitude>,<tripNumber>,<distanceMiles>, ... ,<hmac>;
+ * ACK,<appId>,<seq>,<hmac>;      (all fixes stored)
+ * NAK,<appId>,<seq>,<hmac>;      (not stored, upload another way)
+ * ```
+ *
+ * A fix ID of the form `<appId>:<n>` is sent as just `<n>`. The HMAC is HMAC-SHA256 over
+ * everything before its separating comma, keyed with the secret shared with the server,
+ * truncated to 16 bytes and hex encoded. Acks are authenticated the same way, so a spoofed
+ * ack cannot mark fixes as delivered. Replays are harmless because the server ignores fix
+ * IDs it has already stored.
+ *
+ * UDP offers no delivery guarantee: a datagram is retransmitted a few times, and if no
+ * ack arrives the caller uploads over HTTP instead. After such a failure the uplink is
+ * skipped for a while, so networks that drop UDP cost one timeout rather than one per upload.
+ *
+ * Thread-safe; every send uses its own short-lived socket.
+ *
+ * @param elapsedRealtime Monotonic clock in milliseconds, used for the cool-down after failures
+ */
+class UdpUplink(
+    private val elapsedRealtime: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    /**
+     * Datagram sequence number; only has to differ between datagrams in flight
+     */
+    private val sequence = AtomicInteger(Random.nextInt(0, 1_000_000))
+
+    /**
+     * Elapsed time until which sends are skipped after a failure
+     */
+    @Volatile
+    private var skipUntilMillis = 0L
+
+    /**
+     * Sends fixes as datagrams and waits for the server's acks.
+     *
+     * @param host Server host name
+     * @param port Server UDP port
+     * @param key Secret shared with the server; blank disables the uplink
+     * @param points Fixes to send, oldest first
+     * @param username The username identifying this tracker
+     * @param appId Unique identifier for this device/installation
+     * @return true if the server acknowledged every fix; false if the caller should
+     *   upload them another way
+     */
+    fun send(host: String, port: Int, key: String, points: List<TrackPoint>, username: String, appId: String): Boolean {
+        if (key.isBlank() || points.isEmpty()) return false
+        if (elapsedRealtime() < skipUntilMillis) return false
+        return try {
+            val address = InetAddress.getByName(host)
+            val mac = newMac(key)
+            DatagramSocket().use { socket ->
+                socket.soTimeout = ACK_TIMEOUT_MS
+                datagrams(points).all { chunk -> sendDatagram(socket, address, port, mac, chunk, username, appId) }
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).w(e, "UDP uplink failed")
+            false
+        }.also { delivered ->
+            if (!delivered) skipUntilMillis = elapsedRealtime() + FAILURE_COOL_DOWN_MS
+        }
+    }
+
+    /**
+     * Sends one datagram, retransmitting until it is acknowledged or attempts run out
+     */
+    private fun sendDatagram(
+        socket: DatagramSocket,
+        address: InetAddress,
+        port: Int,
+        mac: Mac,
+        points: List<TrackPoint>,
+        username: String,
+        appId: String
+    ): Boolean {
+        val seq = sequence.incrementAndGet()
+        val payload = encode(mac, points, username, appId, seq)
+        val reply = DatagramPacket(ByteArray(MAX_ACK_BYTES), MAX_ACK_BYTES)
+        repeat(MAX_ATTEMPTS) { attempt ->
+            socket.send(DatagramPacket(payload, payload.size, address, port))
+            try {
+                // Skip stray or late replies to earlier datagrams
+                while (true) {
+                    socket.receive(reply)
+                    when (verifyReply(mac, String(reply.data, 0, reply.length, Charsets.UTF_8), appId, seq)) {
+                        true -> return true
+                        false -> return false
+                        null -> continue
+                    }
+                }
+            } catch (e: SocketTimeoutException) {
+                Timber.tag(TAG).d("No ack for datagram $seq (attempt ${attempt + 1})")
+            }
+        }
+        return false
+    }
+
+    /**
+     * Constants and encoding for the uplink
+     */
+    companion object {
+        private const val TAG = "UdpUplink"
+
+        /**
+         * Protocol version sent in every datagram; version 2 added the trip number, version 3
+         * the session distance
+         */
+        private const val PROTOCOL_VERSION = 3
+
+        /**
+         * Digits for hex encoding the HMAC
+         */
+        private const val HEX = "0123456789abcdef"
+
+        /**
+         * UDP port of the uplink receiver
+         */
+        const val DEFAULT_PORT = 7332
+
+        /**
+         * Fixes per datagram; keeps datagrams well below common path MTUs
+         */
+        const val MAX_FIXES_PER_DATAGRAM = 8
+
+        /**
+         * Time to wait for an ack before retransmitting
+         */
+        private const val ACK_TIMEOUT_MS = 1_500
+
+        /**
+         * Transmissions per datagram
+         */
+        private const val MAX_ATTEMPTS = 3
+
+        /**
+         * Time the uplink is skipped after a datagram went unacknowledged
+         */
+        private const val FAILURE_COOL_DOWN_MS = 5 * 60 * 1000L
+
+        /**
+         * Largest reply read from the server
+         */
+        private const val MAX_ACK_BYTES = 256
+
+        /**
+         * Bytes of the HMAC sent with each datagram
+         */
+        private const val MAC_BYTES = 16
+
+        /**
+         * Creates the HMAC for a shared key
+         */
+        fun newMac(key: String): Mac = Mac.getInstance("HmacSHA256").apply {
+            init(SecretKeySpec(key.toByteArray(Charsets.UTF_8), "HmacSHA256"))
+        }
+
+        /**
+         * Splits fixes into datagrams of at most [MAX_FIXES_PER_DATAGRAM] fixes from one session
+         */
+        fun datagrams(points: List<TrackPoint>): List<List<TrackPoint>> {
+            val result = mutableListOf<List<TrackPoint>>()
+            var start = 0
+            for (i in 1..points.size) {
+                if (i == points.size || i - start == MAX_FIXES_PER_DATAGRAM ||
+                    points[i].sessionId != points[start].sessionId
+                ) {
+                    result.add(points.subList(start, i))
+                    start = i
+                }
+            }
+            return result
+        }
+
+        /**
+         * Encodes fixes from one session into a signed datagram.
+         *
+         * Units and rounding follow the HTTP upload; coordinates are sent with six decimals
+         * (about 0.1 m), as TK103 devices do.
+         */
+        fun encode(mac: Mac, points: List<TrackPoint>, username: String, appId: String, seq: Int): ByteArray {
+            val text = StringBuilder(96 + points.size * 64)
+            text.append("GT,").append(PROTOCOL_VERSION)
+                .append(',').appendField(appId)
+                .append(',').append(seq)
+                .append(',').appendField(username)
+                .append(',').appendField(points.first().sessionId)
+                .append(',').append(points.size)
+            val fixIdPrefix = "$appId:"
+            for (point in points) {
+                text.append(',').appendField(point.fixId.removePrefix(fixIdPrefix))
+                    .append(',').append(point.time / 1000L)
+                    .append(',').appendFixedPoint(point.latitude, 6)
+                    .append(',').appendFixedPoint(point.longitude, 6)
+                    .append(',').append((point.speed * 2.2369).roundToInt())
+                    .append(',').append(point.bearing.roundToInt())
+                    .append(',').append(point.accuracy.roundToInt())
+                    .append(',').append(point.altitude.roundToInt())
+                    .append(',').append(point.tripNumber)
+                    .append(',').appendFixedPoint(point.distanceMeters / 1609.34, 1)
+            }
+            text.append(',').append(sign(mac, text)).append(';')
+            return text.toString().toByteArray(Charsets.UTF_8)
+        }
+
+        /**
+         * Checks a reply from the server.
+         *
+         * @return true for a valid ack of [seq], false for a valid nack of [seq], null for
+         *   anything else (forged, corrupt, or for another datagram)
+         */
+        fun verifyReply(mac: Mac, reply: String, appId: String, seq: Int): Boolean? {
+            val body = reply.trimEnd().removeSuffix(";")
+            val signatureAt = body.lastIndexOf(',')
+            if (signatureAt < 0) return null
+            val signed = body.substring(0, signatureAt)
+            if (sign(mac, signed) != body.substring(signatureAt + 1)) return null
+            val fields = signed.split(',')
+            if (fields.size != 3 || fields[1] != appId || fields[2] != seq.toString()) return null
+            return when (fields[0]) {
+                "ACK" -> true
+                "NAK" -> false
+                else -> null
+            }
+        }
+
+        /**
+         * Hex-encoded, truncated HMAC of [text]
+         */
+        private fun sign(mac: Mac, text: CharSequence): String {
+            val digest = mac.doFinal(text.toString().toByteArray(Charsets.UTF_8))
+            val hex = StringBuilder(MAC_BYTES * 2)
+            for (i in 0 until MAC_BYTES) {
+                val b = digest[i].toInt() and 0xFF
+                hex.append(HEX[b shr 4]).append(HEX[b and 0x0F])
+            }
+            return hex.toString()
+        }
+
+        /**
+         * Appends a text field, dropping separators and control characters that would break the frame
+         */
+        private fun StringBuilder.appendField(value: String): StringBuilder {
+            for (c in value) {
+                if (c != ',' && c != ';' && c >= ' ') append(c)
+            }
+            return this
+        }
+    }
+}
@@ -0,0 +1,110 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/network/UploadHints.kt
+package com.websmithing.gpstracker2.network
+
+/**
+ * Rate hints sent by the server with every upload response.
+ *
+ * The server uses them to shed load smoothly across the fleet instead of rejecting
+ * requests, which would only make clients retry harder. Zero means "no preference".
+ *
+ * @property intervalSeconds Minimum number of seconds between uploads
+ * @property maxBatch Maximum number of fixes per batch upload
+ * @property backoffUntilMillis Local wall-clock time (epoch milliseconds) before which
+ *   nothing should be uploaded
+ */
+data class UploadHints(
+    val intervalSeconds: Int = 0,
+    val maxBatch: Int = 0,
+    val backoffUntilMillis: Long = 0L
+) {
+
+    /**
+     * Whether uploads should be held back at the given time
+     *
+     * @param nowMillis The current time in epoch milliseconds
+     */
+    fun isBackingOff(nowMillis: Long): Boolean = nowMillis < backoffUntilMillis
+
+    /**
+     * Constants and parsers for server hints
+     */
+    companion object {
+        /**
+         * No hints received yet: client settings apply unchanged
+         */
+        val NONE = UploadHints()
+
+        /**
+         * Reads the `hints` object of a server response.
+         *
+         * The server's `backoff_until` is relative to its own `server_time`; it is converted
+         * to the local clock here so a skewed device clock does not stretch or skip the backoff.
+         * A hand-written scan is enough for this flat object and keeps JSON parsing out of
+         * the upload path.
+         *
+         * @param body The response body, e.g. `{"status":"success","hints":{"interval":60,...}}`
+         * @param nowMillis The current local time in epoch milliseconds
+         * @return The hints, or null if the body carries none
+         */
+        fun parse(body: String?, nowMillis: Long): UploadHints? {
+            if (body == null) return null
+            val start = body.indexOf("\"hints\"")
+            if (start < 0) return null
+            val end = body.indexOf('}', start).let { if (it < 0) body.length else it }
+
+            val interval = longField(body, "interval", start, end) ?: 0L
+            val maxBatch = longField(body, "max_batch", start, end) ?: 0L
+            val backoffUntil = longField(body, "backoff_until", start, end) ?: 0L
+            val serverTime = longField(body, "server_time", start, end)
+
+            val backoffUntilMillis = when {
+                backoffUntil <= 0L -> 0L
+                serverTime != null -> nowMillis + (backoffUntil - serverTime).coerceAtLeast(0L) * 1000L
+                else -> backoffUntil * 1000L
+            }
+            return UploadHints(
+                intervalSeconds = interval.coerceIn(0L, Int.MAX_VALUE.toLong()).toInt(),
+                maxBatch = maxBatch.coerceIn(0L, Int.MAX_VALUE.toLong()).toInt(),
+                backoffUntilMillis = backoffUntilMillis
+            )
+        }
+
+        /**
+         * Builds hints from a `Retry-After` header given in seconds.
+         *
+         * @param retryAfter The header value, or null if absent
+         * @param nowMillis The current local time in epoch milliseconds
+         * @return Hints holding uploads back for the given time, or null if the header is missing or not a number
+         */
+        fun fromRetryAfter(retryAfter: String?, nowMillis: Long): UploadHints? {
+            val seconds = retryAfter?.trim()?.toLongOrNull() ?: return null
+            if (seconds <= 0L) return null
+            return UploadHints(backoffUntilMillis = nowMillis + seconds * 1000L)
+        }
+
+        /**
+         * Finds `"key": <integer>` between [from] and [to] and returns the integer.
+         * Also reads the flat status objects of bulk uploads ([BulkUpload]).
+         */
+        internal fun longField(json: String, key: String, from: Int, to: Int): Long? {
+            val keyIndex = json.indexOf("\"$key\"", from)
+            if (keyIndex < 0 || keyIndex >= to) return null
+            var i = json.indexOf(':', keyIndex)
+            if (i < 0 || i >= to) return null
+            i++
+            while (i < to && json[i].isWhitespace()) i++
+
+            val negative = i < to && json[i] == '-'
+            if (negative) i++
+            var value = 0L
+            var digits = 0
+            while (i < to && json[i] in '0'..'9') {
+                value = value * 10 + (json[i] - '0')
+                digits++
+                i++
+            }
+            if (digits == 0) return null
+            return if (negative) -value else value
+        }
+    }
+}
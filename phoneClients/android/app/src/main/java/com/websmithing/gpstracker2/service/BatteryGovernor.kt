@@ -0,0 +1,230 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/BatteryGovernor.kt
+package com.websmithing.gpstracker2.service
+
+import com.google.android.gms.location.Priority
+import java.util.concurrent.TimeUnit
+
+/**
+ * Picks the location priority, interval and batching that keep tracking within a battery
+ * budget, given in percent of the battery per hour.
+ *
+ * The governor steps through [Tier]s from full fidelity (high accuracy at the interval
+ * chosen in settings) down to sparse low-power fixes delivered in batches. Each tier has a
+ * modeled cost per hour, built from a cost per fix at its priority and a cost per upload;
+ * the highest tier whose predicted cost fits the budget is used.
+ *
+ * The model is calibrated against the battery: the governor counts its own fixes and
+ * uploads, and once the level has dropped far enough to be measured, compares the drain
+ * with what the model expected for those events. Android only reports device-wide drain,
+ * so the calibration factor is bounded to [MIN_CALIBRATION]..[MAX_CALIBRATION]; heavy
+ * use of other apps makes tracking more frugal, but cannot pin it to the lowest tier.
+ * Moving up a tier needs headroom ([UPGRADE_MARGIN]) so the choice does not flap.
+ *
+ * While charging, and when no budget is set, the governor always picks [Tier.FULL].
+ *
+ * Methods are synchronized: battery updates and fixes arrive on the main thread, uploads
+ * are counted on the upload lanes.
+ *
+ * @param budgetPercentPerHour Battery budget in percent per hour; 0 or less turns the governor off
+ * @param baseIntervalMillis Tracking interval chosen in settings
+ * @param clock Monotonic time source in milliseconds
+ */
+class BatteryGovernor(
+    private val budgetPercentPerHour: Float,
+    private val baseIntervalMillis: Long,
+    private val clock: () -> Long
+) {
+
+    /**
+     * Location request settings, from most to least battery hungry
+     *
+     * @property priority Location request priority
+     * @property intervalFactor Multiplier applied to the settings interval
+     * @property batchFactor Fixes delivered (and uploaded) together
+     * @property costPerFix Modeled battery cost of one fix at [priority], in percent
+     */
+    enum class Tier(val priority: Int, val intervalFactor: Int, val batchFactor: Int, val costPerFix: Double) {
+        FULL(Priority.PRIORITY_HIGH_ACCURACY, 1, 1, HIGH_ACCURACY_FIX_COST),
+        BALANCED(Priority.PRIORITY_BALANCED_POWER_ACCURACY, 1, 1, BALANCED_FIX_COST),
+        BALANCED_BATCHED(Priority.PRIORITY_BALANCED_POWER_ACCURACY, 2, 4, BALANCED_FIX_COST),
+        LOW_POWER(Priority.PRIORITY_LOW_POWER, 4, 4, LOW_POWER_FIX_COST),
+        LOW_POWER_SPARSE(Priority.PRIORITY_LOW_POWER, 8, 4, LOW_POWER_FIX_COST)
+    }
+
+    /**
+     * A location request to make
+     *
+     * @property priority Location request priority
+     * @property intervalMillis Desired time between fixes
+     * @property maxUpdateDelayMillis Longest time fixes may be held back and delivered together
+     */
+    data class Plan(val priority: Int, val intervalMillis: Long, val maxUpdateDelayMillis: Long)
+
+    /**
+     * The tier currently in use
+     */
+    @get:Synchronized
+    var tier: Tier = Tier.FULL
+        private set
+
+    /**
+     * Measured drain over modeled cost; 1 until the first measurement
+     */
+    @get:Synchronized
+    var calibration: Double = 1.0
+        private set
+
+    private var charging = false
+
+    // Measurement window: battery level and time at its start, modeled cost of the
+    // fixes and uploads since then
+    private var windowStartLevel = Float.NaN
+    private var windowStartTime = 0L
+    private var windowModeledCost = 0.0
+
+    init {
+        tier = selectTier()
+    }
+
+    /**
+     * The location request for the current tier
+     */
+    @Synchronized
+    fun plan(): Plan {
+        val intervalMillis = baseIntervalMillis * tier.intervalFactor
+        return Plan(tier.priority, intervalMillis, intervalMillis * tier.batchFactor)
+    }
+
+    /**
+     * Counts a delivered fix at the current tier's priority
+     */
+    @Synchronized
+    fun onFix() {
+        windowModeledCost += tier.costPerFix
+    }
+
+    /**
+     * Counts an upload request
+     */
+    @Synchronized
+    fun onUpload() {
+        windowModeledCost += UPLOAD_COST
+    }
+
+    /**
+     * Feeds a battery update and re-selects the tier.
+     *
+     * @param levelPercent Battery level in percent
+     * @param isCharging Whether the device is plugged in
+     * @return true if the tier changed
+     */
+    @Synchronized
+    fun onBatteryChanged(levelPercent: Float, isCharging: Boolean): Boolean {
+        val now = clock()
+        if (isCharging || windowStartLevel.isNaN() || charging) {
+            // Charging, first update or just unplugged: start a fresh window
+            startWindow(levelPercent, now)
+        } else {
+            measure(levelPercent, now)
+        }
+        charging = isCharging
+
+        val selected = selectTier()
+        if (selected == tier) return false
+        tier = selected
+        return true
+    }
+
+    private fun startWindow(levelPercent: Float, now: Long) {
+        windowStartLevel = levelPercent
+        windowStartTime = now
+        windowModeledCost = 0.0
+    }
+
+    /**
+     * Updates [calibration] once the window is long enough and the level dropped enough
+     * for the 1% resolution of the battery level to stop mattering
+     */
+    private fun measure(levelPercent: Float, now: Long) {
+        val drop = windowStartLevel - levelPercent
+        val elapsed = now - windowStartTime
+        if (levelPercent > windowStartLevel) {
+            // Level went up without charging being reported; the window is meaningless
+            startWindow(levelPercent, now)
+            return
+        }
+        if (drop < MIN_MEASURED_DROP_PERCENT || elapsed < MIN_WINDOW_MILLIS || windowModeledCost <= 0.0) return
+        calibration = (drop / windowModeledCost).coerceIn(MIN_CALIBRATION, MAX_CALIBRATION)
+        startWindow(levelPercent, now)
+    }
+
+    private fun selectTier(): Tier {
+        if (charging || budgetPercentPerHour <= 0f) return Tier.FULL
+        val current = tier
+        return Tier.values().firstOrNull { candidate ->
+            val allowed = if (candidate.ordinal < current.ordinal) budgetPercentPerHour * UPGRADE_MARGIN else budgetPercentPerHour
+            predictedPercentPerHour(candidate) <= allowed
+        } ?: Tier.values().last()
+    }
+
+    /**
+     * Predicted battery cost of a tier, in percent per hour
+     */
+    @Synchronized
+    fun predictedPercentPerHour(candidate: Tier): Double {
+        val fixesPerHour = TimeUnit.HOURS.toMillis(1).toDouble() / (baseIntervalMillis * candidate.intervalFactor)
+        val uploadsPerHour = fixesPerHour / candidate.batchFactor
+        return (fixesPerHour * candidate.costPerFix + uploadsPerHour * UPLOAD_COST) * calibration
+    }
+
+    /**
+     * Cost model and controller thresholds
+     */
+    companion object {
+        /**
+         * Modeled battery cost of one high-accuracy (GNSS) fix, in percent
+         */
+        const val HIGH_ACCURACY_FIX_COST = 0.03
+
+        /**
+         * Modeled battery cost of one balanced (Wi-Fi and cell) fix, in percent
+         */
+        const val BALANCED_FIX_COST = 0.01
+
+        /**
+         * Modeled battery cost of one low-power (cell) fix, in percent
+         */
+        const val LOW_POWER_FIX_COST = 0.003
+
+        /**
+         * Modeled battery cost of one upload request, mostly the radio staying awake
+         * after it, in percent
+         */
+        const val UPLOAD_COST = 0.02
+
+        /**
+         * Smallest battery drop used for calibration
+         */
+        const val MIN_MEASURED_DROP_PERCENT = 2f
+
+        /**
+         * Shortest measurement window
+         */
+        val MIN_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(15)
+
+        /**
+         * Lowest calibration factor: the model may overestimate, but not wildly
+         */
+        const val MIN_CALIBRATION = 0.5
+
+        /**
+         * Highest calibration factor: the rest of the measured drain is blamed on other apps
+         */
+        const val MAX_CALIBRATION = 3.0
+
+        /**
+         * Share of the budget a higher tier may use before the governor moves up to it
+         */
+        const val UPGRADE_MARGIN = 0.8f
+    }
+}
@@ -0,0 +1,316 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/DeadReckoner.kt
+package com.websmithing.gpstracker2.service
+
+import kotlin.math.PI
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.hypot
+import kotlin.math.sin
+
+/**
+ * Pedestrian dead reckoning between sparse GPS fixes.
+ *
+ * At long tracking intervals a walked route is stored as a few straight chords, which
+ * cut corners and make the session distance come out short. Between two fixes this
+ * class keeps the steps reported by the step detector and the device heading from the
+ * rotation vector sensor (which fuses accelerometer, gyroscope and magnetometer), and
+ * when the next fix arrives it integrates the path walked since the previous one.
+ *
+ * The integrated path drifts: the step length is only an estimate, and the device
+ * heading differs from the walking direction by the way the phone is carried plus the
+ * magnetic declination. Both errors are mostly constant over a few minutes, so the path
+ * is scaled and rotated to end exactly on the new fix, and the intermediate points are
+ * taken from the corrected path. The same correction, smoothed across segments, calibrates
+ * the step length and heading offset for the next segment.
+ *
+ * Segments that do not look like walking (too few steps, a path much longer or shorter
+ * than the distance between the fixes, or a long gap) yield no points and do not
+ * calibrate anything; the track keeps its straight chord there.
+ *
+ * Not thread-safe: sensor events and fixes are fed from the main thread.
+ *
+ * @param sampleIntervalMillis Time between intermediate points
+ * @param maxGapMillis Longest time between fixes that is filled in
+ */
+class DeadReckoner(
+    private val sampleIntervalMillis: Long = DEFAULT_SAMPLE_INTERVAL_MILLIS,
+    private val maxGapMillis: Long = DEFAULT_MAX_GAP_MILLIS
+) {
+
+    /**
+     * An intermediate position between two fixes
+     *
+     * @property time Time in epoch milliseconds
+     * @property latitude Latitude in degrees
+     * @property longitude Longitude in degrees
+     * @property accuracy Estimated horizontal accuracy in meters
+     */
+    data class Estimate(
+        val time: Long,
+        val latitude: Double,
+        val longitude: Double,
+        val accuracy: Float
+    )
+
+    /**
+     * Current step length estimate in meters
+     */
+    var stepLengthMeters = DEFAULT_STEP_LENGTH_METERS
+        private set
+
+    /**
+     * Current estimate of walking direction minus device heading, in radians
+     */
+    var headingOffset = 0.0
+        private set
+
+    // The previous fix, which the current segment starts from
+    private var anchorTime = 0L
+    private var anchorLatitude = 0.0
+    private var anchorLongitude = 0.0
+    private var anchorAccuracy = 0f
+    private var hasAnchor = false
+
+    // Steps and heading samples since the anchor, in time order
+    private var stepTimes = LongArray(INITIAL_CAPACITY)
+    private var stepCount = 0
+    private var headingTimes = LongArray(INITIAL_CAPACITY)
+    private var headings = DoubleArray(INITIAL_CAPACITY)
+    private var headingCount = 0
+
+    /**
+     * Records the device heading
+     *
+     * @param timeMillis Sensor event time in epoch milliseconds
+     * @param azimuthRadians Azimuth from magnetic north, as from SensorManager.getOrientation
+     */
+    fun onHeading(timeMillis: Long, azimuthRadians: Double) {
+        if (headingCount == MAX_SAMPLES) return
+        if (headingCount == headingTimes.size) {
+            headingTimes = headingTimes.copyOf(headingCount * 2)
+            headings = headings.copyOf(headingCount * 2)
+        }
+        headingTimes[headingCount] = timeMillis
+        headings[headingCount] = azimuthRadians
+        headingCount++
+    }
+
+    /**
+     * Records a step
+     *
+     * @param timeMillis Sensor event time in epoch milliseconds
+     */
+    fun onStep(timeMillis: Long) {
+        if (stepCount == MAX_SAMPLES) return
+        if (stepCount == stepTimes.size) stepTimes = stepTimes.copyOf(stepCount * 2)
+        stepTimes[stepCount++] = timeMillis
+    }
+
+    /**
+     * Closes the segment at a new fix and starts the next one from it.
+     *
+     * Steps and headings recorded after the fix time carry over into the next segment.
+     *
+     * @param timeMillis Fix time in epoch milliseconds
+     * @param latitude Fix latitude in degrees
+     * @param longitude Fix longitude in degrees
+     * @param accuracy Fix accuracy in meters
+     * @return The corrected intermediate positions between the previous fix and this one,
+     *   oldest first; empty if the segment cannot be filled in
+     */
+    fun onFix(timeMillis: Long, latitude: Double, longitude: Double, accuracy: Float): List<Estimate> {
+        val estimates = if (hasAnchor && timeMillis > anchorTime && timeMillis - anchorTime <= maxGapMillis) {
+            fillIn(timeMillis, latitude, longitude, accuracy)
+        } else {
+            emptyList()
+        }
+
+        anchorTime = timeMillis
+        anchorLatitude = latitude
+        anchorLongitude = longitude
+        anchorAccuracy = accuracy
+        hasAnchor = true
+        stepCount = dropUntil(stepTimes, null, stepCount, timeMillis, keepLast = false)
+        // The last heading before the fix still applies to the first steps after it
+        headingCount = dropUntil(headingTimes, headings, headingCount, timeMillis, keepLast = true)
+        return estimates
+    }
+
+    /**
+     * Forgets the current segment and the calibration, as when tracking starts
+     */
+    fun reset() {
+        hasAnchor = false
+        stepCount = 0
+        headingCount = 0
+        stepLengthMeters = DEFAULT_STEP_LENGTH_METERS
+        headingOffset = 0.0
+    }
+
+    // --- Private Helper Methods ---
+
+    /**
+     * Integrates the segment ending at the given fix, corrects it onto the fix and
+     * samples the corrected path
+     */
+    private fun fillIn(timeMillis: Long, latitude: Double, longitude: Double, accuracy: Float): List<Estimate> {
+        val steps = countUntil(stepTimes, stepCount, timeMillis)
+        if (steps < MIN_STEPS || headingCount == 0) return emptyList()
+
+        // Dead-reckoned path in meters east and north of the anchor, sampled once per interval
+        val sampleTimes = ArrayList<Long>()
+        val sampleEast = ArrayList<Double>()
+        val sampleNorth = ArrayList<Double>()
+        val sampleWalked = ArrayList<Double>()
+        var east = 0.0
+        var north = 0.0
+        var headingIndex = 0
+        var nextSampleTime = anchorTime + sampleIntervalMillis
+        for (i in 0 until steps) {
+            val time = stepTimes[i]
+            while (headingIndex + 1 < headingCount && headingTimes[headingIndex + 1] <= time) headingIndex++
+            val heading = headings[headingIndex] + headingOffset
+            east += stepLengthMeters * sin(heading)
+            north += stepLengthMeters * cos(heading)
+            if (time >= nextSampleTime && timeMillis - time >= sampleIntervalMillis / 2) {
+                sampleTimes.add(time)
+                sampleEast.add(east)
+                sampleNorth.add(north)
+                sampleWalked.add((i + 1) * stepLengthMeters)
+                nextSampleTime = time + sampleIntervalMillis
+            }
+        }
+        val walked = steps * stepLengthMeters
+
+        // Displacement between the fixes on a local tangent plane
+        val metersPerDegreeLongitude = METERS_PER_DEGREE * cos(Math.toRadians(anchorLatitude))
+        val fixEast = (longitude - anchorLongitude) * metersPerDegreeLongitude
+        val fixNorth = (latitude - anchorLatitude) * METERS_PER_DEGREE
+        val reckoned = hypot(east, north)
+        val measured = hypot(fixEast, fixNorth)
+        if (reckoned < MIN_TRAVEL_METERS) return emptyList()
+        val scale = measured / reckoned
+        if (scale < MIN_SCALE || scale > MAX_SCALE) return emptyList()
+        // Counterclockwise angle from the reckoned to the measured displacement, east as x and north as y
+        val rotation = atan2(east * fixNorth - north * fixEast, east * fixEast + north * fixNorth)
+
+        // Only a displacement well above the fix noise says anything about step length and heading
+        if (measured >= CALIBRATION_MIN_METERS) {
+            stepLengthMeters = (stepLengthMeters * (1 - CALIBRATION_WEIGHT + CALIBRATION_WEIGHT * scale))
+                .coerceIn(MIN_STEP_LENGTH_METERS, MAX_STEP_LENGTH_METERS)
+            headingOffset = wrap(headingOffset - CALIBRATION_WEIGHT * rotation)
+        }
+
+        // Scale and rotate the path so it ends on the fix: a complex multiplication by measured/reckoned
+        val cosRotation = scale * cos(rotation)
+        val sinRotation = scale * sin(rotation)
+        val baseAccuracy = maxOf(anchorAccuracy, accuracy)
+        return List(sampleTimes.size) { i ->
+            val correctedEast = sampleEast[i] * cosRotation - sampleNorth[i] * sinRotation
+            val correctedNorth = sampleEast[i] * sinRotation + sampleNorth[i] * cosRotation
+            val fromNearestFix = minOf(sampleWalked[i], walked - sampleWalked[i]) * scale
+            Estimate(
+                time = sampleTimes[i],
+                latitude = anchorLatitude + correctedNorth / METERS_PER_DEGREE,
+                longitude = anchorLongitude + correctedEast / metersPerDegreeLongitude,
+                accuracy = (baseAccuracy + DRIFT_FRACTION * fromNearestFix).toFloat()
+            )
+        }
+    }
+
+    private fun countUntil(times: LongArray, count: Int, timeMillis: Long): Int {
+        var n = 0
+        while (n < count && times[n] <= timeMillis) n++
+        return n
+    }
+
+    /**
+     * Removes the entries up to [timeMillis] from the front of the arrays, except the last
+     * of them if [keepLast] is set
+     *
+     * @return The number of entries left
+     */
+    private fun dropUntil(times: LongArray, values: DoubleArray?, count: Int, timeMillis: Long, keepLast: Boolean): Int {
+        val until = countUntil(times, count, timeMillis)
+        val dropped = if (keepLast) maxOf(until - 1, 0) else until
+        val left = count - dropped
+        System.arraycopy(times, dropped, times, 0, left)
+        if (values != null) System.arraycopy(values, dropped, values, 0, left)
+        return left
+    }
+
+    private fun wrap(angle: Double): Double {
+        var wrapped = angle % (2 * PI)
+        if (wrapped > PI) wrapped -= 2 * PI
+        if (wrapped < -PI) wrapped += 2 * PI
+        return wrapped
+    }
+
+    /**
+     * Defaults and limits of the estimator
+     */
+    companion object {
+        /**
+         * Provider name of the locations built from estimates
+         */
+        const val PROVIDER = "dead-reckoning"
+
+        /**
+         * Default time between intermediate points
+         */
+        const val DEFAULT_SAMPLE_INTERVAL_MILLIS = 30_000L
+
+        /**
+         * Default longest gap between fixes that is filled in; beyond it the drift is too large
+         */
+        const val DEFAULT_MAX_GAP_MILLIS = 15 * 60_000L
+
+        /**
+         * Typical adult step length, the starting point of the calibration
+         */
+        const val DEFAULT_STEP_LENGTH_METERS = 0.7
+
+        private const val MIN_STEP_LENGTH_METERS = 0.4
+        private const val MAX_STEP_LENGTH_METERS = 1.1
+
+        /**
+         * Fewest steps in a segment worth filling in
+         */
+        private const val MIN_STEPS = 10
+
+        /**
+         * Shortest dead-reckoned path worth filling in
+         */
+        private const val MIN_TRAVEL_METERS = 10.0
+
+        /**
+         * Accepted range of the fix displacement over the dead-reckoned one; outside it the
+         * device was probably carried by a vehicle or the steps were not walking
+         */
+        private const val MIN_SCALE = 0.5
+        private const val MAX_SCALE = 2.0
+
+        /**
+         * Shortest fix displacement used to calibrate step length and heading offset
+         */
+        private const val CALIBRATION_MIN_METERS = 50.0
+
+        /**
+         * Weight of one segment in the calibration
+         */
+        private const val CALIBRATION_WEIGHT = 0.3
+
+        /**
+         * Accuracy lost per meter walked away from the nearest fix
+         */
+        private const val DRIFT_FRACTION = 0.05
+
+        /**
+         * Cap on the steps or heading samples kept for one segment
+         */
+        private const val MAX_SAMPLES = 8192
+
+        private const val INITIAL_CAPACITY = 256
+        private const val METERS_PER_DEGREE = 111_320.0
+    }
+}
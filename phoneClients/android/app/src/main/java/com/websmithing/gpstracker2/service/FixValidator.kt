@@ -0,0 +1,150 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/FixValidator.kt
+package com.websmithing.gpstracker2.service
+
+import android.location.Location
+import com.websmithing.gpstracker2.util.GeoDistance
+import java.util.concurrent.atomic.AtomicIntegerArray
+import kotlin.math.max
+
+/**
+ * Gate that drops implausible fixes before they reach the location state, the track
+ * history or an upload.
+ *
+ * The fused provider occasionally delivers coarse cell fixes (1-2 km accuracy) and Wi-Fi
+ * fixes that jump kilometers away and back; each adds phantom distance and an extra row.
+ * A fix is rejected when
+ * - its accuracy is unknown or worse than [Config.maxAccuracyMeters]
+ * - it is older than the last accepted fix
+ * - it repeats the last accepted fix (same time, or same position within
+ *   [Config.duplicateWindowMillis])
+ * - reaching it from the last accepted fix would take more than [Config.maxSpeedMetersPerSecond];
+ *   both fixes' accuracy radii are subtracted from the distance first, so jitter of a
+ *   stationary receiver never counts as speed
+ *
+ * A genuine jump (e.g. after the first fix was the outlier) would otherwise be rejected
+ * forever, so after [Config.maxConsecutiveJumps] speed rejections in a row the next fix is
+ * accepted and becomes the new reference.
+ *
+ * Not thread-safe: [check] is called from the main thread, where location callbacks arrive.
+ * Rejection counters may be read from any thread.
+ *
+ * @param config Thresholds of the gate
+ */
+class FixValidator(private val config: Config = Config()) {
+
+    /**
+     * Thresholds of the gate
+     *
+     * @property maxAccuracyMeters Worst accepted horizontal accuracy
+     * @property maxSpeedMetersPerSecond Highest plausible speed between two fixes
+     * @property duplicateWindowMillis A fix at the same position within this time of the
+     *   last accepted fix is a duplicate
+     * @property maxConsecutiveJumps Speed rejections in a row after which the next fix is
+     *   accepted as the new reference
+     */
+    data class Config(
+        val maxAccuracyMeters: Float = 500f,
+        val maxSpeedMetersPerSecond: Double = 85.0,
+        val duplicateWindowMillis: Long = 10_000L,
+        val maxConsecutiveJumps: Int = 3
+    )
+
+    /**
+     * Reason a fix was rejected
+     */
+    enum class Rejection {
+        LOW_ACCURACY,
+        OUT_OF_ORDER,
+        DUPLICATE,
+        IMPOSSIBLE_SPEED
+    }
+
+    /**
+     * Rejected fixes, indexed by [Rejection.ordinal]
+     */
+    private val rejected = AtomicIntegerArray(Rejection.values().size)
+
+    // Reference fix: the last accepted one
+    private var hasReference = false
+    private var lastTime = 0L
+    private var lastLatitude = 0.0
+    private var lastLongitude = 0.0
+    private var lastAccuracy = 0f
+    private var consecutiveJumps = 0
+
+    /**
+     * Checks a fix and, if it passes, makes it the reference for the next one.
+     *
+     * @param location The fix to check
+     * @return null if the fix is accepted, otherwise the reason it was rejected
+     */
+    fun check(location: Location): Rejection? = check(
+        location.time,
+        location.latitude,
+        location.longitude,
+        if (location.hasAccuracy()) location.accuracy else null
+    )
+
+    /**
+     * Checks a fix given by its fields.
+     *
+     * @param timeMillis Fix time in epoch milliseconds
+     * @param latitude Latitude in decimal degrees
+     * @param longitude Longitude in decimal degrees
+     * @param accuracy Horizontal accuracy in meters, or null if unknown
+     * @return null if the fix is accepted, otherwise the reason it was rejected
+     */
+    fun check(timeMillis: Long, latitude: Double, longitude: Double, accuracy: Float?): Rejection? {
+        val rejection = evaluate(timeMillis, latitude, longitude, accuracy)
+        if (rejection != null) {
+            rejected.incrementAndGet(rejection.ordinal)
+            return rejection
+        }
+        hasReference = true
+        lastTime = timeMillis
+        lastLatitude = latitude
+        lastLongitude = longitude
+        lastAccuracy = accuracy ?: 0f
+        consecutiveJumps = 0
+        return null
+    }
+
+    /**
+     * Forgets the reference fix, e.g. when a new tracking session starts. Counters are kept.
+     */
+    fun reset() {
+        hasReference = false
+        consecutiveJumps = 0
+    }
+
+    /**
+     * Number of fixes rejected for [reason] since the validator was created
+     */
+    fun rejectedCount(reason: Rejection): Int = rejected.get(reason.ordinal)
+
+    /**
+     * Rejected fixes by reason, for logging
+     */
+    fun rejectionCounts(): Map<Rejection, Int> = Rejection.values().associateWith { rejectedCount(it) }
+
+    private fun evaluate(timeMillis: Long, latitude: Double, longitude: Double, accuracy: Float?): Rejection? {
+        if (accuracy == null || accuracy > config.maxAccuracyMeters) return Rejection.LOW_ACCURACY
+        if (!hasReference) return null
+
+        val elapsed = timeMillis - lastTime
+        if (elapsed < 0L) return Rejection.OUT_OF_ORDER
+        if (elapsed == 0L ||
+            (latitude == lastLatitude && longitude == lastLongitude && elapsed < config.duplicateWindowMillis)
+        ) {
+            return Rejection.DUPLICATE
+        }
+
+        val distance = GeoDistance.meters(lastLatitude, lastLongitude, latitude, longitude)
+        val impliedSpeed = max(0.0, distance - accuracy - lastAccuracy) * 1000.0 / elapsed
+        if (impliedSpeed > config.maxSpeedMetersPerSecond) {
+            consecutiveJumps++
+            if (consecutiveJumps <= config.maxConsecutiveJumps) return Rejection.IMPOSSIBLE_SPEED
+        }
+        return null
+    }
+}
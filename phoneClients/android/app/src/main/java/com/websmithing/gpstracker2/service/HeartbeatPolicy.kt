@@ -0,0 +1,83 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/HeartbeatPolicy.kt
+package com.websmithing.gpstracker2.service
+
+import com.websmithing.gpstracker2.util.GeoDistance
+import kotlin.math.max
+
+/**
+ * Decides when a fix is worth uploading in full and when a heartbeat will do.
+ *
+ * A parked device still produces a fix every interval, and each one used to cost a full
+ * upload and a new server row that repeats the last position. While the device stays
+ * within [toleranceMeters] (or the fix's accuracy radius, if larger) of the last fix the
+ * server received, only a heartbeat is sent, which the server records as "last seen" on
+ * the device instead of as a location. A full fix is still sent every
+ * [maxHeartbeatMillis], so the stored track never goes silent for long.
+ *
+ * Methods are synchronized: fixes are judged on the live lane, [reset] is called when
+ * tracking starts.
+ *
+ * @param toleranceMeters Smallest move that counts as a changed position
+ * @param maxHeartbeatMillis Longest time covered by heartbeats alone
+ */
+class HeartbeatPolicy(
+    private val toleranceMeters: Double = DEFAULT_TOLERANCE_METERS,
+    private val maxHeartbeatMillis: Long = DEFAULT_MAX_HEARTBEAT_MILLIS
+) {
+
+    // Last fix the server received in full
+    private var sentLatitude = 0.0
+    private var sentLongitude = 0.0
+    private var sentTime = 0L
+    private var hasSent = false
+
+    /**
+     * Whether a heartbeat can stand in for this fix
+     *
+     * @param timeMillis Fix time in epoch milliseconds
+     * @param latitude Fix latitude in degrees
+     * @param longitude Fix longitude in degrees
+     * @param accuracy Horizontal accuracy in meters, 0 if unknown
+     * @return true if the position is unchanged within tolerance and a full fix was sent recently
+     */
+    @Synchronized
+    fun isUnchanged(timeMillis: Long, latitude: Double, longitude: Double, accuracy: Float): Boolean {
+        if (!hasSent || timeMillis - sentTime >= maxHeartbeatMillis) return false
+        val distance = GeoDistance.meters(sentLatitude, sentLongitude, latitude, longitude)
+        return distance <= max(toleranceMeters, accuracy.toDouble())
+    }
+
+    /**
+     * Records a fix the server received in full
+     */
+    @Synchronized
+    fun onFullFixSent(timeMillis: Long, latitude: Double, longitude: Double) {
+        sentLatitude = latitude
+        sentLongitude = longitude
+        sentTime = timeMillis
+        hasSent = true
+    }
+
+    /**
+     * Forgets the last full fix, so the next fix is sent in full
+     */
+    @Synchronized
+    fun reset() {
+        hasSent = false
+    }
+
+    /**
+     * Defaults of the policy
+     */
+    companion object {
+        /**
+         * Default position tolerance: above the drift of a stationary receiver with a clear sky
+         */
+        const val DEFAULT_TOLERANCE_METERS = 25.0
+
+        /**
+         * Default longest run of heartbeats between full fixes
+         */
+        const val DEFAULT_MAX_HEARTBEAT_MILLIS = 30 * 60 * 1000L
+    }
+}
@@ -0,0 +1,45 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/LocationPlanner.kt
+package com.websmithing.gpstracker2.service
+
+import com.google.android.gms.location.Priority
+import java.util.concurrent.TimeUnit
+
+/**
+ * Chooses the location request of a tracking run.
+ *
+ * The request is the battery governor's plan, or high accuracy at the settings interval
+ * without one, stretched to the server's suggested upload interval when that is longer.
+ * Live mode and dual resolution capture at their own rate: in live mode the fixes are
+ * streamed, and the hint only concerns the HTTP uploads that stand in while the stream
+ * is down; in dual-resolution mode the hint paces live uploads instead. In passive mode
+ * the request only receives fixes made for other apps, at most one per interval.
+ */
+object LocationPlanner {
+
+    /**
+     * Builds the location request plan
+     *
+     * @param governed The battery governor's plan, or null when no budget is set
+     * @param settingsIntervalMillis Interval of the current mode
+     * @param liveMode Whether fixes are streamed live
+     * @param dualResolution Whether every fix is recorded and only some uploaded live
+     * @param passiveMode Whether only fixes requested by other apps are used
+     * @param hintIntervalSeconds The server's suggested upload interval, 0 if none
+     * @return The plan to request
+     */
+    fun plan(
+        governed: BatteryGovernor.Plan?,
+        settingsIntervalMillis: Long,
+        liveMode: Boolean,
+        dualResolution: Boolean,
+        passiveMode: Boolean,
+        hintIntervalSeconds: Int
+    ): BatteryGovernor.Plan {
+        val priority = if (passiveMode) Priority.PRIORITY_PASSIVE else Priority.PRIORITY_HIGH_ACCURACY
+        val plan = governed ?: BatteryGovernor.Plan(priority, settingsIntervalMillis, settingsIntervalMillis)
+        if (liveMode || dualResolution) return plan
+        val hintMillis = TimeUnit.SECONDS.toMillis(hintIntervalSeconds.toLong())
+        if (hintMillis <= plan.intervalMillis) return plan
+        return plan.copy(intervalMillis = hintMillis, maxUpdateDelayMillis = maxOf(plan.maxUpdateDelayMillis, hintMillis))
+    }
+}
@@ -0,0 +1,34 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/SessionSummaryUploader.kt
+package com.websmithing.gpstracker2.service
+
+import com.websmithing.gpstracker2.data.repository.LocationRepository
+import com.websmithing.gpstracker2.data.repository.TrackHistoryRepository
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Uploads the summary of a session that has ended.
+ *
+ * The summary is read from the track history, where it is kept up to date with every
+ * recorded fix, so the server does not have to compute it from the session's fixes.
+ *
+ * @param trackHistoryRepository Repository for the on-device track history
+ * @param locationRepository Repository that talks to the server
+ */
+@Singleton
+class SessionSummaryUploader @Inject constructor(
+    private val trackHistoryRepository: TrackHistoryRepository,
+    private val locationRepository: LocationRepository
+) {
+
+    /**
+     * Uploads the summary of the session in [settings]
+     *
+     * @param settings The settings of the run that ended
+     * @return true if the server stored the summary; false if it did not or nothing was recorded
+     */
+    suspend fun upload(settings: TrackingSettings): Boolean {
+        val summary = trackHistoryRepository.getSessionSummary(settings.sessionId) ?: return false
+        return locationRepository.uploadSessionSummary(summary, settings.username, settings.appId)
+    }
+}
@@ -1,10 +1,7 @@
 // # android/app/src/main/java/com/websmithing/gpstracker2/service/TrackingService.kt
 package com.websmithing.gpstracker2.service
 
-import okhttp3.OkHttpClient
-import okhttp3.FormBody
-import retrofit2.Retrofit
-import retrofit2.converter.gson.GsonConverterFactory
+import android.Manifest
 import android.annotation.SuppressLint
 import android.app.AlarmManager
 import android.app.Notification
@@ -12,30 +9,65 @@ import android.app.NotificationChannel
 import android.app.NotificationManager
 import android.app.PendingIntent
 import android.app.Service
+import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
+import android.content.IntentFilter
+import android.content.pm.PackageManager
+import android.hardware.Sensor
+import android.hardware.SensorEvent
+import android.hardware.SensorEventListener2
+import android.hardware.SensorManager
 import android.location.Location
+import android.net.ConnectivityManager
+import android.os.BatteryManager
 import android.os.Build
+import android.os.Handler
 import android.os.IBinder
 import android.os.Looper
 import android.os.PowerManager
+import android.os.Process
 import android.os.SystemClock
 import androidx.core.app.NotificationCompat
+import androidx.core.content.ContextCompat
 import com.google.android.gms.location.FusedLocationProviderClient
 import com.google.android.gms.location.LocationCallback
 import com.google.android.gms.location.LocationRequest
 import com.google.android.gms.location.LocationResult
-import com.google.android.gms.location.Priority
 import com.websmithing.gpstracker2.R
 import com.websmithing.gpstracker2.data.repository.LocationRepository
 import com.websmithing.gpstracker2.data.repository.SettingsRepository
-import com.websmithing.gpstracker2.network.ApiService
+import com.websmithing.gpstracker2.data.repository.TrackHistoryRepository
+import com.websmithing.gpstracker2.data.repository.TrackPoint
+import com.websmithing.gpstracker2.network.BulkUpload
+import com.websmithing.gpstracker2.network.DataBudget
+import com.websmithing.gpstracker2.network.DataUsageMeter
+import com.websmithing.gpstracker2.network.LiveStreamClient
+import com.websmithing.gpstracker2.network.LocationBatchEncoder
+import com.websmithing.gpstracker2.network.ServerUrls
+import com.websmithing.gpstracker2.network.UdpUplink
+import dagger.Lazy
 import dagger.hilt.android.AndroidEntryPoint
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
 import timber.log.Timber
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
 
 /**
@@ -43,12 +75,41 @@ import javax.inject.Inject
  *
  * This service handles:
  * - Starting and stopping location updates via FusedLocationProviderClient
+ * - Dropping implausible fixes (poor accuracy, impossible jumps, repeats) before they are
+ *   used, counting rejections by reason
+ * - With a battery budget set, letting [BatteryGovernor] pick the location priority,
+ *   interval and batching, and reverting to full fidelity while charging
  * - Processing location data in a background thread
- * - Uploading location data to the remote server
+ * - Recording every fix, with the running session statistics, in the on-device track history
+ * - Uploading the session summary when tracking stops
+ * - With a data budget set, sending fixes in compact batches and holding back backfill on
+ *   metered networks as the budget runs out, and nothing once it is used up
+ * - While the position is unchanged, sending a small heartbeat instead of the fix (see
+ *   [HeartbeatPolicy]), so parked devices neither upload nor store repeated positions
+ * - Uploading location data to the remote server in two lanes: a live lane that always
+ *   sends the newest fix first, and a low-priority backfill lane that drains older
+ *   pending fixes in batches, or as resumable bulk uploads after long offline periods
+ * - In live mode, taking a fix every few seconds and streaming it over a persistent
+ *   WebSocket, falling back to the HTTP upload whenever the stream is down
+ * - In dual-resolution mode, recording a fix every second but uploading only one per
+ *   tracking interval live, and holding the full-resolution track back until the device
+ *   is charging on an unmetered network
+ * - In passive mode, taking the fixes other apps already request and only asking for a
+ *   fix of its own when none arrived within [passiveDeadlineMillis]
+ * - With dead reckoning enabled, filling in the path walked between sparse fixes from
+ *   the batched step detector and rotation vector sensors (see [DeadReckoner])
+ * - With a UDP uplink key set, sending the live fix and small backlogs as signed
+ *   datagrams, falling back to HTTP when they are not acknowledged
  * - Managing wake locks to ensure tracking continues even when the device is in doze mode
  * - Displaying a persistent notification to inform the user of active tracking
  * - Maintaining the service across app termination and device reboots
  *
+ * The service runs in its own process (`:tracking`), apart from the activity and its UI
+ * toolkit, so it keeps a small footprint and survives when the system reclaims the UI
+ * process. The UI binds to it and receives its state through [TrackingStateChannel];
+ * settings go the other way in the start intent as [TrackingSettings], and the service
+ * never writes the settings file the UI owns.
+ *
  * The service is integrated with Hilt for dependency injection and uses a combination
  * of coroutines (for repository operations) and a single-thread executor for background tasks.
  */
@@ -69,27 +130,283 @@ class TrackingService : Service() {
      * Repository for managing app settings
      */
     @Inject lateinit var settingsRepository: SettingsRepository
-    
+
+    /**
+     * Repository for the on-device track history
+     */
+    @Inject lateinit var trackHistoryRepository: TrackHistoryRepository
+
     /**
-     * HTTP client for network operations
+     * HTTP client for the live stream; only built when live mode is used
      */
-    @Inject lateinit var okHttpClient: OkHttpClient
+    @Inject lateinit var okHttpClient: Lazy<OkHttpClient>
 
+    /**
+     * Day and month totals of HTTP traffic, checked against the data budget
+     */
+    @Inject lateinit var dataUsageMeter: DataUsageMeter
+
+    /**
+     * Uploads the summary of a session when it ends
+     */
+    @Inject lateinit var sessionSummaryUploader: SessionSummaryUploader
+    
     /**
      * Callback for receiving location updates
      */
     private var locationCallback: LocationCallback? = null
 
     /**
-     * Executor for running location processing tasks in the background
+     * Executor for the live lane: records fixes and uploads the newest one
      */
     private var backgroundExecutor: ExecutorService? = null
 
+    /**
+     * Executor for the backfill lane: drains older pending fixes in batches at background priority
+     */
+    private var backfillExecutor: ExecutorService? = null
+
+    /**
+     * Fixes received but not yet picked up by the live lane, oldest first
+     */
+    private val incomingFixes = ConcurrentLinkedQueue<Location>()
+
+    /**
+     * Whether a live-lane task is queued or running
+     */
+    private val liveLaneScheduled = AtomicBoolean(false)
+
+    /**
+     * Whether a backfill-lane task is queued or running
+     */
+    private val backfillScheduled = AtomicBoolean(false)
+
     /**
      * Wake lock to keep CPU running during tracking
      */
     private var wakeLock: PowerManager.WakeLock? = null
 
+    /**
+     * Tracking interval chosen in settings, in milliseconds
+     */
+    @Volatile
+    private var settingsIntervalMillis = 0L
+
+    /**
+     * The active location request; slower than [settingsIntervalMillis] while the battery
+     * governor saves power or the server asks clients to slow down
+     */
+    @Volatile
+    private var requestedPlan: BatteryGovernor.Plan? = null
+
+    /**
+     * Picks the location request within the battery budget; null in live mode or without a budget
+     */
+    @Volatile
+    private var batteryGovernor: BatteryGovernor? = null
+
+    /**
+     * Feeds battery level and charging state to [batteryGovernor]
+     */
+    private val batteryReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            onBatteryChanged(intent)
+        }
+    }
+
+    /**
+     * Handler for re-registering location updates from the upload lanes
+     */
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /**
+     * Sends the tracking state to the UI process
+     */
+    private val statePublisher = TrackingStatePublisher(Looper.getMainLooper())
+
+    /**
+     * Scope of the state reporting; cancelled in [onDestroy]
+     */
+    private val serviceScope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+
+    /**
+     * Whether live mode was enabled when tracking started
+     */
+    @Volatile
+    private var liveMode = false
+
+    /**
+     * Whether dual-resolution capture was enabled when tracking started (never together
+     * with [liveMode])
+     */
+    @Volatile
+    private var dualResolution = false
+
+    /**
+     * Whether passive mode was enabled when tracking started (never together with
+     * [liveMode] or [dualResolution])
+     */
+    @Volatile
+    private var passiveMode = false
+
+    /**
+     * In passive mode, longest time without a fix before the service asks for one itself
+     */
+    private var passiveDeadlineMillis = 0L
+
+    /**
+     * Requests an active fix when no passive fix arrived in time, and rearms itself.
+     * The request does not wait behind the upload lanes (see [requestActiveFix]); one still
+     * in progress from an earlier deadline is left to finish rather than joined by another.
+     */
+    private val passiveFallback = object : Runnable {
+        override fun run() {
+            if (activeFixJob?.isActive == true) {
+                Timber.d("Passive mode: Fix request still in progress")
+            } else {
+                Timber.i("Passive mode: No fix for ${passiveDeadlineMillis / 1000} s, requesting one")
+                requestActiveFix("Passive fallback")
+            }
+            mainHandler.postDelayed(this, passiveDeadlineMillis)
+        }
+    }
+
+    /**
+     * The fix request started by [requestActiveFix], if any; only touched on the main thread
+     */
+    private var activeFixJob: Job? = null
+
+    /**
+     * Time between live uploads in dual-resolution mode, the interval chosen in settings
+     */
+    @Volatile
+    private var uploadIntervalMillis = 0L
+
+    /**
+     * Time of the newest fix the live lane uploaded in dual-resolution mode, or over HTTP
+     * in live mode; only used on the live lane
+     */
+    private var lastLiveFixTime = 0L
+
+    /**
+     * Fills in the path between fixes; null unless dead reckoning is enabled and the motion
+     * sensors are available. Only used on the main thread.
+     */
+    private var deadReckoner: DeadReckoner? = null
+
+    /**
+     * Accepted fixes waiting for the motion sensors to flush their batches, so the path up
+     * to each fix is complete before it is filled in. Only used on the main thread.
+     */
+    private val reckoningFixes = ArrayList<Location>()
+
+    /**
+     * Motion sensors that have not yet confirmed the current flush
+     */
+    private var pendingSensorFlushes = 0
+
+    /**
+     * Releases [reckoningFixes] if a sensor never confirms its flush
+     */
+    private val sensorFlushTimeout = Runnable { releaseReckoningFixes() }
+
+    /**
+     * Rotation matrix and orientation angles, reused for every rotation vector event
+     */
+    private val rotationMatrix = FloatArray(9)
+    private val orientationAngles = FloatArray(3)
+
+    /**
+     * Feeds batched step detector and rotation vector events to [deadReckoner]. Registered
+     * on the main thread's handler.
+     */
+    private val motionListener = object : SensorEventListener2 {
+        override fun onSensorChanged(event: SensorEvent) {
+            val reckoner = deadReckoner ?: return
+            // Sensor timestamps count from boot; fixes carry wall-clock times
+            val time = System.currentTimeMillis() - (SystemClock.elapsedRealtimeNanos() - event.timestamp) / 1_000_000L
+            when (event.sensor.type) {
+                Sensor.TYPE_STEP_DETECTOR -> reckoner.onStep(time)
+                Sensor.TYPE_ROTATION_VECTOR -> {
+                    SensorManager.getRotationMatrixFromVector(rotationMatrix, event.values)
+                    SensorManager.getOrientation(rotationMatrix, orientationAngles)
+                    reckoner.onHeading(time, orientationAngles[0].toDouble())
+                }
+            }
+        }
+
+        override fun onAccuracyChanged(sensor: Sensor, accuracy: Int) = Unit
+
+        override fun onFlushCompleted(sensor: Sensor) {
+            if (pendingSensorFlushes > 0 && --pendingSensorFlushes == 0) releaseReckoningFixes()
+        }
+    }
+
+    /**
+     * The live stream, created by the live lane on the first fix in live mode
+     */
+    @Volatile
+    private var liveStream: LiveStreamClient? = null
+
+    /**
+     * Gate in front of the live lane; only called from the main thread
+     */
+    private val fixValidator = FixValidator()
+
+    /**
+     * Decides on the live lane whether a heartbeat can stand in for the newest fix
+     */
+    private val heartbeatPolicy = HeartbeatPolicy()
+
+    /**
+     * Mobile data budget, read when tracking starts
+     */
+    @Volatile
+    private var dataBudget = DataBudget.NONE
+
+    /**
+     * Settings of the current run, sent by the UI with [ACTION_START_SERVICE] and updated
+     * by [ACTION_UPDATE_SETTINGS]
+     */
+    @Volatile
+    private var settings: TrackingSettings? = null
+
+    /**
+     * Fixes held back by the live lane while saving data, sent together as one compact batch
+     */
+    private val dataSavingBatch = mutableListOf<TrackPoint>()
+
+    /**
+     * Datagram uplink, used by both lanes while a UDP uplink key is set
+     */
+    private val udpUplink = UdpUplink()
+
+    /**
+     * Local track history IDs of streamed fixes awaiting the server's ack, by fix ID
+     */
+    private val awaitingAck = ConcurrentHashMap<String, Long>()
+
+    /**
+     * Marks acknowledged fixes as uploaded; anything unacknowledged is left to the backfill lane
+     */
+    private val liveStreamListener = object : LiveStreamClient.Listener {
+        override fun onAck(fixId: String) {
+            val localId = awaitingAck.remove(fixId) ?: return
+            backgroundExecutor?.submit { markStreamed(localId, fixId) }
+        }
+
+        override fun onNack(fixId: String, reason: String) {
+            awaitingAck.remove(fixId)
+            Timber.w("Live stream: Server could not store $fixId ($reason); left for backfill")
+        }
+
+        override fun onDisconnected() {
+            val unacknowledged = awaitingAck.size
+            awaitingAck.clear()
+            Timber.i("Live stream: Disconnected, $unacknowledged unacknowledged fix(es) left for backfill")
+        }
+    }
+
     /**
      * Constants used by the service
      */
@@ -100,9 +417,22 @@ class TrackingService : Service() {
         const val ACTION_START_SERVICE = "ACTION_START_SERVICE"
         
         /**
-         * Intent action to stop the service
+         * Intent action to end the session: the service uploads its summary and stops.
+         * Sent with `startService`; `stopService` would not deliver it
          */
         const val ACTION_STOP_SERVICE = "ACTION_STOP_SERVICE"
+
+        /**
+         * Boolean extra of [ACTION_START_SERVICE]: a new session starts, so the location
+         * state of the previous one is cleared
+         */
+        const val EXTRA_NEW_SESSION = "EXTRA_NEW_SESSION"
+
+        /**
+         * Intent action to hand a running service new [TrackingSettings] without restarting it;
+         * only the identity, server and UDP key fields take effect before the next start
+         */
+        const val ACTION_UPDATE_SETTINGS = "ACTION_UPDATE_SETTINGS"
         
         /**
          * ID for the notification channel
@@ -118,6 +448,103 @@ class TrackingService : Service() {
          * ID for the service notification
          */
         private const val NOTIFICATION_ID = 1
+
+        /**
+         * Upload attempts per live fix before it is left to the backfill lane
+         */
+        private const val LIVE_MAX_ATTEMPTS = 3
+
+        /**
+         * Base delay between live upload attempts; multiplied by the attempt number
+         */
+        private const val LIVE_RETRY_BASE_DELAY_MS = 1000L
+
+        /**
+         * Maximum number of fixes sent per backfill request; the server's hint can lower it
+         */
+        private const val BACKFILL_BATCH_SIZE = 500
+
+        /**
+         * Location interval in live mode, in place of the interval chosen in settings
+         */
+        private const val LIVE_MODE_INTERVAL_MS = 2_000L
+
+        /**
+         * Location interval in dual-resolution mode; uploads keep the interval chosen in settings
+         */
+        private const val DUAL_RESOLUTION_INTERVAL_MS = 1_000L
+
+        /**
+         * Meters per mile, for the distance field sent with each fix
+         */
+        private const val METERS_PER_MILE = 1609.34
+
+        /**
+         * Largest backlog the backfill lane sends over the UDP uplink; bigger backlogs go
+         * out as one HTTP batch, which carries up to [BACKFILL_BATCH_SIZE] fixes per request
+         */
+        private const val UDP_MAX_BACKFILL_FIXES = 4 * UdpUplink.MAX_FIXES_PER_DATAGRAM
+
+        /**
+         * Smallest backlog the backfill lane sends as a bulk upload instead of batches
+         */
+        private const val BULK_MIN_FIXES = 2_000
+
+        /**
+         * Maximum number of fixes per bulk upload file
+         */
+        private const val BULK_MAX_FIXES = 20_000
+
+        /**
+         * Cache subdirectory holding bulk upload files until the server has stored them
+         */
+        private const val BULK_DIRECTORY = "bulk"
+
+        /**
+         * File name suffix of a complete bulk upload file
+         */
+        private const val BULK_SUFFIX = ".ndjson.gz"
+
+        /**
+         * Name of the file a bulk upload is written to before it is complete
+         */
+        private const val BULK_PARTIAL_FILE = "packaging.tmp"
+
+        /**
+         * Fixes held back while saving data before they are sent as one compact batch
+         */
+        private const val DATA_SAVING_BATCH_FIXES = 10
+
+        /**
+         * In passive mode, tracking intervals without a fix before the service asks for one
+         */
+        private const val PASSIVE_DEADLINE_INTERVALS = 2
+
+        /**
+         * Shortest passive mode deadline, so short intervals do not turn into steady GPS use
+         */
+        private const val PASSIVE_MIN_DEADLINE_MS = 5 * 60_000L
+
+        /**
+         * Longest time motion sensor events are batched before they are delivered
+         */
+        private const val MOTION_MAX_REPORT_LATENCY_MS = 5 * 60_000L
+
+        /**
+         * Sampling period of the rotation vector for dead reckoning: once a second is
+         * enough to follow the walking direction
+         */
+        private const val MOTION_HEADING_PERIOD_US = 1_000_000
+
+        /**
+         * Motion sensors registered for dead reckoning, each confirming a flush separately
+         */
+        private const val MOTION_SENSOR_COUNT = 2
+
+        /**
+         * Longest wait for the motion sensors to confirm a flush before a fix is released
+         */
+        private const val SENSOR_FLUSH_TIMEOUT_MS = 2_000L
     }
 
     /**
@@ -130,42 +557,27 @@ class TrackingService : Service() {
         Timber.d("TrackingService onCreate")
         createNotificationChannel()
         createWakeLock()
-        // Initialize the background executor
+        // Initialize the upload lanes
         backgroundExecutor = Executors.newSingleThreadExecutor()
-        Timber.d("Background executor initialized.")
-        
-        // Add a direct test to check connectivity
-        Thread {
-            try {
-                Timber.i("DIRECT-TEST: Starting direct test of connectivity in onCreate")
-                val testRetrofit = Retrofit.Builder()
-                    .baseUrl("https://www.google.com/")
-                    .addConverterFactory(GsonConverterFactory.create())
-                    .client(OkHttpClient.Builder()
-                        .connectTimeout(10, TimeUnit.SECONDS)
-                        .readTimeout(10, TimeUnit.SECONDS)
-                        .build())
-                    .build()
-                
-                val okHttpClient = OkHttpClient.Builder()
-                    .connectTimeout(10, TimeUnit.SECONDS)
-                    .readTimeout(10, TimeUnit.SECONDS)
-                    .build()
-                
-                val request = okhttp3.Request.Builder()
-                    .url("https://www.google.com")
-                    .build()
-                
-                try {
-                    val response = okHttpClient.newCall(request).execute()
-                    Timber.i("DIRECT-TEST: Direct HTTP request to Google completed with code: ${response.code}")
-                } catch (e: Exception) {
-                    Timber.e(e, "DIRECT-TEST: Failed to make direct HTTP request to Google")
-                }
-            } catch (e: Exception) {
-                Timber.e(e, "DIRECT-TEST: Exception in direct test")
-            }
-        }.start()
+        backfillExecutor = Executors.newSingleThreadExecutor { runnable ->
+            Thread({
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+                runnable.run()
+            }, "backfill-lane")
+        }
+        Timber.d("Background executors initialized.")
+        // Report every change to the UI process; the publisher's clients register on the main thread too
+        serviceScope.launch {
+            combine(
+                locationRepository.latestLocation,
+                locationRepository.totalDistance,
+                locationRepository.sessionStats,
+                locationRepository.lastUploadStatus,
+                dataUsageMeter.usage
+            ) { location, distance, stats, status, _ ->
+                TrackingState(location, distance, stats, status, dataUsageMeter.current())
+            }.conflate().collect { statePublisher.publish(it) }
+        }
     }
     
     /**
@@ -198,13 +610,24 @@ class TrackingService : Service() {
             ACTION_START_SERVICE -> {
                 Timber.d("ACTION_START_SERVICE received")
                 startForeground(NOTIFICATION_ID, createNotification())
+                TrackingSettings.decode(intent.extras)?.let { applySettings(it) }
+                if (intent.getBooleanExtra(EXTRA_NEW_SESSION, false)) resetLocationState()
                 startLocationUpdates()
             }
+            ACTION_UPDATE_SETTINGS -> {
+                Timber.d("ACTION_UPDATE_SETTINGS received")
+                val resume = settings == null
+                TrackingSettings.decode(intent.extras)?.let { applySettings(it) }
+                if (resume) {
+                    // The service was not running, so the update created it; carry on tracking
+                    startForeground(NOTIFICATION_ID, createNotification())
+                    startLocationUpdates()
+                }
+            }
             ACTION_STOP_SERVICE -> {
                 Timber.d("ACTION_STOP_SERVICE received")
                 stopLocationUpdates()
-                stopForeground(STOP_FOREGROUND_REMOVE)
-                stopSelf()
+                endSession(startId)
             }
             else -> {
                 // If service is restarted after being killed, restart location updates
@@ -230,6 +653,7 @@ class TrackingService : Service() {
         // Create a restart intent
         val restartServiceIntent = Intent(applicationContext, TrackingService::class.java)
         restartServiceIntent.action = ACTION_START_SERVICE
+        settings?.let { restartServiceIntent.putExtras(it.encode()) }
         val pIntent = PendingIntent.getService(
             applicationContext, 1, restartServiceIntent,
             PendingIntent.FLAG_ONE_SHOT or PendingIntent.FLAG_IMMUTABLE
@@ -250,8 +674,12 @@ class TrackingService : Service() {
         Timber.d("TrackingService onDestroy")
         // Shut down the executor
         backgroundExecutor?.shutdown()
+        backfillExecutor?.shutdownNow()
         Timber.d("Background executor shutdown requested.")
         backgroundExecutor = null
+        backfillExecutor = null
+        mainHandler.removeCallbacksAndMessages(null)
+        serviceScope.cancel()
         stopLocationUpdates()
         
         // Make absolutely sure we release the wake lock
@@ -265,12 +693,55 @@ class TrackingService : Service() {
     }
 
     /**
-     * Not used in this service implementation.
+     * Hands the UI process the channel that reports the tracking state.
+     *
+     * Binding does not start tracking; the service is still started and stopped with
+     * [ACTION_START_SERVICE] and [ACTION_STOP_SERVICE].
      *
-     * @return Always returns null as this is not a bound service
+     * @return The [TrackingStatePublisher] binder
      */
-    override fun onBind(intent: Intent?): IBinder? {
-        return null
+    override fun onBind(intent: Intent?): IBinder {
+        return statePublisher.binder
+    }
+
+    /**
+     * Takes over settings sent by the UI.
+     *
+     * @param newSettings The settings of the current run
+     */
+    private fun applySettings(newSettings: TrackingSettings) {
+        settings = newSettings
+        locationRepository.setWebsiteUrl(newSettings.websiteUrl)
+    }
+
+    /**
+     * Settings of the current run.
+     *
+     * Without settings from the UI the system restarted the service in a fresh process,
+     * whose first read of the settings file is current; they are loaded from there.
+     *
+     * @return The settings
+     */
+    private fun currentSettings(): TrackingSettings {
+        return settings ?: runBlocking { TrackingSettings.load(settingsRepository) }.also {
+            Timber.i("Loaded tracking settings from storage")
+            applySettings(it)
+        }
+    }
+
+    /**
+     * Clears the distance, statistics and previous position of the last session.
+     *
+     * Queued on the live lane ahead of the first fix of the new session.
+     */
+    private fun resetLocationState() {
+        backgroundExecutor?.submit {
+            try {
+                runBlocking { locationRepository.resetLocationState() }
+            } catch (e: Exception) {
+                Timber.e(e, "Failed to reset location state")
+            }
+        }
     }
 
     /**
@@ -282,6 +753,14 @@ class TrackingService : Service() {
     @SuppressLint("MissingPermission")
     private fun startLocationUpdates() {
         Timber.d("Starting location updates...")
+        val runSettings = currentSettings()
+        if (runSettings.sessionId.isBlank()) {
+            // Restarted after tracking was stopped; there is no session to continue
+            Timber.w("No active tracking session, stopping service")
+            stopForeground(STOP_FOREGROUND_REMOVE)
+            stopSelf()
+            return
+        }
         
         // Acquire wake lock to keep CPU running during updates
         wakeLock?.let {
@@ -293,40 +772,78 @@ class TrackingService : Service() {
             }
         } ?: Timber.e("Wake lock is null, cannot acquire")
 
+        // Judge the first fix of this run on its own rather than against a stale reference
+        fixValidator.reset()
+        heartbeatPolicy.reset()
+        dataSavingBatch.clear()
+        lastLiveFixTime = 0L
+
+        // Apply the history retention policy off the main thread, sparing this session
+        backgroundExecutor?.submit {
+            try {
+                runBlocking { trackHistoryRepository.enforceRetention(runSettings.sessionId) }
+            } catch (e: Exception) {
+                Timber.e(e, "Failed to apply track history retention")
+            }
+        }
+
         try {
-            // Wrap suspend call with runBlocking
-            val intervalMinutes = runBlocking { settingsRepository.getCurrentTrackingInterval() }
-            Timber.d("Using tracking interval: $intervalMinutes minutes")
+            val intervalMinutes = runSettings.intervalMinutes
+            liveMode = runSettings.liveMode
+            dualResolution = !liveMode && runSettings.dualResolution
+            passiveMode = !liveMode && !dualResolution && runSettings.passiveMode
+            val deadReckoning = !liveMode && !dualResolution && runSettings.deadReckoning
+            val batteryBudget = runSettings.batteryBudget
+            dataBudget = runSettings.dataBudget
+            Timber.d("Using tracking interval: $intervalMinutes minutes, live mode: $liveMode, dual resolution: $dualResolution, passive: $passiveMode, dead reckoning: $deadReckoning, battery budget: $batteryBudget%/h, data budget: $dataBudget")
 
-            val intervalMillis = TimeUnit.MINUTES.toMillis(intervalMinutes.toLong())
+            uploadIntervalMillis = TimeUnit.MINUTES.toMillis(intervalMinutes.toLong())
+            settingsIntervalMillis = when {
+                liveMode -> LIVE_MODE_INTERVAL_MS
+                dualResolution -> DUAL_RESOLUTION_INTERVAL_MS
+                else -> uploadIntervalMillis
+            }
+            // Live mode and dual resolution are explicit requests for maximum fidelity, so
+            // they are not governed; passive mode costs next to nothing to begin with
+            batteryGovernor = if (!liveMode && !dualResolution && !passiveMode && batteryBudget > 0) {
+                BatteryGovernor(batteryBudget.toFloat(), settingsIntervalMillis) { SystemClock.elapsedRealtime() }
+            } else {
+                null
+            }
+            // The battery state is a sticky broadcast, so registering delivers it at once
+            if (batteryGovernor != null) {
+                registerReceiver(batteryReceiver, IntentFilter(Intent.ACTION_BATTERY_CHANGED))?.let { onBatteryChanged(it) }
+            }
+            val plan = currentPlan()
+            requestedPlan = plan
+            if (deadReckoning) startDeadReckoning()
             
-            val locationRequest = LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, intervalMillis)
-                .setMinUpdateIntervalMillis(intervalMillis / 2)
-                .setMaxUpdateDelayMillis(intervalMillis)
-                .setWaitForAccurateLocation(false)
-                .build()
+            val locationRequest = buildLocationRequest(plan)
             
             locationCallback = object : LocationCallback() {
                 override fun onLocationResult(locationResult: LocationResult) {
-                    locationResult.lastLocation?.let { currentLocation ->
+                    // A batched delivery carries several fixes, oldest first
+                    if (locationResult.locations.isEmpty()) {
+                        Timber.w("Received no location in onLocationResult")
+                    }
+                    for (currentLocation in locationResult.locations) {
                         Timber.d("Location received: ${currentLocation.latitude}, ${currentLocation.longitude}")
                         handleNewLocation(currentLocation)
-                    } ?: Timber.w("Received null location in onLocationResult")
+                    }
                 }
             }
 
-            // Request an immediate location update first
-            Timber.d("Requesting immediate location update...")
-            fusedLocationProviderClient.getCurrentLocation(Priority.PRIORITY_HIGH_ACCURACY, null)
-                .addOnSuccessListener { location ->
-                    location?.let {
-                        Timber.d("Got immediate location: ${it.latitude}, ${it.longitude}")
-                        handleNewLocation(it)
-                    } ?: Timber.w("Immediate location request returned null")
-                }
-                .addOnFailureListener { e ->
-                    Timber.e(e, "Failed to get immediate location")
-                }
+            // Request a first fix through the accuracy ladder, so the session does not start
+            // by waiting for GPS when a fresh or network fix is good enough. The ladder can
+            // take a while, so it runs as a coroutine rather than on either upload lane,
+            // where it would block live uploads or wait behind backfill batches.
+            requestActiveFix("First fix")
+            // In passive mode the same ladder stands in whenever no other app provides a fix
+            if (passiveMode) {
+                passiveDeadlineMillis = maxOf(settingsIntervalMillis * PASSIVE_DEADLINE_INTERVALS, PASSIVE_MIN_DEADLINE_MS)
+                mainHandler.removeCallbacks(passiveFallback)
+                mainHandler.postDelayed(passiveFallback, passiveDeadlineMillis)
+            }
             
             // Set up the regular location updates
             fusedLocationProviderClient.requestLocationUpdates(
@@ -346,114 +863,786 @@ class TrackingService : Service() {
         }
     }
 
+    /**
+     * Requests a single fix through the accuracy ladder and handles it on the main thread
+     * like any other fix.
+     *
+     * Runs as a coroutine of [serviceScope]: the ladder itself waits on the IO dispatcher,
+     * so the fix neither occupies nor queues behind the upload lanes.
+     *
+     * @param label What the fix is for, for the log
+     */
+    private fun requestActiveFix(label: String) {
+        Timber.d("$label: Requesting a fix...")
+        activeFixJob = serviceScope.launch {
+            try {
+                val location = locationRepository.getCurrentLocation()
+                if (location != null) {
+                    Timber.d("$label: Got ${location.latitude}, ${location.longitude} (${location.accuracy} m)")
+                    if (locationCallback != null) handleNewLocation(location)
+                } else {
+                    Timber.w("$label: Request returned null")
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Timber.e(e, "$label: Failed to get a fix")
+            }
+        }
+    }
+
+    /**
+     * Builds the location request for a plan
+     *
+     * @param plan Priority, time between fixes and batching
+     */
+    private fun buildLocationRequest(plan: BatteryGovernor.Plan): LocationRequest =
+        LocationRequest.Builder(plan.priority, plan.intervalMillis)
+            .setMinUpdateIntervalMillis(plan.intervalMillis / 2)
+            .setMaxUpdateDelayMillis(plan.maxUpdateDelayMillis)
+            .setWaitForAccurateLocation(false)
+            .build()
+
+    /**
+     * The location request to use, see [LocationPlanner]
+     */
+    private fun currentPlan(): BatteryGovernor.Plan = LocationPlanner.plan(
+        governed = batteryGovernor?.plan(),
+        settingsIntervalMillis = settingsIntervalMillis,
+        liveMode = liveMode,
+        dualResolution = dualResolution,
+        passiveMode = passiveMode,
+        hintIntervalSeconds = locationRepository.uploadHints.value.intervalSeconds
+    )
+
+    /**
+     * Re-registers location updates if the server's interval hint or the battery governor
+     * changed the location request. Safe to call from any thread.
+     */
+    private fun refreshLocationRequest() {
+        if (currentPlan() == requestedPlan) return
+        mainHandler.post { updateLocationRequest() }
+    }
+
+    /**
+     * Replaces the active location request with the current plan.
+     *
+     * Requesting updates again with the same callback replaces the previous request, so
+     * no fixes are lost in between.
+     */
+    @SuppressLint("MissingPermission")
+    private fun updateLocationRequest() {
+        val callback = locationCallback ?: return
+        val plan = currentPlan()
+        if (plan == requestedPlan) return
+        Timber.i("Location request: $requestedPlan -> $plan")
+        requestedPlan = plan
+        try {
+            fusedLocationProviderClient.requestLocationUpdates(
+                buildLocationRequest(plan),
+                callback,
+                Looper.getMainLooper()
+            ).addOnFailureListener { e ->
+                Timber.e(e, "Failed to update the location request.")
+            }
+        } catch (e: SecurityException) {
+            Timber.e(e, "SecurityException while updating the location request.")
+        }
+    }
+
+    /**
+     * Passes a battery update to [batteryGovernor] and applies a new tier.
+     * Runs on the main thread.
+     *
+     * @param intent An [Intent.ACTION_BATTERY_CHANGED] broadcast
+     */
+    private fun onBatteryChanged(intent: Intent) {
+        val governor = batteryGovernor ?: return
+        val level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1)
+        val scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1)
+        if (level < 0 || scale <= 0) return
+        val charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0
+        if (governor.onBatteryChanged(level * 100f / scale, charging)) {
+            Timber.i("Battery governor: ${governor.tier} (calibration ${governor.calibration}, charging: $charging)")
+            updateLocationRequest()
+        }
+    }
+
     /**
      * Processes a new location update.
      * 
-     * Submits the location processing task to the background executor to avoid
-     * blocking the main thread. The background task handles location state updates
-     * and uploading to the server with retry logic.
+     * Drops the fix if [fixValidator] rejects it, before it can touch the location state,
+     * the track history or an upload. Otherwise queues the fix for the live lane and
+     * makes sure a live-lane task is scheduled.
+     * Fixes that arrive while the live lane is busy are not uploaded one by one behind
+     * each other: the next live task records all of them and uploads only the newest,
+     * leaving the rest to the backfill lane.
      *
      * @param currentLocation The new location from FusedLocationProviderClient
      */
     private fun handleNewLocation(currentLocation: Location) {
         Timber.d("handleNewLocation: Received location ${currentLocation.latitude}, ${currentLocation.longitude}")
+        val rejection = fixValidator.check(currentLocation)
+        if (rejection != null) {
+            Timber.i("handleNewLocation: Rejected fix ($rejection, accuracy ${currentLocation.accuracy} m)")
+            batteryGovernor?.onFix()
+            return
+        }
+        batteryGovernor?.onFix()
+        if (passiveMode) {
+            mainHandler.removeCallbacks(passiveFallback)
+            mainHandler.postDelayed(passiveFallback, passiveDeadlineMillis)
+        }
+        if (deadReckoner != null) {
+            reckoningFixes.add(currentLocation)
+            flushMotionSensors()
+            return
+        }
+        incomingFixes.add(currentLocation)
+        scheduleLiveLane()
+    }
+
+    /**
+     * Registers the motion sensors for dead reckoning.
+     *
+     * Both sensors are batched in the sensor hub's FIFO for up to one tracking interval, so
+     * the application processor is not woken per step; wake-up variants are preferred, so a
+     * full FIFO wakes it instead of dropping events. Without a step detector, a rotation
+     * vector sensor or the activity recognition permission, tracking continues on GPS alone.
+     */
+    private fun startDeadReckoning() {
+        stopDeadReckoning()
+        val sensorManager = getSystemService(SensorManager::class.java) ?: return
+        val stepDetector = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR, true)
+            ?: sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR)
+        val rotationVector = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR, true)
+            ?: sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR)
+        val permitted = Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || ContextCompat.checkSelfPermission(
+            this, Manifest.permission.ACTIVITY_RECOGNITION
+        ) == PackageManager.PERMISSION_GRANTED
+        if (stepDetector == null || rotationVector == null || !permitted) {
+            Timber.w("Dead reckoning unavailable (step detector: ${stepDetector != null}, rotation vector: ${rotationVector != null}, permitted: $permitted)")
+            return
+        }
 
-        Timber.d("handleNewLocation: Submitting location to background executor.")
+        val reckoner = DeadReckoner()
+        deadReckoner = reckoner
+        val latencyMicros = TimeUnit.MILLISECONDS.toMicros(minOf(settingsIntervalMillis, MOTION_MAX_REPORT_LATENCY_MS)).toInt()
+        val registered = sensorManager.registerListener(
+            motionListener, stepDetector, SensorManager.SENSOR_DELAY_NORMAL, latencyMicros, mainHandler
+        ) && sensorManager.registerListener(
+            motionListener, rotationVector, MOTION_HEADING_PERIOD_US, latencyMicros, mainHandler
+        )
+        if (!registered) {
+            Timber.w("Dead reckoning: Failed to register the motion sensors")
+            stopDeadReckoning()
+            return
+        }
+        Timber.d("Dead reckoning started (report latency ${latencyMicros / 1_000_000} s)")
+    }
 
-        // Submit the processing and upload task to the background executor
-        backgroundExecutor?.submit {
-            Timber.i("Executor task started for location: ${currentLocation.latitude}, ${currentLocation.longitude}")
-            try {
-                // 1. Gather necessary data
-                Timber.d("Executor: Fetching settings...")
-                // Wrap suspend calls with runBlocking
-                val username = runBlocking { settingsRepository.getCurrentUsername() }
-                val sessionId = runBlocking { settingsRepository.getCurrentSessionId() }
-                val appId = runBlocking { settingsRepository.getAppId() }
-                Timber.i("Executor: Got username=$username, sessionId=$sessionId, appId=$appId")
-
-                // 2. Save location state (updates latestLocation and totalDistance in repo)
-                Timber.i("Executor: Saving location state via repository...")
-                try {
-                     runBlocking { locationRepository.saveAsPreviousLocation(currentLocation) }
-                     Timber.d("Executor: Location state saved.")
-                } catch (e: Exception) {
-                     Timber.e(e, "Executor: Failed to save location state")
-                     // Exit the executor task if state saving fails
-                     return@submit
-                }
+    /**
+     * Unregisters the motion sensors, handing any fixes still waiting for a flush to the
+     * live lane
+     */
+    private fun stopDeadReckoning() {
+        if (deadReckoner == null) return
+        getSystemService(SensorManager::class.java)?.unregisterListener(motionListener)
+        releaseReckoningFixes()
+        deadReckoner = null
+    }
+
+    /**
+     * Asks the motion sensors to deliver their batched events now; [reckoningFixes] are
+     * released once both confirm, or after [SENSOR_FLUSH_TIMEOUT_MS]. A fix arriving while
+     * a flush is in flight waits for that one.
+     */
+    private fun flushMotionSensors() {
+        if (pendingSensorFlushes > 0) return
+        val sensorManager = getSystemService(SensorManager::class.java)
+        if (sensorManager == null || !sensorManager.flush(motionListener)) {
+            releaseReckoningFixes()
+            return
+        }
+        pendingSensorFlushes = MOTION_SENSOR_COUNT
+        mainHandler.postDelayed(sensorFlushTimeout, SENSOR_FLUSH_TIMEOUT_MS)
+    }
+
+    /**
+     * Queues the fixes that waited for the motion sensors for the live lane, each preceded
+     * by the dead-reckoned points between it and the previous fix
+     */
+    private fun releaseReckoningFixes() {
+        mainHandler.removeCallbacks(sensorFlushTimeout)
+        pendingSensorFlushes = 0
+        val reckoner = deadReckoner ?: return
+        if (reckoningFixes.isEmpty()) return
+        for (fix in reckoningFixes) {
+            val estimates = reckoner.onFix(fix.time, fix.latitude, fix.longitude, fix.accuracy)
+            if (estimates.isNotEmpty()) Timber.d("Dead reckoning: ${estimates.size} point(s) before the fix at ${fix.time}")
+            for (estimate in estimates) {
+                incomingFixes.add(Location(DeadReckoner.PROVIDER).apply {
+                    time = estimate.time
+                    latitude = estimate.latitude
+                    longitude = estimate.longitude
+                    accuracy = estimate.accuracy
+                })
+            }
+            incomingFixes.add(fix)
+        }
+        reckoningFixes.clear()
+        scheduleLiveLane()
+    }
+
+    /**
+     * Submits a live-lane task unless one is already queued or running
+     */
+    private fun scheduleLiveLane() {
+        if (!liveLaneScheduled.compareAndSet(false, true)) return
+        val executor = backgroundExecutor
+        if (executor == null) {
+            liveLaneScheduled.set(false)
+            Timber.e("scheduleLiveLane: Background executor is null, cannot submit task.")
+            return
+        }
+        executor.submit { runLiveLane() }
+    }
+
+    /**
+     * Live lane: records every queued fix locally, then uploads the newest one.
+     *
+     * Runs on [backgroundExecutor]. The upload is retried with a short backoff, but gives
+     * up as soon as a newer fix is waiting, because the newest position is what the map
+     * needs; the superseded fix stays pending in the track history for the backfill lane.
+     */
+    private fun runLiveLane() {
+        try {
+            while (true) {
+                val fixes = generateSequence { incomingFixes.poll() }.toList()
+                if (fixes.isEmpty()) break
+                Timber.i("Live lane: processing ${fixes.size} queued fix(es)")
 
-                // 3. Perform location upload with retry logic
-                Timber.i("Executor: Starting upload attempt loop...")
-                var success = false
-                var retryCount = 0
-                val maxRetries = 3
+                // 1. Gather necessary data, including a username changed since the start
+                val runSettings = currentSettings()
+                val username = runSettings.username
+                val sessionId = runSettings.sessionId
+                val appId = runSettings.appId
 
-                while (!success && retryCount < maxRetries) {
+                // 2. Update location state and record every fix, with the session statistics,
+                //    in the local track history
+                restoreSessionStats(sessionId)
+                var newestFixId = ""
+                var newestLocalId: Long? = null
+                var newestTrip = 1
+                var newestDistance = 0.0
+                for (location in fixes) {
                     try {
-                        Timber.d("Executor: Upload Attempt ${retryCount + 1}/$maxRetries")
-                        // Wrap suspend call with runBlocking
-                        Timber.d("Executor: Entering runBlocking for uploadLocationData")
-                        try {
-                            success = runBlocking {
-                                Timber.i("Executor: Inside runBlocking for uploadLocationData")
-                                locationRepository.uploadLocationData(
-                                    location = currentLocation,
-                                    username = username,
-                                    sessionId = sessionId,
-                                    appId = appId,
-                                    eventType = "service-update-executor"
-                                )
-                            }
-                            Timber.d("Executor: Exited runBlocking for uploadLocationData successfully")
-                        } catch (rbError: Exception) {
-                            Timber.e(rbError, "Executor: Exception occurred WITHIN or AROUND runBlocking for uploadLocationData")
-                            success = false
-                        }
+                        runBlocking { locationRepository.saveAsPreviousLocation(location) }
+                    } catch (e: Exception) {
+                        Timber.e(e, "Live lane: Failed to save location state")
+                    }
+                    // Allocated once per fix so every retry and any later backfill carry the same ID
+                    newestFixId = "$appId:${runBlocking { settingsRepository.nextFixSequence() }}"
+                    val stats = locationRepository.sessionStats.value
+                    newestTrip = stats.trip.tripNumber
+                    newestDistance = locationRepository.totalDistance.value.toDouble()
+                    newestLocalId = try {
+                        runBlocking { trackHistoryRepository.recordFix(sessionId, location, newestFixId, stats, newestDistance) }
+                    } catch (e: Exception) {
+                        Timber.e(e, "Live lane: Failed to record fix $newestFixId in track history")
+                        null
+                    }
+                }
 
-                        if (success) {
-                            Timber.i("Executor: Upload SUCCESS! (Attempt ${retryCount + 1}) Lat=${currentLocation.latitude}, Lon=${currentLocation.longitude}")
-                        } else {
-                            Timber.w("Executor: Upload FAILED (Attempt ${retryCount + 1}). Will retry if possible.")
-                            if (retryCount < maxRetries - 1) {
-                                val delayMs = 1000L * (retryCount + 1)
-                                Timber.d("Executor: Waiting ${delayMs}ms before retry...")
-                                try {
-                                    Thread.sleep(delayMs)
-                                } catch (ie: InterruptedException) {
-                                    Timber.w("Executor: Sleep interrupted during retry delay.")
-                                    Thread.currentThread().interrupt()
-                                    break // Exit retry loop if interrupted
-                                }
-                            }
-                        }
-                    } catch (uploadException: Exception) {
-                        Timber.e(uploadException, "Executor: Exception during upload attempt ${retryCount + 1}")
-                        if (retryCount < maxRetries - 1) {
-                             val delayMs = 1000L * (retryCount + 1)
-                             Timber.d("Executor: Waiting ${delayMs}ms before retry after exception...")
-                             try {
-                                 Thread.sleep(delayMs)
-                             } catch (ie: InterruptedException) {
-                                 Timber.w("Executor: Sleep interrupted during retry delay after exception.")
-                                 Thread.currentThread().interrupt()
-                                 break
-                             }
-                        }
+                // 3. In dual-resolution mode only one fix per upload interval goes out live;
+                //    the others stay pending for the full-resolution upload
+                val newest = fixes.last()
+                if (dualResolution) {
+                    if (newest.time - lastLiveFixTime < liveUploadIntervalMillis()) continue
+                    lastLiveFixTime = newest.time
+                }
+
+                // 4. In live mode, stream the newest fix; its ack marks it uploaded later
+                val backingOff = locationRepository.uploadHints.value.isBackingOff(System.currentTimeMillis())
+                if (!backingOff && newestLocalId != null &&
+                    streamLive(newest, username, sessionId, appId, newestFixId, newestLocalId, newestTrip)
+                ) {
+                    continue
+                }
+
+                //    While the stream is down, HTTP uploads keep to the server's suggested
+                //    interval; the fixes in between stay pending for the backfill lane
+                if (liveMode) {
+                    val hintMillis = TimeUnit.SECONDS.toMillis(locationRepository.uploadHints.value.intervalSeconds.toLong())
+                    if (newest.time - lastLiveFixTime < hintMillis) continue
+                    lastLiveFixTime = newest.time
+                }
+
+                // 5. Past the data budget on a metered network nothing is sent; the fixes stay
+                //    pending until the device reaches an unmetered network. Live mode, an
+                //    explicit request for maximum fidelity, is not governed.
+                val dataSaving = if (liveMode) DataBudget.Level.NORMAL else dataSavingLevel()
+                if (dataSaving == DataBudget.Level.EXHAUSTED) {
+                    Timber.i("Live lane: Data budget used up, leaving $newestFixId for an unmetered network")
+                    continue
+                }
+
+                // 6. While the position is unchanged, a heartbeat stands in for the fix
+                if (!liveMode && !backingOff && newestLocalId != null &&
+                    heartbeatPolicy.isUnchanged(newest.time, newest.latitude, newest.longitude, newest.accuracy) &&
+                    sendHeartbeat(newest, username, sessionId, appId, newestLocalId)
+                ) {
+                    continue
+                }
+
+                // 7. Close to the data budget, fixes are held and sent as one compact batch
+                if (dataSaving == DataBudget.Level.SAVING && !backingOff && newestLocalId != null) {
+                    holdForDataSaving(trackPointOf(newest, newestLocalId, sessionId, newestFixId, newestTrip, newestDistance), username, appId)
+                    continue
+                }
+
+                // 8. Otherwise send it as a datagram if the UDP uplink is set up, else over HTTP
+                //    with retry logic, unless the server asked to back off
+                val success = if (backingOff) {
+                    Timber.i("Live lane: Server asked to back off, leaving $newestFixId to the backfill lane")
+                    false
+                } else if (newestLocalId != null &&
+                    uploadUdp(listOf(trackPointOf(newest, newestLocalId, sessionId, newestFixId, newestTrip, newestDistance)), username, appId)
+                ) {
+                    Timber.i("Live lane: UDP upload SUCCESS fixId=$newestFixId")
+                    true
+                } else {
+                    uploadLive(newest, username, sessionId, appId, newestFixId, newestTrip)
+                }
+                refreshLocationRequest()
+
+                // 9. On success, mark it and let the backfill lane drain anything older
+                if (success) heartbeatPolicy.onFullFixSent(newest.time, newest.latitude, newest.longitude)
+                if (success && newestLocalId != null) {
+                    try {
+                        runBlocking { trackHistoryRepository.markUploaded(newestLocalId) }
+                    } catch (e: Exception) {
+                        Timber.e(e, "Live lane: Failed to mark fix $newestFixId as uploaded")
                     }
-                    retryCount++
+                    scheduleBackfill(newestLocalId, username, appId)
                 }
+            }
+        } catch (t: Throwable) {
+            Timber.e(t, "Live lane: Uncaught Throwable inside background task")
+        } finally {
+            liveLaneScheduled.set(false)
+            // A fix may have been queued after the last poll but before the flag was cleared
+            if (incomingFixes.isNotEmpty()) scheduleLiveLane()
+        }
+    }
 
-                if (!success) {
-                    Timber.e("Executor: All upload attempts failed after $maxRetries retries for location ${currentLocation.latitude}, ${currentLocation.longitude}")
+    /**
+     * Time between live uploads in dual-resolution mode: the settings interval, stretched
+     * to the server's suggested interval when that is longer
+     */
+    private fun liveUploadIntervalMillis(): Long =
+        maxOf(uploadIntervalMillis, TimeUnit.SECONDS.toMillis(locationRepository.uploadHints.value.intervalSeconds.toLong()))
+
+    /**
+     * Whether the full-resolution track of dual-resolution mode may be uploaded now: on
+     * an unmetered network while charging, so the extra fixes cost neither mobile data nor
+     * battery
+     */
+    private fun isFullResolutionWindow(): Boolean {
+        val unmetered = getSystemService(ConnectivityManager::class.java)?.isActiveNetworkMetered == false
+        // The battery state is a sticky broadcast, so no receiver is needed to read it
+        val charging = registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+            ?.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0)?.let { it != 0 } ?: false
+        return unmetered && charging
+    }
+
+    /**
+     * Continues the session statistics stored with the session if the repository has
+     * none, i.e. when the process was restarted in the middle of a session.
+     *
+     * Runs on the live lane before fixes are folded in; once the repository holds
+     * statistics this is a no-op.
+     */
+    private fun restoreSessionStats(sessionId: String) {
+        if (!locationRepository.sessionStats.value.isEmpty) return
+        try {
+            val stored = runBlocking { trackHistoryRepository.getSessionSummary(sessionId) }?.stats ?: return
+            if (!stored.isEmpty) runBlocking { locationRepository.restoreSessionStats(stored) }
+        } catch (e: Exception) {
+            Timber.e(e, "Live lane: Failed to restore session statistics")
+        }
+    }
+
+    /**
+     * Uploads the summary of the session that just ended, then stops the service.
+     *
+     * Queued on the live lane, behind any fixes still being recorded, so the summary
+     * includes them. The service stays in the foreground until the upload is done, so the
+     * `:tracking` process is not reclaimed halfway; if a new start arrived meanwhile,
+     * [stopSelf] with this command's ID leaves the service running.
+     * Best effort: a failed upload is only logged.
+     *
+     * @param startId ID of the [ACTION_STOP_SERVICE] command
+     */
+    private fun endSession(startId: Int) {
+        val ended = settings
+        val executor = backgroundExecutor
+        if (ended == null || executor == null) {
+            stopSelf(startId)
+            return
+        }
+        executor.submit {
+            try {
+                val stored = runBlocking { sessionSummaryUploader.upload(ended) }
+                Timber.i("Session summary of ${ended.sessionId} ${if (stored) "uploaded" else "not uploaded"}")
+            } catch (e: Exception) {
+                Timber.e(e, "Failed to upload the session summary")
+            } finally {
+                mainHandler.post { stopSelf(startId) }
+            }
+        }
+    }
+
+    /**
+     * Sends a fix over the live stream, opening the stream first if needed.
+     *
+     * Only used in live mode. The fix counts as uploaded once the server acknowledges it
+     * (see [liveStreamListener]); a send that returns false means the stream is down or
+     * still connecting, and the caller uploads the fix over HTTP instead.
+     *
+     * @return true if the fix was handed to an open stream
+     */
+    private fun streamLive(
+        location: Location,
+        username: String,
+        sessionId: String,
+        appId: String,
+        fixId: String,
+        localId: Long,
+        tripNumber: Int
+    ): Boolean {
+        if (!liveMode) return false
+        val url = ServerUrls.streamUrl(currentSettings().websiteUrl) ?: return false
+        val stream = liveStream ?: LiveStreamClient(okHttpClient.get(), liveStreamListener).also { liveStream = it }
+        stream.connect(url, username, appId, sessionId)
+
+        val distanceMiles = runBlocking { locationRepository.totalDistance.first() } / METERS_PER_MILE
+        // Registered before sending so an early ack cannot be missed
+        awaitingAck[fixId] = localId
+        if (stream.send(location, fixId, distanceMiles, tripNumber)) {
+            Timber.d("Live stream: Sent $fixId")
+            return true
+        }
+        awaitingAck.remove(fixId)
+        Timber.i("Live stream: Not open, uploading $fixId over HTTP")
+        return false
+    }
+
+    /**
+     * Marks a streamed fix as uploaded and lets the backfill lane drain anything older.
+     * Runs on [backgroundExecutor].
+     */
+    private fun markStreamed(localId: Long, fixId: String) {
+        try {
+            runBlocking { trackHistoryRepository.markUploaded(localId) }
+            val runSettings = currentSettings()
+            scheduleBackfill(localId, runSettings.username, runSettings.appId)
+        } catch (e: Exception) {
+            Timber.e(e, "Live stream: Failed to mark fix $fixId as uploaded")
+        }
+    }
+
+    /**
+     * Sends a heartbeat in place of an unchanged fix.
+     *
+     * On success the fix is marked uploaded although the server never receives it; that
+     * is the point, and it keeps the backfill lane from sending it later. The server was
+     * reachable, so the backfill lane may drain anything older. On failure (including
+     * servers without the heartbeat endpoint) the caller uploads the fix as usual.
+     *
+     * @return true if the server recorded the heartbeat
+     */
+    private fun sendHeartbeat(location: Location, username: String, sessionId: String, appId: String, localId: Long): Boolean {
+        batteryGovernor?.onUpload()
+        val batteryPercent = getSystemService(BatteryManager::class.java)
+            ?.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY)
+            ?.takeIf { it in 0..100 }
+        val sent = try {
+            runBlocking { locationRepository.sendHeartbeat(username, appId, sessionId, location.time, batteryPercent) }
+        } catch (e: Exception) {
+            Timber.e(e, "Live lane: Heartbeat failed")
+            false
+        }
+        if (!sent) return false
+
+        Timber.i("Live lane: Position unchanged, sent a heartbeat instead of the fix")
+        try {
+            runBlocking { trackHistoryRepository.markUploaded(localId) }
+        } catch (e: Exception) {
+            Timber.e(e, "Live lane: Failed to mark heartbeat fix $localId as handled")
+        }
+        refreshLocationRequest()
+        scheduleBackfill(localId, username, appId)
+        return true
+    }
+
+    /**
+     * How much the tracker should currently save data.
+     *
+     * The budget only applies on metered networks: on Wi-Fi everything is uploaded as
+     * usual, which is also when fixes held back by the budget are drained.
+     */
+    private fun dataSavingLevel(): DataBudget.Level {
+        val budget = dataBudget
+        if (!budget.isSet) return DataBudget.Level.NORMAL
+        val metered = getSystemService(ConnectivityManager::class.java)?.isActiveNetworkMetered ?: true
+        return if (metered) budget.levelFor(dataUsageMeter.current()) else DataBudget.Level.NORMAL
+    }
+
+    /**
+     * Holds a fix while saving data and sends the held fixes as one compact batch once
+     * [DATA_SAVING_BATCH_FIXES] have gathered, so each costs a fraction of an upload of
+     * its own. Runs on the live lane.
+     *
+     * Held fixes are recorded as pending, so a failed batch is left to the backfill lane.
+     */
+    private fun holdForDataSaving(point: TrackPoint, username: String, appId: String) {
+        dataSavingBatch += point
+        if (dataSavingBatch.size < DATA_SAVING_BATCH_FIXES) return
+
+        batteryGovernor?.onUpload()
+        val batch = dataSavingBatch.toList()
+        dataSavingBatch.clear()
+        val sent = try {
+            runBlocking { locationRepository.uploadBatch(batch, username, appId, compact = true) }
+        } catch (e: Exception) {
+            Timber.e(e, "Live lane: Data saving batch failed")
+            false
+        }
+        refreshLocationRequest()
+        if (!sent) {
+            Timber.w("Live lane: Data saving batch of ${batch.size} fixes failed; left for the backfill lane")
+            return
+        }
+
+        Timber.i("Live lane: Sent ${batch.size} held fixes as one compact batch to save data")
+        val newest = batch.last()
+        heartbeatPolicy.onFullFixSent(newest.time, newest.latitude, newest.longitude)
+        try {
+            runBlocking { trackHistoryRepository.markUploaded(batch.map { it.id }) }
+        } catch (e: Exception) {
+            Timber.e(e, "Live lane: Failed to mark the data saving batch as uploaded")
+        }
+    }
+
+    /**
+     * Sends fixes over the UDP uplink if a key is set.
+     *
+     * @return true if the server acknowledged every fix; false if the uplink is off or
+     *   failed and the caller should use HTTP
+     */
+    private fun uploadUdp(points: List<TrackPoint>, username: String, appId: String): Boolean {
+        val runSettings = currentSettings()
+        val key = runSettings.udpUplinkKey
+        if (key.isBlank()) return false
+        val host = ServerUrls.apiHost(runSettings.websiteUrl) ?: return false
+        batteryGovernor?.onUpload()
+        return udpUplink.send(host, UdpUplink.DEFAULT_PORT, key, points, username, appId)
+    }
+
+    /**
+     * Describes a just-recorded fix the way the track history stores it
+     */
+    private fun trackPointOf(
+        location: Location,
+        localId: Long,
+        sessionId: String,
+        fixId: String,
+        tripNumber: Int,
+        distanceMeters: Double
+    ) = TrackPoint(
+        id = localId,
+        sessionId = sessionId,
+        time = location.time,
+        latitude = location.latitude,
+        longitude = location.longitude,
+        altitude = location.altitude,
+        speed = location.speed,
+        bearing = location.bearing,
+        accuracy = location.accuracy,
+        provider = location.provider ?: "",
+        uploaded = false,
+        fixId = fixId,
+        tripNumber = tripNumber,
+        distanceMeters = distanceMeters
+    )
+
+    /**
+     * Uploads a single fix, retrying with linear backoff while no newer fix is waiting and
+     * the server has not asked clients to back off.
+     *
+     * @return true if the server accepted the fix
+     */
+    private fun uploadLive(
+        location: Location,
+        username: String,
+        sessionId: String,
+        appId: String,
+        fixId: String,
+        tripNumber: Int
+    ): Boolean {
+        for (attempt in 1..LIVE_MAX_ATTEMPTS) {
+            batteryGovernor?.onUpload()
+            val success = try {
+                runBlocking {
+                    locationRepository.uploadLocationData(
+                        location = location,
+                        username = username,
+                        sessionId = sessionId,
+                        appId = appId,
+                        eventType = "service-update-executor",
+                        fixId = fixId,
+                        tripNumber = tripNumber
+                    )
                 }
+            } catch (e: Exception) {
+                Timber.e(e, "Live lane: Exception during upload attempt $attempt")
+                false
+            }
+
+            if (success) {
+                Timber.i("Live lane: Upload SUCCESS (attempt $attempt) fixId=$fixId")
+                return true
+            }
+            if (incomingFixes.isNotEmpty()) {
+                Timber.i("Live lane: Newer fix waiting, leaving $fixId to the backfill lane")
+                return false
+            }
+            if (locationRepository.uploadHints.value.isBackingOff(System.currentTimeMillis())) {
+                Timber.i("Live lane: Server asked to back off, leaving $fixId to the backfill lane")
+                return false
+            }
+            if (attempt < LIVE_MAX_ATTEMPTS) {
+                try {
+                    Thread.sleep(LIVE_RETRY_BASE_DELAY_MS * attempt)
+                } catch (ie: InterruptedException) {
+                    Timber.w("Live lane: Sleep interrupted during retry delay.")
+                    Thread.currentThread().interrupt()
+                    return false
+                }
+            }
+        }
+        Timber.e("Live lane: All $LIVE_MAX_ATTEMPTS upload attempts failed for $fixId; left for backfill")
+        return false
+    }
 
+    /**
+     * Starts the backfill lane unless it is already running.
+     *
+     * Triggered by every successful live upload, i.e. as soon as the server is reachable
+     * again, so the live fix is always delivered before the backlog. Batches are capped at
+     * the server's `max_batch` hint, and draining stops while the server asks for backoff.
+     * In dual-resolution mode the backlog holds the full-resolution track, which is only
+     * drained while the device is charging on an unmetered network.
+     *
+     * @param beforeId Local ID of the newest fix handled by the live lane; only older fixes are drained
+     */
+    private fun scheduleBackfill(beforeId: Long, username: String, appId: String) {
+        if (!backfillScheduled.compareAndSet(false, true)) return
+        val executor = backfillExecutor
+        if (executor == null) {
+            backfillScheduled.set(false)
+            return
+        }
+        executor.submit {
+            try {
+                // Close to the data budget, the backlog waits for an unmetered network
+                if (dataSavingLevel() != DataBudget.Level.NORMAL) {
+                    Timber.i("Backfill lane: Saving data, will resume on an unmetered network")
+                    return@submit
+                }
+                // In dual-resolution mode the backlog is the full-resolution track
+                if (dualResolution && !isFullResolutionWindow()) {
+                    Timber.i("Backfill lane: Holding the full-resolution track until charging on an unmetered network")
+                    return@submit
+                }
+                if (!drainBulkUploads(beforeId, username, appId)) return@submit
+                var drained = 0
+                while (!Thread.currentThread().isInterrupted) {
+                    val hints = locationRepository.uploadHints.value
+                    if (hints.isBackingOff(System.currentTimeMillis())) {
+                        Timber.i("Backfill lane: Server asked to back off, will resume after the next live upload")
+                        break
+                    }
+                    val batchSize = if (hints.maxBatch > 0) minOf(hints.maxBatch, BACKFILL_BATCH_SIZE) else BACKFILL_BATCH_SIZE
+                    val pending = runBlocking { trackHistoryRepository.getPendingUploads(beforeId, batchSize) }
+                    if (pending.isEmpty()) break
+                    val accepted = (pending.size <= UDP_MAX_BACKFILL_FIXES && uploadUdp(pending, username, appId)) ||
+                        run {
+                            batteryGovernor?.onUpload()
+                            runBlocking { locationRepository.uploadBatch(pending, username, appId) }
+                        }
+                    if (!accepted) {
+                        Timber.w("Backfill lane: Batch rejected, will resume after the next live upload")
+                        break
+                    }
+                    runBlocking { trackHistoryRepository.markUploaded(pending.map { it.id }) }
+                    drained += pending.size
+                }
+                if (drained > 0) Timber.i("Backfill lane: Drained $drained fixes")
             } catch (t: Throwable) {
-                Timber.e(t, "Executor: Uncaught Throwable inside background task")
+                Timber.e(t, "Backfill lane: Uncaught Throwable inside background task")
             } finally {
-                Timber.i("Executor task finished for location: ${currentLocation.latitude}, ${currentLocation.longitude}")
+                backfillScheduled.set(false)
             }
-        } ?: Timber.e("handleNewLocation: Background executor is null, cannot submit task.")
+        }
+    }
+
+    /**
+     * Drains a large backlog through resumable bulk uploads (see [BulkUpload]).
+     *
+     * First resumes a file left behind by an interrupted upload, even one from before a
+     * process restart; then, while at least [BULK_MIN_FIXES] fixes are pending, packages up
+     * to [BULK_MAX_FIXES] of them into a new file. Each file is named after the contiguous
+     * local ID range it covers, which is marked uploaded once the server has stored it.
+     * Runs on the backfill lane.
+     *
+     * @return true when the remaining backlog is left to batch uploads; false if an upload
+     *   was interrupted or held back, and backfill should resume after the next live upload
+     */
+    private fun drainBulkUploads(beforeId: Long, username: String, appId: String): Boolean {
+        val directory = File(cacheDir, BULK_DIRECTORY)
+        while (!Thread.currentThread().isInterrupted) {
+            if (locationRepository.uploadHints.value.isBackingOff(System.currentTimeMillis())) return false
+
+            var file = directory.listFiles { f -> f.name.endsWith(BULK_SUFFIX) }?.firstOrNull()
+            if (file == null) {
+                val pending = runBlocking { trackHistoryRepository.getPendingUploads(beforeId, BULK_MAX_FIXES) }
+                if (pending.size < BULK_MIN_FIXES) return true
+                directory.mkdirs()
+                // The creation time keeps IDs unique should local IDs ever restart
+                file = File(directory, "${pending.first().id}-${pending.last().id}-${System.currentTimeMillis()}$BULK_SUFFIX")
+                val partial = File(directory, BULK_PARTIAL_FILE)
+                partial.outputStream().buffered().use { LocationBatchEncoder.writeNdjsonGzip(it, pending, username, appId) }
+                if (!partial.renameTo(file)) return false
+                Timber.i("Backfill lane: Packaged ${pending.size} fixes into ${file.length()} bytes for bulk upload")
+            }
+
+            val uploadId = file.name.removeSuffix(BULK_SUFFIX)
+            val range = uploadId.split('-').mapNotNull { it.toLongOrNull() }
+            if (range.size != 3) {
+                file.delete()
+                continue
+            }
+            batteryGovernor?.onUpload()
+            if (!runBlocking { locationRepository.uploadBulk(file, uploadId, appId) }) {
+                Timber.w("Backfill lane: Bulk upload $uploadId interrupted, will resume after the next live upload")
+                return false
+            }
+            runBlocking { trackHistoryRepository.markUploadedRange(range[0], range[1]) }
+            file.delete()
+        }
+        return false
     }
 
     /**
@@ -464,6 +1653,22 @@ class TrackingService : Service() {
      */
     private fun stopLocationUpdates() {
         Timber.d("stopLocationUpdates called.")
+        Timber.i("Rejected fixes so far: ${fixValidator.rejectionCounts()}")
+
+        // Close the live stream; unacknowledged fixes stay pending for the next session
+        liveStream?.close()
+        liveStream = null
+        awaitingAck.clear()
+
+        if (batteryGovernor != null) {
+            unregisterReceiver(batteryReceiver)
+            batteryGovernor = null
+        }
+
+        stopDeadReckoning()
+        mainHandler.removeCallbacks(passiveFallback)
+        activeFixJob?.cancel()
+        activeFixJob = null
 
         // Release wake lock
         wakeLock?.let {
@@ -0,0 +1,70 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/TrackingServiceController.kt
+package com.websmithing.gpstracker2.service
+
+import android.content.Context
+import android.content.Intent
+import dagger.hilt.android.qualifiers.ApplicationContext
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Starts, updates and stops [TrackingService] from the UI process.
+ *
+ * Every command is an intent to the service; starts and updates carry the
+ * [TrackingSettings] of the run. Ending a session is sent as a start command rather than
+ * through `stopService`, which destroys the service without delivering the intent, so the
+ * service can upload the session summary before it stops itself.
+ *
+ * Only call while the app is in the foreground: background apps may not start services.
+ */
+@Singleton
+class TrackingServiceController @Inject constructor(
+    @ApplicationContext private val context: Context
+) {
+
+    /**
+     * Starts tracking in the foreground service
+     *
+     * @param settings The settings of the run
+     * @param newSession Whether a new session starts, clearing the previous one's location state
+     */
+    fun start(settings: TrackingSettings, newSession: Boolean) {
+        context.startForegroundService(intent(TrackingService.ACTION_START_SERVICE).apply {
+            putExtras(settings.encode())
+            putExtra(TrackingService.EXTRA_NEW_SESSION, newSession)
+        })
+    }
+
+    /**
+     * Hands the running service new identity, server and UDP key settings
+     *
+     * @param settings The settings of the run
+     */
+    fun update(settings: TrackingSettings) {
+        context.startService(intent(TrackingService.ACTION_UPDATE_SETTINGS).apply {
+            putExtras(settings.encode())
+        })
+    }
+
+    /**
+     * Stops and starts the service so the session continues with new settings
+     *
+     * The session does not end, so no summary is uploaded.
+     *
+     * @param settings The settings of the run
+     */
+    fun restart(settings: TrackingSettings) {
+        context.stopService(Intent(context, TrackingService::class.java))
+        start(settings, newSession = false)
+    }
+
+    /**
+     * Ends the session; the service uploads its summary and then stops
+     */
+    fun stop() {
+        context.startService(intent(TrackingService.ACTION_STOP_SERVICE))
+    }
+
+    private fun intent(action: String): Intent =
+        Intent(context, TrackingService::class.java).setAction(action)
+}
@@ -0,0 +1,132 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/TrackingSettings.kt
+package com.websmithing.gpstracker2.service
+
+import android.os.Bundle
+import com.websmithing.gpstracker2.data.repository.SettingsRepository
+import com.websmithing.gpstracker2.network.DataBudget
+
+/**
+ * The settings a tracking run uses, handed from the UI to [TrackingService].
+ *
+ * The service runs in its own process, which caches the settings file on first read and
+ * does not see later changes made by the UI. The UI therefore sends the settings along
+ * with every start, and the identity and server fields again whenever they change; the
+ * service only reads the settings file itself when the system restarts it in a fresh
+ * process.
+ *
+ * Written to and read from intent extras field by field, like [TrackingStateChannel].
+ *
+ * @property sessionId The tracking session the fixes belong to
+ * @property appId The device identifier
+ * @property username The username identifying this tracker
+ * @property websiteUrl The URL where tracking data is sent
+ * @property udpUplinkKey Key shared with the server's UDP uplink; blank when the uplink is off
+ * @property intervalMinutes The tracking interval in minutes
+ * @property liveMode Whether fixes are taken every few seconds and streamed live
+ * @property dualResolution Whether fixes are recorded every second and uploaded live once per interval
+ * @property passiveMode Whether fixes requested by other apps are used instead of running GPS
+ * @property deadReckoning Whether motion sensors fill in the path between sparse fixes
+ * @property batteryBudget Battery budget in percent per hour; 0 when tracking is not governed
+ * @property dataBudget Daily and monthly mobile data limits for uploads
+ */
+data class TrackingSettings(
+    val sessionId: String,
+    val appId: String,
+    val username: String,
+    val websiteUrl: String,
+    val udpUplinkKey: String,
+    val intervalMinutes: Int,
+    val liveMode: Boolean,
+    val dualResolution: Boolean,
+    val passiveMode: Boolean,
+    val deadReckoning: Boolean,
+    val batteryBudget: Int,
+    val dataBudget: DataBudget
+) {
+
+    /**
+     * Writes the settings into a Bundle of intent extras
+     */
+    fun encode(): Bundle = Bundle().apply {
+        putString(KEY_SESSION_ID, sessionId)
+        putString(KEY_APP_ID, appId)
+        putString(KEY_USERNAME, username)
+        putString(KEY_WEBSITE_URL, websiteUrl)
+        putString(KEY_UDP_UPLINK_KEY, udpUplinkKey)
+        putInt(KEY_INTERVAL, intervalMinutes)
+        putBoolean(KEY_LIVE_MODE, liveMode)
+        putBoolean(KEY_DUAL_RESOLUTION, dualResolution)
+        putBoolean(KEY_PASSIVE_MODE, passiveMode)
+        putBoolean(KEY_DEAD_RECKONING, deadReckoning)
+        putInt(KEY_BATTERY_BUDGET, batteryBudget)
+        putInt(KEY_DATA_BUDGET_DAILY, dataBudget.dailyMegabytes)
+        putInt(KEY_DATA_BUDGET_MONTHLY, dataBudget.monthlyMegabytes)
+    }
+
+    companion object {
+        private const val KEY_SESSION_ID = "settings.sessionId"
+        private const val KEY_APP_ID = "settings.appId"
+        private const val KEY_USERNAME = "settings.username"
+        private const val KEY_WEBSITE_URL = "settings.websiteUrl"
+        private const val KEY_UDP_UPLINK_KEY = "settings.udpUplinkKey"
+        private const val KEY_INTERVAL = "settings.interval"
+        private const val KEY_LIVE_MODE = "settings.liveMode"
+        private const val KEY_DUAL_RESOLUTION = "settings.dualResolution"
+        private const val KEY_PASSIVE_MODE = "settings.passiveMode"
+        private const val KEY_DEAD_RECKONING = "settings.deadReckoning"
+        private const val KEY_BATTERY_BUDGET = "settings.batteryBudget"
+        private const val KEY_DATA_BUDGET_DAILY = "settings.dataBudgetDaily"
+        private const val KEY_DATA_BUDGET_MONTHLY = "settings.dataBudgetMonthly"
+
+        /**
+         * Reads settings written by [encode]
+         *
+         * @param extras Intent extras, possibly null
+         * @return The settings, or null if the extras do not carry any
+         */
+        fun decode(extras: Bundle?): TrackingSettings? {
+            if (extras == null || !extras.containsKey(KEY_SESSION_ID)) return null
+            return TrackingSettings(
+                sessionId = extras.getString(KEY_SESSION_ID, ""),
+                appId = extras.getString(KEY_APP_ID, ""),
+                username = extras.getString(KEY_USERNAME, ""),
+                websiteUrl = extras.getString(KEY_WEBSITE_URL, ""),
+                udpUplinkKey = extras.getString(KEY_UDP_UPLINK_KEY, ""),
+                intervalMinutes = extras.getInt(KEY_INTERVAL, 1),
+                liveMode = extras.getBoolean(KEY_LIVE_MODE),
+                dualResolution = extras.getBoolean(KEY_DUAL_RESOLUTION),
+                passiveMode = extras.getBoolean(KEY_PASSIVE_MODE),
+                deadReckoning = extras.getBoolean(KEY_DEAD_RECKONING),
+                batteryBudget = extras.getInt(KEY_BATTERY_BUDGET),
+                dataBudget = DataBudget(
+                    dailyMegabytes = extras.getInt(KEY_DATA_BUDGET_DAILY),
+                    monthlyMegabytes = extras.getInt(KEY_DATA_BUDGET_MONTHLY)
+                )
+            )
+        }
+
+        /**
+         * Reads the settings from storage without writing anything
+         *
+         * Only correct in a process that has not read the settings file before, see
+         * [TrackingSettings].
+         *
+         * @param settingsRepository The settings repository
+         * @return The stored settings; the session ID is blank if no session is active
+         */
+        suspend fun load(settingsRepository: SettingsRepository): TrackingSettings = TrackingSettings(
+            sessionId = settingsRepository.getCurrentSessionId(),
+            appId = settingsRepository.getStoredAppId(),
+            username = settingsRepository.getCurrentUsername(),
+            websiteUrl = settingsRepository.getCurrentWebsiteUrl(),
+            udpUplinkKey = settingsRepository.getCurrentUdpUplinkKey(),
+            intervalMinutes = settingsRepository.getCurrentTrackingInterval(),
+            liveMode = settingsRepository.getCurrentLiveMode(),
+            dualResolution = settingsRepository.getCurrentDualResolution(),
+            passiveMode = settingsRepository.getCurrentPassiveMode(),
+            deadReckoning = settingsRepository.getCurrentDeadReckoning(),
+            batteryBudget = settingsRepository.getCurrentBatteryBudget(),
+            dataBudget = settingsRepository.getCurrentDataBudget()
+        )
+    }
+}
@@ -0,0 +1,220 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/TrackingStateChannel.kt
+package com.websmithing.gpstracker2.service
+
+import android.location.Location
+import android.os.Bundle
+import android.os.Handler
+import android.os.IBinder
+import android.os.Looper
+import android.os.Message
+import android.os.Messenger
+import android.os.RemoteException
+import com.websmithing.gpstracker2.data.repository.SessionStats
+import com.websmithing.gpstracker2.data.repository.TripSegmenter
+import com.websmithing.gpstracker2.data.repository.UploadStatus
+import com.websmithing.gpstracker2.network.DataUsage
+import timber.log.Timber
+
+/**
+ * What the tracking service reports to the UI
+ *
+ * @property location The newest fix, if any
+ * @property totalDistanceMeters Distance covered in the session
+ * @property sessionStats Statistics of the session
+ * @property uploadStatus Result of the last upload
+ * @property dataUsage Bytes counted today and this month
+ */
+data class TrackingState(
+    val location: Location? = null,
+    val totalDistanceMeters: Float = 0f,
+    val sessionStats: SessionStats = SessionStats(),
+    val uploadStatus: UploadStatus = UploadStatus.Idle,
+    val dataUsage: DataUsage = DataUsage()
+)
+
+/**
+ * Messenger protocol between [TrackingService] and the UI.
+ *
+ * The service runs in its own process (`:tracking`), so the UI cannot read the location
+ * repository's flows directly. It binds to the service and sends [MSG_REGISTER] with a
+ * reply Messenger; the service answers with the current [TrackingState] and then sends
+ * a [MSG_STATE] after every change until [MSG_UNREGISTER] or until the binding goes away.
+ *
+ * States travel as Bundles of primitives plus the parcelable [Location], written and read
+ * field by field here; nothing is serialized by reflection.
+ */
+object TrackingStateChannel {
+    /**
+     * Client to service: start sending states to [Message.replyTo]
+     */
+    const val MSG_REGISTER = 1
+
+    /**
+     * Client to service: stop sending states to [Message.replyTo]
+     */
+    const val MSG_UNREGISTER = 2
+
+    /**
+     * Service to client: [Message.getData] holds a [TrackingState]
+     */
+    const val MSG_STATE = 3
+
+    private const val KEY_LOCATION = "location"
+    private const val KEY_TOTAL_DISTANCE = "totalDistance"
+    private const val KEY_MOVING_DISTANCE = "movingDistance"
+    private const val KEY_MOVING_MILLIS = "movingMillis"
+    private const val KEY_STOPPED_MILLIS = "stoppedMillis"
+    private const val KEY_MAX_SPEED = "maxSpeed"
+    private const val KEY_ELEVATION_GAIN = "elevationGain"
+    private const val KEY_STOP_COUNT = "stopCount"
+    private const val KEY_LAST_FIX_TIME = "lastFixTime"
+    private const val KEY_STOPPED_SINCE = "stoppedSince"
+    private const val KEY_ALTITUDE_BASELINE = "altitudeBaseline"
+    private const val KEY_TRIP_NUMBER = "tripNumber"
+    private const val KEY_TRIP_ANCHOR_LATITUDE = "tripAnchorLatitude"
+    private const val KEY_TRIP_ANCHOR_LONGITUDE = "tripAnchorLongitude"
+    private const val KEY_TRIP_ANCHOR_TIME = "tripAnchorTime"
+    private const val KEY_TRIP_DWELLING = "tripDwelling"
+    private const val KEY_UPLOAD_STATUS = "uploadStatus"
+    private const val KEY_UPLOAD_ERROR = "uploadError"
+    private const val KEY_USAGE_DAY = "usageDay"
+    private const val KEY_USAGE_DAY_BYTES = "usageDayBytes"
+    private const val KEY_USAGE_MONTH = "usageMonth"
+    private const val KEY_USAGE_MONTH_BYTES = "usageMonthBytes"
+
+    private const val STATUS_IDLE = 0
+    private const val STATUS_SUCCESS = 1
+    private const val STATUS_FAILURE = 2
+
+    /**
+     * Writes a state into a Bundle
+     */
+    fun encode(state: TrackingState): Bundle = Bundle().apply {
+        putParcelable(KEY_LOCATION, state.location)
+        putFloat(KEY_TOTAL_DISTANCE, state.totalDistanceMeters)
+
+        val stats = state.sessionStats
+        putDouble(KEY_MOVING_DISTANCE, stats.movingDistanceMeters)
+        putLong(KEY_MOVING_MILLIS, stats.movingMillis)
+        putLong(KEY_STOPPED_MILLIS, stats.stoppedMillis)
+        putFloat(KEY_MAX_SPEED, stats.maxSpeed)
+        putDouble(KEY_ELEVATION_GAIN, stats.elevationGainMeters)
+        putInt(KEY_STOP_COUNT, stats.stopCount)
+        putLong(KEY_LAST_FIX_TIME, stats.lastFixTime)
+        putLong(KEY_STOPPED_SINCE, stats.stoppedSince)
+        putDouble(KEY_ALTITUDE_BASELINE, stats.altitudeBaseline)
+        putInt(KEY_TRIP_NUMBER, stats.trip.tripNumber)
+        putDouble(KEY_TRIP_ANCHOR_LATITUDE, stats.trip.anchorLatitude)
+        putDouble(KEY_TRIP_ANCHOR_LONGITUDE, stats.trip.anchorLongitude)
+        putLong(KEY_TRIP_ANCHOR_TIME, stats.trip.anchorTime)
+        putBoolean(KEY_TRIP_DWELLING, stats.trip.dwelling)
+
+        when (val status = state.uploadStatus) {
+            UploadStatus.Idle -> putInt(KEY_UPLOAD_STATUS, STATUS_IDLE)
+            UploadStatus.Success -> putInt(KEY_UPLOAD_STATUS, STATUS_SUCCESS)
+            is UploadStatus.Failure -> {
+                putInt(KEY_UPLOAD_STATUS, STATUS_FAILURE)
+                putString(KEY_UPLOAD_ERROR, status.errorMessage)
+            }
+        }
+
+        putInt(KEY_USAGE_DAY, state.dataUsage.day)
+        putLong(KEY_USAGE_DAY_BYTES, state.dataUsage.dayBytes)
+        putInt(KEY_USAGE_MONTH, state.dataUsage.month)
+        putLong(KEY_USAGE_MONTH_BYTES, state.dataUsage.monthBytes)
+    }
+
+    /**
+     * Reads a state written by [encode]
+     */
+    fun decode(bundle: Bundle): TrackingState {
+        bundle.classLoader = Location::class.java.classLoader
+        @Suppress("DEPRECATION")
+        val location: Location? = bundle.getParcelable(KEY_LOCATION)
+        return TrackingState(
+            location = location,
+            totalDistanceMeters = bundle.getFloat(KEY_TOTAL_DISTANCE),
+            sessionStats = SessionStats(
+                movingDistanceMeters = bundle.getDouble(KEY_MOVING_DISTANCE),
+                movingMillis = bundle.getLong(KEY_MOVING_MILLIS),
+                stoppedMillis = bundle.getLong(KEY_STOPPED_MILLIS),
+                maxSpeed = bundle.getFloat(KEY_MAX_SPEED),
+                elevationGainMeters = bundle.getDouble(KEY_ELEVATION_GAIN),
+                stopCount = bundle.getInt(KEY_STOP_COUNT),
+                lastFixTime = bundle.getLong(KEY_LAST_FIX_TIME),
+                stoppedSince = bundle.getLong(KEY_STOPPED_SINCE),
+                altitudeBaseline = bundle.getDouble(KEY_ALTITUDE_BASELINE, Double.NaN),
+                trip = TripSegmenter(
+                    tripNumber = bundle.getInt(KEY_TRIP_NUMBER, 1),
+                    anchorLatitude = bundle.getDouble(KEY_TRIP_ANCHOR_LATITUDE, Double.NaN),
+                    anchorLongitude = bundle.getDouble(KEY_TRIP_ANCHOR_LONGITUDE, Double.NaN),
+                    anchorTime = bundle.getLong(KEY_TRIP_ANCHOR_TIME),
+                    dwelling = bundle.getBoolean(KEY_TRIP_DWELLING)
+                )
+            ),
+            uploadStatus = when (bundle.getInt(KEY_UPLOAD_STATUS)) {
+                STATUS_SUCCESS -> UploadStatus.Success
+                STATUS_FAILURE -> UploadStatus.Failure(bundle.getString(KEY_UPLOAD_ERROR))
+                else -> UploadStatus.Idle
+            },
+            dataUsage = DataUsage(
+                day = bundle.getInt(KEY_USAGE_DAY),
+                dayBytes = bundle.getLong(KEY_USAGE_DAY_BYTES),
+                month = bundle.getInt(KEY_USAGE_MONTH),
+                monthBytes = bundle.getLong(KEY_USAGE_MONTH_BYTES)
+            )
+        )
+    }
+}
+
+/**
+ * Service side of the [TrackingStateChannel]: keeps the registered clients and sends
+ * them every published state.
+ *
+ * Not thread-safe: registrations arrive on [looper] and [publish] must be called on it too.
+ *
+ * @param looper Looper that handles client messages
+ */
+class TrackingStatePublisher(looper: Looper) {
+
+    private val clients = ArrayList<Messenger>()
+    private var current: Bundle? = null
+
+    private val messenger = Messenger(object : Handler(looper) {
+        override fun handleMessage(msg: Message) {
+            val client = msg.replyTo ?: return
+            when (msg.what) {
+                TrackingStateChannel.MSG_REGISTER -> {
+                    if (client !in clients) clients.add(client)
+                    current?.let { send(client, it) }
+                }
+                TrackingStateChannel.MSG_UNREGISTER -> clients.remove(client)
+            }
+        }
+    })
+
+    /**
+     * Binder handed to clients from [android.app.Service.onBind]
+     */
+    val binder: IBinder
+        get() = messenger.binder
+
+    /**
+     * Sends a state to every registered client and keeps it for clients that register later
+     */
+    fun publish(state: TrackingState) {
+        val bundle = TrackingStateChannel.encode(state)
+        current = bundle
+        for (client in clients.toList()) send(client, bundle)
+    }
+
+    private fun send(client: Messenger, bundle: Bundle) {
+        try {
+            client.send(Message.obtain(null, TrackingStateChannel.MSG_STATE).apply { data = bundle })
+        } catch (e: RemoteException) {
+            // The client's process is gone
+            Timber.d("Dropping tracking state client: ${e.message}")
+            clients.remove(client)
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/service/TrackingStateClient.kt
+package com.websmithing.gpstracker2.service
+
+import android.content.ComponentName
+import android.content.Context
+import android.content.Intent
+import android.content.ServiceConnection
+import android.location.Location
+import android.os.Handler
+import android.os.IBinder
+import android.os.Looper
+import android.os.Message
+import android.os.Messenger
+import android.os.RemoteException
+import com.websmithing.gpstracker2.data.repository.SessionStats
+import com.websmithing.gpstracker2.data.repository.UploadStatus
+import com.websmithing.gpstracker2.network.DataUsageMeter
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import timber.log.Timber
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * UI side of the [TrackingStateChannel].
+ *
+ * Exposes the tracking service's location, distance, statistics and upload status as
+ * flows in the UI process. The binding does not create the service: it connects
+ * whenever the service is running, and the flows fall back to their initial values
+ * while it is not. Data usage is handed to [DataUsageMeter.adopt].
+ *
+ * Call [connect] and [disconnect] on the main thread.
+ */
+@Singleton
+class TrackingStateClient @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val dataUsageMeter: DataUsageMeter
+) {
+    private val _latestLocation = MutableStateFlow<Location?>(null)
+    private val _totalDistance = MutableStateFlow(0f)
+    private val _sessionStats = MutableStateFlow(SessionStats())
+    private val _lastUploadStatus = MutableStateFlow<UploadStatus>(UploadStatus.Idle)
+
+    /**
+     * The newest fix reported by the service
+     */
+    val latestLocation: StateFlow<Location?> = _latestLocation.asStateFlow()
+
+    /**
+     * Distance covered in the session, in meters
+     */
+    val totalDistance: StateFlow<Float> = _totalDistance.asStateFlow()
+
+    /**
+     * Statistics of the session
+     */
+    val sessionStats: StateFlow<SessionStats> = _sessionStats.asStateFlow()
+
+    /**
+     * Result of the service's last upload
+     */
+    val lastUploadStatus: StateFlow<UploadStatus> = _lastUploadStatus.asStateFlow()
+
+    private val replies = Messenger(object : Handler(Looper.getMainLooper()) {
+        override fun handleMessage(msg: Message) {
+            if (msg.what != TrackingStateChannel.MSG_STATE) return
+            val state = TrackingStateChannel.decode(msg.data)
+            _latestLocation.value = state.location
+            _totalDistance.value = state.totalDistanceMeters
+            _sessionStats.value = state.sessionStats
+            _lastUploadStatus.value = state.uploadStatus
+            dataUsageMeter.adopt(state.dataUsage)
+        }
+    })
+
+    private var service: Messenger? = null
+    private var bound = false
+
+    private val connection = object : ServiceConnection {
+        override fun onServiceConnected(name: ComponentName?, binder: IBinder?) {
+            val messenger = Messenger(binder ?: return)
+            service = messenger
+            send(messenger, TrackingStateChannel.MSG_REGISTER)
+            Timber.d("Connected to the tracking service")
+        }
+
+        override fun onServiceDisconnected(name: ComponentName?) {
+            // Stopped or its process died; the binding reconnects when it starts again.
+            // Nothing of the finished session is carried into the next one
+            service = null
+            _latestLocation.value = null
+            _totalDistance.value = 0f
+            _sessionStats.value = SessionStats()
+            _lastUploadStatus.value = UploadStatus.Idle
+            Timber.d("Disconnected from the tracking service")
+        }
+    }
+
+    /**
+     * Starts receiving states from the service, now or as soon as it starts
+     */
+    fun connect() {
+        if (bound) return
+        // No BIND_AUTO_CREATE: the UI must not keep the service, or its process, alive
+        bound = context.bindService(Intent(context, TrackingService::class.java), connection, 0)
+        if (!bound) Timber.w("Could not bind to the tracking service")
+    }
+
+    /**
+     * Stops receiving states
+     */
+    fun disconnect() {
+        if (!bound) return
+        service?.let { send(it, TrackingStateChannel.MSG_UNREGISTER) }
+        context.unbindService(connection)
+        service = null
+        bound = false
+    }
+
+    private fun send(messenger: Messenger, what: Int) {
+        try {
+            messenger.send(Message.obtain(null, what).apply { replyTo = replies })
+        } catch (e: RemoteException) {
+            // The service's process died; onServiceDisconnected follows
+            Timber.d("Tracking service unreachable: ${e.message}")
+        }
+    }
+}
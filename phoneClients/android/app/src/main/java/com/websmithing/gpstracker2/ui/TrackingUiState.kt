@@ -0,0 +1,95 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/ui/TrackingUiState.kt
+package com.websmithing.gpstracker2.ui
+
+import android.location.Location
+import com.websmithing.gpstracker2.data.repository.SessionStats
+import com.websmithing.gpstracker2.data.repository.UploadStatus
+import com.websmithing.gpstracker2.network.DataBudget
+import com.websmithing.gpstracker2.network.DataUsage
+import java.io.File
+
+/**
+ * Immutable copy of the location fields shown on screen.
+ *
+ * [Location] is mutable and compares by identity, so it cannot take part in
+ * [TrackingUiState] equality; this snapshot can, which lets `distinctUntilChanged`
+ * drop fixes that would render exactly the same text.
+ *
+ * @property latitude Latitude in decimal degrees
+ * @property longitude Longitude in decimal degrees
+ * @property speed Speed in meters per second
+ * @property altitude Altitude in meters
+ * @property accuracy Horizontal accuracy in meters
+ * @property bearing Bearing in degrees
+ * @property time Fix time in epoch milliseconds
+ */
+data class LocationSnapshot(
+    val latitude: Double,
+    val longitude: Double,
+    val speed: Float,
+    val altitude: Double,
+    val accuracy: Float,
+    val bearing: Float,
+    val time: Long
+) {
+    companion object {
+        /**
+         * Copies the displayed fields out of a platform [Location]
+         */
+        fun from(location: Location): LocationSnapshot = LocationSnapshot(
+            latitude = location.latitude,
+            longitude = location.longitude,
+            speed = location.speed,
+            altitude = location.altitude,
+            accuracy = location.accuracy,
+            bearing = location.bearing,
+            time = location.time
+        )
+    }
+}
+
+/**
+ * Everything [com.websmithing.gpstracker2.GpsTrackerActivity] renders, in one immutable value.
+ *
+ * One-shot events ([userMessage], [pendingExport]) are part of the state as well and are
+ * cleared by the ViewModel once the activity reports them as handled.
+ *
+ * @property isTracking Whether location tracking is currently active
+ * @property userName The username used for tracking identification
+ * @property trackingInterval The tracking interval in minutes (1, 5, or 15)
+ * @property websiteUrl The URL where tracking data is sent
+ * @property liveMode Whether fixes are taken every few seconds and streamed live
+ * @property dualResolution Whether fixes are recorded every second and uploaded live once per interval
+ * @property deadReckoning Whether motion sensors fill in the path between sparse fixes
+ * @property passiveMode Whether fixes requested by other apps are used instead of running GPS
+ * @property udpUplinkKey Key shared with the server's UDP uplink; blank when the uplink is off
+ * @property batteryBudget Battery budget in percent per hour; 0 when tracking is not governed
+ * @property dataBudget Daily and monthly mobile data limits for uploads
+ * @property dataUsage Bytes exchanged with the server today and this month
+ * @property location The latest fix, or null before the first fix of a session
+ * @property totalDistanceMeters Distance traveled during the current session in meters
+ * @property sessionStats Moving/stopped time, speeds, elevation gain and stops of the current session
+ * @property uploadStatus Outcome of the most recent upload
+ * @property userMessage Message waiting to be shown in a Snackbar
+ * @property pendingExport A finished export waiting to be handed to the share sheet
+ */
+data class TrackingUiState(
+    val isTracking: Boolean = false,
+    val userName: String = "",
+    val trackingInterval: Int = 1,
+    val websiteUrl: String = "",
+    val liveMode: Boolean = false,
+    val dualResolution: Boolean = false,
+    val deadReckoning: Boolean = false,
+    val passiveMode: Boolean = false,
+    val udpUplinkKey: String = "",
+    val batteryBudget: Int = 0,
+    val dataBudget: DataBudget = DataBudget.NONE,
+    val dataUsage: DataUsage = DataUsage(),
+    val location: LocationSnapshot? = null,
+    val totalDistanceMeters: Float = 0f,
+    val sessionStats: SessionStats = SessionStats(),
+    val uploadStatus: UploadStatus = UploadStatus.Idle,
+    val userMessage: String? = null,
+    val pendingExport: File? = null
+)
@@ -2,22 +2,27 @@
 package com.websmithing.gpstracker2.ui
 
 import android.content.Context
-import android.content.Intent
-import androidx.lifecycle.LiveData
-import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.websmithing.gpstracker2.data.repository.LocationRepository
+import com.websmithing.gpstracker2.data.export.ExportFormat
+import com.websmithing.gpstracker2.data.export.TrackExporter
 import com.websmithing.gpstracker2.data.repository.SettingsRepository
-import com.websmithing.gpstracker2.data.repository.UploadStatus
-import com.websmithing.gpstracker2.service.TrackingService
+import com.websmithing.gpstracker2.data.repository.TrackHistoryRepository
+import com.websmithing.gpstracker2.network.DataBudget
+import com.websmithing.gpstracker2.network.DataUsageMeter
+import com.websmithing.gpstracker2.service.TrackingServiceController
+import com.websmithing.gpstracker2.service.TrackingSettings
+import com.websmithing.gpstracker2.service.TrackingStateClient
+import com.websmithing.gpstracker2.util.throttleLatest
 import dagger.hilt.android.lifecycle.HiltViewModel
 import dagger.hilt.android.qualifiers.ApplicationContext
-import android.location.Location
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import timber.log.Timber
+import java.io.File
 import java.util.*
 import javax.inject.Inject
 
@@ -28,9 +33,10 @@ import javax.inject.Inject
  * managing application state, and coordinating between repositories and services.
  * It's responsible for:
  * - Starting and stopping the tracking service
- * - Maintaining UI state (tracking status, settings)
+ * - Maintaining a single immutable UI state (tracking status, settings, location data)
  * - Providing location data and tracking statistics to the UI
  * - Managing user preferences
+ * - Exporting recorded sessions for sharing
  *
  * The ViewModel uses Hilt for dependency injection and follows MVVM architecture.
  */
@@ -38,61 +44,53 @@ import javax.inject.Inject
 class TrackingViewModel @Inject constructor(
     @ApplicationContext private val context: Context,
     private val settingsRepository: SettingsRepository,
-    private val locationRepository: LocationRepository
+    private val trackingStateClient: TrackingStateClient,
+    private val trackingServiceController: TrackingServiceController,
+    private val trackHistoryRepository: TrackHistoryRepository,
+    private val trackExporter: TrackExporter,
+    private val dataUsageMeter: DataUsageMeter
 ) : ViewModel() {
 
-    // --- LiveData for UI State ---
+    // --- UI State ---
     /**
-     * Tracks whether location tracking is currently active
+     * Settings and pending one-shot events owned by the ViewModel; the location fields
+     * are filled in from the tracking service when building [uiState]
      */
-    private val _isTracking = MutableLiveData<Boolean>()
-    val isTracking: LiveData<Boolean> = _isTracking
+    private val _state = MutableStateFlow(TrackingUiState())
 
     /**
-     * Stores the current username for tracking identification
+     * The single state rendered by the UI.
+     *
+     * Settings, data usage and the tracking service's location, distance, statistics and
+     * upload status, received through [TrackingStateClient], are merged into one immutable
+     * value. Identical states are dropped and the rest is limited to one emission per
+     * display frame, so bursts of fixes cost at most one render per frame.
+     * Upstream collection stops shortly after the UI stops collecting (e.g. when the
+     * activity is backgrounded).
      */
-    private val _userName = MutableLiveData<String>()
-    val userName: LiveData<String> = _userName
-    
-    /**
-     * Stores the current tracking interval in minutes (1, 5, or 15)
-     */
-    private val _trackingInterval = MutableLiveData<Int>()
-    val trackingInterval: LiveData<Int> = _trackingInterval
-
-    /**
-     * Stores the current website URL where tracking data is sent
-     */
-    private val _websiteUrl = MutableLiveData<String>()
-    val websiteUrl: LiveData<String> = _websiteUrl
-
-    /**
-     * Temporary messages to display to the user via Snackbar
-     */
-    private val _snackbarMessage = MutableLiveData<String?>()
-    val snackbarMessage: LiveData<String?> = _snackbarMessage
-
-    // --- StateFlows for Location Data ---
-    /**
-     * The most recent location data received from the location services
-     * Exposes the repository's location flow as a StateFlow for the UI to collect
-     */
-    val latestLocation: StateFlow<Location?> = locationRepository.latestLocation
-        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), null)
-
-    /**
-     * The total distance traveled during the current tracking session in meters
-     * Exposes the repository's distance flow as a StateFlow for the UI to collect
-     */
-    val totalDistance: StateFlow<Float> = locationRepository.totalDistance
-        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), 0f)
-
-    /**
-     * The status of the most recent location data upload to the server
-     * Exposes the repository's upload status flow as a StateFlow for the UI to collect
-     */
-    val lastUploadStatus: StateFlow<UploadStatus> = locationRepository.lastUploadStatus
-        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), UploadStatus.Idle)
+    val uiState: StateFlow<TrackingUiState> = combine(
+        // Read through current() so counters of a past day or month show as zero
+        _state.combine(dataUsageMeter.usage) { state, _ -> state.copy(dataUsage = dataUsageMeter.current()) },
+        trackingStateClient.latestLocation,
+        trackingStateClient.totalDistance,
+        trackingStateClient.sessionStats,
+        trackingStateClient.lastUploadStatus
+    ) { state, location, distance, stats, status ->
+        if (state.isTracking) {
+            state.copy(
+                location = location?.let { LocationSnapshot.from(it) },
+                totalDistanceMeters = distance,
+                sessionStats = stats,
+                uploadStatus = status
+            )
+        } else {
+            // Nothing from a finished session is shown once tracking stops
+            state
+        }
+    }
+        .distinctUntilChanged()
+        .throttleLatest(FRAME_INTERVAL_MS)
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), TrackingUiState())
 
     /**
      * Job reference for the initialization coroutine (useful for testing)
@@ -103,13 +101,39 @@ class TrackingViewModel @Inject constructor(
      * Initialize the ViewModel by loading current settings from repositories
      */
     init {
+        // The service runs in its own process and reports its state over a binding
+        trackingStateClient.connect()
+
         // Initialize state from Repository using viewModelScope
         initJob = viewModelScope.launch {
-            _isTracking.value = settingsRepository.getCurrentTrackingState()
-            _userName.value = settingsRepository.getCurrentUsername()
-            _trackingInterval.value = settingsRepository.getCurrentTrackingInterval()
-            _websiteUrl.value = settingsRepository.getCurrentWebsiteUrl()
-            Timber.d("ViewModel initialized. Tracking: ${isTracking.value}")
+            val isTracking = settingsRepository.getCurrentTrackingState()
+            val userName = settingsRepository.getCurrentUsername()
+            val trackingInterval = settingsRepository.getCurrentTrackingInterval()
+            val websiteUrl = settingsRepository.getCurrentWebsiteUrl()
+            val liveMode = settingsRepository.getCurrentLiveMode()
+            val dualResolution = settingsRepository.getCurrentDualResolution()
+            val deadReckoning = settingsRepository.getCurrentDeadReckoning()
+            val passiveMode = settingsRepository.getCurrentPassiveMode()
+            val udpUplinkKey = settingsRepository.getCurrentUdpUplinkKey()
+            val batteryBudget = settingsRepository.getCurrentBatteryBudget()
+            val dataBudget = settingsRepository.getCurrentDataBudget()
+            // One update, so the loaded settings reach the UI as a single render
+            _state.update {
+                it.copy(
+                    isTracking = isTracking,
+                    userName = userName,
+                    trackingInterval = trackingInterval,
+                    websiteUrl = websiteUrl,
+                    liveMode = liveMode,
+                    dualResolution = dualResolution,
+                    deadReckoning = deadReckoning,
+                    passiveMode = passiveMode,
+                    udpUplinkKey = udpUplinkKey,
+                    batteryBudget = batteryBudget,
+                    dataBudget = dataBudget
+                )
+            }
+            Timber.d("ViewModel initialized. Tracking: $isTracking")
 
             // Check if first time loading and generate App ID if needed
             if (settingsRepository.isFirstTimeLoading()) {
@@ -120,6 +144,14 @@ class TrackingViewModel @Inject constructor(
         }
     }
 
+    /**
+     * Releases the binding to the tracking service
+     */
+    override fun onCleared() {
+        trackingStateClient.disconnect()
+        super.onCleared()
+    }
+
     // --- Actions from UI ---
     /**
      * Starts location tracking after permissions are granted
@@ -151,7 +183,7 @@ class TrackingViewModel @Inject constructor(
      */
      fun forceStopTracking() {
          Timber.d("forceStopTracking called in ViewModel")
-         if (_isTracking.value == true) {
+         if (_state.value.isTracking) {
              updateTrackingState(false)
          }
      }
@@ -165,24 +197,159 @@ class TrackingViewModel @Inject constructor(
      * @param newInterval The new tracking interval in minutes (1, 5, or 15)
      */
     fun onIntervalChanged(newInterval: Int) {
-        if (newInterval != _trackingInterval.value) {
+        if (newInterval != _state.value.trackingInterval) {
             Timber.d("Interval changed to: $newInterval minutes")
-            _trackingInterval.value = newInterval
+            _state.update { it.copy(trackingInterval = newInterval) }
             viewModelScope.launch {
                 settingsRepository.saveTrackingInterval(newInterval)
                 // If currently tracking, stop and restart the service to apply the new interval
-                if (_isTracking.value == true) {
-                    _snackbarMessage.value = "Interval updated. Restarting tracking service."
-                    // Stop the service
-                    Intent(context, TrackingService::class.java).also { intent ->
-                        intent.action = TrackingService.ACTION_STOP_SERVICE
-                        context.stopService(intent)
-                    }
-                    // Start the service again (it will read the new interval)
-                    Intent(context, TrackingService::class.java).also { intent ->
-                        intent.action = TrackingService.ACTION_START_SERVICE
-                        context.startForegroundService(intent)
-                    }
+                if (_state.value.isTracking) {
+                    restartTrackingService("Interval updated. Restarting tracking service.")
+                }
+            }
+        }
+    }
+
+    /**
+     * Switches live mode on or off
+     *
+     * If tracking is currently active, this will restart the tracking service
+     * so it picks up the live interval and opens or closes the stream.
+     *
+     * @param enabled True to stream fixes every few seconds
+     */
+    fun onLiveModeChanged(enabled: Boolean) {
+        if (enabled != _state.value.liveMode) {
+            Timber.d("Live mode changed to: $enabled")
+            _state.update { it.copy(liveMode = enabled) }
+            viewModelScope.launch {
+                settingsRepository.saveLiveMode(enabled)
+                if (_state.value.isTracking) {
+                    restartTrackingService("Live mode ${if (enabled) "on" else "off"}. Restarting tracking service.")
+                }
+            }
+        }
+    }
+
+    /**
+     * Switches dual-resolution capture on or off
+     *
+     * If tracking is currently active, this will restart the tracking service
+     * so it picks up the capture interval.
+     *
+     * @param enabled True to record every second and upload live once per interval
+     */
+    fun onDualResolutionChanged(enabled: Boolean) {
+        if (enabled != _state.value.dualResolution) {
+            Timber.d("Dual resolution changed to: $enabled")
+            _state.update { it.copy(dualResolution = enabled) }
+            viewModelScope.launch {
+                settingsRepository.saveDualResolution(enabled)
+                if (_state.value.isTracking) {
+                    restartTrackingService("Dual resolution ${if (enabled) "on" else "off"}. Restarting tracking service.")
+                }
+            }
+        }
+    }
+
+    /**
+     * Switches dead reckoning between fixes on or off
+     *
+     * If tracking is currently active, this will restart the tracking service
+     * so it registers or releases the motion sensors.
+     *
+     * @param enabled True to fill in the path between fixes from the motion sensors
+     */
+    fun onDeadReckoningChanged(enabled: Boolean) {
+        if (enabled != _state.value.deadReckoning) {
+            Timber.d("Dead reckoning changed to: $enabled")
+            _state.update { it.copy(deadReckoning = enabled) }
+            viewModelScope.launch {
+                settingsRepository.saveDeadReckoning(enabled)
+                if (_state.value.isTracking) {
+                    restartTrackingService("Dead reckoning ${if (enabled) "on" else "off"}. Restarting tracking service.")
+                }
+            }
+        }
+    }
+
+    /**
+     * Switches passive mode on or off
+     *
+     * If tracking is currently active, this will restart the tracking service
+     * so it replaces its location request.
+     *
+     * @param enabled True to use the fixes other apps request instead of running GPS
+     */
+    fun onPassiveModeChanged(enabled: Boolean) {
+        if (enabled != _state.value.passiveMode) {
+            Timber.d("Passive mode changed to: $enabled")
+            _state.update { it.copy(passiveMode = enabled) }
+            viewModelScope.launch {
+                settingsRepository.savePassiveMode(enabled)
+                if (_state.value.isTracking) {
+                    restartTrackingService("Passive mode ${if (enabled) "on" else "off"}. Restarting tracking service.")
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the UDP uplink key
+     *
+     * A running tracking service is handed the new key, so no restart is needed.
+     *
+     * @param newKey The key shared with the server, or blank to turn the uplink off
+     */
+    fun onUdpUplinkKeyChanged(newKey: String) {
+        val trimmedKey = newKey.trim()
+        if (trimmedKey != _state.value.udpUplinkKey) {
+            _state.update { it.copy(udpUplinkKey = trimmedKey) }
+            viewModelScope.launch {
+                settingsRepository.saveUdpUplinkKey(trimmedKey)
+                Timber.d("UDP uplink ${if (trimmedKey.isEmpty()) "disabled" else "enabled"}")
+                if (_state.value.isTracking) updateTrackingServiceSettings()
+            }
+        }
+    }
+
+    /**
+     * Updates the battery budget
+     *
+     * If tracking is currently active, this will restart the tracking service
+     * so the battery governor starts with the new budget.
+     *
+     * @param percentPerHour Budget in percent of the battery per hour, or 0 to turn it off
+     */
+    fun onBatteryBudgetChanged(percentPerHour: Int) {
+        if (percentPerHour != _state.value.batteryBudget) {
+            Timber.d("Battery budget changed to: $percentPerHour%/h")
+            _state.update { it.copy(batteryBudget = percentPerHour) }
+            viewModelScope.launch {
+                settingsRepository.saveBatteryBudget(percentPerHour)
+                if (_state.value.isTracking) {
+                    restartTrackingService("Battery budget updated. Restarting tracking service.")
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the mobile data budget
+     *
+     * If tracking is currently active, this will restart the tracking service
+     * so it applies the new budget.
+     *
+     * @param budget Daily and monthly limits, or [DataBudget.NONE] to turn the budget off
+     */
+    fun onDataBudgetChanged(budget: DataBudget) {
+        if (budget != _state.value.dataBudget) {
+            Timber.d("Data budget changed to: $budget")
+            _state.update { it.copy(dataBudget = budget) }
+            viewModelScope.launch {
+                settingsRepository.saveDataBudget(budget)
+                if (_state.value.isTracking) {
+                    restartTrackingService("Data budget updated. Restarting tracking service.")
                 }
             }
         }
@@ -190,45 +357,145 @@ class TrackingViewModel @Inject constructor(
 
     /**
      * Updates the username setting
+     *
+     * A running tracking service is handed the new name, so no restart is needed.
      * 
      * @param newName The new username for tracking identification
      */
     fun onUserNameChanged(newName: String) {
          val trimmedName = newName.trim()
-         if (trimmedName != _userName.value && trimmedName.isNotEmpty()) {
-             _userName.value = trimmedName
+         if (trimmedName != _state.value.userName && trimmedName.isNotEmpty()) {
+             _state.update { it.copy(userName = trimmedName) }
              viewModelScope.launch {
                  settingsRepository.saveUsername(trimmedName)
                  Timber.d("Username saved: $trimmedName")
+                 if (_state.value.isTracking) updateTrackingServiceSettings()
              }
          }
     }
 
     /**
      * Updates the website URL setting
+     *
+     * A running tracking service is handed the new URL, so no restart is needed.
      * 
      * @param newUrl The new URL where tracking data will be sent
      */
     fun onWebsiteUrlChanged(newUrl: String) {
         val trimmedUrl = newUrl.trim()
-        if (trimmedUrl != _websiteUrl.value && trimmedUrl.isNotEmpty()) {
-            _websiteUrl.value = trimmedUrl
+        if (trimmedUrl != _state.value.websiteUrl && trimmedUrl.isNotEmpty()) {
+            _state.update { it.copy(websiteUrl = trimmedUrl) }
             viewModelScope.launch {
                 settingsRepository.saveWebsiteUrl(trimmedUrl)
                 Timber.d("Website URL saved: $trimmedUrl")
+                if (_state.value.isTracking) updateTrackingServiceSettings()
             }
         }
    }
 
+    /**
+     * Exports the most recent recorded session to a file in the cache directory
+     *
+     * The session is streamed from the track history straight to disk; when the file
+     * is complete it is published through [TrackingUiState.pendingExport] for sharing.
+     *
+     * @param format The export file format
+     */
+    fun exportLatestSession(format: ExportFormat) {
+        viewModelScope.launch {
+            try {
+                val session = trackHistoryRepository.getSessions().firstOrNull()
+                if (session == null) {
+                    showMessage("No recorded sessions to export.")
+                    return@launch
+                }
+                val file = File(File(context.cacheDir, EXPORT_DIRECTORY), "track-${session.sessionId}.${format.extension}")
+                val count = withContext(Dispatchers.IO) {
+                    file.parentFile?.mkdirs()
+                    file.bufferedWriter().use { writer ->
+                        trackExporter.exportSession(session.sessionId, format, writer)
+                    }
+                }
+                Timber.i("Exported $count points of session ${session.sessionId} to ${file.name}")
+                _state.update { it.copy(pendingExport = file) }
+            } catch (e: Exception) {
+                Timber.e(e, "Session export failed")
+                showMessage("Export failed: ${e.message}")
+            }
+        }
+    }
+
+    /**
+     * Marks an exported file as handed to the share sheet
+     */
+    fun onExportShared() {
+        _state.update { it.copy(pendingExport = null) }
+    }
+
     /**
      * Marks a snackbar message as shown to prevent reappearance
      */
     fun onSnackbarMessageShown() {
-        _snackbarMessage.value = null
+        _state.update { it.copy(userMessage = null) }
     }
 
     // --- Private Helper Methods ---
 
+    /**
+     * Queues a message for the UI to show in a Snackbar
+     *
+     * @param message The message to show
+     */
+    private fun showMessage(message: String) {
+        _state.update { it.copy(userMessage = message) }
+    }
+
+    /**
+     * Collects the settings the tracking service runs with
+     *
+     * The service's process does not see settings saved here after it first read them,
+     * so they travel with the intents that start and update it.
+     *
+     * @param sessionId The session being recorded
+     * @return The settings, taken from the current state
+     */
+    private suspend fun trackingSettings(sessionId: String): TrackingSettings {
+        val current = _state.value
+        return TrackingSettings(
+            sessionId = sessionId,
+            appId = settingsRepository.getAppId(),
+            username = current.userName,
+            websiteUrl = current.websiteUrl,
+            udpUplinkKey = current.udpUplinkKey,
+            intervalMinutes = current.trackingInterval,
+            liveMode = current.liveMode,
+            dualResolution = current.dualResolution,
+            passiveMode = current.passiveMode,
+            deadReckoning = current.deadReckoning,
+            batteryBudget = current.batteryBudget,
+            dataBudget = current.dataBudget
+        )
+    }
+
+    /**
+     * Hands the running tracking service the current username, URL and UDP key
+     */
+    private suspend fun updateTrackingServiceSettings() {
+        trackingServiceController.update(trackingSettings(settingsRepository.getCurrentSessionId()))
+    }
+
+    /**
+     * Stops and starts the tracking service so it runs with the new settings
+     *
+     * @param message Message shown to the user
+     */
+    private suspend fun restartTrackingService(message: String) {
+        showMessage(message)
+        // A service restarted by the system in a fresh process reads the settings from storage
+        settingsRepository.awaitWrites()
+        trackingServiceController.restart(trackingSettings(settingsRepository.getCurrentSessionId()))
+    }
+
     /**
      * Updates the tracking state and handles service lifecycle
      * 
@@ -239,34 +506,38 @@ class TrackingViewModel @Inject constructor(
      * @return The coroutine Job handling the update operations
      */
     private fun updateTrackingState(shouldTrack: Boolean): Job {
-        if (_isTracking.value == shouldTrack) return Job().apply { complete() }
+        if (_state.value.isTracking == shouldTrack) return Job().apply { complete() }
 
-        _isTracking.value = shouldTrack
+        _state.update { it.copy(isTracking = shouldTrack) }
         return viewModelScope.launch {
             settingsRepository.setTrackingState(shouldTrack)
             if (shouldTrack) {
                 val newSessionId = UUID.randomUUID().toString()
                 settingsRepository.saveSessionId(newSessionId)
-                locationRepository.resetLocationState() // Reset location repo state
-                // Start the foreground service
-                Intent(context, TrackingService::class.java).also { intent ->
-                    intent.action = TrackingService.ACTION_START_SERVICE
-                    context.startForegroundService(intent)
-                    Timber.i("Tracking started via ViewModel. Session: $newSessionId. Service started.")
-                }
+                settingsRepository.awaitWrites()
+                // Start the foreground service; it resets its location state for the new session
+                trackingServiceController.start(trackingSettings(newSessionId), newSession = true)
+                Timber.i("Tracking started via ViewModel. Session: $newSessionId. Service started.")
             } else {
                 settingsRepository.clearSessionId()
-                // Stop the foreground service
-                Intent(context, TrackingService::class.java).also { intent ->
-                    intent.action = TrackingService.ACTION_STOP_SERVICE
-                    context.stopService(intent) // Use stopService for foreground services
-                    Timber.i("Tracking stopped via ViewModel. Service stopped.")
-                }
+                // End the session; the service uploads its summary before it stops
+                trackingServiceController.stop()
+                Timber.i("Tracking stopped via ViewModel. Service stopping.")
             }
         }
     }
 
     companion object {
         private const val TAG = "TrackingViewModel"
+
+        /**
+         * Cache subdirectory for exports; must match res/xml/file_paths.xml
+         */
+        const val EXPORT_DIRECTORY = "exports"
+
+        /**
+         * Minimum time between two UI states: one frame at 60 Hz
+         */
+        const val FRAME_INTERVAL_MS = 16L
     }
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/util/FlowThrottle.kt
+package com.websmithing.gpstracker2.util
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.transform
+
+/**
+ * Emits at most one value per [periodMillis], always the most recent one.
+ *
+ * The first value passes through immediately; values arriving during the quiet period
+ * are conflated and the latest is emitted when the period ends. Unlike
+ * [kotlinx.coroutines.flow.sample], nothing ticks while upstream is idle, so a
+ * stationary device does not wake the main thread every frame.
+ *
+ * @param periodMillis Minimum time between two emissions
+ * @return The throttled flow
+ */
+fun <T> Flow<T>.throttleLatest(periodMillis: Long): Flow<T> =
+    conflate().transform { value ->
+        emit(value)
+        delay(periodMillis)
+    }
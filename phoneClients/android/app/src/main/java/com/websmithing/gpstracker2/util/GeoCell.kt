@@ -0,0 +1,148 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/util/GeoCell.kt
+package com.websmithing.gpstracker2.util
+
+/**
+ * Geohash-style spatial cell IDs packed into a single 64-bit value.
+ *
+ * Latitude and longitude are each quantized to [BITS_PER_AXIS] bits and their bits are
+ * interleaved (Z-order / Morton code), longitude in the even positions like a geohash.
+ * Nearby points therefore share long ID prefixes, and any axis-aligned cell at any level
+ * maps to one contiguous range of IDs, which lets an ordinary B-tree index answer
+ * bounding-box queries.
+ *
+ * 31 bits per axis keep the ID positive (62 bits used) so it sorts correctly as a signed
+ * SQLite INTEGER, while still resolving roughly 1 cm at the equator.
+ */
+object GeoCell {
+
+    /**
+     * Quantization bits per axis
+     */
+    const val BITS_PER_AXIS = 31
+
+    /**
+     * Number of cells along each axis at full resolution
+     */
+    private const val AXIS_CELLS = 1L shl BITS_PER_AXIS
+
+    /**
+     * Encodes a coordinate into a cell ID at full resolution.
+     *
+     * @param latitude Latitude in decimal degrees (-90 to 90)
+     * @param longitude Longitude in decimal degrees (-180 to 180)
+     * @return The 62-bit cell ID
+     */
+    fun encode(latitude: Double, longitude: Double): Long =
+        interleave(quantize(latitude, -90.0, 180.0), quantize(longitude, -180.0, 360.0))
+
+    /**
+     * Returns the latitude of the center of a full-resolution cell.
+     *
+     * @param cell The cell ID
+     * @return Latitude in decimal degrees
+     */
+    fun decodeLatitude(cell: Long): Double = dequantize(compact(cell ushr 1), -90.0, 180.0)
+
+    /**
+     * Returns the longitude of the center of a full-resolution cell.
+     *
+     * @param cell The cell ID
+     * @return Longitude in decimal degrees
+     */
+    fun decodeLongitude(cell: Long): Double = dequantize(compact(cell), -180.0, 360.0)
+
+    /**
+     * Computes a small set of ID ranges that together cover a bounding box.
+     *
+     * Picks the finest level at which the box spans at most [maxCells] cells and returns
+     * one range per cell, merged where adjacent. The covering may include points slightly
+     * outside the box, so callers should still filter on the exact coordinates.
+     *
+     * @param minLatitude Southern edge of the box
+     * @param minLongitude Western edge of the box
+     * @param maxLatitude Northern edge of the box
+     * @param maxLongitude Eastern edge of the box
+     * @param maxCells Upper bound on the number of cells (and therefore ranges) used
+     * @return Sorted, non-overlapping ID ranges
+     */
+    fun coveringRanges(
+        minLatitude: Double,
+        minLongitude: Double,
+        maxLatitude: Double,
+        maxLongitude: Double,
+        maxCells: Int = 16
+    ): List<LongRange> {
+        val latLo = quantize(minOf(minLatitude, maxLatitude), -90.0, 180.0)
+        val latHi = quantize(maxOf(minLatitude, maxLatitude), -90.0, 180.0)
+        val lonLo = quantize(minOf(minLongitude, maxLongitude), -180.0, 360.0)
+        val lonHi = quantize(maxOf(minLongitude, maxLongitude), -180.0, 360.0)
+
+        var shift = 0
+        while (shift < BITS_PER_AXIS) {
+            val cells = ((latHi shr shift) - (latLo shr shift) + 1) * ((lonHi shr shift) - (lonLo shr shift) + 1)
+            if (cells <= maxCells) break
+            shift++
+        }
+
+        val span = 1L shl (2 * shift)
+        val starts = ArrayList<Long>()
+        for (lat in (latLo shr shift)..(latHi shr shift)) {
+            for (lon in (lonLo shr shift)..(lonHi shr shift)) {
+                starts.add(interleave(lat, lon) shl (2 * shift))
+            }
+        }
+        starts.sort()
+
+        val ranges = ArrayList<LongRange>(starts.size)
+        var currentStart = starts[0]
+        var currentEnd = currentStart + span - 1
+        for (i in 1 until starts.size) {
+            val start = starts[i]
+            if (start == currentEnd + 1) {
+                currentEnd = start + span - 1
+            } else {
+                ranges.add(currentStart..currentEnd)
+                currentStart = start
+                currentEnd = start + span - 1
+            }
+        }
+        ranges.add(currentStart..currentEnd)
+        return ranges
+    }
+
+    // --- Private Helper Methods ---
+
+    private fun quantize(value: Double, min: Double, range: Double): Long =
+        ((value - min) / range * AXIS_CELLS).toLong().coerceIn(0L, AXIS_CELLS - 1)
+
+    private fun dequantize(index: Long, min: Double, range: Double): Double =
+        min + (index + 0.5) * range / AXIS_CELLS
+
+    private fun interleave(latIndex: Long, lonIndex: Long): Long = (spread(latIndex) shl 1) or spread(lonIndex)
+
+    /**
+     * Spreads the low 31 bits of [value] into the even bit positions
+     */
+    private fun spread(value: Long): Long {
+        var x = value and 0x7FFFFFFFL
+        x = (x or (x shl 16)) and 0x0000FFFF0000FFFFL
+        x = (x or (x shl 8)) and 0x00FF00FF00FF00FFL
+        x = (x or (x shl 4)) and 0x0F0F0F0F0F0F0F0FL
+        x = (x or (x shl 2)) and 0x3333333333333333L
+        x = (x or (x shl 1)) and 0x5555555555555555L
+        return x
+    }
+
+    /**
+     * Inverse of [spread]: gathers the even bit positions back into the low bits
+     */
+    private fun compact(value: Long): Long {
+        var x = value and 0x5555555555555555L
+        x = (x or (x ushr 1)) and 0x3333333333333333L
+        x = (x or (x ushr 2)) and 0x0F0F0F0F0F0F0F0FL
+        x = (x or (x ushr 4)) and 0x00FF00FF00FF00FFL
+        x = (x or (x ushr 8)) and 0x0000FFFF0000FFFFL
+        x = (x or (x ushr 16)) and 0x00000000FFFFFFFFL
+        return x
+    }
+}
@@ -0,0 +1,34 @@
+// # android/app/src/main/java/com/websmithing/gpstracker2/util/GeoDistance.kt
+package com.websmithing.gpstracker2.util
+
+import kotlin.math.asin
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Great-circle distances in plain Kotlin.
+ *
+ * [android.location.Location.distanceBetween] is a stub in local unit tests, so pure
+ * classes that fold fixes (validation, trip segmentation) use this instead.
+ */
+object GeoDistance {
+
+    /**
+     * Mean Earth radius in meters
+     */
+    private const val EARTH_RADIUS_METERS = 6_371_008.8
+
+    /**
+     * Great-circle distance between two points (haversine formula)
+     *
+     * @return Distance in meters
+     */
+    fun meters(lat1: Double, lon1: Double, lat2: Double, lon2: Double): Double {
+        val dLat = Math.toRadians(lat2 - lat1)
+        val dLon = Math.toRadians(lon2 - lon1)
+        val a = sin(dLat / 2) * sin(dLat / 2) +
+            cos(Math.toRadians(lat1)) * cos(Math.toRadians(lat2)) * sin(dLon / 2) * sin(dLon / 2)
+        return 2 * EARTH_RADIUS_METERS * asin(sqrt(a.coerceIn(0.0, 1.0)))
+    }
+}
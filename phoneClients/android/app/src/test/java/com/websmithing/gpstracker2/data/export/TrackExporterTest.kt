@@ -0,0 +1,121 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/data/export/TrackExporterTest.kt
+package com.websmithing.gpstracker2.data.export
+
+import com.websmithing.gpstracker2.data.repository.TrackPointCursor
+import org.junit.Assert.*
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.io.StringWriter
+import java.io.Writer
+
+class TrackExporterTest {
+
+    /**
+     * Generates [count] synthetic fixes one second apart without storing them
+     */
+    private class SyntheticCursor(private val count: Int) : TrackPointCursor {
+        private var index = -1
+        override fun moveToNext() = ++index < count
+        override val time get() = 1_700_000_000_000L + index * 1000L
+        override val latitude get() = 47.6 + index * 1e-6
+        override val longitude get() = -122.3 - index * 1e-6
+        override val altitude get() = 12.5
+        override val speed get() = 1.25f
+        override val bearing get() = 90f
+        override val accuracy get() = 4f
+    }
+
+    /**
+     * Discards output while counting characters
+     */
+    private class CountingWriter : Writer() {
+        var chars = 0L
+        override fun write(cbuf: CharArray, off: Int, len: Int) { chars += len }
+        override fun write(c: Int) { chars++ }
+        override fun write(str: String) { chars += str.length }
+        override fun flush() {}
+        override fun close() {}
+    }
+
+    /**
+     * Fails if a point is read before the previous one reached [writer]
+     */
+    private class StreamingCheckCursor(
+        private val source: SyntheticCursor,
+        private val writer: CountingWriter
+    ) : TrackPointCursor by source {
+        private var written = -1L
+        override fun moveToNext(): Boolean {
+            assertTrue("point output was held back", writer.chars > written)
+            written = writer.chars
+            return source.moveToNext()
+        }
+    }
+
+    @Test
+    fun `gpx output contains escaped name and fixed-point coordinates`() {
+        val out = StringWriter()
+        val count = TrackExporter.write(ExportFormat.GPX, "a<b>&c", SyntheticCursor(2), out)
+
+        assertEquals(2, count)
+        val gpx = out.toString()
+        assertTrue(gpx.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"))
+        assertTrue(gpx.contains("<name>a&lt;b&gt;&amp;c</name>"))
+        assertTrue(gpx.contains("<trkpt lat=\"47.6000000\" lon=\"-122.3000000\"><ele>12.5</ele><time>2023-11-14T22:13:20Z</time></trkpt>"))
+        assertTrue(gpx.contains("<trkpt lat=\"47.6000010\" lon=\"-122.3000010\">"))
+        assertTrue(gpx.trimEnd().endsWith("</gpx>"))
+    }
+
+    @Test
+    fun `geojson output is a feature collection of points`() {
+        val out = StringWriter()
+        TrackExporter.write(ExportFormat.GEOJSON, "say \"hi\"", SyntheticCursor(2), out)
+
+        val json = out.toString()
+        assertTrue(json.startsWith("{\"type\":\"FeatureCollection\",\"name\":\"say \\\"hi\\\"\",\"features\":["))
+        assertTrue(json.contains("\"coordinates\":[-122.3000000,47.6000000,12.5]"))
+        assertTrue(json.contains("\"properties\":{\"time\":\"2023-11-14T22:13:20Z\",\"speed\":1.25,\"bearing\":90.0,\"accuracy\":4.0}"))
+        assertEquals(2, Regex("\"type\":\"Feature\"").findAll(json).count())
+        assertTrue(json.trimEnd().endsWith("]}"))
+    }
+
+    @Test
+    fun `empty session produces a valid document`() {
+        val out = StringWriter()
+        assertEquals(0, TrackExporter.write(ExportFormat.GEOJSON, "empty", SyntheticCursor(0), out))
+        assertEquals("{\"type\":\"FeatureCollection\",\"name\":\"empty\",\"features\":[\n]}\n", out.toString())
+    }
+
+    @Test
+    fun `points are written as they are read`() {
+        for (format in ExportFormat.values()) {
+            val writer = CountingWriter()
+            val cursor = StreamingCheckCursor(SyntheticCursor(1_000), writer)
+            assertEquals(1_000, TrackExporter.write(format, "stream", cursor, writer))
+        }
+    }
+
+    @Test
+    fun `benchmark 500k point export streams in constant memory`() {
+        // Depends on the JVM and GC timing, so only runs with -Pbenchmarks
+        assumeTrue(System.getProperty("benchmarks") == "true")
+        val points = 500_000
+        val runtime = Runtime.getRuntime()
+
+        for (format in ExportFormat.values()) {
+            // Warm-up pass so the measured pass sees steady state
+            TrackExporter.write(format, "warmup", SyntheticCursor(10_000), CountingWriter())
+
+            System.gc()
+            val usedBefore = runtime.totalMemory() - runtime.freeMemory()
+            val writer = CountingWriter()
+            val count = TrackExporter.write(format, "benchmark", SyntheticCursor(points), writer)
+            val usedAfter = runtime.totalMemory() - runtime.freeMemory()
+
+            assertEquals(points, count)
+            // Output is tens of MB; retaining it would show up far above this bound
+            assertTrue(writer.chars > 20_000_000L)
+            assertTrue("heap grew by ${usedAfter - usedBefore} bytes", usedAfter - usedBefore < 16L * 1024 * 1024)
+        }
+    }
+}
@@ -0,0 +1,160 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/data/local/FixChunkTest.kt
+package com.websmithing.gpstracker2.data.local
+
+import org.junit.Assert.*
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import kotlin.math.cos
+import kotlin.math.sin
+
+class FixChunkTest {
+
+    /**
+     * Adds [count] fixes of a walk sampled at 1 Hz with some timing jitter and GPS noise
+     */
+    private fun FixChunk.Encoder.addWalk(count: Int, firstId: Long = 1L) {
+        for (i in 0 until count) {
+            add(
+                id = firstId + i,
+                time = 1_700_000_000_000L + i * 1000L + (i % 7) * 3L,
+                latitude = 47.6062095 + i * 1.1e-5 + sin(i / 5.0) * 2e-6,
+                longitude = -122.3320708 + i * 0.9e-5 + cos(i / 3.0) * 2e-6,
+                altitude = 56.3 + sin(i / 50.0) * 4.0,
+                speed = 1.4f + (i % 5) * 0.1f,
+                bearing = (40f + (i % 9)) % 360f,
+                accuracy = 4f + (i % 4),
+                provider = if (i % 100 == 99) "network" else "fused",
+                tripNumber = 1 + i / 2000
+            )
+        }
+    }
+
+    @Test
+    fun `fixes round-trip within the stored precision`() {
+        val encoder = FixChunk.Encoder()
+        encoder.add(41L, 1_700_000_000_000L, 47.6062095, -122.3320708, 56.34, 1.25f, 359.4f, 4.56f, "gps", 1)
+        encoder.add(42L, 1_700_000_001_000L, 47.6062195, -122.3320608, 55.91, 0f, 1.2f, 12f, "fused", 1)
+        encoder.add(45L, 1_700_000_003_500L, -33.8688197, 151.2092955, -3.2, 31.7f, 180f, 250f, "gps", 3)
+
+        val reader = FixChunk.Reader(encoder.toByteArray())
+        assertEquals(3, reader.count)
+
+        assertTrue(reader.moveToNext())
+        assertEquals(41L, reader.id)
+        assertEquals(1_700_000_000_000L, reader.time)
+        assertEquals(47.6062095, reader.latitude, 1e-9)
+        assertEquals(-122.3320708, reader.longitude, 1e-9)
+        assertEquals(56.3, reader.altitude, 1e-9)
+        assertEquals(1.3f, reader.speed, 1e-6f)
+        assertEquals(359f, reader.bearing)
+        assertEquals(4.6f, reader.accuracy, 1e-6f)
+        assertEquals("gps", reader.provider)
+        assertEquals(1, reader.tripNumber)
+
+        assertTrue(reader.moveToNext())
+        assertEquals(42L, reader.id)
+        assertEquals(1_700_000_001_000L, reader.time)
+        assertEquals(47.6062195, reader.latitude, 1e-9)
+        assertEquals(55.9, reader.altitude, 1e-9)
+        // Bearing wrapped from 359 to 1 degree
+        assertEquals(1f, reader.bearing)
+        assertEquals("fused", reader.provider)
+
+        assertTrue(reader.moveToNext())
+        assertEquals(45L, reader.id)
+        assertEquals(1_700_000_003_500L, reader.time)
+        assertEquals(-33.8688197, reader.latitude, 1e-9)
+        assertEquals(151.2092955, reader.longitude, 1e-9)
+        assertEquals(-3.2, reader.altitude, 1e-9)
+        assertEquals(31.7f, reader.speed, 1e-6f)
+        assertEquals(250f, reader.accuracy, 1e-6f)
+        assertEquals("gps", reader.provider)
+        assertEquals(3, reader.tripNumber)
+
+        assertFalse(reader.moveToNext())
+    }
+
+    @Test
+    fun `encoder tracks time range and bounding box and can be reused`() {
+        val encoder = FixChunk.Encoder()
+        encoder.addWalk(10)
+
+        assertEquals(10, encoder.size)
+        assertEquals(1_700_000_000_000L, encoder.firstTime)
+        assertEquals(1_700_000_009_006L, encoder.lastTime)
+        assertTrue(encoder.minLatitude < encoder.maxLatitude)
+        assertTrue(encoder.minLongitude < encoder.maxLongitude)
+
+        encoder.reset()
+        encoder.addWalk(3, firstId = 100L)
+        val reader = FixChunk.Reader(encoder.toByteArray())
+        assertEquals(3, reader.count)
+        assertTrue(reader.moveToNext())
+        assertEquals(100L, reader.id)
+        assertEquals(1_700_000_000_000L, reader.time)
+    }
+
+    @Test
+    fun `empty chunk decodes to no fixes`() {
+        val reader = FixChunk.Reader(FixChunk.Encoder().toByteArray())
+        assertEquals(0, reader.count)
+        assertFalse(reader.moveToNext())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `unknown format version is rejected`() {
+        FixChunk.Reader(byteArrayOf(99, 0, 0))
+    }
+
+    @Test
+    fun `a full chunk takes a few bytes per point`() {
+        val encoder = FixChunk.Encoder()
+        encoder.addWalk(FixChunk.MAX_FIXES)
+        val chunk = encoder.toByteArray()
+        val bytesPerPoint = chunk.size.toDouble() / FixChunk.MAX_FIXES
+
+        assertEquals(FixChunk.MAX_FIXES, decodeAll(chunk))
+        // A `fixes` row with its four index entries takes well over 100 bytes
+        assertTrue("$bytesPerPoint bytes/point", bytesPerPoint < 16.0)
+    }
+
+    @Test
+    fun `benchmark decode throughput`() {
+        // Depends on the JVM and the machine, so only runs with -Pbenchmarks
+        assumeTrue(System.getProperty("benchmarks") == "true")
+        val chunks = 500
+        val encoder = FixChunk.Encoder()
+        val encoded = Array(chunks) { index ->
+            encoder.reset()
+            encoder.addWalk(FixChunk.MAX_FIXES, firstId = index * FixChunk.MAX_FIXES + 1L)
+            encoder.toByteArray()
+        }
+
+        // Warm-up pass so the timed pass measures steady state
+        repeat(3) { for (chunk in encoded) decodeAll(chunk) }
+
+        val start = System.nanoTime()
+        var decoded = 0
+        for (chunk in encoded) decoded += decodeAll(chunk)
+        val pointsPerSecond = decoded * 1e9 / (System.nanoTime() - start)
+
+        assertEquals(chunks * FixChunk.MAX_FIXES, decoded)
+        assertTrue("decoded at $pointsPerSecond points/s", pointsPerSecond > 1_000_000.0)
+    }
+
+    /**
+     * Walks a chunk touching every column, as an exporter would
+     */
+    private fun decodeAll(chunk: ByteArray): Int {
+        val reader = FixChunk.Reader(chunk)
+        var count = 0
+        var checksum = 0.0
+        while (reader.moveToNext()) {
+            checksum += reader.latitude + reader.longitude + reader.altitude + reader.speed +
+                reader.bearing + reader.accuracy + reader.time + reader.id
+            count++
+        }
+        assertFalse(checksum.isNaN())
+        return count
+    }
+}
@@ -0,0 +1,93 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/data/repository/AccuracyLadderTest.kt
+package com.websmithing.gpstracker2.data.repository
+
+import android.location.Location
+import com.google.android.gms.location.Priority
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.*
+import org.junit.Test
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+
+class AccuracyLadderTest {
+
+    private val now = 1_714_571_109_000L
+
+    /**
+     * Source serving fixed answers and recording the priorities asked for
+     */
+    private class FakeSource(
+        private val lastKnown: Location? = null,
+        private val balanced: Location? = null,
+        private val high: Location? = null
+    ) : AccuracyLadder.FixSource {
+        val requested = mutableListOf<Int>()
+
+        override suspend fun lastKnown(): Location? = lastKnown
+
+        override suspend fun current(priority: Int, timeoutMillis: Long): Location? {
+            requested += priority
+            return if (priority == Priority.PRIORITY_HIGH_ACCURACY) high else balanced
+        }
+    }
+
+    private fun fix(accuracyMeters: Float?, ageMillis: Long = 0L): Location = mock {
+        on { hasAccuracy() } doReturn (accuracyMeters != null)
+        on { accuracy } doReturn (accuracyMeters ?: 0f)
+        on { time } doReturn now - ageMillis
+    }
+
+    private fun ladder(source: FakeSource) = AccuracyLadder(source, AccuracyLadder.Config()) { now }
+
+    @Test
+    fun `uses a fresh accurate last known location without requesting a fix`() = runTest {
+        val lastKnown = fix(20f, ageMillis = 10_000L)
+        val source = FakeSource(lastKnown = lastKnown)
+
+        assertSame(lastKnown, ladder(source).acquire())
+        assertTrue(source.requested.isEmpty())
+    }
+
+    @Test
+    fun `ignores a stale last known location`() = runTest {
+        val balanced = fix(30f)
+        val source = FakeSource(lastKnown = fix(5f, ageMillis = 10 * 60_000L), balanced = balanced)
+
+        assertSame(balanced, ladder(source).acquire())
+        assertEquals(listOf(Priority.PRIORITY_BALANCED_POWER_ACCURACY), source.requested)
+    }
+
+    @Test
+    fun `escalates to high accuracy only when balanced misses the target`() = runTest {
+        val high = fix(8f)
+        val source = FakeSource(balanced = fix(400f), high = high)
+
+        assertSame(high, ladder(source).acquire())
+        assertEquals(
+            listOf(Priority.PRIORITY_BALANCED_POWER_ACCURACY, Priority.PRIORITY_HIGH_ACCURACY),
+            source.requested
+        )
+    }
+
+    @Test
+    fun `falls back to the best fix when high accuracy times out`() = runTest {
+        val lastKnown = fix(300f, ageMillis = 5_000L)
+        val balanced = fix(120f)
+        val source = FakeSource(lastKnown = lastKnown, balanced = balanced, high = null)
+
+        assertSame(balanced, ladder(source).acquire())
+    }
+
+    @Test
+    fun `prefers a fix with known accuracy`() = runTest {
+        val balanced = fix(200f)
+        val source = FakeSource(balanced = balanced, high = fix(null))
+
+        assertSame(balanced, ladder(source).acquire())
+    }
+
+    @Test
+    fun `returns null when no source has a fix`() = runTest {
+        assertNull(ladder(FakeSource()).acquire())
+    }
+}
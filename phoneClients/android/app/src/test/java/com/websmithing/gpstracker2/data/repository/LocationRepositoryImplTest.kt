@@ -15,8 +15,9 @@ import com.websmithing.gpstracker2.network.ApiService
 import com.websmithing.gpstracker2.util.PermissionChecker
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.test.runTest
-import okhttp3.OkHttpClient
+import okhttp3.RequestBody
 import okhttp3.ResponseBody.Companion.toResponseBody
+import okio.Buffer
 import org.junit.Assert.*
 import org.junit.After // Add After import
 import org.junit.Before
@@ -48,7 +49,6 @@ class LocationRepositoryImplTest {
 
     // Mocks will be initialized manually in setUp
     private lateinit var fusedLocationProviderClient: FusedLocationProviderClient
-    private lateinit var okHttpClient: OkHttpClient
     private lateinit var retrofitBuilder: Retrofit.Builder
     private lateinit var settingsRepository: SettingsRepository
     private lateinit var context: Context
@@ -68,6 +68,7 @@ class LocationRepositoryImplTest {
     private val TEST_USERNAME = "testUser"
     private val TEST_SESSION_ID = "session123"
     private val TEST_APP_ID = "app456"
+    private val TEST_FIX_ID = "app456:42"
     private val TEST_URL = "http://example.com/update"
     private val KEY_PREVIOUS_LATITUDE = "previousLatitude"
     private val KEY_PREVIOUS_LONGITUDE = "previousLongitude"
@@ -77,7 +78,6 @@ class LocationRepositoryImplTest {
     fun setUp() {
         // Initialize mocks manually using mockito-kotlin mock()
         fusedLocationProviderClient = mock()
-        okHttpClient = mock()
         retrofitBuilder = mock()
         settingsRepository = mock()
         context = mock()
@@ -107,8 +107,7 @@ class LocationRepositoryImplTest {
         repository = LocationRepositoryImpl(
             appContext = context,
             fusedLocationClient = fusedLocationProviderClient,
-            okHttpClient = okHttpClient,
-            retrofitBuilder = retrofitBuilder,
+            retrofitBuilder = { retrofitBuilder },
             settingsRepository = settingsRepository,
             permissionChecker = permissionChecker
         )
@@ -124,7 +123,7 @@ class LocationRepositoryImplTest {
 
             // Mock the suspend API call setup
             val mockApiResponse: Response<String> = Response.success("OK")
-            whenever(apiService.updateLocation(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+            whenever(apiService.updateLocation(any()))
                 .thenReturn(mockApiResponse)
         }
     }
@@ -167,30 +166,28 @@ class LocationRepositoryImplTest {
     fun `uploadLocationData returns true on successful API call`() = runTest {
         // Arrange
         val location = createMockLocation(TEST_LAT, TEST_LON)
-        val totalDistanceMiles = 1.2f
+        whenever(location.time).thenReturn(0L)
+        whenever(location.provider).thenReturn("fused")
         val eventType = "manual-test"
 
         // Act
         val success = repository.uploadLocationData(
-            location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, totalDistanceMiles, eventType
+            location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, eventType, TEST_FIX_ID
         )
 
         // Assert
         assertTrue(success)
-        verify(apiService).updateLocation( // Use mockito-kotlin verify
-            latitude = eq(TEST_LAT.toString()),
-            longitude = eq(TEST_LON.toString()),
-            speed = eq((TEST_SPEED * 2.2369).roundToInt()),
-            direction = any(),
-            distance = eq(String.format(Locale.US, "%.1f", totalDistanceMiles)),
-            date = any(),
-            locationMethod = any(),
-            username = eq(TEST_USERNAME),
-            phoneNumber = eq(TEST_APP_ID),
-            sessionId = eq(TEST_SESSION_ID),
-            accuracy = eq(TEST_ACCURACY.roundToInt()),
-            extraInfo = eq(TEST_ALT.roundToInt().toString()),
-            eventType = eq(eventType)
+        val bodyCaptor = argumentCaptor<RequestBody>()
+        verify(apiService).updateLocation(bodyCaptor.capture()) // Use mockito-kotlin verify
+        val body = Buffer().also { bodyCaptor.firstValue.writeTo(it) }.readUtf8()
+        assertEquals(
+            "latitude=40.7128000&longitude=-74.0060000" +
+                "&speed=${(TEST_SPEED * 2.2369).roundToInt()}&direction=0&distance=0.0" +
+                "&date=1970-01-01T00%3A00%3A00Z&locationmethod=fused" +
+                "&username=$TEST_USERNAME&phonenumber=$TEST_APP_ID&sessionid=$TEST_SESSION_ID" +
+                "&accuracy=${TEST_ACCURACY.roundToInt()}&extrainfo=${TEST_ALT.roundToInt()}&eventtype=$eventType" +
+                "&fixid=${TEST_APP_ID}%3A42&tripid=1&cellid=2788271739612147646",
+            body
         )
     }
 
@@ -202,12 +199,12 @@ class LocationRepositoryImplTest {
         val ioException = IOException("Network failed")
         // Mock throwing exception from suspend function within runTest
         runTest {
-            whenever(apiService.updateLocation(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+            whenever(apiService.updateLocation(any()))
                 .thenThrow(ioException)
         }
 
         // Act
-        val success = repository.uploadLocationData(location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, 1.0f, "test")
+        val success = repository.uploadLocationData(location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, "test", TEST_FIX_ID)
 
         // Assert
         assertFalse(success)
@@ -220,11 +217,11 @@ class LocationRepositoryImplTest {
         val location = createMockLocation(TEST_LAT, TEST_LON)
         val errorBody = "Server Error".toResponseBody(null)
         val mockErrorResponse: Response<String> = Response.error(500, errorBody)
-        whenever(apiService.updateLocation(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+        whenever(apiService.updateLocation(any()))
             .thenReturn(mockErrorResponse)
 
         // Act
-        val success = repository.uploadLocationData(location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, 1.0f, "test")
+        val success = repository.uploadLocationData(location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, "test", TEST_FIX_ID)
 
         // Assert
         assertFalse(success)
@@ -235,16 +232,61 @@ class LocationRepositoryImplTest {
         // Arrange
         val location = createMockLocation(TEST_LAT, TEST_LON)
         val mockApiResponse: Response<String> = Response.success("-1")
-        whenever(apiService.updateLocation(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+        whenever(apiService.updateLocation(any()))
             .thenReturn(mockApiResponse)
 
         // Act
-        val success = repository.uploadLocationData(location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, 1.0f, "test")
+        val success = repository.uploadLocationData(location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, "test", TEST_FIX_ID)
 
         // Assert
         assertFalse(success)
     }
 
+    @Test
+    fun `uploadLocationData publishes server upload hints`() = runTest {
+        // Arrange
+        val location = createMockLocation(TEST_LAT, TEST_LON)
+        val mockApiResponse: Response<String> = Response.success(
+            "{\"status\":\"success\",\"hints\":{\"interval\":300,\"max_batch\":100,\"backoff_until\":0,\"server_time\":1714571109}}"
+        )
+        whenever(apiService.updateLocation(any()))
+            .thenReturn(mockApiResponse)
+
+        // Act
+        val success = repository.uploadLocationData(location, TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, "test", TEST_FIX_ID)
+
+        // Assert
+        assertTrue(success)
+        assertEquals(300, repository.uploadHints.value.intervalSeconds)
+        assertEquals(100, repository.uploadHints.value.maxBatch)
+    }
+
+    // --- sendHeartbeat Tests ---
+
+    @Test
+    fun `sendHeartbeat posts the device, session, time and battery`() = runTest {
+        whenever(apiService.sendHeartbeat(any())).thenReturn(Response.success("{\"status\":\"success\"}"))
+
+        val success = repository.sendHeartbeat(TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, 0L, 87)
+
+        assertTrue(success)
+        val bodyCaptor = argumentCaptor<RequestBody>()
+        verify(apiService).sendHeartbeat(bodyCaptor.capture())
+        val body = Buffer().also { bodyCaptor.firstValue.writeTo(it) }.readUtf8()
+        assertEquals(
+            "username=$TEST_USERNAME&phonenumber=$TEST_APP_ID&sessionid=$TEST_SESSION_ID" +
+                "&date=1970-01-01T00%3A00%3A00Z&battery=87",
+            body
+        )
+    }
+
+    @Test
+    fun `sendHeartbeat returns false when the server has no heartbeat endpoint`() = runTest {
+        whenever(apiService.sendHeartbeat(any())).thenReturn(Response.error(404, "Not Found".toResponseBody(null)))
+
+        assertFalse(repository.sendHeartbeat(TEST_USERNAME, TEST_APP_ID, TEST_SESSION_ID, 0L, null))
+    }
+
     // --- getPreviousLocation / saveAsPreviousLocation Tests ---
 
     @Test
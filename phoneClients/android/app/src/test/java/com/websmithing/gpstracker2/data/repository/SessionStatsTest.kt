@@ -0,0 +1,98 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/data/repository/SessionStatsTest.kt
+package com.websmithing.gpstracker2.data.repository
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class SessionStatsTest {
+
+    private val start = 1_714_571_109_000L
+
+    /**
+     * Folds a fix every [stepMillis] at a constant speed
+     */
+    private fun SessionStats.drive(fixes: Int, stepMillis: Long, speed: Float, altitude: Double? = null): SessionStats {
+        var stats = this
+        repeat(fixes) {
+            stats = stats.add(stats.lastFixTime + stepMillis, speed * stepMillis / 1000f, speed, altitude)
+        }
+        return stats
+    }
+
+    @Test
+    fun `splits time into moving and stopped`() {
+        val stats = SessionStats().add(start, 0f, 10f, null)
+            .drive(fixes = 6, stepMillis = 10_000L, speed = 10f)
+            .drive(fixes = 3, stepMillis = 10_000L, speed = 0f)
+
+        assertEquals(60_000L, stats.movingMillis)
+        assertEquals(30_000L, stats.stoppedMillis)
+        assertEquals(600.0, stats.movingDistanceMeters, 0.01)
+        assertEquals(10f, stats.averageMovingSpeed, 0.001f)
+        assertEquals(10f, stats.maxSpeed, 0f)
+    }
+
+    @Test
+    fun `counts a stop once it lasts long enough`() {
+        var stats = SessionStats().add(start, 0f, 10f, null)
+            .drive(fixes = 6, stepMillis = 10_000L, speed = 10f)
+            .drive(fixes = 6, stepMillis = 10_000L, speed = 0f)
+        assertEquals("Short stop", 0, stats.stopCount)
+
+        stats = stats.drive(fixes = 12, stepMillis = 10_000L, speed = 0f)
+        assertEquals(1, stats.stopCount)
+
+        stats = stats.drive(fixes = 3, stepMillis = 10_000L, speed = 10f)
+            .drive(fixes = 20, stepMillis = 10_000L, speed = 0f)
+        assertEquals(2, stats.stopCount)
+    }
+
+    @Test
+    fun `waiting before the first move is not a stop`() {
+        val stats = SessionStats().add(start, 0f, 0f, null)
+            .drive(fixes = 30, stepMillis = 10_000L, speed = 0f)
+
+        assertEquals(0, stats.stopCount)
+        assertEquals(300_000L, stats.stoppedMillis)
+    }
+
+    @Test
+    fun `derives speed from distance when the fix has none`() {
+        val stats = SessionStats().add(start, 0f, null, null)
+            .add(start + 10_000L, 100f, null, null)
+            .add(start + 20_000L, 2f, null, null)
+
+        assertEquals(10_000L, stats.movingMillis)
+        assertEquals(10_000L, stats.stoppedMillis)
+        assertEquals(10f, stats.maxSpeed, 0.001f)
+    }
+
+    @Test
+    fun `elevation gain ignores altitude noise`() {
+        var stats = SessionStats().add(start, 0f, 5f, 100.0)
+        for ((i, altitude) in listOf(102.0, 99.0, 103.0, 101.0, 110.0, 104.0, 112.0).withIndex()) {
+            stats = stats.add(start + (i + 1) * 1000L, 5f, 5f, altitude)
+        }
+
+        // 100 -> 110 counts 10 m; 110 -> 104 is a descent; 104 -> 112 counts 8 m
+        assertEquals(18.0, stats.elevationGainMeters, 0.001)
+    }
+
+    @Test
+    fun `ignores fixes that are not newer`() {
+        val stats = SessionStats().add(start, 0f, 10f, null).add(start + 10_000L, 100f, 10f, null)
+
+        assertSame(stats, stats.add(start + 5_000L, 50f, 10f, null))
+    }
+
+    @Test
+    fun `restored statistics continue where they left off`() {
+        val stored = SessionStats().add(start, 0f, 10f, null).drive(fixes = 3, stepMillis = 10_000L, speed = 10f)
+        val restored = stored.copy()
+
+        assertEquals(
+            stored.drive(fixes = 2, stepMillis = 10_000L, speed = 10f),
+            restored.drive(fixes = 2, stepMillis = 10_000L, speed = 10f)
+        )
+    }
+}
@@ -29,6 +29,8 @@ class SettingsRepositoryImplTest {
     // Use @Mock annotation
     @Mock private lateinit var sharedPreferences: SharedPreferences
     @Mock private lateinit var editor: SharedPreferences.Editor
+    @Mock private lateinit var fixSequencePreferences: SharedPreferences
+    @Mock private lateinit var fixSequenceEditor: SharedPreferences.Editor
     private lateinit var repository: SettingsRepositoryImpl
 
     // Test dispatcher
@@ -46,6 +48,7 @@ class SettingsRepositoryImplTest {
     private val KEY_FIRST_TIME_GETTING_POSITION = "firstTimeGettingPosition"
     private val KEY_PREVIOUS_LATITUDE = "previousLatitude"
     private val KEY_PREVIOUS_LONGITUDE = "previousLongitude"
+    private val KEY_FIX_SEQUENCE = "fixSequence"
 
 
     @Before
@@ -61,8 +64,11 @@ class SettingsRepositoryImplTest {
         whenever(editor.putFloat(any(), any())).thenReturn(editor)
         whenever(editor.remove(any())).thenReturn(editor)
         whenever(editor.apply()).then {} // apply returns Unit
+        whenever(fixSequencePreferences.edit()).thenReturn(fixSequenceEditor)
+        whenever(fixSequenceEditor.putLong(any(), any())).thenReturn(fixSequenceEditor)
+        whenever(fixSequenceEditor.commit()).thenReturn(true)
 
-        repository = SettingsRepositoryImpl(sharedPreferences)
+        repository = SettingsRepositoryImpl(sharedPreferences, fixSequencePreferences)
     }
 
      @After
@@ -214,6 +220,17 @@ class SettingsRepositoryImplTest {
         verifyNoMoreInteractions(editor) // Keep verifyNoMoreInteractions
     }
 
+    @Test
+    fun `getStoredAppId and getCurrentSessionId never write`() = runTest(testDispatcher) {
+        clearInvocations(editor)
+        whenever(sharedPreferences.getString(eq(KEY_APP_ID), isNull())).thenReturn(null)
+        whenever(sharedPreferences.getString(eq(KEY_SESSION_ID), eq(""))).thenReturn("")
+
+        assertEquals("", repository.getStoredAppId())
+        assertEquals("", repository.getCurrentSessionId())
+        verifyNoMoreInteractions(editor)
+    }
+
 
     @Test
     fun `isFirstTimeLoading returns true when App ID does not exist`() = runTest(testDispatcher) {
@@ -279,4 +296,26 @@ class SettingsRepositoryImplTest {
         verify(editor).apply()
         verifyNoMoreInteractions(editor) // Keep verifyNoMoreInteractions
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `awaitWrites commits synchronously`() = runTest(testDispatcher) {
+        clearInvocations(editor)
+        repository.awaitWrites()
+        verify(editor).commit()
+        verifyNoMoreInteractions(editor)
+    }
+
+    // --- Fix Identity ---
+
+    @Test
+    fun `nextFixSequence continues from the sequence kept with the settings`() = runTest(testDispatcher) {
+        whenever(sharedPreferences.getLong(eq(KEY_FIX_SEQUENCE), eq(0L))).thenReturn(41L)
+        whenever(fixSequencePreferences.getLong(eq(KEY_FIX_SEQUENCE), any())).thenAnswer { it.getArgument<Long>(1) }
+
+        assertEquals(42L, repository.nextFixSequence())
+        verify(fixSequenceEditor).putLong(eq(KEY_FIX_SEQUENCE), eq(42L))
+        verify(fixSequenceEditor).commit()
+        // The settings file is left to the UI process
+        verify(editor, never()).putLong(any(), any())
+    }
+}
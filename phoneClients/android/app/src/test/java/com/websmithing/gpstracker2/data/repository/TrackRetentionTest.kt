@@ -0,0 +1,71 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/data/repository/TrackRetentionTest.kt
+package com.websmithing.gpstracker2.data.repository
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TrackRetentionTest {
+
+    private val cutoff = 1_714_571_109_000L
+    private val oneDay = 86_400_000L
+
+    private fun session(id: String, endedAt: Long, fixCount: Long = 100, hasPending: Boolean = false) =
+        TrackRetention.Session(id, endedAt, fixCount, hasPending)
+
+    @Test
+    fun `expired sessions are deleted oldest first`() {
+        val sessions = listOf(
+            session("recent", cutoff + oneDay),
+            session("older", cutoff - oneDay),
+            session("oldest", cutoff - 2 * oneDay)
+        )
+
+        assertEquals(
+            listOf("oldest", "older"),
+            TrackRetention.sessionsToDelete(sessions, cutoff, null, totalFixes = 300, maxFixes = 1_000)
+        )
+    }
+
+    @Test
+    fun `expired sessions with pending fixes are kept`() {
+        val sessions = listOf(
+            session("uploaded", cutoff - oneDay),
+            session("pending", cutoff - 2 * oneDay, hasPending = true)
+        )
+
+        assertEquals(
+            listOf("uploaded"),
+            TrackRetention.sessionsToDelete(sessions, cutoff, null, totalFixes = 200, maxFixes = 1_000)
+        )
+    }
+
+    @Test
+    fun `oldest sessions are deleted until the store fits`() {
+        val sessions = listOf(
+            session("a", cutoff + oneDay),
+            session("b", cutoff + 2 * oneDay),
+            session("c", cutoff + 3 * oneDay)
+        )
+
+        assertEquals(
+            listOf("a", "b"),
+            TrackRetention.sessionsToDelete(sessions, cutoff, null, totalFixes = 300, maxFixes = 150)
+        )
+        assertTrue(TrackRetention.sessionsToDelete(sessions, cutoff, null, totalFixes = 300, maxFixes = 300).isEmpty())
+    }
+
+    @Test
+    fun `size bound never deletes the active session or pending fixes`() {
+        val sessions = listOf(
+            session("pending", cutoff + oneDay, hasPending = true),
+            session("active", cutoff + 2 * oneDay, fixCount = 1_000),
+            session("done", cutoff + 3 * oneDay)
+        )
+
+        assertEquals(
+            "The store stays above its bound rather than losing fixes",
+            listOf("done"),
+            TrackRetention.sessionsToDelete(sessions, cutoff, "active", totalFixes = 1_200, maxFixes = 500)
+        )
+    }
+}
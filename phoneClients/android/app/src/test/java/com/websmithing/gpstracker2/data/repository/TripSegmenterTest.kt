@@ -0,0 +1,86 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/data/repository/TripSegmenterTest.kt
+package com.websmithing.gpstracker2.data.repository
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TripSegmenterTest {
+
+    private val start = 1_714_571_109_000L
+    private val lat = 47.6062
+    private val lon = -122.3321
+    private val oneMinute = 60_000L
+
+    /**
+     * Degrees of latitude per meter, close enough for short hops
+     */
+    private val degreesPerMeter = 1.0 / 111_195.0
+
+    @Test
+    fun `first fix starts trip one`() {
+        val segmenter = TripSegmenter().add(start, lat, lon)
+
+        assertEquals(1, segmenter.tripNumber)
+        assertEquals(lat, segmenter.anchorLatitude, 0.0)
+        assertEquals(start, segmenter.anchorTime)
+        assertFalse(segmenter.dwelling)
+    }
+
+    @Test
+    fun `a long stop starts the next trip when the device leaves`() {
+        var segmenter = TripSegmenter().add(start, lat, lon)
+        // Parked: jitter within the radius for ten minutes
+        for (minute in 1..10) {
+            segmenter = segmenter.add(start + minute * oneMinute, lat + (minute % 3) * 20 * degreesPerMeter, lon)
+        }
+        assertTrue(segmenter.dwelling)
+        assertEquals("Fixes at the stop belong to the trip that ended there", 1, segmenter.tripNumber)
+
+        segmenter = segmenter.add(start + 11 * oneMinute, lat + 500 * degreesPerMeter, lon)
+
+        assertEquals(2, segmenter.tripNumber)
+        assertFalse(segmenter.dwelling)
+    }
+
+    @Test
+    fun `a short stop does not split the trip`() {
+        var segmenter = TripSegmenter().add(start, lat, lon)
+        for (minute in 1..5) {
+            segmenter = segmenter.add(start + minute * oneMinute, lat, lon)
+        }
+        segmenter = segmenter.add(start + 6 * oneMinute, lat + 500 * degreesPerMeter, lon)
+
+        assertEquals(1, segmenter.tripNumber)
+    }
+
+    @Test
+    fun `slow steady movement never dwells`() {
+        // 100 m a minute leaves the radius before the dwell time is up
+        var segmenter = TripSegmenter()
+        for (minute in 0..60) {
+            segmenter = segmenter.add(start + minute * oneMinute, lat + minute * 100 * degreesPerMeter, lon)
+            assertFalse(segmenter.dwelling)
+        }
+
+        assertEquals(1, segmenter.tripNumber)
+    }
+
+    @Test
+    fun `a gap between fixes alone does not split the trip`() {
+        val segmenter = TripSegmenter().add(start, lat, lon)
+            .add(start + 60 * oneMinute, lat + 2_000 * degreesPerMeter, lon)
+
+        assertEquals(1, segmenter.tripNumber)
+    }
+
+    @Test
+    fun `session statistics carry the trip state`() {
+        var stats = SessionStats().add(start, 0f, 0f, null, lat, lon)
+        stats = stats.add(start + 15 * oneMinute, 0f, 0f, null, lat, lon)
+        stats = stats.add(start + 16 * oneMinute, 500f, 8f, null, lat + 500 * degreesPerMeter, lon)
+        assertEquals(2, stats.trip.tripNumber)
+
+        val withoutPosition = stats.add(start + 17 * oneMinute, 10f, 8f, null)
+        assertEquals("No position leaves the segmenter alone", stats.trip, withoutPosition.trip)
+    }
+}
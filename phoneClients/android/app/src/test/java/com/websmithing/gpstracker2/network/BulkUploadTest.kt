@@ -0,0 +1,42 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/network/BulkUploadTest.kt
+package com.websmithing.gpstracker2.network
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class BulkUploadTest {
+
+    @Test
+    fun `reads offset and completion from the status`() {
+        assertEquals(
+            BulkUpload.Status(262144L, false),
+            BulkUpload.parseStatus("{\"status\":\"success\",\"offset\":262144,\"complete\":false,\"hints\":{\"interval\":60}}")
+        )
+        assertEquals(
+            BulkUpload.Status(1000L, true),
+            BulkUpload.parseStatus("{\"status\":\"success\",\"offset\":1000,\"complete\":true,\"received\":3,\"stored\":3}")
+        )
+    }
+
+    @Test
+    fun `conflict answers carry the offset to resume from`() {
+        assertEquals(
+            BulkUpload.Status(4096L, false),
+            BulkUpload.parseStatus("{\"status\":\"error\",\"message\":\"Piece does not start at the committed offset\",\"offset\":4096,\"complete\":false}")
+        )
+    }
+
+    @Test
+    fun `bodies without an offset have no status`() {
+        assertNull(BulkUpload.parseStatus(null))
+        assertNull(BulkUpload.parseStatus("<html>Not Found</html>"))
+        assertNull(BulkUpload.parseStatus("{\"status\":\"error\",\"message\":\"Invalid bulk upload\"}"))
+    }
+
+    @Test
+    fun `content range names the piece or completes the upload`() {
+        assertEquals("bytes 0-262143/600000", BulkUpload.contentRange(0L, 262144, 600000L))
+        assertEquals("bytes 524288-599999/600000", BulkUpload.contentRange(524288L, 75712, 600000L))
+        assertEquals("bytes */600000", BulkUpload.contentRange(600000L, 0, 600000L))
+    }
+}
@@ -0,0 +1,47 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/network/DataBudgetTest.kt
+package com.websmithing.gpstracker2.network
+
+import com.websmithing.gpstracker2.network.DataBudget.Level
+import org.junit.Assert.*
+import org.junit.Test
+
+class DataBudgetTest {
+
+    private val megabyte = DataBudget.BYTES_PER_MEGABYTE
+
+    @Test
+    fun `usage counters start over in a new day and month`() {
+        val usage = DataUsage()
+            .plus(1_000L, 20231130)
+            .plus(500L, 20231130)
+
+        assertEquals(DataUsage(20231130, 1_500L, 202311, 1_500L), usage)
+        assertEquals("Next day", DataUsage(20231201, 200L, 202312, 200L), usage.plus(200L, 20231201))
+        assertEquals("Same month", DataUsage(20231130, 200L, 202311, 1_700L), usage.copy(day = 20231129).plus(200L, 20231130))
+        assertEquals("Read on a later day", DataUsage(20231201, 0L, 202312, 0L), usage.asOf(20231201))
+    }
+
+    @Test
+    fun `no budget never saves`() {
+        assertFalse(DataBudget.NONE.isSet)
+        assertEquals(Level.NORMAL, DataBudget.NONE.levelFor(DataUsage(20231114, 900 * megabyte, 202311, 900 * megabyte)))
+    }
+
+    @Test
+    fun `saves from eighty percent of the daily limit`() {
+        val budget = DataBudget(dailyMegabytes = 10)
+
+        assertEquals(Level.NORMAL, budget.levelFor(DataUsage(20231114, 7 * megabyte, 202311, 90 * megabyte)))
+        assertEquals(Level.SAVING, budget.levelFor(DataUsage(20231114, 8 * megabyte, 202311, 90 * megabyte)))
+        assertEquals(Level.EXHAUSTED, budget.levelFor(DataUsage(20231114, 10 * megabyte, 202311, 90 * megabyte)))
+    }
+
+    @Test
+    fun `the tighter limit decides`() {
+        val budget = DataBudget(dailyMegabytes = 10, monthlyMegabytes = 100)
+        val usage = DataUsage(20231114, 1 * megabyte, 202311, 95 * megabyte)
+
+        assertEquals(0.95, budget.fractionUsed(usage), 1e-9)
+        assertEquals(Level.SAVING, budget.levelFor(usage))
+    }
+}
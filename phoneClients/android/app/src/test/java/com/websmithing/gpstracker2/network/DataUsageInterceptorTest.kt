@@ -0,0 +1,59 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/network/DataUsageInterceptorTest.kt
+package com.websmithing.gpstracker2.network
+
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicLong
+
+class DataUsageInterceptorTest {
+
+    private lateinit var server: MockWebServer
+    private val counted = AtomicLong()
+
+    private val client = OkHttpClient.Builder()
+        .addNetworkInterceptor(DataUsageInterceptor { counted.addAndGet(it) })
+        .build()
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun `counts request and response bodies with their headers`() {
+        val responseBody = "x".repeat(5_000)
+        server.enqueue(MockResponse().setBody(responseBody))
+        val requestBody = "y".repeat(2_000)
+
+        client.newCall(
+            Request.Builder().url(server.url("/api/locations/batch")).post(requestBody.toRequestBody()).build()
+        ).execute().use { assertEquals(responseBody, it.body?.string()) }
+
+        val total = counted.get()
+        assertTrue("Counted $total", total > 7_000L)
+        // Start lines and a handful of headers
+        assertTrue("Counted $total", total < 7_600L)
+    }
+
+    @Test
+    fun `an unread body costs only the headers`() {
+        server.enqueue(MockResponse().setBody("x".repeat(5_000)))
+
+        client.newCall(Request.Builder().url(server.url("/api/locations/bulk")).build()).execute().close()
+
+        assertTrue("Counted ${counted.get()}", counted.get() in 1L until 1_000L)
+    }
+}
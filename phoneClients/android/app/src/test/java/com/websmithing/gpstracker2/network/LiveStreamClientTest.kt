@@ -0,0 +1,137 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/network/LiveStreamClientTest.kt
+package com.websmithing.gpstracker2.network
+
+import android.location.Location
+import okhttp3.OkHttpClient
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class LiveStreamClientTest {
+
+    private lateinit var server: MockWebServer
+    private lateinit var client: LiveStreamClient
+
+    private val framesAtServer = LinkedBlockingQueue<String>()
+    private val acks = LinkedBlockingQueue<String>()
+    private val disconnected = CountDownLatch(1)
+    private var now = 0L
+
+    private val listener = object : LiveStreamClient.Listener {
+        override fun onAck(fixId: String) { acks.add(fixId) }
+        override fun onNack(fixId: String, reason: String) {}
+        override fun onDisconnected() { disconnected.countDown() }
+    }
+
+    /**
+     * Stand-in for the streaming endpoint: records every frame and acks every fix
+     */
+    private val ackingServer = object : WebSocketListener() {
+        override fun onMessage(webSocket: WebSocket, text: String) {
+            framesAtServer.add(text)
+            if (text.startsWith("F|")) webSocket.send("A|" + text.split('|')[1])
+        }
+    }
+
+    /**
+     * Stand-in for a server that goes away right after the hello frame
+     */
+    private val closingServer = object : WebSocketListener() {
+        override fun onMessage(webSocket: WebSocket, text: String) {
+            webSocket.close(1001, "going away")
+        }
+    }
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+        client = LiveStreamClient(OkHttpClient(), listener) { now }
+    }
+
+    @After
+    fun tearDown() {
+        client.close()
+        server.shutdown()
+    }
+
+    @Test
+    fun `fixes sent over the stream are acknowledged`() {
+        server.enqueue(MockResponse().withWebSocketUpgrade(ackingServer))
+
+        client.connect(streamUrl(), "testUser", "app456", "session123")
+        awaitOpen()
+
+        assertTrue(client.send(mockLocation(), "app456:42", 1.25))
+        assertEquals("H|1|testUser|app456|session123", framesAtServer.poll(5, TimeUnit.SECONDS))
+        assertEquals(
+            "F|app456:42|1714571109000|40.7128000|-74.0060000|11|90|15|10|1.3|gps",
+            framesAtServer.poll(5, TimeUnit.SECONDS)
+        )
+        assertEquals("app456:42", acks.poll(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun `send reports false while the stream is down so callers fall back to http`() {
+        assertFalse(client.send(mockLocation(), "app456:1", 0.0))
+
+        server.enqueue(MockResponse().withWebSocketUpgrade(closingServer))
+        client.connect(streamUrl(), "testUser", "app456", "session123")
+
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS))
+        assertFalse(client.isOpen)
+        assertFalse(client.send(mockLocation(), "app456:2", 0.0))
+    }
+
+    @Test
+    fun `reconnects only after the backoff has elapsed`() {
+        server.enqueue(MockResponse().withWebSocketUpgrade(closingServer))
+        client.connect(streamUrl(), "testUser", "app456", "session123")
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS))
+
+        client.connect(streamUrl(), "testUser", "app456", "session123")
+        assertEquals(1, server.requestCount)
+
+        now += 2_000L
+        server.enqueue(MockResponse().withWebSocketUpgrade(ackingServer))
+        client.connect(streamUrl(), "testUser", "app456", "session123")
+        awaitOpen()
+        assertEquals(2, server.requestCount)
+    }
+
+    @Test
+    fun `separators in text fields cannot split a frame`() {
+        assertEquals("H|1|a_b_c|app|s", LiveStreamClient.helloFrame("a|b\nc", "app", "s"))
+    }
+
+    private fun streamUrl(): String = server.url("/gpstracker/api/locations/stream").toString()
+
+    private fun awaitOpen() {
+        val deadline = System.currentTimeMillis() + 5_000L
+        while (!client.isOpen && System.currentTimeMillis() < deadline) Thread.sleep(10)
+        assertTrue("stream did not open", client.isOpen)
+    }
+
+    private fun mockLocation(): Location {
+        val location: Location = mock()
+        whenever(location.latitude).thenReturn(40.7128)
+        whenever(location.longitude).thenReturn(-74.006)
+        whenever(location.speed).thenReturn(5.0f)
+        whenever(location.bearing).thenReturn(90.4f)
+        whenever(location.accuracy).thenReturn(15.0f)
+        whenever(location.altitude).thenReturn(10.0)
+        whenever(location.time).thenReturn(1_714_571_109_000L)
+        whenever(location.provider).thenReturn("gps")
+        return location
+    }
+}
@@ -0,0 +1,121 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/network/LocationBatchEncoderTest.kt
+package com.websmithing.gpstracker2.network
+
+import com.websmithing.gpstracker2.data.repository.SessionStats
+import com.websmithing.gpstracker2.data.repository.SessionSummary
+import com.websmithing.gpstracker2.data.repository.TrackPoint
+import okio.Buffer
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPInputStream
+
+class LocationBatchEncoderTest {
+
+    private fun point(id: Long, provider: String = "fused") = TrackPoint(
+        id = id,
+        sessionId = "session123",
+        time = 1_700_000_000_000L + id * 1000L,
+        latitude = 47.6,
+        longitude = -122.3,
+        altitude = 12.4,
+        speed = 10f,
+        bearing = 90.4f,
+        accuracy = 5.6f,
+        provider = provider,
+        uploaded = false,
+        fixId = "app456:$id",
+        distanceMeters = 4023.35
+    )
+
+    private fun encode(points: List<TrackPoint>, username: String = "testUser"): String =
+        Buffer().also { LocationBatchEncoder.encode(points, username, "app456").writeTo(it) }.readUtf8()
+
+    @Test
+    fun `batch uses the single upload field names and units`() {
+        assertEquals(
+            "{\"locations\":[{\"latitude\":47.6,\"longitude\":-122.3,\"speed\":22,\"direction\":90,\"distance\":2.5," +
+                "\"date\":\"2023-11-14T22:13:21Z\",\"locationmethod\":\"fused\",\"username\":\"testUser\"," +
+                "\"phonenumber\":\"app456\",\"sessionid\":\"session123\",\"accuracy\":6,\"extrainfo\":\"12\"," +
+                "\"eventtype\":\"backfill\",\"fixid\":\"app456:1\",\"tripid\":1,\"cellid\":2959676976585356676}]}",
+            encode(listOf(point(1)))
+        )
+    }
+
+    @Test
+    fun `compact batch rounds coordinates and drops informational fields`() {
+        val json = Buffer().also {
+            LocationBatchEncoder.encode(listOf(point(1).copy(latitude = 47.60621234, longitude = -122.33207)), "testUser", "app456", compact = true)
+                .writeTo(it)
+        }.readUtf8()
+
+        assertEquals(
+            "{\"locations\":[{\"latitude\":47.60621,\"longitude\":-122.33207,\"speed\":22,\"direction\":90,\"distance\":2.5," +
+                "\"date\":\"2023-11-14T22:13:21Z\",\"username\":\"testUser\",\"phonenumber\":\"app456\"," +
+                "\"sessionid\":\"session123\",\"accuracy\":6,\"fixid\":\"app456:1\",\"tripid\":1}]}",
+            json
+        )
+    }
+
+    @Test
+    fun `entries are comma separated and strings are escaped`() {
+        val json = encode(listOf(point(1), point(2, provider = "")), username = "a\"b\\c\n")
+
+        assertTrue(json.contains("},{"))
+        assertTrue(json.contains("\"username\":\"a\\\"b\\\\c\\u000a\""))
+        assertTrue(json.contains("\"locationmethod\":\"unknown\""))
+        assertTrue(json.contains("\"fixid\":\"app456:2\""))
+    }
+
+    @Test
+    fun `empty batch is a valid document`() {
+        assertEquals("{\"locations\":[]}", encode(emptyList()))
+        assertEquals(LocationBatchEncoder.JSON_MEDIA_TYPE, LocationBatchEncoder.encode(emptyList(), "u", "a").contentType())
+    }
+
+    @Test
+    fun `bulk file holds one batch entry per line`() {
+        val out = ByteArrayOutputStream()
+        LocationBatchEncoder.writeNdjsonGzip(out, listOf(point(1), point(2)), "testUser", "app456")
+
+        val lines = GZIPInputStream(out.toByteArray().inputStream()).reader().readLines()
+
+        assertEquals(2, lines.size)
+        assertEquals(encode(listOf(point(1))).removePrefix("{\"locations\":[").removeSuffix("]}"), lines[0])
+        assertTrue(lines[1].contains("\"fixid\":\"app456:2\""))
+    }
+
+    @Test
+    fun `summary carries the session statistics in upload units`() {
+        val summary = SessionSummary(
+            sessionId = "session123",
+            startedAt = 1_700_000_001_000L,
+            endedAt = 1_700_003_601_000L,
+            fixCount = 360,
+            distanceMeters = 16093.4,
+            maxSpeed = 20f,
+            minLatitude = 47.6,
+            minLongitude = -122.4,
+            maxLatitude = 47.7,
+            maxLongitude = -122.3,
+            stats = SessionStats(
+                movingDistanceMeters = 16000.0,
+                movingMillis = 3_200_000L,
+                stoppedMillis = 400_000L,
+                maxSpeed = 20f,
+                elevationGainMeters = 123.4,
+                stopCount = 2
+            )
+        )
+
+        val json = Buffer().also { LocationBatchEncoder.encodeSummary(summary, "testUser", "app456").writeTo(it) }.readUtf8()
+
+        assertEquals(
+            "{\"sessionid\":\"session123\",\"username\":\"testUser\",\"phonenumber\":\"app456\"," +
+                "\"startedat\":\"2023-11-14T22:13:21Z\",\"endedat\":\"2023-11-14T23:13:21Z\",\"fixcount\":360," +
+                "\"distance\":10.00,\"movingtime\":3200,\"stoppedtime\":400,\"avgspeed\":11.2,\"maxspeed\":44.7," +
+                "\"elevationgain\":123,\"stops\":2}",
+            json
+        )
+    }
+}
@@ -0,0 +1,59 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/network/LocationFormEncoderTest.kt
+package com.websmithing.gpstracker2.network
+
+import okio.Buffer
+import org.junit.Assert.*
+import org.junit.Test
+import java.net.URLEncoder
+
+class LocationFormEncoderTest {
+
+    @Test
+    fun `string fields are encoded like URLEncoder`() {
+        val value = "gps net-work_1.0*~/:é😀"
+        val encoded = LocationFormEncoder().add("locationmethod", value).toString()
+
+        assertEquals("locationmethod=" + URLEncoder.encode(value, "UTF-8"), encoded)
+    }
+
+    @Test
+    fun `numeric fields are written without locale formatting`() {
+        val encoded = LocationFormEncoder()
+            .add("speed", 42)
+            .add("direction", -7)
+            .addDecimal("latitude", 40.71280004, 7)
+            .addDecimal("longitude", -74.0060000, 7)
+            .addDecimal("distance", 0.04, 1)
+            .toString()
+
+        assertEquals("speed=42&direction=-7&latitude=40.7128000&longitude=-74.0060000&distance=0.0", encoded)
+    }
+
+    @Test
+    fun `timestamps are written as ISO-8601 UTC`() {
+        assertEquals("date=1970-01-01T00%3A00%3A00Z", LocationFormEncoder().addIsoTimestamp("date", 0L).toString())
+        // 2024-02-29T23:59:59.999Z, a leap day
+        assertEquals("date=2024-02-29T23%3A59%3A59Z", LocationFormEncoder().addIsoTimestamp("date", 1709251199999L).toString())
+        // Before the epoch
+        assertEquals("date=1969-12-31T23%3A59%3A59Z", LocationFormEncoder().addIsoTimestamp("date", -1L).toString())
+    }
+
+    @Test
+    fun `reset reuses the buffer and request body is a snapshot`() {
+        val encoder = LocationFormEncoder(initialCapacity = 4)
+        val first = encoder.add("username", "first user").toRequestBody()
+        encoder.reset().add("username", "second")
+
+        val buffer = Buffer()
+        first.writeTo(buffer)
+        assertEquals("username=first+user", buffer.readUtf8())
+        assertEquals("username=second", encoder.toString())
+        assertEquals(LocationFormEncoder.FORM_MEDIA_TYPE, first.contentType())
+    }
+
+    @Test
+    fun `forCurrentThread returns a reset encoder`() {
+        LocationFormEncoder.forCurrentThread().add("a", 1)
+        assertEquals(0, LocationFormEncoder.forCurrentThread().size)
+    }
+}
@@ -0,0 +1,148 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/network/UdpUplinkTest.kt
+package com.websmithing.gpstracker2.network
+
+import com.websmithing.gpstracker2.data.repository.TrackPoint
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.util.concurrent.LinkedBlockingQueue
+
+class UdpUplinkTest {
+
+    private val key = "fleet-secret"
+    private var now = 0L
+    private var server: DatagramSocket? = null
+    private val datagramsAtServer = LinkedBlockingQueue<String>()
+
+    @After
+    fun tearDown() {
+        server?.close()
+    }
+
+    private fun point(id: Long, sessionId: String = "session123") = TrackPoint(
+        id = id,
+        sessionId = sessionId,
+        time = 1714571109000L + id * 1000L,
+        latitude = 40.7128,
+        longitude = -74.006,
+        altitude = 10.4,
+        speed = 5f,
+        bearing = 90f,
+        accuracy = 15f,
+        provider = "gps",
+        uploaded = false,
+        fixId = "app456:$id",
+        distanceMeters = 4023.35
+    )
+
+    /**
+     * Signs a reply the way the server does
+     */
+    private fun signed(text: String): String {
+        val digest = UdpUplink.newMac(key).doFinal(text.toByteArray(Charsets.UTF_8))
+        val hex = digest.take(16).joinToString("") { "%02x".format(it.toInt() and 0xFF) }
+        return "$text,$hex;"
+    }
+
+    /**
+     * Starts a stand-in receiver on localhost that answers every datagram with [verdict]
+     * (or not at all if null) and returns its port
+     */
+    private fun startServer(verdict: String?): Int {
+        val socket = DatagramSocket(0, InetAddress.getLoopbackAddress())
+        server = socket
+        Thread {
+            val buffer = ByteArray(2048)
+            try {
+                while (true) {
+                    val packet = DatagramPacket(buffer, buffer.size)
+                    socket.receive(packet)
+                    val text = String(packet.data, 0, packet.length, Charsets.UTF_8)
+                    datagramsAtServer.add(text)
+                    if (verdict == null) continue
+                    val fields = text.split(',')
+                    val reply = signed("$verdict,${fields[2]},${fields[3]}").toByteArray(Charsets.UTF_8)
+                    socket.send(DatagramPacket(reply, reply.size, packet.socketAddress))
+                }
+            } catch (e: Exception) {
+                // Socket closed by tearDown
+            }
+        }.apply { isDaemon = true }.start()
+        return socket.localPort
+    }
+
+    @Test
+    fun `encodes fixes compactly and signs them`() {
+        val mac = UdpUplink.newMac(key)
+
+        val text = String(UdpUplink.encode(mac, listOf(point(41)), "testUser", "app456", 77), Charsets.UTF_8)
+
+        val body = "GT,3,app456,77,testUser,session123,1,41,1714571150,40.712800,-74.006000,11,90,15,10,1,2.5"
+        assertEquals(signed(body), text)
+        assertTrue(text.length < 128)
+    }
+
+    @Test
+    fun `accepts only authentic replies for the datagram`() {
+        val mac = UdpUplink.newMac(key)
+
+        assertEquals(true, UdpUplink.verifyReply(mac, signed("ACK,app456,77"), "app456", 77))
+        assertEquals(false, UdpUplink.verifyReply(mac, signed("NAK,app456,77"), "app456", 77))
+        assertNull(UdpUplink.verifyReply(mac, signed("ACK,app456,76"), "app456", 77))
+        assertNull(UdpUplink.verifyReply(mac, "ACK,app456,77,00000000000000000000000000000000;", "app456", 77))
+        assertNull(UdpUplink.verifyReply(mac, "garbage", "app456", 77))
+    }
+
+    @Test
+    fun `splits batches by session and size`() {
+        val points = (1L..10L).map { point(it) } + listOf(point(11, "session456"))
+
+        val chunks = UdpUplink.datagrams(points)
+
+        assertEquals(listOf(8, 2, 1), chunks.map { it.size })
+        assertEquals("session456", chunks[2].single().sessionId)
+    }
+
+    @Test
+    fun `send succeeds once the receiver acks every datagram`() {
+        val port = startServer("ACK")
+        val uplink = UdpUplink { now }
+
+        val delivered = uplink.send("127.0.0.1", port, key, (1L..10L).map { point(it) }, "testUser", "app456")
+
+        assertTrue(delivered)
+        assertEquals(2, datagramsAtServer.size)
+    }
+
+    @Test
+    fun `send fails on nack and without a key`() {
+        val port = startServer("NAK")
+        val uplink = UdpUplink { now }
+
+        assertFalse(uplink.send("127.0.0.1", port, "", listOf(point(1)), "testUser", "app456"))
+        assertTrue(datagramsAtServer.isEmpty())
+        assertFalse(uplink.send("127.0.0.1", port, key, listOf(point(1)), "testUser", "app456"))
+        assertEquals(1, datagramsAtServer.size)
+    }
+
+    @Test
+    fun `unanswered uplink is skipped until the cool-down ends`() {
+        val port = startServer(null)
+        val uplink = UdpUplink { now }
+
+        assertFalse(uplink.send("127.0.0.1", port, key, listOf(point(1)), "testUser", "app456"))
+        val attempts = datagramsAtServer.size
+        assertTrue(attempts > 1)
+
+        now += 60_000L
+        assertFalse(uplink.send("127.0.0.1", port, key, listOf(point(2)), "testUser", "app456"))
+        assertEquals(attempts, datagramsAtServer.size)
+
+        now += 5 * 60_000L
+        assertFalse(uplink.send("127.0.0.1", port, key, listOf(point(3)), "testUser", "app456"))
+        assertTrue(datagramsAtServer.size > attempts)
+    }
+}
@@ -0,0 +1,45 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/network/UploadHintsTest.kt
+package com.websmithing.gpstracker2.network
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class UploadHintsTest {
+
+    private val now = 1_700_000_000_000L
+
+    @Test
+    fun `parses hints from an upload response`() {
+        val body = "{\"status\":\"success\",\"hints\":{\"interval\":480,\"max_batch\":275," +
+            "\"backoff_until\":0,\"server_time\":1714571109}}"
+
+        assertEquals(UploadHints(intervalSeconds = 480, maxBatch = 275), UploadHints.parse(body, now))
+    }
+
+    @Test
+    fun `backoff is applied relative to the server clock`() {
+        // Server clock is far ahead of the device; only the 150 s difference matters
+        val body = "{\"hints\": {\"interval\": 900, \"max_batch\": 50, " +
+            "\"backoff_until\": 1714571259, \"server_time\": 1714571109}}"
+
+        val hints = UploadHints.parse(body, now)!!
+
+        assertEquals(now + 150_000L, hints.backoffUntilMillis)
+        assertTrue(hints.isBackingOff(now + 149_999L))
+        assertFalse(hints.isBackingOff(now + 150_000L))
+    }
+
+    @Test
+    fun `bodies without hints are ignored`() {
+        assertNull(UploadHints.parse("OK", now))
+        assertNull(UploadHints.parse("-1", now))
+        assertNull(UploadHints.parse(null, now))
+    }
+
+    @Test
+    fun `retry after header becomes a backoff`() {
+        assertEquals(UploadHints(backoffUntilMillis = now + 30_000L), UploadHints.fromRetryAfter("30", now))
+        assertNull(UploadHints.fromRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT", now))
+        assertNull(UploadHints.fromRetryAfter(null, now))
+    }
+}
@@ -0,0 +1,103 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/service/BatteryGovernorTest.kt
+package com.websmithing.gpstracker2.service
+
+import com.google.android.gms.location.Priority
+import com.websmithing.gpstracker2.service.BatteryGovernor.Tier
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class BatteryGovernorTest {
+
+    private val oneMinute = TimeUnit.MINUTES.toMillis(1)
+
+    private var now = 0L
+
+    private fun governor(budget: Float) = BatteryGovernor(budget, oneMinute) { now }
+
+    /**
+     * Advances the clock, counting a fix and an upload every minute
+     */
+    private fun BatteryGovernor.track(minutes: Int) {
+        repeat(minutes) {
+            now += oneMinute
+            onFix()
+            onUpload()
+        }
+    }
+
+    @Test
+    fun `no budget keeps full fidelity`() {
+        val governor = governor(0f)
+        assertEquals(Tier.FULL, governor.tier)
+        assertEquals(
+            BatteryGovernor.Plan(Priority.PRIORITY_HIGH_ACCURACY, oneMinute, oneMinute),
+            governor.plan()
+        )
+    }
+
+    @Test
+    fun `picks the highest tier the budget allows`() {
+        // At one fix a minute: full 3.0 %/h, balanced 1.8 %/h, balanced and batched 0.45 %/h
+        assertEquals(Tier.FULL, governor(5f).tier)
+        assertEquals(Tier.BALANCED, governor(2f).tier)
+
+        val frugal = governor(1f)
+        assertEquals(Tier.BALANCED_BATCHED, frugal.tier)
+        assertEquals(
+            BatteryGovernor.Plan(Priority.PRIORITY_BALANCED_POWER_ACCURACY, 2 * oneMinute, 8 * oneMinute),
+            frugal.plan()
+        )
+    }
+
+    @Test
+    fun `charging reverts to full fidelity`() {
+        val governor = governor(1f)
+
+        assertTrue(governor.onBatteryChanged(80f, isCharging = true))
+        assertEquals(Tier.FULL, governor.tier)
+
+        assertTrue(governor.onBatteryChanged(80f, isCharging = false))
+        assertEquals(Tier.BALANCED_BATCHED, governor.tier)
+    }
+
+    @Test
+    fun `steps down when the battery drains faster than modeled`() {
+        val governor = governor(1f)
+        governor.onBatteryChanged(80f, isCharging = false)
+
+        governor.track(minutes = 30)
+        assertTrue(governor.onBatteryChanged(76f, isCharging = false))
+
+        assertEquals("Calibration is capped", BatteryGovernor.MAX_CALIBRATION, governor.calibration, 0.0)
+        assertEquals(Tier.LOW_POWER, governor.tier)
+    }
+
+    @Test
+    fun `does not measure a short window`() {
+        val governor = governor(1f)
+        governor.onBatteryChanged(80f, isCharging = false)
+
+        governor.track(minutes = 5)
+        assertFalse(governor.onBatteryChanged(77f, isCharging = false))
+
+        assertEquals(1.0, governor.calibration, 0.0)
+        assertEquals(Tier.BALANCED_BATCHED, governor.tier)
+    }
+
+    @Test
+    fun `moving up a tier needs headroom`() {
+        val governor = governor(1f)
+        governor.onBatteryChanged(80f, isCharging = false)
+
+        // 4 % of modeled cost against a 2 % drop halves the model
+        now += TimeUnit.MINUTES.toMillis(30)
+        repeat(400) { governor.onFix() }
+        assertFalse(governor.onBatteryChanged(78f, isCharging = false))
+
+        assertEquals(0.5, governor.calibration, 1e-9)
+        // Balanced would now cost 0.9 %/h: within the budget, but not within the margin
+        assertEquals(0.9, governor.predictedPercentPerHour(Tier.BALANCED), 1e-9)
+        assertEquals(Tier.BALANCED_BATCHED, governor.tier)
+    }
+}
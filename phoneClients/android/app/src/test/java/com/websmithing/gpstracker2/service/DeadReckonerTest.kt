@@ -0,0 +1,123 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/service/DeadReckonerTest.kt
+package com.websmithing.gpstracker2.service
+
+import com.websmithing.gpstracker2.util.GeoDistance
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.cos
+
+class DeadReckonerTest {
+
+    private lateinit var reckoner: DeadReckoner
+
+    private val startLatitude = 47.6
+    private val startLongitude = -122.3
+    private val metersPerDegreeLongitude = 111_320.0 * cos(Math.toRadians(startLatitude))
+
+    @Before
+    fun setUp() {
+        reckoner = DeadReckoner()
+    }
+
+    private fun latitudeAt(northMeters: Double) = startLatitude + northMeters / 111_320.0
+
+    private fun longitudeAt(eastMeters: Double) = startLongitude + eastMeters / metersPerDegreeLongitude
+
+    /**
+     * Walks [steps] steps of 0.8 m, two per second, starting at [startMillis], reporting a
+     * device heading that is [deviceOffset] off the walking direction once per second
+     */
+    private fun walk(startMillis: Long, steps: Int, azimuth: Double, deviceOffset: Double = 0.3) {
+        for (i in 1..steps) {
+            val time = startMillis + i * 500L
+            if (i % 2 == 1) reckoner.onHeading(time - 1, azimuth + deviceOffset)
+            reckoner.onStep(time)
+        }
+    }
+
+    @Test
+    fun `corner between two fixes is recovered despite wrong step length and heading`() {
+        reckoner.onFix(0L, startLatitude, startLongitude, 5f)
+        // 240 m east, then 240 m north; the fixes only see the diagonal
+        walk(0L, 300, PI / 2)
+        walk(150_000L, 300, 0.0)
+
+        val estimates = reckoner.onFix(300_000L, latitudeAt(240.0), longitudeAt(240.0), 5f)
+
+        // One point every 30 s, none right next to the closing fix
+        assertEquals(9, estimates.size)
+        assertEquals(30_000L, estimates.first().time)
+        assertTrue(estimates.zipWithNext().all { (a, b) -> b.time > a.time })
+
+        val corner = estimates.single { it.time == 150_000L }
+        assertEquals(0.0, GeoDistance.meters(corner.latitude, corner.longitude, latitudeAt(0.0), longitudeAt(240.0)), 1.0)
+        // Farther from the fixes means less certain
+        assertTrue(corner.accuracy > estimates.first().accuracy)
+
+        // Calibration moved towards the real step length and device offset
+        assertTrue(reckoner.stepLengthMeters > DeadReckoner.DEFAULT_STEP_LENGTH_METERS)
+        assertTrue(reckoner.headingOffset < 0.0)
+    }
+
+    @Test
+    fun `filled-in path is longer than the chord between the fixes`() {
+        reckoner.onFix(0L, startLatitude, startLongitude, 5f)
+        walk(0L, 300, PI / 2)
+        walk(150_000L, 300, 0.0)
+        val end = reckoner.onFix(300_000L, latitudeAt(240.0), longitudeAt(240.0), 5f)
+
+        val points = listOf(startLatitude to startLongitude) + end.map { it.latitude to it.longitude } +
+            listOf(latitudeAt(240.0) to longitudeAt(240.0))
+        val pathLength = points.zipWithNext().sumOf { (a, b) -> GeoDistance.meters(a.first, a.second, b.first, b.second) }
+        val chord = GeoDistance.meters(startLatitude, startLongitude, latitudeAt(240.0), longitudeAt(240.0))
+
+        assertTrue(pathLength > chord * 1.3)
+    }
+
+    @Test
+    fun `segment without steps is not filled in`() {
+        reckoner.onFix(0L, startLatitude, startLongitude, 5f)
+        reckoner.onHeading(1_000L, 0.0)
+
+        // Driven 3 km without a step
+        assertTrue(reckoner.onFix(300_000L, latitudeAt(3_000.0), startLongitude, 5f).isEmpty())
+        assertEquals(DeadReckoner.DEFAULT_STEP_LENGTH_METERS, reckoner.stepLengthMeters, 0.0)
+    }
+
+    @Test
+    fun `segment that disagrees with the fixes is not filled in or calibrated`() {
+        reckoner.onFix(0L, startLatitude, startLongitude, 5f)
+        // Steps worth 168 m, but the fixes moved 2 km: in a vehicle
+        walk(0L, 240, 0.0, deviceOffset = 0.0)
+
+        assertTrue(reckoner.onFix(300_000L, latitudeAt(2_000.0), startLongitude, 5f).isEmpty())
+        assertEquals(DeadReckoner.DEFAULT_STEP_LENGTH_METERS, reckoner.stepLengthMeters, 0.0)
+        assertEquals(0.0, reckoner.headingOffset, 0.0)
+    }
+
+    @Test
+    fun `long gap is not filled in`() {
+        reckoner.onFix(0L, startLatitude, startLongitude, 5f)
+        walk(0L, 300, 0.0, deviceOffset = 0.0)
+
+        val gap = DeadReckoner.DEFAULT_MAX_GAP_MILLIS + 1
+        assertTrue(reckoner.onFix(gap, latitudeAt(240.0), startLongitude, 5f).isEmpty())
+    }
+
+    @Test
+    fun `steps after the fix carry over into the next segment`() {
+        reckoner.onFix(0L, startLatitude, startLongitude, 5f)
+        // Delivered in one sensor batch that reaches past the next fix
+        walk(0L, 600, 0.0, deviceOffset = 0.0)
+
+        val first = reckoner.onFix(150_000L, latitudeAt(240.0), startLongitude, 5f)
+        val second = reckoner.onFix(300_000L, latitudeAt(480.0), startLongitude, 5f)
+
+        assertTrue(first.isNotEmpty())
+        assertTrue(second.isNotEmpty())
+        assertTrue(second.all { it.time in 150_001L until 300_000L })
+        assertTrue(second.all { it.latitude > latitudeAt(240.0) && it.latitude < latitudeAt(480.0) })
+    }
+}
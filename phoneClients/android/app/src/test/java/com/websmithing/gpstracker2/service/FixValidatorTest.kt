@@ -0,0 +1,102 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/service/FixValidatorTest.kt
+package com.websmithing.gpstracker2.service
+
+import com.websmithing.gpstracker2.service.FixValidator.Rejection
+import org.junit.Assert.*
+import org.junit.Test
+
+class FixValidatorTest {
+
+    private val start = 1_714_571_109_000L
+    private val lat = 47.6062
+    private val lon = -122.3321
+
+    /**
+     * Degrees of latitude per meter, close enough for short hops
+     */
+    private val degreesPerMeter = 1.0 / 111_195.0
+
+    private val validator = FixValidator()
+
+    @Test
+    fun `rejects fixes with poor or unknown accuracy`() {
+        assertEquals(Rejection.LOW_ACCURACY, validator.check(start, lat, lon, 1_500f))
+        assertEquals(Rejection.LOW_ACCURACY, validator.check(start, lat, lon, null))
+        assertNull(validator.check(start, lat, lon, 20f))
+        assertEquals(2, validator.rejectedCount(Rejection.LOW_ACCURACY))
+    }
+
+    @Test
+    fun `rejects fixes older than the last accepted one`() {
+        assertNull(validator.check(start, lat, lon, 10f))
+        assertEquals(Rejection.OUT_OF_ORDER, validator.check(start - 5_000L, lat + 0.0001, lon, 10f))
+    }
+
+    @Test
+    fun `rejects repeats of the last accepted fix`() {
+        assertNull(validator.check(start, lat, lon, 10f))
+        assertEquals("Same time", Rejection.DUPLICATE, validator.check(start, lat + 0.0001, lon, 10f))
+        assertEquals("Same position", Rejection.DUPLICATE, validator.check(start + 5_000L, lat, lon, 10f))
+        assertNull("Same position after the window", validator.check(start + 30_000L, lat, lon, 10f))
+    }
+
+    @Test
+    fun `rejects a jump faster than the speed ceiling`() {
+        assertNull(validator.check(start, lat, lon, 10f))
+        // 5 km in 10 s is 500 m/s
+        assertEquals(
+            Rejection.IMPOSSIBLE_SPEED,
+            validator.check(start + 10_000L, lat + 5_000 * degreesPerMeter, lon, 10f)
+        )
+        // Driving at 30 m/s from the original reference is fine
+        assertNull(validator.check(start + 20_000L, lat + 600 * degreesPerMeter, lon, 10f))
+    }
+
+    @Test
+    fun `accepts jitter within the accuracy radii`() {
+        assertNull(validator.check(start, lat, lon, 50f))
+        // 90 m in one second, but both fixes are only good to 50 m
+        assertNull(validator.check(start + 1_000L, lat + 90 * degreesPerMeter, lon, 50f))
+    }
+
+    @Test
+    fun `re-anchors after repeated jumps`() {
+        assertNull(validator.check(start, lat, lon, 10f))
+        val far = lat + 0.5
+        repeat(3) {
+            assertEquals(Rejection.IMPOSSIBLE_SPEED, validator.check(start + (it + 1) * 1_000L, far, lon + it * 0.0001, 10f))
+        }
+        assertNull("Fourth jump becomes the reference", validator.check(start + 4_000L, far, lon + 0.0003, 10f))
+        assertNull(validator.check(start + 5_000L, far + 10 * degreesPerMeter, lon + 0.0003, 10f))
+    }
+
+    @Test
+    fun `reset forgets the reference but keeps the counters`() {
+        assertNull(validator.check(start, lat, lon, 10f))
+        assertEquals(Rejection.IMPOSSIBLE_SPEED, validator.check(start + 1_000L, lat + 1.0, lon, 10f))
+
+        validator.reset()
+
+        assertNull(validator.check(start + 2_000L, lat + 1.0, lon, 10f))
+        assertEquals(1, validator.rejectedCount(Rejection.IMPOSSIBLE_SPEED))
+    }
+
+    @Test
+    fun `counts rejections by reason`() {
+        validator.check(start, lat, lon, 900f)
+        validator.check(start, lat, lon, 10f)
+        validator.check(start, lat, lon, 10f)
+        validator.check(start - 1_000L, lat, lon, 10f)
+        validator.check(start + 1_000L, lat + 1.0, lon, 10f)
+
+        assertEquals(
+            mapOf(
+                Rejection.LOW_ACCURACY to 1,
+                Rejection.OUT_OF_ORDER to 1,
+                Rejection.DUPLICATE to 1,
+                Rejection.IMPOSSIBLE_SPEED to 1
+            ),
+            validator.rejectionCounts()
+        )
+    }
+}
@@ -0,0 +1,56 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/service/HeartbeatPolicyTest.kt
+package com.websmithing.gpstracker2.service
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class HeartbeatPolicyTest {
+
+    private val start = 1_714_571_109_000L
+    private val lat = 47.6062
+    private val lon = -122.3321
+    private val oneMinute = 60_000L
+
+    /**
+     * Degrees of latitude per meter, close enough for short hops
+     */
+    private val degreesPerMeter = 1.0 / 111_195.0
+
+    private val policy = HeartbeatPolicy()
+
+    @Test
+    fun `first fix is always sent in full`() {
+        assertFalse(policy.isUnchanged(start, lat, lon, 5f))
+    }
+
+    @Test
+    fun `unchanged position within tolerance needs only a heartbeat`() {
+        policy.onFullFixSent(start, lat, lon)
+
+        assertTrue(policy.isUnchanged(start + oneMinute, lat + 10 * degreesPerMeter, lon, 5f))
+        assertFalse(policy.isUnchanged(start + oneMinute, lat + 100 * degreesPerMeter, lon, 5f))
+    }
+
+    @Test
+    fun `tolerance widens to the accuracy radius`() {
+        policy.onFullFixSent(start, lat, lon)
+
+        assertTrue(policy.isUnchanged(start + oneMinute, lat + 60 * degreesPerMeter, lon, 80f))
+    }
+
+    @Test
+    fun `a full fix is due after the longest heartbeat run`() {
+        policy.onFullFixSent(start, lat, lon)
+
+        assertTrue(policy.isUnchanged(start + 29 * oneMinute, lat, lon, 5f))
+        assertFalse(policy.isUnchanged(start + HeartbeatPolicy.DEFAULT_MAX_HEARTBEAT_MILLIS, lat, lon, 5f))
+    }
+
+    @Test
+    fun `reset sends the next fix in full`() {
+        policy.onFullFixSent(start, lat, lon)
+        policy.reset()
+
+        assertFalse(policy.isUnchanged(start + oneMinute, lat, lon, 5f))
+    }
+}
@@ -0,0 +1,61 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/service/LocationPlannerTest.kt
+package com.websmithing.gpstracker2.service
+
+import com.google.android.gms.location.Priority
+import org.junit.Assert.*
+import org.junit.Test
+
+class LocationPlannerTest {
+
+    private val oneMinute = 60_000L
+
+    private fun plan(
+        intervalMillis: Long,
+        liveMode: Boolean = false,
+        dualResolution: Boolean = false,
+        passiveMode: Boolean = false,
+        hintSeconds: Int = 0,
+        governed: BatteryGovernor.Plan? = null
+    ) = LocationPlanner.plan(governed, intervalMillis, liveMode, dualResolution, passiveMode, hintSeconds)
+
+    @Test
+    fun `settings interval applies without a hint`() {
+        assertEquals(
+            BatteryGovernor.Plan(Priority.PRIORITY_HIGH_ACCURACY, oneMinute, oneMinute),
+            plan(oneMinute)
+        )
+    }
+
+    @Test
+    fun `longer server hint stretches the interval`() {
+        val stretched = plan(oneMinute, hintSeconds = 300)
+
+        assertEquals(5 * oneMinute, stretched.intervalMillis)
+        assertEquals(5 * oneMinute, stretched.maxUpdateDelayMillis)
+        // A shorter hint never speeds tracking up
+        assertEquals(5 * oneMinute, plan(5 * oneMinute, hintSeconds = 60).intervalMillis)
+    }
+
+    @Test
+    fun `live session keeps its interval after an HTTP response with interval 60`() {
+        assertEquals(2_000L, plan(2_000L, liveMode = true, hintSeconds = 60).intervalMillis)
+    }
+
+    @Test
+    fun `dual resolution keeps its capture rate`() {
+        assertEquals(1_000L, plan(1_000L, dualResolution = true, hintSeconds = 60).intervalMillis)
+    }
+
+    @Test
+    fun `passive mode asks for passive fixes`() {
+        assertEquals(Priority.PRIORITY_PASSIVE, plan(oneMinute, passiveMode = true).priority)
+    }
+
+    @Test
+    fun `governed plan is stretched by the hint too`() {
+        val governed = BatteryGovernor.Plan(Priority.PRIORITY_BALANCED_POWER_ACCURACY, 2 * oneMinute, 4 * oneMinute)
+
+        assertEquals(governed, plan(oneMinute, governed = governed))
+        assertEquals(10 * oneMinute, plan(oneMinute, governed = governed, hintSeconds = 600).intervalMillis)
+    }
+}
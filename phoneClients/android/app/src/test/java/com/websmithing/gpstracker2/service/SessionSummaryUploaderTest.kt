@@ -0,0 +1,63 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/service/SessionSummaryUploaderTest.kt
+package com.websmithing.gpstracker2.service
+
+import com.websmithing.gpstracker2.data.repository.LocationRepository
+import com.websmithing.gpstracker2.data.repository.SessionSummary
+import com.websmithing.gpstracker2.data.repository.TrackHistoryRepository
+import com.websmithing.gpstracker2.network.DataBudget
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.*
+import org.junit.Test
+import org.mockito.kotlin.*
+
+class SessionSummaryUploaderTest {
+
+    private val trackHistoryRepository: TrackHistoryRepository = mock()
+    private val locationRepository: LocationRepository = mock()
+    private val uploader = SessionSummaryUploader(trackHistoryRepository, locationRepository)
+
+    private val settings = TrackingSettings(
+        sessionId = "session123",
+        appId = "app456",
+        username = "testUser",
+        websiteUrl = "https://example.com/gpstracker/api/locations/update",
+        udpUplinkKey = "",
+        intervalMinutes = 1,
+        liveMode = false,
+        dualResolution = false,
+        passiveMode = false,
+        deadReckoning = false,
+        batteryBudget = 0,
+        dataBudget = DataBudget.NONE
+    )
+
+    private val summary = SessionSummary(
+        sessionId = "session123",
+        startedAt = 1_714_571_109_000L,
+        endedAt = 1_714_574_709_000L,
+        fixCount = 60,
+        distanceMeters = 4023.35,
+        maxSpeed = 3.2f,
+        minLatitude = 47.60,
+        minLongitude = -122.34,
+        maxLatitude = 47.62,
+        maxLongitude = -122.32
+    )
+
+    @Test
+    fun `summary of the ended session is sent with its identity`() = runTest {
+        whenever(trackHistoryRepository.getSessionSummary("session123")).thenReturn(summary)
+        whenever(locationRepository.uploadSessionSummary(any(), any(), any())).thenReturn(true)
+
+        assertTrue(uploader.upload(settings))
+        verify(locationRepository).uploadSessionSummary(summary, "testUser", "app456")
+    }
+
+    @Test
+    fun `nothing is sent for a session without fixes`() = runTest {
+        whenever(trackHistoryRepository.getSessionSummary("session123")).thenReturn(null)
+
+        assertFalse(uploader.upload(settings))
+        verify(locationRepository, never()).uploadSessionSummary(any(), any(), any())
+    }
+}
@@ -0,0 +1,67 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/util/GeoCellTest.kt
+package com.websmithing.gpstracker2.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class GeoCellTest {
+
+    @Test
+    fun `encode and decode round trip within a centimeter`() {
+        val points = listOf(0.0 to 0.0, 47.6062 to -122.3321, -33.8688 to 151.2093, 89.9999 to 179.9999, -90.0 to -180.0)
+        for ((lat, lon) in points) {
+            val cell = GeoCell.encode(lat, lon)
+            assertTrue(cell >= 0)
+            assertEquals(lat, GeoCell.decodeLatitude(cell), 1e-6)
+            assertEquals(lon, GeoCell.decodeLongitude(cell), 1e-6)
+        }
+    }
+
+    @Test
+    fun `encode matches the server's cell IDs`() {
+        // Same vectors as the PHP GeoCellTest; the server indexes what the client sends
+        assertEquals(2959676983896181913L, GeoCell.encode(47.6062095, -122.3320708))
+        assertEquals(2788271739612147646L, GeoCell.encode(40.7128, -74.006))
+        assertEquals(2106550536118327187L, GeoCell.encode(-33.8688197, 151.2092955))
+        assertEquals(4611686018427387903L, GeoCell.encode(90.0, 180.0))
+        assertEquals(0L, GeoCell.encode(-90.0, -180.0))
+    }
+
+    @Test
+    fun `nearby points share a long prefix`() {
+        val a = GeoCell.encode(47.60620, -122.33210)
+        val b = GeoCell.encode(47.60625, -122.33215)
+        val far = GeoCell.encode(-33.8688, 151.2093)
+
+        assertTrue(java.lang.Long.numberOfLeadingZeros(a xor b) > java.lang.Long.numberOfLeadingZeros(a xor far))
+    }
+
+    @Test
+    fun `covering ranges contain every point inside the box`() {
+        val minLat = 47.50; val maxLat = 47.70
+        val minLon = -122.45; val maxLon = -122.20
+        val ranges = GeoCell.coveringRanges(minLat, minLon, maxLat, maxLon)
+
+        assertTrue(ranges.size <= 16)
+        for (i in 1 until ranges.size) assertTrue(ranges[i - 1].last < ranges[i].first)
+
+        var lat = minLat
+        while (lat <= maxLat) {
+            var lon = minLon
+            while (lon <= maxLon) {
+                val cell = GeoCell.encode(lat, lon)
+                assertTrue("($lat, $lon) not covered", ranges.any { cell in it })
+                lon += 0.01
+            }
+            lat += 0.01
+        }
+    }
+
+    @Test
+    fun `covering ranges accept swapped corners`() {
+        assertEquals(
+            GeoCell.coveringRanges(10.0, 20.0, 11.0, 21.0),
+            GeoCell.coveringRanges(11.0, 21.0, 10.0, 20.0)
+        )
+    }
+}
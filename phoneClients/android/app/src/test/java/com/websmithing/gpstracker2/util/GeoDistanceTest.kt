@@ -0,0 +1,25 @@
+// # android/app/src/test/java/com/websmithing/gpstracker2/util/GeoDistanceTest.kt
+package com.websmithing.gpstracker2.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class GeoDistanceTest {
+
+    @Test
+    fun `one degree of latitude`() {
+        assertEquals(111_195.0, GeoDistance.meters(0.0, 0.0, 1.0, 0.0), 1.0)
+    }
+
+    @Test
+    fun `same point is zero`() {
+        assertEquals(0.0, GeoDistance.meters(47.6062, -122.3321, 47.6062, -122.3321), 0.0)
+    }
+
+    @Test
+    fun `longitude shrinks with latitude`() {
+        val atEquator = GeoDistance.meters(0.0, 0.0, 0.0, 1.0)
+        val at60 = GeoDistance.meters(60.0, 0.0, 60.0, 1.0)
+        assertEquals(atEquator / 2, at60, 100.0)
+    }
+}
@@ -0,0 +1,43 @@
+// # android/benchmark/src/main/java/com/websmithing/gpstracker2/benchmark/BaselineProfileGenerator.kt
+package com.websmithing.gpstracker2.benchmark
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.uiautomator.By
+import androidx.test.uiautomator.Until
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Records the classes and methods used while the app starts, for
+ * app/src/main/baseline-prof.txt.
+ *
+ * Needs a rooted device or an API 33+ emulator. The generated startup-prof.txt is
+ * written to the benchmark module's build outputs and copied over the checked-in file.
+ */
+@RunWith(AndroidJUnit4::class)
+class BaselineProfileGenerator {
+
+    @get:Rule
+    val baselineProfileRule = BaselineProfileRule()
+
+    @Test
+    fun startup() = baselineProfileRule.collect(
+        packageName = StartupBenchmark.TARGET_PACKAGE,
+        includeInStartupProfile = true
+    ) {
+        pressHome()
+        startActivityAndWait()
+
+        // Let the first UI state render, including the settings loaded from disk
+        device.wait(Until.hasObject(By.res(StartupBenchmark.TARGET_PACKAGE, "trackingButton")), UI_TIMEOUT_MS)
+    }
+
+    /**
+     * Constants used by the profile generator
+     */
+    companion object {
+        private const val UI_TIMEOUT_MS = 5_000L
+    }
+}
@@ -0,0 +1,56 @@
+// # android/benchmark/src/main/java/com/websmithing/gpstracker2/benchmark/StartupBenchmark.kt
+package com.websmithing.gpstracker2.benchmark
+
+import androidx.benchmark.macro.BaselineProfileMode
+import androidx.benchmark.macro.CompilationMode
+import androidx.benchmark.macro.StartupMode
+import androidx.benchmark.macro.StartupTimingMetric
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures cold start of [TARGET_PACKAGE] up to the first drawn frame.
+ *
+ * The two runs differ only in compilation mode, so comparing their
+ * `timeToInitialDisplayMs` shows what the baseline profile buys:
+ * - [startupWithoutBaselineProfile]: nothing precompiled, the state of a fresh install
+ *   without a profile
+ * - [startupWithBaselineProfile]: app/src/main/baseline-prof.txt applied, as Play and
+ *   ProfileInstaller do after install
+ */
+@RunWith(AndroidJUnit4::class)
+class StartupBenchmark {
+
+    @get:Rule
+    val benchmarkRule = MacrobenchmarkRule()
+
+    @Test
+    fun startupWithoutBaselineProfile() = startup(CompilationMode.None())
+
+    @Test
+    fun startupWithBaselineProfile() = startup(CompilationMode.Partial(BaselineProfileMode.Require))
+
+    private fun startup(compilationMode: CompilationMode) {
+        benchmarkRule.measureRepeated(
+            packageName = TARGET_PACKAGE,
+            metrics = listOf(StartupTimingMetric()),
+            compilationMode = compilationMode,
+            iterations = ITERATIONS,
+            startupMode = StartupMode.COLD
+        ) {
+            pressHome()
+            startActivityAndWait()
+        }
+    }
+
+    /**
+     * Constants used by the startup benchmark
+     */
+    companion object {
+        const val TARGET_PACKAGE = "com.websmithing.gpstracker2"
+        private const val ITERATIONS = 10
+    }
+}
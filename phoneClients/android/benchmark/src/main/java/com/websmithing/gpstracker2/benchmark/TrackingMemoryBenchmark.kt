@@ -0,0 +1,98 @@
+// # android/benchmark/src/main/java/com/websmithing/gpstracker2/benchmark/TrackingMemoryBenchmark.kt
+package com.websmithing.gpstracker2.benchmark
+
+import android.app.Activity
+import android.os.Bundle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import androidx.test.uiautomator.By
+import androidx.test.uiautomator.UiDevice
+import androidx.test.uiautomator.Until
+import org.junit.After
+import org.junit.Assert.assertNotNull
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures the proportional set size (PSS) of the app while it tracks in the background.
+ *
+ * Starts tracking from the activity, leaves it for the home screen and lets the processes
+ * settle, then reads `dumpsys meminfo` for the main process and for the tracking
+ * service's `:tracking` process. Both are reported as instrumentation results
+ * (`mainPssKb`, `trackingPssKb`); a process that does not exist is left out.
+ *
+ * Before the service had its own process only `mainPssKb` is reported, and it is what
+ * the system had to keep resident for tracking. With its own process, `trackingPssKb`
+ * is what stays resident once the system reclaims the backgrounded main process.
+ *
+ * Run on a physical device: ./gradlew :benchmark:connectedBenchmarkAndroidTest
+ */
+@RunWith(AndroidJUnit4::class)
+class TrackingMemoryBenchmark {
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val device = UiDevice.getInstance(instrumentation)
+
+    @Test
+    fun backgroundTracking() {
+        device.executeShellCommand("am force-stop $TARGET")
+        for (permission in PERMISSIONS) device.executeShellCommand("pm grant $TARGET $permission")
+
+        device.executeShellCommand("am start -W -n $TARGET/.GpsTrackerActivity")
+        device.wait(Until.findObject(By.res(TARGET, "txtUserName")), UI_TIMEOUT_MS)?.let {
+            if (it.text.isNullOrBlank()) it.text = "benchmark"
+        }
+        val button = device.wait(Until.findObject(By.res(TARGET, "trackingButton")), UI_TIMEOUT_MS)
+        assertNotNull("Tracking button not found", button)
+        button.click()
+        device.waitForIdle()
+
+        device.pressHome()
+        Thread.sleep(SETTLE_MS)
+
+        val results = Bundle()
+        totalPssKb(TARGET)?.let { results.putLong("mainPssKb", it) }
+        totalPssKb("$TARGET:tracking")?.let { results.putLong("trackingPssKb", it) }
+        instrumentation.sendStatus(Activity.RESULT_OK, results)
+    }
+
+    @After
+    fun tearDown() {
+        device.executeShellCommand("am force-stop $TARGET")
+    }
+
+    /**
+     * Reads the total PSS of a process, in kilobytes
+     *
+     * @param process Process name
+     * @return The total, or null if the process is not running
+     */
+    private fun totalPssKb(process: String): Long? {
+        val output = device.executeShellCommand("dumpsys meminfo $process")
+        if (output.contains("No process found")) return null
+        // "TOTAL PSS:" on Android 11 and later, a "TOTAL" row before
+        val match = Regex("TOTAL PSS:\\s+(\\d+)").find(output)
+            ?: Regex("^\\s*TOTAL\\s+(\\d+)", RegexOption.MULTILINE).find(output)
+        return match?.groupValues?.get(1)?.toLong()
+    }
+
+    /**
+     * Constants used by the memory benchmark
+     */
+    companion object {
+        private const val TARGET = StartupBenchmark.TARGET_PACKAGE
+        private const val UI_TIMEOUT_MS = 5_000L
+
+        /**
+         * Time for the first fix, the first upload and garbage collection after leaving the UI
+         */
+        private const val SETTLE_MS = 30_000L
+
+        private val PERMISSIONS = listOf(
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.ACCESS_COARSE_LOCATION",
+            "android.permission.ACCESS_BACKGROUND_LOCATION",
+            "android.permission.POST_NOTIFICATIONS"
+        )
+    }
+}
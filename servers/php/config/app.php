@@ -43,6 +43,43 @@ return [
             'max_requests' => 60,
             'decay_minutes' => 1,
         ],
+        
+        // Rate hints returned with every upload response (see App\Services\UploadHints)
+        'hints' => [
+            // Fleet-wide requests per minute the ingest tier handles comfortably
+            'capacity_per_minute' => (int)env('API_CAPACITY_PER_MINUTE', 6000),
+            // Load (fraction of capacity) at which clients start being slowed down
+            'shed_threshold' => 0.7,
+            'min_interval_seconds' => 60,
+            'max_interval_seconds' => 900,
+            'max_batch' => 500,
+            'min_batch' => 50,
+            // Longest random backoff handed out when load exceeds capacity
+            'max_backoff_seconds' => 300,
+        ],
+        
+        // Resumable bulk uploads of offline backlogs (see App\Services\BulkUploadService)
+        'bulk' => [
+            'directory' => env('BULK_UPLOAD_DIR', sys_get_temp_dir() . '/gpstracker-bulk'),
+            // Larger uploads are refused; clients split their backlog into several files
+            'max_bytes' => (int)env('BULK_UPLOAD_MAX_BYTES', 32 * 1024 * 1024),
+            // Unfinished uploads and completion markers are removed after this long
+            'expire_hours' => 72,
+        ],
+    ],
+    
+    // Live stream settings (see App\Services\LiveStreamServer and stream-server.php)
+    'stream' => [
+        'listen' => env('STREAM_LISTEN', 'tcp://127.0.0.1:8090'),
+        // Further connections are refused; those clients use the HTTP API
+        'max_clients' => (int)env('STREAM_MAX_CLIENTS', 1000),
+    ],
+    
+    // UDP uplink settings (see App\Services\UdpUplinkServer and udp-server.php)
+    'udp' => [
+        'listen' => env('UDP_UPLINK_LISTEN', 'udp://0.0.0.0:7332'),
+        // Shared with the apps; the receiver refuses to start without it
+        'secret' => env('UDP_UPLINK_SECRET', ''),
     ],
     
     // Map settings
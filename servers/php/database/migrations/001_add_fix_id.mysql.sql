@@ -0,0 +1,6 @@
+-- Adds the client-generated fix ID used to make location uploads idempotent.
+-- Rows from older clients keep fixID = NULL; NULLs never collide in a unique index.
+-- Prepend the configured table prefix (DB_TABLE_PREFIX) to the table name if one is used.
+
+ALTER TABLE gpslocations ADD COLUMN fixID VARCHAR(64) NULL;
+CREATE UNIQUE INDEX ux_gpslocations_fixid ON gpslocations (fixID);
@@ -0,0 +1,5 @@
+-- Adds the client-generated fix ID used to make location uploads idempotent.
+-- Rows from older clients keep fixID = NULL; NULLs never collide in a unique index.
+
+ALTER TABLE gpslocations ADD COLUMN fixID TEXT NULL;
+CREATE UNIQUE INDEX ux_gpslocations_fixid ON gpslocations (fixID);
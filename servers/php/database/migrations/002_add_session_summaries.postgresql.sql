@@ -0,0 +1,18 @@
+-- Adds the per-session statistics uploaded by clients when tracking stops (see
+-- POST api/locations/summary), so route lists need not scan every location.
+
+CREATE TABLE sessionsummaries (
+    sessionID VARCHAR(50) NOT NULL PRIMARY KEY,
+    userName VARCHAR(50) NOT NULL DEFAULT '',
+    phoneNumber VARCHAR(50) NOT NULL DEFAULT '',
+    startedAt TIMESTAMP NOT NULL,
+    endedAt TIMESTAMP NOT NULL,
+    fixCount INT NOT NULL DEFAULT 0,
+    distance DECIMAL(10,2) NOT NULL DEFAULT 0,
+    movingTime INT NOT NULL DEFAULT 0,
+    stoppedTime INT NOT NULL DEFAULT 0,
+    avgSpeed DECIMAL(6,1) NOT NULL DEFAULT 0,
+    maxSpeed DECIMAL(6,1) NOT NULL DEFAULT 0,
+    elevationGain INT NOT NULL DEFAULT 0,
+    stops INT NOT NULL DEFAULT 0
+);
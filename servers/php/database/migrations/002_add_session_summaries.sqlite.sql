@@ -0,0 +1,18 @@
+-- Adds the per-session statistics uploaded by clients when tracking stops (see
+-- POST api/locations/summary), so route lists need not scan every location.
+
+CREATE TABLE sessionsummaries (
+    sessionID TEXT NOT NULL PRIMARY KEY,
+    userName TEXT NOT NULL DEFAULT '',
+    phoneNumber TEXT NOT NULL DEFAULT '',
+    startedAt TEXT NOT NULL,
+    endedAt TEXT NOT NULL,
+    fixCount INTEGER NOT NULL DEFAULT 0,
+    distance REAL NOT NULL DEFAULT 0,
+    movingTime INTEGER NOT NULL DEFAULT 0,
+    stoppedTime INTEGER NOT NULL DEFAULT 0,
+    avgSpeed REAL NOT NULL DEFAULT 0,
+    maxSpeed REAL NOT NULL DEFAULT 0,
+    elevationGain INTEGER NOT NULL DEFAULT 0,
+    stops INTEGER NOT NULL DEFAULT 0
+);
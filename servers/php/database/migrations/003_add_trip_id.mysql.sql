@@ -0,0 +1,7 @@
+-- Adds the trip number clients assign to each fix when they split a session into
+-- trips at long stops, so the map can load and index one trip at a time.
+-- Rows from older clients keep tripID = NULL.
+-- Prepend the configured table prefix (DB_TABLE_PREFIX) to the table name if one is used.
+
+ALTER TABLE gpslocations ADD COLUMN tripID INT NULL;
+CREATE INDEX ix_gpslocations_session_trip ON gpslocations (sessionID, tripID);
@@ -0,0 +1,6 @@
+-- Adds the trip number clients assign to each fix when they split a session into
+-- trips at long stops, so the map can load and index one trip at a time.
+-- Rows from older clients keep tripID = NULL.
+
+ALTER TABLE gpslocations ADD COLUMN tripID INTEGER NULL;
+CREATE INDEX ix_gpslocations_session_trip ON gpslocations (sessionID, tripID);
@@ -0,0 +1,11 @@
+-- Adds one row per device holding when it was last seen. Clients send a heartbeat
+-- (POST api/locations/heartbeat) instead of a fix while their position is unchanged,
+-- which updates this row rather than adding a gpslocations row per interval.
+
+CREATE TABLE devices (
+    phoneNumber VARCHAR(50) NOT NULL PRIMARY KEY,
+    userName VARCHAR(50) NOT NULL DEFAULT '',
+    sessionID VARCHAR(50) NOT NULL DEFAULT '',
+    lastSeen TIMESTAMP NOT NULL,
+    battery INT NULL
+);
@@ -0,0 +1,11 @@
+-- Adds one row per device holding when it was last seen. Clients send a heartbeat
+-- (POST api/locations/heartbeat) instead of a fix while their position is unchanged,
+-- which updates this row rather than adding a gpslocations row per interval.
+
+CREATE TABLE devices (
+    phoneNumber TEXT NOT NULL PRIMARY KEY,
+    userName TEXT NOT NULL DEFAULT '',
+    sessionID TEXT NOT NULL DEFAULT '',
+    lastSeen TEXT NOT NULL,
+    battery INTEGER NULL
+);
@@ -0,0 +1,8 @@
+-- Adds the geohash-style spatial cell ID of each fix (see src/Utils/GeoCell.php),
+-- sent by the Android client or derived by the server, so bounding-box and
+-- proximity queries can be answered from an index on a single integer column.
+-- Rows stored before this migration keep cellID = NULL.
+-- Prepend the configured table prefix (DB_TABLE_PREFIX) to the table name if one is used.
+
+ALTER TABLE gpslocations ADD COLUMN cellID BIGINT NULL;
+CREATE INDEX ix_gpslocations_cell ON gpslocations (cellID);
@@ -27,6 +27,7 @@ use App\Router;
 use App\Controllers\RouteController;
 use App\Controllers\LocationController;
 use App\Middleware\RateLimiter;
+use App\Services\UploadHints;
 use App\Utils\Logger;
 
 // Initialize rate limiter
@@ -36,11 +37,14 @@ RateLimiter::init();
 try {
     // Check rate limiting
     if (!RateLimiter::check()) {
+        $retryAfter = RateLimiter::retryAfter();
         header('HTTP/1.1 429 Too Many Requests');
         header('Content-Type: application/json');
+        header('Retry-After: ' . max(1, $retryAfter));
         echo json_encode([
             'error' => 'Too Many Requests',
             'message' => 'API rate limit exceeded. Please try again later.',
+            'hints' => UploadHints::rateLimited($retryAfter),
         ]);
         exit;
     }
@@ -77,6 +81,16 @@ try {
         return $routeController->getRouteForMap($params);
     });
     
+    $router->get('/api/routes/trips', function ($params) use ($routeController) {
+        header('Content-Type: application/json');
+        return $routeController->getTrips($params);
+    });
+    
+    $router->get('/api/routes/box', function ($params) use ($routeController) {
+        header('Content-Type: application/json');
+        return $routeController->getLocationsInBox($params);
+    });
+    
     $router->post('/api/routes/delete', function ($params) use ($routeController) {
         header('Content-Type: application/json');
         return $routeController->deleteRoute($params);
@@ -87,6 +101,31 @@ try {
         return $locationController->updateLocation($params);
     });
     
+    $router->post('/api/locations/batch', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->updateBatch();
+    });
+    
+    $router->post('/api/locations/summary', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->updateSessionSummary();
+    });
+    
+    $router->post('/api/locations/heartbeat', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->heartbeat($params);
+    });
+    
+    $router->get('/api/locations/bulk', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->bulkStatus($params);
+    });
+    
+    $router->post('/api/locations/bulk', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->bulkAppend($params);
+    });
+    
     // Without leading slash (for relative URLs in JavaScript)
     $router->get('api/routes', function ($params) use ($routeController) {
         header('Content-Type: application/json');
@@ -103,6 +142,16 @@ try {
         return $routeController->getRouteForMap($params);
     });
     
+    $router->get('api/routes/trips', function ($params) use ($routeController) {
+        header('Content-Type: application/json');
+        return $routeController->getTrips($params);
+    });
+    
+    $router->get('api/routes/box', function ($params) use ($routeController) {
+        header('Content-Type: application/json');
+        return $routeController->getLocationsInBox($params);
+    });
+    
     $router->post('api/routes/delete', function ($params) use ($routeController) {
         header('Content-Type: application/json');
         return $routeController->deleteRoute($params);
@@ -113,6 +162,31 @@ try {
         return $locationController->updateLocation($params);
     });
     
+    $router->post('api/locations/batch', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->updateBatch();
+    });
+    
+    $router->post('api/locations/summary', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->updateSessionSummary();
+    });
+    
+    $router->post('api/locations/heartbeat', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->heartbeat($params);
+    });
+    
+    $router->get('api/locations/bulk', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->bulkStatus($params);
+    });
+    
+    $router->post('api/locations/bulk', function ($params) use ($locationController) {
+        header('Content-Type: application/json');
+        return $locationController->bulkAppend($params);
+    });
+    
     // Frontend routes
     $router->get('/map', function () {
         include __DIR__ . '/templates/map.php';
@@ -2,7 +2,12 @@
 
 namespace App\Controllers;
 
+use App\Services\BulkUploadService;
+use App\Services\HeartbeatService;
 use App\Services\LocationService;
+use App\Services\SessionSummaryService;
+use App\Services\UploadHints;
+use App\Utils\GeoCell;
 use App\Utils\Logger;
 
 /**
@@ -23,17 +28,48 @@ class LocationController
      */
     private LocationService $locationService;
     
+    /**
+     * Session summary service, created on first use
+     * 
+     * @var SessionSummaryService|null Stores the summaries clients upload when a session ends
+     */
+    private ?SessionSummaryService $sessionSummaryService;
+    
+    /**
+     * Heartbeat service, created on first use
+     * 
+     * @var HeartbeatService|null Records when parked devices were last seen
+     */
+    private ?HeartbeatService $heartbeatService;
+    
+    /**
+     * Bulk upload service, created on first use
+     * 
+     * @var BulkUploadService|null Keeps partial uploads of offline backlogs
+     */
+    private ?BulkUploadService $bulkUploadService;
+    
     /**
      * Create a new LocationController
      * 
-     * Initializes a new controller with an optional LocationService instance.
-     * If no service is provided, a new one will be created.
+     * Initializes a new controller with optional service instances.
+     * If no location service is provided, a new one will be created.
      * 
      * @param LocationService|null $locationService Optional service dependency
+     * @param SessionSummaryService|null $sessionSummaryService Optional service dependency
+     * @param HeartbeatService|null $heartbeatService Optional service dependency
+     * @param BulkUploadService|null $bulkUploadService Optional service dependency
      */
-    public function __construct(LocationService $locationService = null)
-    {
+    public function __construct(
+        LocationService $locationService = null,
+        SessionSummaryService $sessionSummaryService = null,
+        HeartbeatService $heartbeatService = null,
+        BulkUploadService $bulkUploadService = null
+    ) {
         $this->locationService = $locationService ?? new LocationService();
+        $this->sessionSummaryService = $sessionSummaryService;
+        $this->heartbeatService = $heartbeatService;
+        $this->bulkUploadService = $bulkUploadService;
     }
     
     /**
@@ -43,7 +79,9 @@ class LocationController
      * The method:
      * 1. Sanitizes and validates the input parameters
      * 2. Calls the LocationService to update the location
-     * 3. Returns an appropriate JSON response
+     * 3. Returns an appropriate JSON response, including the current upload hints
+     *    (see {@see UploadHints}) so clients adapt their rate before the server is
+     *    overloaded
      * 
      * @param array $params Request parameters containing location data
      * @return string JSON response indicating success or failure
@@ -65,7 +103,7 @@ class LocationController
                 ]);
                 
                 http_response_code(200);
-                return json_encode(['status' => 'success']);
+                return json_encode(['status' => 'success', 'hints' => UploadHints::current()]);
             } else {
                 // Failed validation or database error
                 Logger::warning('Location update failed', [
@@ -82,7 +120,273 @@ class LocationController
             ]);
             
             http_response_code(500);
-            return json_encode(['status' => 'error', 'message' => 'Server error: ' . $e->getMessage()]);
+            return json_encode([
+                'status' => 'error',
+                'message' => 'Server error: ' . $e->getMessage(),
+                'hints' => UploadHints::current(),
+            ]);
+        }
+    }
+
+    /**
+     * Handle a batch location upload
+     * 
+     * Accepts a JSON body of the form {"locations": [{...}, ...]}, where every entry uses
+     * the same fields as a single update. Clients use it to deliver fixes that missed their
+     * live upload. Entries carry fix IDs, so a replayed batch only stores what is missing.
+     * 
+     * Entries that fail validation are logged and skipped: resending them can never
+     * succeed, so the batch as a whole is still acknowledged. If any other entry could
+     * not be saved, an error is returned and the client resends the whole batch later;
+     * the entries already stored are then recognized by their fix IDs.
+     * 
+     * @param string|null $body Raw request body (defaults to php://input)
+     * @return string JSON response with per-batch counts and upload hints
+     */
+    public function updateBatch(?string $body = null): string
+    {
+        try {
+            $payload = json_decode($body ?? file_get_contents('php://input'), true);
+            
+            if (!is_array($payload) || !isset($payload['locations']) || !is_array($payload['locations'])) {
+                http_response_code(400);
+                return json_encode(['status' => 'error', 'message' => 'Expected a JSON object with a locations array']);
+            }
+            
+            $received = count($payload['locations']);
+            $stored = 0;
+            $failed = 0;
+            
+            foreach ($payload['locations'] as $entry) {
+                $result = is_array($entry)
+                    ? $this->locationService->storeLocation($this->sanitizeInput($entry))
+                    : LocationService::INVALID;
+                if ($result === LocationService::STORED) {
+                    $stored++;
+                } elseif ($result === LocationService::FAILED) {
+                    $failed++;
+                }
+            }
+            
+            Logger::info('Location batch processed', [
+                'received' => $received,
+                'stored' => $stored,
+                'failed' => $failed,
+            ]);
+            
+            if ($failed > 0) {
+                http_response_code(500);
+                return json_encode([
+                    'status' => 'error',
+                    'message' => 'Some locations in the batch could not be stored',
+                    'received' => $received,
+                    'stored' => $stored,
+                    'hints' => UploadHints::current(),
+                ]);
+            }
+            
+            http_response_code(200);
+            return json_encode([
+                'status' => 'success',
+                'received' => $received,
+                'stored' => $stored,
+                'hints' => UploadHints::current(),
+            ]);
+        } catch (\Exception $e) {
+            Logger::error('Error in updateBatch', [
+                'error' => $e->getMessage(),
+                'trace' => $e->getTraceAsString(),
+            ]);
+            
+            http_response_code(500);
+            return json_encode([
+                'status' => 'error',
+                'message' => 'Server error: ' . $e->getMessage(),
+                'hints' => UploadHints::current(),
+            ]);
+        }
+    }
+
+    /**
+     * Handle a session summary upload
+     * 
+     * Accepts the JSON summary clients send when a session ends (see
+     * {@see SessionSummaryService}) and stores it, replacing any earlier summary
+     * of the same session.
+     * 
+     * @param string|null $body Raw request body (defaults to php://input)
+     * @return string JSON response indicating success or failure
+     */
+    public function updateSessionSummary(?string $body = null): string
+    {
+        $payload = json_decode($body ?? file_get_contents('php://input'), true);
+        $summary = is_array($payload) ? SessionSummaryService::sanitize($payload) : null;
+        
+        if ($summary === null) {
+            http_response_code(400);
+            return json_encode(['status' => 'error', 'message' => 'Invalid session summary']);
+        }
+        
+        $service = $this->sessionSummaryService ?? new SessionSummaryService();
+        if (!$service->save($summary)) {
+            http_response_code(500);
+            return json_encode(['status' => 'error', 'message' => 'Failed to store session summary']);
+        }
+        
+        Logger::info('Session summary stored', [
+            'sessionid' => $summary['sessionID'],
+            'username' => $summary['userName'],
+        ]);
+        
+        http_response_code(200);
+        return json_encode(['status' => 'success']);
+    }
+
+    /**
+     * Handle a heartbeat
+     * 
+     * Clients send a heartbeat instead of a fix while their position is unchanged (see
+     * {@see HeartbeatService}). It updates the device's "last seen" row and stores no
+     * location. The response carries the upload hints, like a location update, so a
+     * parked client keeps adapting its rate.
+     * 
+     * @param array $params Form fields: phonenumber, username, sessionid, date, battery
+     * @return string JSON response indicating success or failure
+     */
+    public function heartbeat(array $params): string
+    {
+        if (isset($params['date'])) {
+            $params['date'] = $this->normalizeDate(urldecode((string)$params['date']));
+        }
+        $device = HeartbeatService::sanitize($params);
+        
+        if ($device === null) {
+            http_response_code(400);
+            return json_encode(['status' => 'error', 'message' => 'Invalid heartbeat']);
+        }
+        
+        $service = $this->heartbeatService ?? new HeartbeatService();
+        if (!$service->save($device)) {
+            http_response_code(500);
+            return json_encode([
+                'status' => 'error',
+                'message' => 'Failed to store heartbeat',
+                'hints' => UploadHints::current(),
+            ]);
+        }
+        
+        Logger::debug('Heartbeat stored', [
+            'phonenumber' => $device['phoneNumber'],
+            'sessionid' => $device['sessionID'],
+        ]);
+        
+        http_response_code(200);
+        return json_encode(['status' => 'success', 'hints' => UploadHints::current()]);
+    }
+
+    /**
+     * Report the committed offset of a bulk upload
+     * 
+     * Clients ask before sending (or resuming) a bulk upload, see {@see BulkUploadService}.
+     * 
+     * @param array $params Query parameters: uploadid, phonenumber
+     * @return string JSON response with offset and complete
+     */
+    public function bulkStatus(array $params): string
+    {
+        $phoneNumber = trim((string)($params['phonenumber'] ?? ''));
+        $uploadId = (string)($params['uploadid'] ?? '');
+        
+        if ($phoneNumber === '' || !BulkUploadService::isValidUploadId($uploadId)) {
+            http_response_code(400);
+            return json_encode(['status' => 'error', 'message' => 'Invalid bulk upload']);
+        }
+        
+        $status = ($this->bulkUploadService ?? new BulkUploadService())->status($phoneNumber, $uploadId);
+        
+        http_response_code(200);
+        return json_encode(['status' => 'success'] + $status + ['hints' => UploadHints::current()]);
+    }
+
+    /**
+     * Append a piece to a bulk upload
+     * 
+     * The body holds the bytes named by the Content-Range header. A piece that does not
+     * start at the committed offset is answered with 409 and the offset to resume from.
+     * When the last byte arrives, the file is stored (see {@see BulkUploadService::ingest()})
+     * and the response reports the upload complete. A request with an empty range
+     * ("bytes" followed by an asterisk and the total) completes an upload whose bytes all
+     * arrived but whose final response was lost, or retries storing an upload some of
+     * whose locations could not be saved.
+     * 
+     * @param array $params Query parameters: uploadid, phonenumber
+     * @param string|null $contentRange Content-Range header (defaults to the request's)
+     * @param resource|null $body Body stream (defaults to php://input)
+     * @return string JSON response with offset, complete and upload hints
+     */
+    public function bulkAppend(array $params, ?string $contentRange = null, $body = null): string
+    {
+        $phoneNumber = trim((string)($params['phonenumber'] ?? ''));
+        $uploadId = (string)($params['uploadid'] ?? '');
+        $range = BulkUploadService::parseContentRange($contentRange ?? ($_SERVER['HTTP_CONTENT_RANGE'] ?? null));
+        
+        if ($phoneNumber === '' || !BulkUploadService::isValidUploadId($uploadId) || $range === null) {
+            http_response_code(400);
+            return json_encode(['status' => 'error', 'message' => 'Invalid bulk upload']);
+        }
+        
+        if ($range['total'] > (int)config('api.bulk.max_bytes', 32 * 1024 * 1024)) {
+            http_response_code(413);
+            return json_encode(['status' => 'error', 'message' => 'Bulk upload too large']);
+        }
+        
+        try {
+            $service = $this->bulkUploadService ?? new BulkUploadService();
+            $status = $service->append($phoneNumber, $uploadId, $range, $body ?? fopen('php://input', 'rb'));
+            
+            if (!empty($status['conflict'])) {
+                http_response_code(409);
+                return json_encode([
+                    'status' => 'error',
+                    'message' => 'Piece does not start at the committed offset',
+                    'offset' => $status['offset'],
+                    'complete' => false,
+                ]);
+            }
+            
+            $counts = [];
+            if (!$status['complete'] && $status['offset'] === $range['total']) {
+                $counts = $service->ingest(
+                    $phoneNumber,
+                    $uploadId,
+                    $range['total'],
+                    fn(array $entry) => $this->locationService->storeLocation($this->sanitizeInput($entry))
+                );
+                $status = $service->status($phoneNumber, $uploadId);
+            }
+            
+            if (!$status['complete'] && $status['offset'] === $range['total']) {
+                http_response_code(500);
+                return json_encode([
+                    'status' => 'error',
+                    'message' => 'Some locations in the upload could not be stored',
+                ] + $counts + ['hints' => UploadHints::current()]);
+            }
+            
+            http_response_code(200);
+            return json_encode(['status' => 'success'] + $status + $counts + ['hints' => UploadHints::current()]);
+        } catch (\Exception $e) {
+            Logger::error('Error in bulkAppend', [
+                'error' => $e->getMessage(),
+                'uploadid' => $uploadId,
+            ]);
+            
+            http_response_code(500);
+            return json_encode([
+                'status' => 'error',
+                'message' => 'Server error: ' . $e->getMessage(),
+                'hints' => UploadHints::current(),
+            ]);
         }
     }
 
@@ -112,12 +416,7 @@ class LocationController
         
         // Date/time handling with basic validation
         $sanitized['date'] = isset($params['date']) ? $params['date'] : '0000-00-00 00:00:00';
-        $sanitized['date'] = urldecode($sanitized['date']);
-        
-        // If date is invalid, use current date/time
-        if (!$sanitized['date'] || $sanitized['date'] === '0000-00-00 00:00:00' || !strtotime($sanitized['date'])) {
-            $sanitized['date'] = date('Y-m-d H:i:s');
-        }
+        $sanitized['date'] = $this->normalizeDate(urldecode($sanitized['date']));
         
         // String parameters
         $sanitized['locationmethod'] = isset($params['locationmethod']) ? trim(urldecode($params['locationmethod'])) : '';
@@ -128,6 +427,49 @@ class LocationController
         $sanitized['extrainfo'] = isset($params['extrainfo']) ? trim($params['extrainfo']) : '';
         $sanitized['eventtype'] = isset($params['eventtype']) ? trim($params['eventtype']) : '';
         
+        // Client-generated fix ID (app ID + sequence); bounded to the column width
+        $sanitized['fixid'] = isset($params['fixid']) ? substr(trim($params['fixid']), 0, 64) : '';
+        
+        // Trip number within the session, split by the client at long stops; absent for older clients
+        $sanitized['tripid'] = isset($params['tripid']) && is_numeric($params['tripid']) && (int)$params['tripid'] > 0
+            ? (int)$params['tripid']
+            : null;
+        
+        // Spatial cell ID computed by the client; the service derives it when absent or out of range
+        $cellid = isset($params['cellid']) ? (string)$params['cellid'] : '';
+        $sanitized['cellid'] = preg_match('/^\d{1,19}$/', $cellid) === 1 && (int)$cellid <= GeoCell::MAX_CELL
+            ? (int)$cellid
+            : null;
+        
         return $sanitized;
     }
+
+    /**
+     * Normalize a client timestamp to the server's Y-m-d H:i:s format
+     * 
+     * Accepts epoch milliseconds, ISO-8601 strings (e.g. "2024-05-01T13:05:09Z",
+     * as sent by the Android client) and the legacy "Y-m-d H:i:s" local format.
+     * Values carrying a zone designator are converted to the application timezone.
+     * Invalid or missing values fall back to the current date/time.
+     * 
+     * @param string $date Raw date value from the request
+     * @return string Timestamp in Y-m-d H:i:s format
+     */
+    private function normalizeDate(string $date): string
+    {
+        $date = trim($date);
+        
+        if ($date === '' || $date === '0000-00-00 00:00:00') {
+            return date('Y-m-d H:i:s');
+        }
+        
+        // Epoch milliseconds
+        if (ctype_digit($date) && strlen($date) >= 12) {
+            return date('Y-m-d H:i:s', intdiv((int)$date, 1000));
+        }
+        
+        $timestamp = strtotime($date);
+        
+        return $timestamp === false ? date('Y-m-d H:i:s') : date('Y-m-d H:i:s', $timestamp);
+    }
 }
@@ -81,9 +81,10 @@ class RouteController
      * Get route for map display
      * 
      * Retrieves all location points for a specific route identified
-     * by its session ID to display on the map.
+     * by its session ID to display on the map. An optional 'tripid' narrows
+     * the result to one trip of the session.
      * 
-     * @param array $params Request parameters including 'sessionid'
+     * @param array $params Request parameters including 'sessionid' and optionally 'tripid'
      * @return string JSON response with location data for the route
      */
     public function getRouteForMap(array $params): string
@@ -99,11 +100,15 @@ class RouteController
                 return $this->jsonResponse(['locations' => []]);
             }
             
-            $locations = $this->routeRepository->getRouteForMap($sessionId);
+            $tripId = isset($params['tripid']) && ctype_digit((string)$params['tripid'])
+                ? (int)$params['tripid']
+                : null;
+            $locations = $this->routeRepository->getRouteForMap($sessionId, $tripId);
             
             // Debug log the response
             Logger::info('Route retrieved for map', [
                 'sessionId' => $sessionId,
+                'tripId' => $tripId,
                 'locationCount' => count($locations),
                 'sampleLocation' => !empty($locations) ? json_encode($locations[0]) : 'No locations'
             ]);
@@ -121,6 +126,52 @@ class RouteController
         }
     }
     
+    /**
+     * Get the trips of a route
+     * 
+     * Lists the trips of a session, split by the client at long stops,
+     * for loading one trip at a time via getRouteForMap().
+     * 
+     * @param array $params Request parameters including 'sessionid'
+     * @return string JSON response with the trips of the route
+     */
+    public function getTrips(array $params): string
+    {
+        $sessionId = $params['sessionid'] ?? '';
+        if ($sessionId === '') {
+            return $this->jsonResponse(['trips' => []]);
+        }
+        
+        return $this->jsonResponse(['trips' => $this->routeRepository->getTrips($sessionId)]);
+    }
+    
+    /**
+     * Get the locations inside a bounding box
+     * 
+     * Serves map viewport and proximity queries from the spatial cell index.
+     * 
+     * @param array $params Request parameters 'minlat', 'minlon', 'maxlat', 'maxlon' and optional 'limit'
+     * @return string JSON response with the locations inside the box
+     */
+    public function getLocationsInBox(array $params): string
+    {
+        foreach (['minlat', 'minlon', 'maxlat', 'maxlon'] as $name) {
+            if (!isset($params[$name]) || !is_numeric($params[$name])) {
+                return $this->jsonResponse(['locations' => []]);
+            }
+        }
+        
+        $limit = isset($params['limit']) && is_numeric($params['limit']) ? min((int)$params['limit'], 5000) : 1000;
+        
+        return $this->jsonResponse(['locations' => $this->routeRepository->findInBoundingBox(
+            (float)$params['minlat'],
+            (float)$params['minlon'],
+            (float)$params['maxlat'],
+            (float)$params['maxlon'],
+            $limit
+        )]);
+    }
+    
     /**
      * Get all routes for map display
      * 
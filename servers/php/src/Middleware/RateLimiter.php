@@ -132,6 +132,38 @@ class RateLimiter
         return true;
     }
     
+    /**
+     * Get the number of requests seen from all clients in the current window
+     * 
+     * Used by {@see \App\Services\UploadHints} as the fleet-wide load signal.
+     * 
+     * @return int Total request count across all tracked IPs
+     */
+    public static function currentLoad(): int
+    {
+        self::cleanRateLimits();
+        
+        return array_sum(array_column(self::$rateLimits, 'count'));
+    }
+    
+    /**
+     * Get the number of seconds until an IP's rate limit window resets
+     * 
+     * @param string|null $ip Client IP address (defaults to $_SERVER['REMOTE_ADDR'])
+     * @return int Seconds until the window resets, 0 if the IP has no active window
+     */
+    public static function retryAfter(?string $ip = null): int
+    {
+        $ip = $ip ?? $_SERVER['REMOTE_ADDR'] ?? 'unknown';
+        if (!isset(self::$rateLimits[$ip])) {
+            return 0;
+        }
+        
+        $windowEnd = self::$rateLimits[$ip]['timestamp'] + config('api.throttle.decay_minutes', 1) * 60;
+        
+        return max(0, $windowEnd - time());
+    }
+    
     /**
      * Clean old rate limits
      * 
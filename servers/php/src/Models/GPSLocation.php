@@ -124,6 +124,27 @@ class GPSLocation
      */
     private string $eventType;
     
+    /**
+     * Client-generated fix ID
+     * 
+     * @var string Stable ID of the fix (app ID + sequence), empty for legacy clients
+     */
+    private string $fixID;
+    
+    /**
+     * Trip number within the session
+     * 
+     * @var int|null Trip the fix belongs to, split by the client at long stops; null for legacy clients
+     */
+    private ?int $tripID;
+    
+    /**
+     * Spatial cell ID
+     * 
+     * @var int|null Geohash-style cell of the coordinates (see App\Utils\GeoCell), null if unknown
+     */
+    private ?int $cellID;
+    
     /**
      * Create a new GPS location
      * 
@@ -143,6 +164,9 @@ class GPSLocation
      * @param int $accuracy Accuracy in meters
      * @param string $extraInfo Additional data as free-form text
      * @param string $eventType Type of event that triggered the location update
+     * @param string $fixID Client-generated fix ID used to drop repeated uploads
+     * @param int|null $tripID Trip number within the session, null if the client does not segment trips
+     * @param int|null $cellID Spatial cell ID of the coordinates, used by bounding-box queries
      */
     public function __construct(
         float $latitude = 0.0,
@@ -157,7 +181,10 @@ class GPSLocation
         string $sessionID = '',
         int $accuracy = 0,
         string $extraInfo = '',
-        string $eventType = ''
+        string $eventType = '',
+        string $fixID = '',
+        ?int $tripID = null,
+        ?int $cellID = null
     ) {
         $this->latitude = $latitude;
         $this->longitude = $longitude;
@@ -172,6 +199,9 @@ class GPSLocation
         $this->accuracy = $accuracy;
         $this->extraInfo = $extraInfo;
         $this->eventType = $eventType;
+        $this->fixID = $fixID;
+        $this->tripID = $tripID;
+        $this->cellID = $cellID;
         $this->lastUpdate = date('Y-m-d H:i:s');
     }
     
@@ -199,7 +229,10 @@ class GPSLocation
             $data['sessionid'] ?? $data['sessionID'] ?? '',
             (int)($data['accuracy'] ?? 0),
             $data['extrainfo'] ?? $data['extraInfo'] ?? '',
-            $data['eventtype'] ?? $data['eventType'] ?? ''
+            $data['eventtype'] ?? $data['eventType'] ?? '',
+            $data['fixid'] ?? $data['fixID'] ?? '',
+            isset($data['tripid']) || isset($data['tripID']) ? (int)($data['tripid'] ?? $data['tripID']) : null,
+            isset($data['cellid']) || isset($data['cellID']) ? (int)($data['cellid'] ?? $data['cellID']) : null
         );
         
         if (isset($data['GPSLocationID']) || isset($data['id'])) {
@@ -239,6 +272,9 @@ class GPSLocation
             'accuracy' => $this->accuracy,
             'extraInfo' => $this->extraInfo,
             'eventType' => $this->eventType,
+            'fixID' => $this->fixID,
+            'tripID' => $this->tripID,
+            'cellID' => $this->cellID,
         ];
     }
     
@@ -273,15 +309,27 @@ class GPSLocation
      * 
      * Persists the location data to the database, handling different database drivers.
      * Uses stored procedures for MySQL and direct SQL for SQLite/PostgreSQL.
+     * Locations carrying a fix ID are stored with an insert that skips conflicts on the
+     * unique fixID index instead, so a retried or replayed upload is accepted without a
+     * second row.
      * 
-     * @return bool True on success, false on failure
+     * @return bool True on success (including an ignored duplicate), false on failure
      */
     public function save(): bool
     {
         $driver = config('database.driver', 'sqlite');
         
         try {
-            if ($driver === 'mysql') {
+            if ($this->fixID !== '') {
+                if (!$this->insertIgnoringDuplicate($driver)) {
+                    Logger::info('Duplicate GPS location ignored', [
+                        'fixID' => $this->fixID,
+                        'sessionID' => $this->sessionID,
+                    ]);
+                    
+                    return true;
+                }
+            } elseif ($driver === 'mysql') {
                 $sql = Database::getSqlFunctionCallMethod() . 'prcSaveGPSLocation(
                     :latitude, 
                     :longitude, 
@@ -317,16 +365,26 @@ class GPSLocation
                 $stmt = Database::getPdo()->prepare($sql);
                 $stmt->execute($params);
                 $this->id = $stmt->fetchColumn();
+                $stmt->closeCursor();
+                
+                // The stored procedure predates the cell column
+                if ($this->id && $this->cellID !== null) {
+                    $tablePrefix = config('database.prefix', '');
+                    Database::update(
+                        "UPDATE {$tablePrefix}gpslocations SET cellID = :cellID WHERE GPSLocationID = :id",
+                        [':cellID' => $this->cellID, ':id' => $this->id]
+                    );
+                }
             } else {
                 // PostgreSQL or SQLite
                 $sql = 'INSERT INTO gpslocations (
                     latitude, longitude, speed, direction, distance, 
                     gpsTime, locationMethod, userName, phoneNumber, 
-                    sessionID, accuracy, extraInfo, eventType
+                    sessionID, accuracy, extraInfo, eventType, tripID, cellID
                 ) VALUES (
                     :latitude, :longitude, :speed, :direction, :distance, 
                     :gpsTime, :locationMethod, :userName, :phoneNumber, 
-                    :sessionID, :accuracy, :extraInfo, :eventType
+                    :sessionID, :accuracy, :extraInfo, :eventType, :tripID, :cellID
                 )';
                 
                 $params = [
@@ -343,6 +401,8 @@ class GPSLocation
                     ':accuracy' => $this->accuracy,
                     ':extraInfo' => $this->extraInfo,
                     ':eventType' => $this->eventType,
+                    ':tripID' => $this->tripID,
+                    ':cellID' => $this->cellID,
                 ];
                 
                 $this->id = Database::insert($sql, $params);
@@ -368,6 +428,68 @@ class GPSLocation
         }
     }
     
+    /**
+     * Insert this location unless a row with the same fix ID already exists
+     * 
+     * Relies on the unique index on gpslocations.fixID
+     * (see database/migrations/001_add_fix_id.*.sql). The duplicate check and the
+     * insert are a single statement, so concurrent retries cannot both succeed.
+     * Only a fix ID conflict is ignored: INSERT IGNORE and INSERT OR IGNORE would also
+     * drop rows failing NOT NULL or CHECK constraints and report them as duplicates.
+     * 
+     * @param string $driver Database driver name (mysql, postgresql, sqlite)
+     * @return bool True if a row was inserted, false if the fix ID was already stored
+     * @throws \PDOException If the insert fails for any other reason
+     */
+    private function insertIgnoringDuplicate(string $driver): bool
+    {
+        $columns = '(
+            latitude, longitude, speed, direction, distance, 
+            gpsTime, locationMethod, userName, phoneNumber, 
+            sessionID, accuracy, extraInfo, eventType, fixID, tripID, cellID
+        ) VALUES (
+            :latitude, :longitude, :speed, :direction, :distance, 
+            :gpsTime, :locationMethod, :userName, :phoneNumber, 
+            :sessionID, :accuracy, :extraInfo, :eventType, :fixID, :tripID, :cellID
+        )';
+        
+        if ($driver === 'mysql') {
+            $tablePrefix = config('database.prefix', '');
+            // Without CLIENT_FOUND_ROWS a no-op update affects 0 rows
+            $sql = "INSERT INTO {$tablePrefix}gpslocations {$columns} ON DUPLICATE KEY UPDATE fixID = fixID";
+        } else {
+            $sql = "INSERT INTO gpslocations {$columns} ON CONFLICT (fixID) DO NOTHING";
+        }
+        
+        $stmt = Database::getPdo()->prepare($sql);
+        $stmt->execute([
+            ':latitude' => $this->latitude,
+            ':longitude' => $this->longitude,
+            ':speed' => $this->speed,
+            ':direction' => $this->direction,
+            ':distance' => $this->distance,
+            ':gpsTime' => $this->gpsTime,
+            ':locationMethod' => $this->locationMethod,
+            ':userName' => $this->userName,
+            ':phoneNumber' => $this->phoneNumber,
+            ':sessionID' => $this->sessionID,
+            ':accuracy' => $this->accuracy,
+            ':extraInfo' => $this->extraInfo,
+            ':eventType' => $this->eventType,
+            ':fixID' => $this->fixID,
+            ':tripID' => $this->tripID,
+            ':cellID' => $this->cellID,
+        ]);
+        
+        if ($stmt->rowCount() === 0) {
+            return false;
+        }
+        
+        $this->id = (int)Database::getPdo()->lastInsertId();
+        
+        return true;
+    }
+    
     /**
      * Validate the location data
      * 
@@ -754,4 +876,70 @@ class GPSLocation
         $this->eventType = $eventType;
         return $this;
     }
+    
+    /**
+     * Get the client-generated fix ID
+     * 
+     * @return string Fix ID, empty for legacy clients
+     */
+    public function getFixID(): string
+    {
+        return $this->fixID;
+    }
+    
+    /**
+     * Set the client-generated fix ID
+     * 
+     * @param string $fixID New fix ID
+     * @return self For method chaining
+     */
+    public function setFixID(string $fixID): self
+    {
+        $this->fixID = $fixID;
+        return $this;
+    }
+    
+    /**
+     * Get the trip number within the session
+     * 
+     * @return int|null Trip number, null for legacy clients
+     */
+    public function getTripID(): ?int
+    {
+        return $this->tripID;
+    }
+    
+    /**
+     * Set the trip number within the session
+     * 
+     * @param int|null $tripID New trip number
+     * @return self For method chaining
+     */
+    public function setTripID(?int $tripID): self
+    {
+        $this->tripID = $tripID;
+        return $this;
+    }
+    
+    /**
+     * Get the spatial cell ID
+     * 
+     * @return int|null Cell ID, null if unknown
+     */
+    public function getCellID(): ?int
+    {
+        return $this->cellID;
+    }
+    
+    /**
+     * Set the spatial cell ID
+     * 
+     * @param int|null $cellID New cell ID
+     * @return self For method chaining
+     */
+    public function setCellID(?int $cellID): self
+    {
+        $this->cellID = $cellID;
+        return $this;
+    }
 }
@@ -0,0 +1,268 @@
+<?php
+
+namespace App\Services;
+
+use App\Utils\Logger;
+
+/**
+ * Service for resumable bulk uploads
+ *
+ * After a long offline period a client can hold tens of thousands of fixes. Instead of
+ * posting them in batches, it packages them into a gzip-compressed NDJSON file (one
+ * location object per line, same fields as a batch entry) and uploads that file in
+ * pieces:
+ *
+ * - GET api/locations/bulk?uploadid=..&phonenumber=.. reports the committed offset
+ * - POST api/locations/bulk with "Content-Range: bytes start-end/total" appends a piece;
+ *   it is only accepted when start equals the committed offset
+ * - Once all bytes are there the file is streamed line by line into the database and
+ *   the upload reports itself complete
+ *
+ * Committed bytes survive a dropped connection, so an interrupted upload resumes from
+ * the reported offset instead of starting over. Rows carry fix IDs, so ingesting a file
+ * twice never duplicates a location.
+ *
+ * @package App\Services
+ */
+class BulkUploadService
+{
+    /**
+     * Directory holding partial uploads and completion markers
+     *
+     * @var string
+     */
+    private string $directory;
+
+    /**
+     * Create a new BulkUploadService
+     *
+     * @param string|null $directory Storage directory (defaults to the api.bulk.directory setting)
+     */
+    public function __construct(?string $directory = null)
+    {
+        $this->directory = rtrim($directory ?? config('api.bulk.directory', sys_get_temp_dir() . '/gpstracker-bulk'), '/');
+    }
+
+    /**
+     * Parse a Content-Range header
+     *
+     * Accepts "bytes start-end/total" for a piece, and an asterisk in place of
+     * "start-end" for an empty request that completes an upload whose bytes are all there.
+     *
+     * @param string|null $header Raw header value
+     * @return array|null ['start' => int, 'end' => int|null, 'total' => int], or null if malformed
+     */
+    public static function parseContentRange(?string $header): ?array
+    {
+        if ($header === null) {
+            return null;
+        }
+
+        if (preg_match('/^bytes\s+(\d+)-(\d+)\/(\d+)$/', trim($header), $matches)) {
+            $start = (int)$matches[1];
+            $end = (int)$matches[2];
+            $total = (int)$matches[3];
+
+            return $end >= $start && $end < $total ? ['start' => $start, 'end' => $end, 'total' => $total] : null;
+        }
+
+        if (preg_match('/^bytes\s+\*\/(\d+)$/', trim($header), $matches)) {
+            return ['start' => null, 'end' => null, 'total' => (int)$matches[1]];
+        }
+
+        return null;
+    }
+
+    /**
+     * Check an upload ID supplied by a client
+     *
+     * @param string $uploadId Client-chosen upload ID
+     * @return bool True if it is safe to use
+     */
+    public static function isValidUploadId(string $uploadId): bool
+    {
+        return preg_match('/^[A-Za-z0-9._-]{1,64}$/', $uploadId) === 1;
+    }
+
+    /**
+     * Report the state of an upload
+     *
+     * @param string $phoneNumber Device the upload belongs to
+     * @param string $uploadId Client-chosen upload ID
+     * @return array ['offset' => int, 'complete' => bool]
+     */
+    public function status(string $phoneNumber, string $uploadId): array
+    {
+        $this->purgeExpired();
+
+        if (is_file($this->markerPath($phoneNumber, $uploadId))) {
+            return ['offset' => (int)file_get_contents($this->markerPath($phoneNumber, $uploadId)), 'complete' => true];
+        }
+
+        $part = $this->partPath($phoneNumber, $uploadId);
+        clearstatcache(true, $part);
+
+        return ['offset' => is_file($part) ? filesize($part) : 0, 'complete' => false];
+    }
+
+    /**
+     * Append a piece to an upload
+     *
+     * The piece is copied straight from the request stream; whatever arrives before a
+     * connection drops stays committed. A piece that does not start at the committed
+     * offset is refused with the offset to resume from. The offset is checked again under
+     * an exclusive lock on the partial file, so two requests racing for the same offset
+     * cannot both append.
+     *
+     * @param string $phoneNumber Device the upload belongs to
+     * @param string $uploadId Client-chosen upload ID
+     * @param array $range Parsed Content-Range (see parseContentRange())
+     * @param resource $body Request body stream
+     * @return array Status (see status()) plus 'conflict' => true when the piece was refused
+     */
+    public function append(string $phoneNumber, string $uploadId, array $range, $body): array
+    {
+        $status = $this->status($phoneNumber, $uploadId);
+        if ($status['complete'] || $range['start'] === null) {
+            return $status;
+        }
+
+        if ($range['start'] !== $status['offset']) {
+            return $status + ['conflict' => true];
+        }
+
+        if (!is_dir($this->directory) && !mkdir($this->directory, 0770, true) && !is_dir($this->directory)) {
+            throw new \RuntimeException('Cannot create bulk upload directory');
+        }
+
+        $part = $this->partPath($phoneNumber, $uploadId);
+        $target = fopen($part, 'ab');
+        if ($target === false) {
+            throw new \RuntimeException('Cannot open bulk upload file');
+        }
+
+        try {
+            if (!flock($target, LOCK_EX)) {
+                throw new \RuntimeException('Cannot lock bulk upload file');
+            }
+
+            clearstatcache(true, $part);
+            $offset = fstat($target)['size'];
+            if ($range['start'] !== $offset) {
+                return ['offset' => $offset, 'complete' => false, 'conflict' => true];
+            }
+
+            stream_copy_to_stream($body, $target, $range['end'] - $range['start'] + 1);
+            fflush($target);
+        } finally {
+            flock($target, LOCK_UN);
+            fclose($target);
+        }
+
+        return $this->status($phoneNumber, $uploadId);
+    }
+
+    /**
+     * Ingest a fully uploaded file
+     *
+     * Streams the decompressed file line by line and hands every decoded location to
+     * $store, so memory use does not grow with the upload. Lines that cannot be decoded
+     * are skipped, like invalid entries of a batch. Once every other line was stored or
+     * found invalid, the partial file is replaced by a completion marker, so a client
+     * that missed the final response still learns the upload is done. If any line could
+     * not be saved, the partial file is kept and the upload stays incomplete; ingesting
+     * it again skips the lines already stored by their fix IDs.
+     *
+     * @param string $phoneNumber Device the upload belongs to
+     * @param string $uploadId Client-chosen upload ID
+     * @param int $total Upload size in bytes
+     * @param callable $store Receives one location array, returns LocationService::STORED,
+     *   INVALID or FAILED
+     * @return array ['received' => int, 'stored' => int, 'failed' => int]
+     */
+    public function ingest(string $phoneNumber, string $uploadId, int $total, callable $store): array
+    {
+        $part = $this->partPath($phoneNumber, $uploadId);
+        $file = gzopen($part, 'rb');
+        if ($file === false) {
+            throw new \RuntimeException('Cannot read bulk upload file');
+        }
+
+        $received = 0;
+        $stored = 0;
+        $failed = 0;
+
+        try {
+            while (($line = gzgets($file, 65536)) !== false) {
+                if (trim($line) === '') {
+                    continue;
+                }
+
+                $received++;
+                $entry = json_decode($line, true);
+                $result = is_array($entry) ? $store($entry) : LocationService::INVALID;
+                if ($result === LocationService::STORED) {
+                    $stored++;
+                } elseif ($result === LocationService::FAILED) {
+                    $failed++;
+                }
+            }
+        } finally {
+            gzclose($file);
+        }
+
+        if ($failed === 0) {
+            file_put_contents($this->markerPath($phoneNumber, $uploadId), (string)$total);
+            unlink($part);
+        }
+
+        Logger::info('Bulk upload ingested', [
+            'phonenumber' => $phoneNumber,
+            'uploadid' => $uploadId,
+            'bytes' => $total,
+            'received' => $received,
+            'stored' => $stored,
+            'failed' => $failed,
+        ]);
+
+        return ['received' => $received, 'stored' => $stored, 'failed' => $failed];
+    }
+
+    /**
+     * Remove partial uploads and markers older than the configured lifetime
+     */
+    private function purgeExpired(): void
+    {
+        $cutoff = time() - (int)config('api.bulk.expire_hours', 72) * 3600;
+
+        foreach (glob($this->directory . '/*.{part,done}', GLOB_BRACE) ?: [] as $path) {
+            if (@filemtime($path) < $cutoff) {
+                @unlink($path);
+            }
+        }
+    }
+
+    /**
+     * Path of an upload's partial file
+     *
+     * @param string $phoneNumber Device the upload belongs to
+     * @param string $uploadId Client-chosen upload ID
+     * @return string File path
+     */
+    private function partPath(string $phoneNumber, string $uploadId): string
+    {
+        return $this->directory . '/' . sha1($phoneNumber . "\n" . $uploadId) . '.part';
+    }
+
+    /**
+     * Path of an upload's completion marker
+     *
+     * @param string $phoneNumber Device the upload belongs to
+     * @param string $uploadId Client-chosen upload ID
+     * @return string File path
+     */
+    private function markerPath(string $phoneNumber, string $uploadId): string
+    {
+        return $this->directory . '/' . sha1($phoneNumber . "\n" . $uploadId) . '.done';
+    }
+}
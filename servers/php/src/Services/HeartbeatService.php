@@ -0,0 +1,87 @@
+<?php
+
+namespace App\Services;
+
+use PDOException;
+use App\Utils\Logger;
+
+/**
+ * Service for device heartbeats
+ *
+ * While a device is parked, clients send a heartbeat (POST api/locations/heartbeat)
+ * instead of a fix that would only repeat the last position. A heartbeat carries the
+ * device, session, time and battery level and updates one row per device in the
+ * devices table ("last seen"), so parked vehicles neither cost a full upload per
+ * interval nor grow gpslocations.
+ *
+ * @package App\Services
+ */
+class HeartbeatService
+{
+    /**
+     * Validate and normalize a heartbeat
+     *
+     * @param array $params Request parameters; 'date' already normalized to Y-m-d H:i:s
+     * @return array|null Device row values, or null if the device is missing or invalid
+     */
+    public static function sanitize(array $params): ?array
+    {
+        $phoneNumber = isset($params['phonenumber']) ? trim((string)$params['phonenumber']) : '';
+        if ($phoneNumber === '' || strlen($phoneNumber) > 50) {
+            return null;
+        }
+
+        $lastSeen = isset($params['date']) ? strtotime((string)$params['date']) : false;
+        $battery = isset($params['battery']) && is_numeric($params['battery']) ? (int)$params['battery'] : null;
+
+        return [
+            'phoneNumber' => $phoneNumber,
+            'userName' => substr(trim((string)($params['username'] ?? '')), 0, 50),
+            'sessionID' => substr(trim((string)($params['sessionid'] ?? '')), 0, 50),
+            'lastSeen' => date('Y-m-d H:i:s', $lastSeen === false ? time() : $lastSeen),
+            'battery' => $battery !== null && $battery >= 0 && $battery <= 100 ? $battery : null,
+        ];
+    }
+
+    /**
+     * Record a heartbeat, replacing the device's previous one
+     *
+     * @param array $device Values returned by sanitize()
+     * @return bool True if the heartbeat was stored
+     */
+    public function save(array $device): bool
+    {
+        $driver = config('database.driver', 'sqlite');
+        $columns = array_keys($device);
+        $placeholders = array_map(fn($column) => ':' . $column, $columns);
+        $updates = array_filter($columns, fn($column) => $column !== 'phoneNumber');
+
+        if ($driver === 'mysql') {
+            $tablePrefix = config('database.prefix', '');
+            $sql = "INSERT INTO {$tablePrefix}devices (" . implode(', ', $columns) . ')'
+                . ' VALUES (' . implode(', ', $placeholders) . ')'
+                . ' ON DUPLICATE KEY UPDATE '
+                . implode(', ', array_map(fn($column) => "{$column} = VALUES({$column})", $updates));
+        } else {
+            // PostgreSQL and SQLite (3.24+)
+            $sql = 'INSERT INTO devices (' . implode(', ', $columns) . ')'
+                . ' VALUES (' . implode(', ', $placeholders) . ')'
+                . ' ON CONFLICT (phoneNumber) DO UPDATE SET '
+                . implode(', ', array_map(fn($column) => "{$column} = excluded.{$column}", $updates));
+        }
+
+        try {
+            $stmt = Database::getPdo()->prepare($sql);
+            $stmt->execute(array_combine($placeholders, array_values($device)));
+
+            return true;
+        } catch (PDOException $e) {
+            Logger::error('Failed to save heartbeat', [
+                'phoneNumber' => $device['phoneNumber'],
+                'error' => $e->getMessage(),
+            ]);
+
+            return false;
+        }
+    }
+}
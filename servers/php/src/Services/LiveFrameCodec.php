@@ -0,0 +1,130 @@
+<?php
+
+namespace App\Services;
+
+/**
+ * Codec for the live stream's compact text frames
+ *
+ * Live mode clients stream one fix every few seconds over a WebSocket instead of
+ * posting a form per fix. Frames are '|'-separated text:
+ * - client hello: H|<version>|<username>|<appId>|<sessionId>
+ * - client fix: F|<fixId>|<timeMillis>|<lat>|<lon>|<speedMph>|<bearing>|<accuracy>|<altitude>|<distanceMiles>|<provider>[|<tripNumber>]
+ * - server ack: A|<fixId>
+ * - server nack: N|<fixId>|<reason>
+ *
+ * Decoded fixes use the same keys and units as a form upload, so they are stored by
+ * LocationService exactly like HTTP fixes.
+ *
+ * @package App\Services
+ */
+class LiveFrameCodec
+{
+    /**
+     * Protocol version spoken by this server
+     */
+    public const VERSION = 1;
+
+    /**
+     * Number of fields in a fix frame, including the type, without the trip number
+     */
+    private const FIX_FIELDS = 11;
+
+    /**
+     * Number of fields in a fix frame carrying the trip number
+     */
+    private const FIX_FIELDS_WITH_TRIP = 12;
+
+    /**
+     * Decode a hello frame
+     *
+     * @param string $frame Raw frame text
+     * @return array|null ['username', 'appid', 'sessionid'], or null if the frame is not a valid hello
+     */
+    public static function decodeHello(string $frame): ?array
+    {
+        $fields = explode('|', $frame);
+        if (count($fields) !== 5 || $fields[0] !== 'H' || (int)$fields[1] !== self::VERSION) {
+            return null;
+        }
+
+        return [
+            'username' => trim($fields[2]),
+            'appid' => trim($fields[3]),
+            'sessionid' => trim($fields[4]),
+        ];
+    }
+
+    /**
+     * Decode a fix frame into location data for LocationService::updateLocation()
+     *
+     * @param string $frame Raw frame text
+     * @param array $hello The decoded hello frame of the connection
+     * @return array|null Location data, or null if the frame is not a valid fix
+     */
+    public static function decodeFix(string $frame, array $hello): ?array
+    {
+        $fields = explode('|', $frame);
+        $count = count($fields);
+        if (($count !== self::FIX_FIELDS && $count !== self::FIX_FIELDS_WITH_TRIP) || $fields[0] !== 'F' || $fields[1] === '') {
+            return null;
+        }
+        if (!ctype_digit($fields[2]) || !is_numeric($fields[3]) || !is_numeric($fields[4])) {
+            return null;
+        }
+
+        return [
+            'latitude' => $fields[3],
+            'longitude' => $fields[4],
+            'speed' => (int)$fields[5],
+            'direction' => (int)$fields[6],
+            'accuracy' => (int)$fields[7],
+            'extrainfo' => trim($fields[8]),
+            'distance' => $fields[9],
+            'date' => date('Y-m-d H:i:s', intdiv((int)$fields[2], 1000)),
+            'locationmethod' => trim($fields[10]),
+            'username' => $hello['username'],
+            'phonenumber' => $hello['appid'],
+            'sessionid' => $hello['sessionid'],
+            'eventtype' => 'live-stream',
+            // Bounded to the column width, as for form uploads
+            'fixid' => substr($fields[1], 0, 64),
+            'tripid' => isset($fields[11]) && ctype_digit($fields[11]) && (int)$fields[11] > 0 ? (int)$fields[11] : null,
+        ];
+    }
+
+    /**
+     * The fix ID of a frame, if it has one
+     *
+     * @param string $frame Raw frame text
+     * @return string|null Fix ID, or null for frames without one
+     */
+    public static function fixId(string $frame): ?string
+    {
+        $fields = explode('|', $frame, 3);
+
+        return $fields[0] === 'F' && isset($fields[1]) && $fields[1] !== '' ? $fields[1] : null;
+    }
+
+    /**
+     * Encode an acknowledgement for a stored fix
+     *
+     * @param string $fixId Fix ID from the client
+     * @return string Frame text
+     */
+    public static function ack(string $fixId): string
+    {
+        return 'A|' . $fixId;
+    }
+
+    /**
+     * Encode a rejection for a fix that could not be stored
+     *
+     * @param string $fixId Fix ID from the client
+     * @param string $reason Short reason; separators are removed
+     * @return string Frame text
+     */
+    public static function nack(string $fixId, string $reason): string
+    {
+        return 'N|' . $fixId . '|' . str_replace(['|', "\n", "\r"], ' ', $reason);
+    }
+}
@@ -0,0 +1,430 @@
+<?php
+
+namespace App\Services;
+
+use App\Utils\Logger;
+
+/**
+ * WebSocket endpoint for live mode clients
+ *
+ * A small single-process server (RFC 6455, text frames only) that keeps one socket
+ * per tracker open and stores every streamed fix through LocationService, replying
+ * with an ack or nack frame per fix (see LiveFrameCodec for the frame format).
+ * Clients fall back to the HTTP API whenever the socket is down, so the server keeps
+ * no state beyond the open connections.
+ *
+ * It is started by stream-server.php and normally sits behind the web server, which
+ * forwards upgrade requests for <api directory>/stream to it; TLS is terminated there.
+ *
+ * @package App\Services
+ */
+class LiveStreamServer
+{
+    /**
+     * GUID appended to the client key in the opening handshake (RFC 6455, 1.3)
+     */
+    private const HANDSHAKE_GUID = '258EAFA5-E914-47DA-95CA-C5AB0DC85B11';
+
+    /**
+     * Frame opcodes
+     */
+    private const OP_CONTINUATION = 0x0;
+    private const OP_TEXT = 0x1;
+    private const OP_CLOSE = 0x8;
+    private const OP_PING = 0x9;
+    private const OP_PONG = 0xA;
+
+    /**
+     * Close codes
+     */
+    private const CLOSE_PROTOCOL_ERROR = 1002;
+    private const CLOSE_UNSUPPORTED = 1003;
+    private const CLOSE_TOO_BIG = 1009;
+
+    /**
+     * Largest accepted frame payload; a fix frame is about 100 bytes
+     */
+    private const MAX_PAYLOAD = 4096;
+
+    /**
+     * Largest accepted opening handshake
+     */
+    private const MAX_HANDSHAKE = 8192;
+
+    /**
+     * Listening socket
+     *
+     * @var resource|null
+     */
+    private $server = null;
+
+    /**
+     * Open connections by socket ID: ['socket', 'buffer', 'open', 'hello']
+     *
+     * @var array<int, array>
+     */
+    private array $clients = [];
+
+    /**
+     * Service used to store fixes
+     *
+     * @var LocationService
+     */
+    private LocationService $locationService;
+
+    /**
+     * Constructor
+     *
+     * @param LocationService|null $locationService Service used to store fixes
+     */
+    public function __construct(LocationService $locationService = null)
+    {
+        $this->locationService = $locationService ?? new LocationService();
+    }
+
+    /**
+     * Listen and serve clients until the process is stopped
+     *
+     * @param string $address Listen address, e.g. tcp://127.0.0.1:8090
+     * @return void
+     * @throws \RuntimeException If the address cannot be bound
+     */
+    public function run(string $address): void
+    {
+        $this->server = @stream_socket_server($address, $errno, $errstr);
+        if ($this->server === false) {
+            throw new \RuntimeException("Cannot listen on {$address}: {$errstr} ({$errno})");
+        }
+        Logger::info('Live stream server listening', ['address' => $address]);
+
+        $maxClients = (int)config('app.stream.max_clients', 1000);
+
+        while (true) {
+            $read = [$this->server];
+            foreach ($this->clients as $client) {
+                $read[] = $client['socket'];
+            }
+            $write = null;
+            $except = null;
+            if (stream_select($read, $write, $except, null) === false) {
+                continue;
+            }
+
+            foreach ($read as $socket) {
+                if ($socket === $this->server) {
+                    $this->accept($maxClients);
+                } else {
+                    $this->receive($socket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the Sec-WebSocket-Accept value for a client key
+     *
+     * @param string $key The client's Sec-WebSocket-Key header
+     * @return string The accept value
+     */
+    public static function acceptKey(string $key): string
+    {
+        return base64_encode(sha1(trim($key) . self::HANDSHAKE_GUID, true));
+    }
+
+    /**
+     * Encode an unmasked server frame
+     *
+     * @param string $payload Frame payload
+     * @param int $opcode Frame opcode (text by default)
+     * @return string Encoded frame
+     */
+    public static function encodeFrame(string $payload, int $opcode = self::OP_TEXT): string
+    {
+        $length = strlen($payload);
+        $header = chr(0x80 | $opcode);
+        if ($length < 126) {
+            $header .= chr($length);
+        } elseif ($length < 65536) {
+            $header .= chr(126) . pack('n', $length);
+        } else {
+            $header .= chr(127) . pack('J', $length);
+        }
+
+        return $header . $payload;
+    }
+
+    /**
+     * Decode the first frame in a buffer of client data
+     *
+     * @param string $buffer Received bytes; consumed bytes are removed
+     * @return array|null ['fin' => bool, 'opcode' => int, 'payload' => string], or null if
+     *   the buffer does not hold a complete frame yet
+     * @throws \LengthException If the frame is larger than MAX_PAYLOAD
+     */
+    public static function decodeFrame(string &$buffer): ?array
+    {
+        if (strlen($buffer) < 2) {
+            return null;
+        }
+        $first = ord($buffer[0]);
+        $second = ord($buffer[1]);
+        $masked = ($second & 0x80) !== 0;
+        $length = $second & 0x7F;
+        $offset = 2;
+
+        if ($length === 126) {
+            if (strlen($buffer) < 4) {
+                return null;
+            }
+            $length = unpack('n', substr($buffer, 2, 2))[1];
+            $offset = 4;
+        } elseif ($length === 127) {
+            if (strlen($buffer) < 10) {
+                return null;
+            }
+            $length = unpack('J', substr($buffer, 2, 8))[1];
+            $offset = 10;
+        }
+        if ($length > self::MAX_PAYLOAD) {
+            throw new \LengthException("Frame of {$length} bytes exceeds the limit");
+        }
+
+        $maskLength = $masked ? 4 : 0;
+        if (strlen($buffer) < $offset + $maskLength + $length) {
+            return null;
+        }
+        $payload = substr($buffer, $offset + $maskLength, $length);
+        if ($masked) {
+            $mask = substr($buffer, $offset, 4);
+            for ($i = 0; $i < $length; $i++) {
+                $payload[$i] = $payload[$i] ^ $mask[$i % 4];
+            }
+        }
+        $buffer = (string)substr($buffer, $offset + $maskLength + $length);
+
+        return [
+            'fin' => ($first & 0x80) !== 0,
+            'opcode' => $first & 0x0F,
+            'payload' => $payload,
+        ];
+    }
+
+    /**
+     * Accept a pending connection
+     *
+     * @param int $maxClients Connection limit
+     * @return void
+     */
+    private function accept(int $maxClients): void
+    {
+        $socket = @stream_socket_accept($this->server, 0);
+        if ($socket === false) {
+            return;
+        }
+        if (count($this->clients) >= $maxClients) {
+            // Clients fall back to HTTP uploads
+            fclose($socket);
+            Logger::warning('Live stream connection refused: limit reached', ['max_clients' => $maxClients]);
+            return;
+        }
+        stream_set_blocking($socket, false);
+        $this->clients[(int)$socket] = [
+            'socket' => $socket,
+            'buffer' => '',
+            'open' => false,
+            'hello' => null,
+        ];
+    }
+
+    /**
+     * Read from a client and handle what arrived
+     *
+     * @param resource $socket Client socket
+     * @return void
+     */
+    private function receive($socket): void
+    {
+        $id = (int)$socket;
+        $data = fread($socket, 8192);
+        if ($data === false || ($data === '' && feof($socket))) {
+            $this->drop($id);
+            return;
+        }
+        $this->clients[$id]['buffer'] .= $data;
+
+        if (!$this->clients[$id]['open']) {
+            $this->handshake($id);
+            return;
+        }
+
+        $this->receiveFrames($id);
+    }
+
+    /**
+     * Complete the opening handshake once the request headers have arrived
+     *
+     * @param int $id Client ID
+     * @return void
+     */
+    private function handshake(int $id): void
+    {
+        $buffer = $this->clients[$id]['buffer'];
+        $end = strpos($buffer, "\r\n\r\n");
+        if ($end === false) {
+            if (strlen($buffer) > self::MAX_HANDSHAKE) {
+                $this->drop($id);
+            }
+            return;
+        }
+
+        if (!preg_match('/^Sec-WebSocket-Key:\s*(\S+)/mi', substr($buffer, 0, $end), $matches)) {
+            fwrite($this->clients[$id]['socket'], "HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n");
+            $this->drop($id);
+            return;
+        }
+
+        fwrite($this->clients[$id]['socket'],
+            "HTTP/1.1 101 Switching Protocols\r\n" .
+            "Upgrade: websocket\r\n" .
+            "Connection: Upgrade\r\n" .
+            'Sec-WebSocket-Accept: ' . self::acceptKey($matches[1]) . "\r\n\r\n");
+
+        $this->clients[$id]['open'] = true;
+        // Frames may follow the headers in the same read
+        $this->clients[$id]['buffer'] = (string)substr($buffer, $end + 4);
+        $this->receiveFrames($id);
+    }
+
+    /**
+     * Handle the complete frames already buffered for a client
+     *
+     * @param int $id Client ID
+     * @return void
+     */
+    private function receiveFrames(int $id): void
+    {
+        try {
+            while (isset($this->clients[$id])
+                && ($frame = self::decodeFrame($this->clients[$id]['buffer'])) !== null) {
+                $this->handleFrame($id, $frame);
+            }
+        } catch (\LengthException $e) {
+            $this->close($id, self::CLOSE_TOO_BIG);
+        }
+    }
+
+    /**
+     * Handle one decoded frame
+     *
+     * @param int $id Client ID
+     * @param array $frame Decoded frame
+     * @return void
+     */
+    private function handleFrame(int $id, array $frame): void
+    {
+        switch ($frame['opcode']) {
+            case self::OP_PING:
+                $this->send($id, self::encodeFrame($frame['payload'], self::OP_PONG));
+                return;
+            case self::OP_PONG:
+                return;
+            case self::OP_CLOSE:
+                $this->close($id, 1000);
+                return;
+            case self::OP_TEXT:
+                if (!$frame['fin']) {
+                    // Clients send each frame in one piece; fragments are not supported
+                    $this->close($id, self::CLOSE_UNSUPPORTED);
+                    return;
+                }
+                $this->handleText($id, $frame['payload']);
+                return;
+            case self::OP_CONTINUATION:
+            default:
+                $this->close($id, self::CLOSE_UNSUPPORTED);
+        }
+    }
+
+    /**
+     * Handle a text frame: the hello first, then fixes
+     *
+     * @param int $id Client ID
+     * @param string $text Frame text
+     * @return void
+     */
+    private function handleText(int $id, string $text): void
+    {
+        $hello = $this->clients[$id]['hello'];
+        if ($hello === null) {
+            $hello = LiveFrameCodec::decodeHello($text);
+            if ($hello === null) {
+                Logger::warning('Live stream: expected a hello frame', ['frame' => substr($text, 0, 100)]);
+                $this->close($id, self::CLOSE_PROTOCOL_ERROR);
+                return;
+            }
+            $this->clients[$id]['hello'] = $hello;
+            Logger::info('Live stream opened', $hello);
+            return;
+        }
+
+        $fixId = LiveFrameCodec::fixId($text);
+        $data = LiveFrameCodec::decodeFix($text, $hello);
+        if ($data === null) {
+            if ($fixId !== null) {
+                $this->send($id, self::encodeFrame(LiveFrameCodec::nack($fixId, 'invalid frame')));
+            }
+            return;
+        }
+
+        // Fix IDs make repeats harmless, so a fix already stored over HTTP is acked as well
+        $reply = $this->locationService->updateLocation($data)
+            ? LiveFrameCodec::ack($fixId)
+            : LiveFrameCodec::nack($fixId, 'not stored');
+        $this->send($id, self::encodeFrame($reply));
+    }
+
+    /**
+     * Write bytes to a client
+     *
+     * @param int $id Client ID
+     * @param string $bytes Encoded frame
+     * @return void
+     */
+    private function send(int $id, string $bytes): void
+    {
+        if (@fwrite($this->clients[$id]['socket'], $bytes) === false) {
+            $this->drop($id);
+        }
+    }
+
+    /**
+     * Send a close frame and drop the connection
+     *
+     * @param int $id Client ID
+     * @param int $code Close code
+     * @return void
+     */
+    private function close(int $id, int $code): void
+    {
+        @fwrite($this->clients[$id]['socket'], self::encodeFrame(pack('n', $code), self::OP_CLOSE));
+        $this->drop($id);
+    }
+
+    /**
+     * Forget a connection and close its socket
+     *
+     * @param int $id Client ID
+     * @return void
+     */
+    private function drop(int $id): void
+    {
+        if (!isset($this->clients[$id])) {
+            return;
+        }
+        @fclose($this->clients[$id]['socket']);
+        if ($this->clients[$id]['hello'] !== null) {
+            Logger::info('Live stream closed', $this->clients[$id]['hello']);
+        }
+        unset($this->clients[$id]);
+    }
+}
@@ -4,6 +4,7 @@ namespace App\Services;
 
 use PDOException;
 use App\Models\GPSLocation;
+use App\Utils\GeoCell;
 use App\Utils\Logger;
 
 /**
@@ -19,20 +20,46 @@ use App\Utils\Logger;
  */
 class LocationService
 {
+    /**
+     * The location was stored, or had already been stored under its fix ID
+     */
+    public const STORED = 'stored';
+
+    /**
+     * The location failed validation; sending it again can never succeed
+     */
+    public const INVALID = 'invalid';
+
+    /**
+     * The location could not be saved; sending it again later may succeed
+     */
+    public const FAILED = 'failed';
+
     /**
      * Update a location
      *
+     * @param array $data Location data from the request
+     * @return bool True on successful update, false on validation failure or database error
+     */
+    public function updateLocation(array $data): bool
+    {
+        return $this->storeLocation($data) === self::STORED;
+    }
+
+    /**
+     * Store a location and report why it was not stored
+     *
      * Processes location data from tracking devices and saves it to the database.
      * The method:
      * 1. Validates the input coordinates
-     * 2. Creates a GPSLocation object
+     * 2. Creates a GPSLocation object, deriving the spatial cell ID if the client sent none
      * 3. Validates the location data
      * 4. Saves the location to the database
      *
      * @param array $data Location data from the request
-     * @return bool True on successful update, false on validation failure or database error
+     * @return string STORED, INVALID on validation failure, or FAILED on a database error
      */
-    public function updateLocation(array $data): bool
+    public function storeLocation(array $data): string
     {
         try {
             // Validate input data
@@ -45,7 +72,7 @@ class LocationService
                     'latitude' => $latitude,
                     'longitude' => $longitude,
                 ]);
-                return false;
+                return self::INVALID;
             }
 
             // Create location object
@@ -62,7 +89,10 @@ class LocationService
                 $data['sessionid'] ?? '',
                 (int)($data['accuracy'] ?? 0),
                 $data['extrainfo'] ?? '',
-                $data['eventtype'] ?? ''
+                $data['eventtype'] ?? '',
+                $data['fixid'] ?? '',
+                isset($data['tripid']) ? (int)$data['tripid'] : null,
+                isset($data['cellid']) ? (int)$data['cellid'] : GeoCell::encode($latitude, $longitude)
             );
 
             // Validate the location
@@ -72,18 +102,18 @@ class LocationService
                     'errors' => $errors,
                     'data' => $data,
                 ]);
-                return false;
+                return self::INVALID;
             }
 
             // Save the location
-            return $location->save();
+            return $location->save() ? self::STORED : self::FAILED;
         } catch (\Exception $e) {
             Logger::error('Failed to update location', [
                 'error' => $e->getMessage(),
                 'data' => $data,
             ]);
 
-            return false;
+            return self::FAILED;
         }
     }
     
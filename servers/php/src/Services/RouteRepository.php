@@ -4,6 +4,7 @@ namespace App\Services;
 
 use PDOException;
 use App\Models\GPSLocation;
+use App\Utils\GeoCell;
 use App\Utils\Logger;
 
 /**
@@ -15,7 +16,8 @@ use App\Utils\Logger;
  * 
  * Features:
  * - Retrieve route lists for display in the UI
- * - Get detailed location data for map visualization
+ * - Get detailed location data for map visualization, per session or per trip
+ * - Find locations inside a bounding box via the spatial cell index
  * - Support for both single route and all-routes views
  * - Route deletion with transaction support
  * - Database driver abstraction (works with MySQL, SQLite)
@@ -69,11 +71,14 @@ class RouteRepository
      * 
      * Retrieves all GPS locations for a specific route identified by session ID.
      * The locations are ordered chronologically for proper display on the map.
+     * Given a trip number, only the locations of that trip are returned; the trip
+     * filter always queries the table, as the route views predate the tripID column.
      * 
      * @param string $sessionId Session ID to get route for
+     * @param int|null $tripId Trip number within the session, or null for the whole session
      * @return array Array of location data formatted for map display
      */
-    public function getRouteForMap(string $sessionId): array
+    public function getRouteForMap(string $sessionId, ?int $tripId = null): array
     {
         try {
             $driver = config('database.driver', 'sqlite');
@@ -82,12 +87,19 @@ class RouteRepository
             // Debug logging
             Logger::debug('Getting route for map', [
                 'sessionId' => $sessionId,
+                'tripId' => $tripId,
                 'driver' => $driver,
                 'tablePrefix' => $tablePrefix
             ]);
             
-            if ($driver === 'mysql') {
+            $params = [':sessionID' => $sessionId];
+            if ($driver === 'mysql' || $tripId !== null) {
                 // Try direct query instead of stored procedure for debugging
+                $tripFilter = '';
+                if ($tripId !== null) {
+                    $tripFilter = 'AND tripID = :tripID';
+                    $params[':tripID'] = $tripId;
+                }
                 $sql = "SELECT 
                         GPSLocationID,
                         lastUpdate,
@@ -103,15 +115,16 @@ class RouteRepository
                         locationMethod,
                         accuracy,
                         extraInfo,
-                        eventType
+                        eventType,
+                        tripID
                     FROM {$tablePrefix}gpslocations 
-                    WHERE sessionID = :sessionID
+                    WHERE sessionID = :sessionID {$tripFilter}
                     ORDER BY gpsTime";
             } else {
                 $sql = 'SELECT * FROM v_GetRouteForMap WHERE sessionID = :sessionID';
             }
             
-            $results = Database::query($sql, [':sessionID' => $sessionId]);
+            $results = Database::query($sql, $params);
             
             // Debug logging
             Logger::debug('Query results', [
@@ -135,7 +148,8 @@ class RouteRepository
                     'phoneNumber' => $row['phoneNumber'] ?? '',
                     'sessionID' => $row['sessionID'] ?? $sessionId,
                     'accuracy' => (string)($row['accuracy'] ?? '0'),
-                    'extraInfo' => $row['extraInfo'] ?? 'na'
+                    'extraInfo' => $row['extraInfo'] ?? 'na',
+                    'tripID' => isset($row['tripID']) ? (int)$row['tripID'] : null
                 ];
             }
             
@@ -155,6 +169,110 @@ class RouteRepository
         }
     }
     
+    /**
+     * Get the trips of a session
+     * 
+     * Lists the trips the client split the session into at long stops, so the map
+     * can load one trip at a time. Served from the (sessionID, tripID) index; rows
+     * from clients that do not segment trips have no trip and are left out.
+     * 
+     * @param string $sessionId Session ID to list trips for
+     * @return array Array of ['tripID', 'startTime', 'endTime', 'locationCount'], in trip order
+     */
+    public function getTrips(string $sessionId): array
+    {
+        try {
+            $tablePrefix = config('database.prefix', ''); // Get prefix from config
+            $sql = "SELECT tripID, MIN(gpsTime) AS startTime, MAX(gpsTime) AS endTime, COUNT(*) AS locationCount
+                FROM {$tablePrefix}gpslocations
+                WHERE sessionID = :sessionID AND tripID IS NOT NULL
+                GROUP BY tripID
+                ORDER BY tripID";
+            $results = Database::query($sql, [':sessionID' => $sessionId]);
+            
+            $trips = [];
+            foreach ($results as $row) {
+                $trips[] = [
+                    'tripID' => (int)$row['tripID'],
+                    'startTime' => $row['startTime'],
+                    'endTime' => $row['endTime'],
+                    'locationCount' => (int)$row['locationCount'],
+                ];
+            }
+            
+            return $trips;
+        } catch (PDOException $e) {
+            Logger::error('Failed to get trips for route', [
+                'sessionId' => $sessionId,
+                'error' => $e->getMessage(),
+            ]);
+            
+            return [];
+        }
+    }
+    
+    /**
+     * Find the locations inside a bounding box
+     * 
+     * Covers the box with a few ranges of spatial cell IDs (see GeoCell) so the
+     * query is served from the cellID index, then filters on the exact coordinates.
+     * Rows stored before the cellID column existed have no cell and are not found.
+     * 
+     * @param float $minLatitude Southern edge of the box
+     * @param float $minLongitude Western edge of the box
+     * @param float $maxLatitude Northern edge of the box
+     * @param float $maxLongitude Eastern edge of the box
+     * @param int $limit Maximum number of locations to return
+     * @return array Array of location arrays (see GPSLocation::toArray()), newest first
+     */
+    public function findInBoundingBox(
+        float $minLatitude,
+        float $minLongitude,
+        float $maxLatitude,
+        float $maxLongitude,
+        int $limit = 1000
+    ): array {
+        try {
+            $tablePrefix = config('database.prefix', ''); // Get prefix from config
+            
+            $conditions = [];
+            $params = [
+                ':minLatitude' => min($minLatitude, $maxLatitude),
+                ':maxLatitude' => max($minLatitude, $maxLatitude),
+                ':minLongitude' => min($minLongitude, $maxLongitude),
+                ':maxLongitude' => max($minLongitude, $maxLongitude),
+            ];
+            foreach (GeoCell::coveringRanges($minLatitude, $minLongitude, $maxLatitude, $maxLongitude) as $i => $range) {
+                $conditions[] = "cellID BETWEEN :cellStart{$i} AND :cellEnd{$i}";
+                $params[":cellStart{$i}"] = $range[0];
+                $params[":cellEnd{$i}"] = $range[1];
+            }
+            
+            $limit = max(1, $limit);
+            $sql = "SELECT * FROM {$tablePrefix}gpslocations
+                WHERE (" . implode(' OR ', $conditions) . ")
+                AND latitude BETWEEN :minLatitude AND :maxLatitude
+                AND longitude BETWEEN :minLongitude AND :maxLongitude
+                ORDER BY gpsTime DESC
+                LIMIT {$limit}";
+            $results = Database::query($sql, $params);
+            
+            $locations = [];
+            foreach ($results as $row) {
+                $locations[] = GPSLocation::fromArray($row)->toArray();
+            }
+            
+            return $locations;
+        } catch (PDOException $e) {
+            Logger::error('Failed to find locations in bounding box', [
+                'box' => [$minLatitude, $minLongitude, $maxLatitude, $maxLongitude],
+                'error' => $e->getMessage(),
+            ]);
+            
+            return [];
+        }
+    }
+    
     /**
      * Get all routes for map display
      * 
@@ -0,0 +1,101 @@
+<?php
+
+namespace App\Services;
+
+use PDOException;
+use App\Utils\Logger;
+
+/**
+ * Service for session summaries
+ *
+ * Clients compute moving and stopped time, average and maximum speed, elevation gain
+ * and the number of stops incrementally while tracking, and upload the result once a
+ * session ends (POST api/locations/summary). Storing it here means route lists and
+ * reports read one row per session instead of scanning every location.
+ *
+ * Uploads are upserts keyed by session ID, so a summary sent again after more fixes
+ * were recorded (or after a failed attempt) simply replaces the previous one.
+ *
+ * @package App\Services
+ */
+class SessionSummaryService
+{
+    /**
+     * Validate and normalize an uploaded summary
+     *
+     * Units follow the location uploads: distance in miles, speeds in mph, elevation gain
+     * in meters; durations are in seconds.
+     *
+     * @param array $params Decoded JSON body
+     * @return array|null Summary row values, or null if required fields are missing or invalid
+     */
+    public static function sanitize(array $params): ?array
+    {
+        $sessionId = isset($params['sessionid']) ? trim((string)$params['sessionid']) : '';
+        $startedAt = isset($params['startedat']) ? strtotime((string)$params['startedat']) : false;
+        $endedAt = isset($params['endedat']) ? strtotime((string)$params['endedat']) : false;
+
+        if ($sessionId === '' || strlen($sessionId) > 50 || $startedAt === false || $endedAt === false
+            || $endedAt < $startedAt) {
+            return null;
+        }
+
+        return [
+            'sessionID' => $sessionId,
+            'userName' => substr(trim((string)($params['username'] ?? '')), 0, 50),
+            'phoneNumber' => substr(trim((string)($params['phonenumber'] ?? '')), 0, 50),
+            'startedAt' => date('Y-m-d H:i:s', $startedAt),
+            'endedAt' => date('Y-m-d H:i:s', $endedAt),
+            'fixCount' => max(0, (int)($params['fixcount'] ?? 0)),
+            'distance' => max(0.0, round((float)($params['distance'] ?? 0), 2)),
+            'movingTime' => max(0, (int)($params['movingtime'] ?? 0)),
+            'stoppedTime' => max(0, (int)($params['stoppedtime'] ?? 0)),
+            'avgSpeed' => max(0.0, round((float)($params['avgspeed'] ?? 0), 1)),
+            'maxSpeed' => max(0.0, round((float)($params['maxspeed'] ?? 0), 1)),
+            'elevationGain' => max(0, (int)($params['elevationgain'] ?? 0)),
+            'stops' => max(0, (int)($params['stops'] ?? 0)),
+        ];
+    }
+
+    /**
+     * Store a summary, replacing any earlier summary of the same session
+     *
+     * @param array $summary Values returned by sanitize()
+     * @return bool True if the summary was stored
+     */
+    public function save(array $summary): bool
+    {
+        $driver = config('database.driver', 'sqlite');
+        $columns = array_keys($summary);
+        $placeholders = array_map(fn($column) => ':' . $column, $columns);
+        $updates = array_filter($columns, fn($column) => $column !== 'sessionID');
+
+        if ($driver === 'mysql') {
+            $tablePrefix = config('database.prefix', '');
+            $sql = "INSERT INTO {$tablePrefix}sessionsummaries (" . implode(', ', $columns) . ')'
+                . ' VALUES (' . implode(', ', $placeholders) . ')'
+                . ' ON DUPLICATE KEY UPDATE '
+                . implode(', ', array_map(fn($column) => "{$column} = VALUES({$column})", $updates));
+        } else {
+            // PostgreSQL and SQLite (3.24+)
+            $sql = 'INSERT INTO sessionsummaries (' . implode(', ', $columns) . ')'
+                . ' VALUES (' . implode(', ', $placeholders) . ')'
+                . ' ON CONFLICT (sessionID) DO UPDATE SET '
+                . implode(', ', array_map(fn($column) => "{$column} = excluded.{$column}", $updates));
+        }
+
+        try {
+            $stmt = Database::getPdo()->prepare($sql);
+            $stmt->execute(array_combine($placeholders, array_values($summary)));
+
+            return true;
+        } catch (PDOException $e) {
+            Logger::error('Failed to save session summary', [
+                'sessionID' => $summary['sessionID'],
+                'error' => $e->getMessage(),
+            ]);
+
+            return false;
+        }
+    }
+}
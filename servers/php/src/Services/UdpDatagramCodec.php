@@ -0,0 +1,151 @@
+<?php
+
+namespace App\Services;
+
+/**
+ * Codec for the signed datagrams of the UDP uplink
+ *
+ * Modeled on the comma-separated frames of TK103 hardware trackers (see
+ * servers/tk103/tk103-server.php), so a fix costs one small packet instead of an
+ * HTTPS request. A datagram carries up to a handful of fixes from one session:
+ *
+ *     GT,3,<appId>,<seq>,<username>,<sessionId>,<count>,
+ *         <fixId>,<unixTime>,<lat>,<lon>,<speedMph>,<bearing>,<accuracy>,<altitude>,<tripNumber>,<distanceMiles>, ... ,<hmac>;
+ *
+ * Version 2 datagrams lack the session distance, which is then stored as 0. Version 1
+ * datagrams, from apps that predate trip segmentation, also lack the trip number.
+ *
+ * and is answered with ACK,<appId>,<seq>,<hmac>; once every fix is stored, or
+ * NAK,<appId>,<seq>,<hmac>; otherwise. A numeric fix ID is short for <appId>:<n>.
+ *
+ * The HMAC is HMAC-SHA256 over everything before its separating comma, keyed with the
+ * shared secret, truncated to 16 bytes and hex encoded. Replayed datagrams are harmless
+ * because fixes carry fix IDs and duplicates are ignored on insert.
+ *
+ * @package App\Services
+ */
+class UdpDatagramCodec
+{
+    /**
+     * Newest protocol version spoken by this server; versions 1 and 2 are still accepted
+     */
+    public const VERSION = 3;
+
+    /**
+     * Fields per fix, by protocol version
+     */
+    private const FIX_FIELDS = [1 => 8, 2 => 9, 3 => 10];
+
+    /**
+     * Fields before the first fix
+     */
+    private const HEADER_FIELDS = 7;
+
+    /**
+     * Largest number of fixes accepted in one datagram
+     */
+    public const MAX_FIXES = 16;
+
+    /**
+     * Hex characters of the truncated HMAC
+     */
+    private const MAC_HEX_LENGTH = 32;
+
+    /**
+     * Decode and authenticate a datagram
+     *
+     * @param string $datagram Raw datagram
+     * @param string $secret Shared secret
+     * @return array|null ['appid', 'seq', 'locations' => location data arrays for
+     *   LocationService::updateLocation()], or null if the datagram is malformed or forged
+     */
+    public static function decode(string $datagram, string $secret): ?array
+    {
+        $body = rtrim($datagram, "; \r\n");
+        $signatureAt = strrpos($body, ',');
+        if ($signatureAt === false) {
+            return null;
+        }
+        $signed = substr($body, 0, $signatureAt);
+        if (!hash_equals(self::sign($signed, $secret), substr($body, $signatureAt + 1))) {
+            return null;
+        }
+
+        $fields = explode(',', $signed);
+        if (count($fields) < self::HEADER_FIELDS || $fields[0] !== 'GT'
+            || !isset(self::FIX_FIELDS[(int)$fields[1]])) {
+            return null;
+        }
+        [, $version, $appId, $seq, $username, $sessionId, $count] = $fields;
+        $fixFields = self::FIX_FIELDS[(int)$version];
+        $count = (int)$count;
+        if ($appId === '' || !ctype_digit($seq) || $count < 1 || $count > self::MAX_FIXES
+            || count($fields) !== self::HEADER_FIELDS + $count * $fixFields) {
+            return null;
+        }
+
+        $locations = [];
+        for ($i = 0; $i < $count; $i++) {
+            $fix = array_slice($fields, self::HEADER_FIELDS + $i * $fixFields, $fixFields);
+            [$fixId, $time, $latitude, $longitude, $speed, $bearing, $accuracy, $altitude] = $fix;
+            $tripId = $fix[8] ?? '';
+            $distance = $fix[9] ?? '0';
+            if (!ctype_digit($time) || !is_numeric($latitude) || !is_numeric($longitude) || !is_numeric($distance)) {
+                return null;
+            }
+
+            $locations[] = [
+                'latitude' => $latitude,
+                'longitude' => $longitude,
+                'speed' => (int)$speed,
+                'direction' => (int)$bearing,
+                'distance' => $distance,
+                'date' => date('Y-m-d H:i:s', (int)$time),
+                'locationmethod' => '',
+                'username' => $username,
+                'phonenumber' => $appId,
+                'sessionid' => $sessionId,
+                'accuracy' => (int)$accuracy,
+                'extrainfo' => $altitude,
+                'eventtype' => 'udp-uplink',
+                // Bounded to the column width, as for form uploads
+                'fixid' => $fixId === '' ? '' : substr(ctype_digit($fixId) ? "{$appId}:{$fixId}" : $fixId, 0, 64),
+                'tripid' => ctype_digit($tripId) && (int)$tripId > 0 ? (int)$tripId : null,
+            ];
+        }
+
+        return [
+            'appid' => $appId,
+            'seq' => $seq,
+            'locations' => $locations,
+        ];
+    }
+
+    /**
+     * Encode a signed reply
+     *
+     * @param bool $stored True for an ack, false for a nack
+     * @param string $appId App ID from the datagram
+     * @param string $seq Sequence number from the datagram
+     * @param string $secret Shared secret
+     * @return string Reply datagram
+     */
+    public static function reply(bool $stored, string $appId, string $seq, string $secret): string
+    {
+        $signed = ($stored ? 'ACK' : 'NAK') . ",{$appId},{$seq}";
+
+        return $signed . ',' . self::sign($signed, $secret) . ';';
+    }
+
+    /**
+     * Truncated, hex encoded HMAC-SHA256
+     *
+     * @param string $text Signed text
+     * @param string $secret Shared secret
+     * @return string HMAC
+     */
+    public static function sign(string $text, string $secret): string
+    {
+        return substr(hash_hmac('sha256', $text, $secret), 0, self::MAC_HEX_LENGTH);
+    }
+}
@@ -0,0 +1,115 @@
+<?php
+
+namespace App\Services;
+
+use App\Utils\Logger;
+
+/**
+ * Receiver for the UDP uplink
+ *
+ * Reads signed datagrams (see UdpDatagramCodec), stores their fixes through
+ * LocationService and answers each datagram with a signed ack or nack. Datagrams that
+ * fail authentication get no reply at all, so the receiver cannot be used to reflect
+ * traffic at third parties. Clients retransmit unacknowledged datagrams and eventually
+ * fall back to the HTTP API, so a lost reply costs nothing but a duplicate, which the
+ * fix IDs make harmless.
+ *
+ * Started by udp-server.php.
+ *
+ * @package App\Services
+ */
+class UdpUplinkServer
+{
+    /**
+     * Largest datagram read; clients stay well below this
+     */
+    private const MAX_DATAGRAM = 2048;
+
+    /**
+     * Service used to store fixes
+     *
+     * @var LocationService
+     */
+    private LocationService $locationService;
+
+    /**
+     * Secret shared with clients
+     *
+     * @var string
+     */
+    private string $secret;
+
+    /**
+     * Constructor
+     *
+     * @param string $secret Secret shared with clients
+     * @param LocationService|null $locationService Service used to store fixes
+     */
+    public function __construct(string $secret, LocationService $locationService = null)
+    {
+        $this->secret = $secret;
+        $this->locationService = $locationService ?? new LocationService();
+    }
+
+    /**
+     * Receive datagrams until the process is stopped
+     *
+     * @param string $address Listen address, e.g. udp://0.0.0.0:7332
+     * @return void
+     * @throws \RuntimeException If the address cannot be bound
+     */
+    public function run(string $address): void
+    {
+        $socket = @stream_socket_server($address, $errno, $errstr, STREAM_SERVER_BIND);
+        if ($socket === false) {
+            throw new \RuntimeException("Cannot listen on {$address}: {$errstr} ({$errno})");
+        }
+        Logger::info('UDP uplink listening', ['address' => $address]);
+
+        while (true) {
+            $datagram = stream_socket_recvfrom($socket, self::MAX_DATAGRAM, 0, $peer);
+            if ($datagram === false || $datagram === '') {
+                continue;
+            }
+            $reply = $this->handle($datagram);
+            if ($reply !== null) {
+                stream_socket_sendto($socket, $reply, 0, $peer);
+            }
+        }
+    }
+
+    /**
+     * Store the fixes of one datagram
+     *
+     * @param string $datagram Raw datagram
+     * @return string|null Reply datagram, or null if the datagram is not authentic
+     */
+    public function handle(string $datagram): ?string
+    {
+        $decoded = UdpDatagramCodec::decode($datagram, $this->secret);
+        if ($decoded === null) {
+            Logger::warning('UDP uplink: dropped malformed or unauthenticated datagram', [
+                'bytes' => strlen($datagram),
+            ]);
+            return null;
+        }
+
+        $stored = 0;
+        foreach ($decoded['locations'] as $location) {
+            if ($this->locationService->updateLocation($location)) {
+                $stored++;
+            }
+        }
+        $complete = $stored === count($decoded['locations']);
+        if (!$complete) {
+            Logger::warning('UDP uplink: not all fixes stored', [
+                'appid' => $decoded['appid'],
+                'seq' => $decoded['seq'],
+                'stored' => $stored,
+                'received' => count($decoded['locations']),
+            ]);
+        }
+
+        return UdpDatagramCodec::reply($complete, $decoded['appid'], $decoded['seq'], $this->secret);
+    }
+}
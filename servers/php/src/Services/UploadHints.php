@@ -0,0 +1,95 @@
+<?php
+
+namespace App\Services;
+
+use App\Middleware\RateLimiter;
+
+/**
+ * Upload rate hints returned to tracking clients
+ *
+ * Rejecting requests is a poor way to shed load: rejected clients retry, so an
+ * overloaded server sees more traffic, not less. Instead every upload response tells
+ * the client how to behave next:
+ * - interval: minimum number of seconds between uploads
+ * - max_batch: maximum number of fixes per batch upload
+ * - backoff_until: Unix time before which the client should not upload at all (0 = none)
+ * - server_time: Unix time on the server, so clients can apply backoff_until
+ *   relative to their own clock
+ *
+ * Hints follow the fleet-wide request rate seen by the rate limiter. Below the shed
+ * threshold clients get the defaults; above it interval and batch size are scaled
+ * toward their limits. Past full capacity clients are also told to back off, each
+ * for a random time, so they do not all come back at once.
+ *
+ * @package App\Services
+ */
+class UploadHints
+{
+    /**
+     * Hints for the current load
+     *
+     * @return array Hints as described in the class comment
+     */
+    public static function current(): array
+    {
+        $capacity = (int)config('api.hints.capacity_per_minute', 6000)
+            * (int)config('api.throttle.decay_minutes', 1);
+
+        return self::forLoad(RateLimiter::currentLoad() / max(1, $capacity));
+    }
+
+    /**
+     * Hints for a given load
+     *
+     * @param float $load Requests in the current window relative to capacity (1.0 = full)
+     * @param int|null $now Current Unix time (defaults to time())
+     * @param callable|null $jitter Returns a random integer in [min, max] (defaults to random_int)
+     * @return array Hints as described in the class comment
+     */
+    public static function forLoad(float $load, ?int $now = null, ?callable $jitter = null): array
+    {
+        $now = $now ?? time();
+        $jitter = $jitter ?? 'random_int';
+
+        $minInterval = (int)config('api.hints.min_interval_seconds', 60);
+        $maxInterval = (int)config('api.hints.max_interval_seconds', 900);
+        $maxBatch = (int)config('api.hints.max_batch', 500);
+        $minBatch = (int)config('api.hints.min_batch', 50);
+        $threshold = (float)config('api.hints.shed_threshold', 0.7);
+        $maxBackoff = (int)config('api.hints.max_backoff_seconds', 300);
+
+        // 0 below the threshold, rising linearly to 1 at full capacity
+        $pressure = ($load - $threshold) / max(0.01, 1 - $threshold);
+        $pressure = max(0.0, min(1.0, $pressure));
+
+        $backoffUntil = 0;
+        if ($load > 1.0) {
+            // The further past capacity, the longer the window clients are spread over
+            $window = (int)round($maxBackoff * min(1.0, $load - 1.0));
+            $backoffUntil = $now + $jitter(1, max(1, $window));
+        }
+
+        return [
+            'interval' => (int)round($minInterval + ($maxInterval - $minInterval) * $pressure),
+            'max_batch' => (int)round($maxBatch - ($maxBatch - $minBatch) * $pressure),
+            'backoff_until' => $backoffUntil,
+            'server_time' => $now,
+        ];
+    }
+
+    /**
+     * Hints for a client that hit its rate limit
+     *
+     * @param int $retryAfter Seconds until the client's rate limit window resets
+     * @param int|null $now Current Unix time (defaults to time())
+     * @return array Hints as described in the class comment
+     */
+    public static function rateLimited(int $retryAfter, ?int $now = null): array
+    {
+        $now = $now ?? time();
+        $hints = self::forLoad(1.0, $now);
+        $hints['backoff_until'] = max($hints['backoff_until'], $now + max(1, $retryAfter));
+
+        return $hints;
+    }
+}
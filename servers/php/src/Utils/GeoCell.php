@@ -0,0 +1,162 @@
+<?php
+
+namespace App\Utils;
+
+/**
+ * Geohash-style spatial cell IDs
+ *
+ * Mirrors GeoCell in the Android client, which sends the ID of every fix it
+ * uploads. Latitude and longitude are each quantized to 31 bits and their bits
+ * are interleaved (Z-order / Morton code), longitude in the even positions.
+ * Any cell at any level is one contiguous range of IDs, so an ordinary B-tree
+ * index on gpslocations.cellID can answer bounding-box queries.
+ *
+ * The ID uses 62 bits and is always a positive 64-bit integer.
+ *
+ * @package App\Utils
+ */
+class GeoCell
+{
+    /**
+     * Quantization bits per axis
+     *
+     * @var int
+     */
+    public const BITS_PER_AXIS = 31;
+
+    /**
+     * Largest valid cell ID
+     *
+     * @var int
+     */
+    public const MAX_CELL = (1 << (2 * self::BITS_PER_AXIS)) - 1;
+
+    /**
+     * Number of cells along each axis at full resolution
+     *
+     * @var int
+     */
+    private const AXIS_CELLS = 1 << self::BITS_PER_AXIS;
+
+    /**
+     * Encode a coordinate into a cell ID at full resolution
+     *
+     * @param float $latitude Latitude in decimal degrees (-90 to 90)
+     * @param float $longitude Longitude in decimal degrees (-180 to 180)
+     * @return int The 62-bit cell ID
+     */
+    public static function encode(float $latitude, float $longitude): int
+    {
+        return self::interleave(
+            self::quantize($latitude, -90.0, 180.0),
+            self::quantize($longitude, -180.0, 360.0)
+        );
+    }
+
+    /**
+     * Compute a small set of ID ranges that together cover a bounding box
+     *
+     * Picks the finest level at which the box spans at most $maxCells cells and
+     * returns one [start, end] range per cell, merged where adjacent. The covering
+     * may include points slightly outside the box, so queries must still filter on
+     * the exact coordinates.
+     *
+     * @param float $minLatitude Southern edge of the box
+     * @param float $minLongitude Western edge of the box
+     * @param float $maxLatitude Northern edge of the box
+     * @param float $maxLongitude Eastern edge of the box
+     * @param int $maxCells Upper bound on the number of cells (and therefore ranges)
+     * @return array<int, array{0: int, 1: int}> Sorted, non-overlapping inclusive ranges
+     */
+    public static function coveringRanges(
+        float $minLatitude,
+        float $minLongitude,
+        float $maxLatitude,
+        float $maxLongitude,
+        int $maxCells = 16
+    ): array {
+        $latLo = self::quantize(min($minLatitude, $maxLatitude), -90.0, 180.0);
+        $latHi = self::quantize(max($minLatitude, $maxLatitude), -90.0, 180.0);
+        $lonLo = self::quantize(min($minLongitude, $maxLongitude), -180.0, 360.0);
+        $lonHi = self::quantize(max($minLongitude, $maxLongitude), -180.0, 360.0);
+
+        $shift = 0;
+        while ($shift < self::BITS_PER_AXIS) {
+            $cells = (($latHi >> $shift) - ($latLo >> $shift) + 1) * (($lonHi >> $shift) - ($lonLo >> $shift) + 1);
+            if ($cells <= $maxCells) {
+                break;
+            }
+            $shift++;
+        }
+
+        $span = 1 << (2 * $shift);
+        $starts = [];
+        for ($lat = $latLo >> $shift; $lat <= $latHi >> $shift; $lat++) {
+            for ($lon = $lonLo >> $shift; $lon <= $lonHi >> $shift; $lon++) {
+                $starts[] = self::interleave($lat, $lon) << (2 * $shift);
+            }
+        }
+        sort($starts);
+
+        $ranges = [];
+        $currentStart = $starts[0];
+        $currentEnd = $currentStart + $span - 1;
+        for ($i = 1, $count = count($starts); $i < $count; $i++) {
+            if ($starts[$i] === $currentEnd + 1) {
+                $currentEnd = $starts[$i] + $span - 1;
+            } else {
+                $ranges[] = [$currentStart, $currentEnd];
+                $currentStart = $starts[$i];
+                $currentEnd = $currentStart + $span - 1;
+            }
+        }
+        $ranges[] = [$currentStart, $currentEnd];
+
+        return $ranges;
+    }
+
+    /**
+     * Quantize a value to an axis index, truncating like the client does
+     *
+     * @param float $value Coordinate value
+     * @param float $min Lower end of the axis
+     * @param float $range Length of the axis
+     * @return int Index between 0 and AXIS_CELLS - 1
+     */
+    private static function quantize(float $value, float $min, float $range): int
+    {
+        $index = (int)(($value - $min) / $range * self::AXIS_CELLS);
+
+        return max(0, min(self::AXIS_CELLS - 1, $index));
+    }
+
+    /**
+     * Interleave two axis indexes, latitude in the odd bit positions
+     *
+     * @param int $latIndex Latitude index
+     * @param int $lonIndex Longitude index
+     * @return int Cell ID
+     */
+    private static function interleave(int $latIndex, int $lonIndex): int
+    {
+        return (self::spread($latIndex) << 1) | self::spread($lonIndex);
+    }
+
+    /**
+     * Spread the low 31 bits of a value into the even bit positions
+     *
+     * @param int $value Axis index
+     * @return int Spread bits
+     */
+    private static function spread(int $value): int
+    {
+        $x = $value & 0x7FFFFFFF;
+        $x = ($x | ($x << 16)) & 0x0000FFFF0000FFFF;
+        $x = ($x | ($x << 8)) & 0x00FF00FF00FF00FF;
+        $x = ($x | ($x << 4)) & 0x0F0F0F0F0F0F0F0F;
+        $x = ($x | ($x << 2)) & 0x3333333333333333;
+        $x = ($x | ($x << 1)) & 0x5555555555555555;
+
+        return $x;
+    }
+}
@@ -0,0 +1,35 @@
+<?php
+/**
+ * GPS Tracker Application - Live Stream Server
+ *
+ * Long-running WebSocket server for live mode clients (see App\Services\LiveStreamServer).
+ * Run it from the command line next to the web application:
+ *
+ *     php stream-server.php [listen address]
+ *
+ * The listen address defaults to the app.stream.listen setting. The web server should
+ * forward WebSocket upgrade requests for the API's stream endpoint
+ * (e.g. /gpstracker/api/locations/stream) to this address.
+ *
+ * @package    GpsTracker
+ * @subpackage Server
+ * @license    MIT License
+ * @version    2.0
+ */
+
+if (PHP_SAPI !== 'cli') {
+    http_response_code(404);
+    exit;
+}
+
+// Autoloader
+require_once __DIR__ . '/vendor/autoload.php';
+
+// Bootstrap application
+require_once __DIR__ . '/src/bootstrap.php';
+
+use App\Services\LiveStreamServer;
+
+$address = $argv[1] ?? config('app.stream.listen', 'tcp://127.0.0.1:8090');
+
+(new LiveStreamServer())->run($address);
@@ -0,0 +1,176 @@
+<?php
+
+namespace Tests;
+
+use PHPUnit\Framework\TestCase;
+use App\Controllers\LocationController;
+use App\Services\BulkUploadService;
+use App\Services\LocationService;
+use App\Utils\Config;
+
+class BulkUploadTest extends TestCase
+{
+    private string $directory;
+
+    /**
+     * Set up the test environment
+     */
+    protected function setUp(): void
+    {
+        parent::setUp();
+
+        // Load configuration
+        Config::load(__DIR__ . '/../config');
+
+        $this->directory = sys_get_temp_dir() . '/gpstracker-bulk-test-' . uniqid();
+    }
+
+    /**
+     * Remove the files the test uploaded
+     */
+    protected function tearDown(): void
+    {
+        foreach (glob($this->directory . '/*') ?: [] as $path) {
+            unlink($path);
+        }
+        if (is_dir($this->directory)) {
+            rmdir($this->directory);
+        }
+
+        parent::tearDown();
+    }
+
+    /**
+     * Test that Content-Range headers are parsed and malformed ones rejected
+     */
+    public function testParsesContentRange(): void
+    {
+        $this->assertEquals(['start' => 0, 'end' => 99, 'total' => 250], BulkUploadService::parseContentRange('bytes 0-99/250'));
+        $this->assertEquals(['start' => null, 'end' => null, 'total' => 250], BulkUploadService::parseContentRange('bytes */250'));
+        $this->assertNull(BulkUploadService::parseContentRange('bytes 100-99/250'));
+        $this->assertNull(BulkUploadService::parseContentRange('bytes 0-250/250'));
+        $this->assertNull(BulkUploadService::parseContentRange('items 0-9/10'));
+        $this->assertNull(BulkUploadService::parseContentRange(null));
+    }
+
+    /**
+     * Test that pieces are appended at the committed offset and out-of-place pieces refused
+     */
+    public function testAppendsPiecesAtCommittedOffset(): void
+    {
+        $service = new BulkUploadService($this->directory);
+
+        $this->assertEquals(['offset' => 0, 'complete' => false], $service->status('app456', '1-10'));
+
+        $status = $service->append('app456', '1-10', ['start' => 0, 'end' => 3, 'total' => 10], $this->stream('abcd'));
+        $this->assertEquals(['offset' => 4, 'complete' => false], $status);
+
+        // A retried piece from before the resume point is refused with the offset to resume from
+        $status = $service->append('app456', '1-10', ['start' => 0, 'end' => 3, 'total' => 10], $this->stream('abcd'));
+        $this->assertTrue($status['conflict']);
+        $this->assertEquals(4, $status['offset']);
+
+        // A piece cut short by a dropped connection keeps the bytes that arrived
+        $status = $service->append('app456', '1-10', ['start' => 4, 'end' => 9, 'total' => 10], $this->stream('efg'));
+        $this->assertEquals(['offset' => 7, 'complete' => false], $status);
+
+        // Uploads are kept per device
+        $this->assertEquals(0, $service->status('app789', '1-10')['offset']);
+    }
+
+    /**
+     * Test that a resumed upload is stored line by line once its last byte arrives
+     */
+    public function testControllerStoresCompletedUpload(): void
+    {
+        $file = gzencode(
+            json_encode(['username' => 'testUser', 'phonenumber' => 'app456', 'fixid' => 'app456:1', 'latitude' => '47.6']) . "\n"
+            . "not json\n"
+            . json_encode(['username' => 'testUser', 'phonenumber' => 'app456', 'fixid' => 'app456:2', 'latitude' => '47.7']) . "\n"
+        );
+        $total = strlen($file);
+        $split = intdiv($total, 2);
+
+        $locations = $this->createMock(LocationService::class);
+        $locations->expects($this->exactly(2))
+            ->method('storeLocation')
+            ->with($this->callback(fn($data) => $data['username'] === 'testUser' && str_starts_with($data['fixid'], 'app456:')))
+            ->willReturn(LocationService::STORED);
+        $controller = new LocationController($locations, null, null, new BulkUploadService($this->directory));
+        $params = ['uploadid' => '1-2', 'phonenumber' => 'app456'];
+
+        $response = json_decode($controller->bulkAppend($params, 'bytes 0-' . ($split - 1) . '/' . $total, $this->stream(substr($file, 0, $split))), true);
+        $this->assertEquals('success', $response['status']);
+        $this->assertEquals($split, $response['offset']);
+        $this->assertFalse($response['complete']);
+
+        $response = json_decode($controller->bulkAppend($params, 'bytes ' . $split . '-' . ($total - 1) . '/' . $total, $this->stream(substr($file, $split))), true);
+        $this->assertTrue($response['complete']);
+        $this->assertEquals($total, $response['offset']);
+        $this->assertEquals(3, $response['received']);
+        $this->assertEquals(2, $response['stored']);
+
+        // Asking again after a lost response reports completion without storing twice
+        $response = json_decode($controller->bulkStatus($params), true);
+        $this->assertTrue($response['complete']);
+        $this->assertEquals($total, $response['offset']);
+    }
+
+    /**
+     * Test that an upload stays incomplete while any location could not be saved
+     */
+    public function testKeepsUploadUntilEveryLocationIsSaved(): void
+    {
+        $file = gzencode(
+            json_encode(['username' => 'testUser', 'phonenumber' => 'app456', 'fixid' => 'app456:1', 'latitude' => '47.6']) . "\n"
+            . json_encode(['username' => 'testUser', 'phonenumber' => 'app456', 'fixid' => 'app456:2', 'latitude' => '47.7']) . "\n"
+        );
+        $total = strlen($file);
+
+        $locations = $this->createMock(LocationService::class);
+        $locations->expects($this->exactly(4))
+            ->method('storeLocation')
+            ->willReturnOnConsecutiveCalls(LocationService::STORED, LocationService::FAILED, LocationService::STORED, LocationService::STORED);
+        $controller = new LocationController($locations, null, null, new BulkUploadService($this->directory));
+        $params = ['uploadid' => '1-2', 'phonenumber' => 'app456'];
+
+        $response = json_decode($controller->bulkAppend($params, 'bytes 0-' . ($total - 1) . '/' . $total, $this->stream($file)), true);
+        $this->assertEquals('error', $response['status']);
+        $this->assertEquals(1, $response['failed']);
+        $this->assertEquals(['offset' => $total, 'complete' => false], (new BulkUploadService($this->directory))->status('app456', '1-2'));
+
+        // Completing the upload again stores it from the kept file
+        $response = json_decode($controller->bulkAppend($params, 'bytes */' . $total, $this->stream('')), true);
+        $this->assertEquals('success', $response['status']);
+        $this->assertTrue($response['complete']);
+    }
+
+    /**
+     * Test that uploads with unsafe IDs or above the size limit are refused
+     */
+    public function testRejectsInvalidUploads(): void
+    {
+        $controller = new LocationController($this->createMock(LocationService::class), null, null, new BulkUploadService($this->directory));
+
+        $response = json_decode($controller->bulkStatus(['uploadid' => '../etc', 'phonenumber' => 'app456']), true);
+        $this->assertEquals('error', $response['status']);
+
+        $response = json_decode($controller->bulkAppend(['uploadid' => '1-2', 'phonenumber' => 'app456'], 'bytes 0-9/' . PHP_INT_MAX, $this->stream('')), true);
+        $this->assertEquals('Bulk upload too large', $response['message']);
+    }
+
+    /**
+     * Wrap bytes in a stream, as the request body would be
+     *
+     * @param string $bytes Stream content
+     * @return resource Readable stream
+     */
+    private function stream(string $bytes)
+    {
+        $stream = fopen('php://memory', 'r+b');
+        fwrite($stream, $bytes);
+        rewind($stream);
+
+        return $stream;
+    }
+}
@@ -4,6 +4,8 @@ namespace Tests;
 
 use PHPUnit\Framework\TestCase;
 use App\Models\GPSLocation;
+use App\Services\Database;
+use App\Utils\Config;
 
 class GPSLocationTest extends TestCase
 {
@@ -146,4 +148,98 @@ class GPSLocationTest extends TestCase
         $this->assertEquals('Test location', $array['extraInfo']);
         $this->assertEquals('test', $array['eventType']);
     }
+    
+    /**
+     * Test the client-generated fix ID
+     */
+    public function testFixID(): void
+    {
+        // Legacy clients send no fix ID
+        $legacy = new GPSLocation(40.7128, -74.0060);
+        $this->assertSame('', $legacy->getFixID());
+        
+        // Form field name used by the Android client
+        $location = GPSLocation::fromArray([
+            'latitude' => 40.7128,
+            'longitude' => -74.0060,
+            'fixid' => 'app456:42',
+        ]);
+        $this->assertSame('app456:42', $location->getFixID());
+        $this->assertSame('app456:42', $location->toArray()['fixID']);
+        
+        // Round trip through toArray/fromArray keeps the ID
+        $this->assertSame('app456:42', GPSLocation::fromArray($location->toArray())->getFixID());
+    }
+    
+    /**
+     * Test that only a repeated fix ID is ignored, not rows failing other constraints
+     */
+    public function testSaveIgnoresOnlyDuplicateFixID(): void
+    {
+        Config::load(__DIR__ . '/../config');
+        Config::set('database.driver', 'sqlite');
+        Config::set('database.sqlite_path', ':memory:');
+        Database::disconnect();
+        Database::getPdo()->exec('CREATE TABLE gpslocations (
+            GPSLocationID INTEGER PRIMARY KEY AUTOINCREMENT,
+            latitude REAL, longitude REAL, speed INTEGER, direction INTEGER, distance REAL,
+            gpsTime TEXT, locationMethod TEXT, userName TEXT, phoneNumber TEXT,
+            sessionID TEXT, accuracy INTEGER, extraInfo TEXT, eventType TEXT,
+            fixID TEXT NULL, tripID INTEGER NOT NULL, cellID INTEGER NULL
+        )');
+        Database::getPdo()->exec('CREATE UNIQUE INDEX ux_gpslocations_fixid ON gpslocations (fixID)');
+        
+        try {
+            $data = ['latitude' => 40.7128, 'longitude' => -74.0060, 'fixid' => 'app456:42', 'tripid' => 1];
+            $this->assertTrue(GPSLocation::fromArray($data)->save());
+            
+            // A retry of the same fix is reported as stored without a second row
+            $this->assertTrue(GPSLocation::fromArray($data)->save());
+            $this->assertEquals(1, Database::getPdo()->query('SELECT COUNT(*) FROM gpslocations')->fetchColumn());
+            
+            // A NOT NULL failure is an error, not a duplicate
+            $this->assertFalse(GPSLocation::fromArray(['fixid' => 'app456:43', 'tripid' => null] + $data)->save());
+            $this->assertEquals(1, Database::getPdo()->query('SELECT COUNT(*) FROM gpslocations')->fetchColumn());
+        } finally {
+            Database::disconnect();
+        }
+    }
+    
+    /**
+     * Test the trip number within the session
+     */
+    public function testTripID(): void
+    {
+        // Clients that do not segment trips send none
+        $legacy = new GPSLocation(40.7128, -74.0060);
+        $this->assertNull($legacy->getTripID());
+        $this->assertNull(GPSLocation::fromArray($legacy->toArray())->getTripID());
+        
+        $location = GPSLocation::fromArray([
+            'latitude' => 40.7128,
+            'longitude' => -74.0060,
+            'tripid' => '3',
+        ]);
+        $this->assertSame(3, $location->getTripID());
+        $this->assertSame(3, $location->toArray()['tripID']);
+        $this->assertSame(3, GPSLocation::fromArray($location->toArray())->getTripID());
+    }
+    
+    /**
+     * Test the spatial cell ID
+     */
+    public function testCellID(): void
+    {
+        $legacy = new GPSLocation(40.7128, -74.0060);
+        $this->assertNull($legacy->getCellID());
+        
+        $location = GPSLocation::fromArray([
+            'latitude' => 40.7128,
+            'longitude' => -74.0060,
+            'cellid' => '2788271739612147646',
+        ]);
+        $this->assertSame(2788271739612147646, $location->getCellID());
+        $this->assertSame(2788271739612147646, $location->toArray()['cellID']);
+        $this->assertSame(2788271739612147646, GPSLocation::fromArray($location->toArray())->getCellID());
+    }
 }
\ No newline at end of file
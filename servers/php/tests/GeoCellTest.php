@@ -0,0 +1,48 @@
+<?php
+
+namespace Tests;
+
+use PHPUnit\Framework\TestCase;
+use App\Utils\GeoCell;
+
+class GeoCellTest extends TestCase
+{
+    /**
+     * Test that cell IDs match the ones the Android client computes
+     */
+    public function testEncodeMatchesClient(): void
+    {
+        $this->assertSame(2959676983896181913, GeoCell::encode(47.6062095, -122.3320708));
+        $this->assertSame(2788271739612147646, GeoCell::encode(40.7128, -74.006));
+        $this->assertSame(2106550536118327187, GeoCell::encode(-33.8688197, 151.2092955));
+        $this->assertSame(GeoCell::MAX_CELL, GeoCell::encode(90.0, 180.0));
+        $this->assertSame(0, GeoCell::encode(-90.0, -180.0));
+    }
+    
+    /**
+     * Test that the covering ranges contain every point inside the box
+     */
+    public function testCoveringRangesContainPointsInsideTheBox(): void
+    {
+        $ranges = GeoCell::coveringRanges(47.60, -122.35, 47.62, -122.32);
+        $this->assertNotEmpty($ranges);
+        $this->assertLessThanOrEqual(16, count($ranges));
+        
+        for ($lat = 47.60; $lat <= 47.62; $lat += 0.0025) {
+            for ($lon = -122.35; $lon <= -122.32; $lon += 0.0025) {
+                $cell = GeoCell::encode($lat, $lon);
+                $covered = false;
+                foreach ($ranges as [$start, $end]) {
+                    $covered = $covered || ($cell >= $start && $cell <= $end);
+                }
+                $this->assertTrue($covered, "{$lat},{$lon} not covered");
+            }
+        }
+        
+        // A point far away falls outside every range
+        $far = GeoCell::encode(-33.8688, 151.2093);
+        foreach ($ranges as [$start, $end]) {
+            $this->assertFalse($far >= $start && $far <= $end);
+        }
+    }
+}
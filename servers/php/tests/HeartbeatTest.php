@@ -0,0 +1,79 @@
+<?php
+
+namespace Tests;
+
+use PHPUnit\Framework\TestCase;
+use App\Controllers\LocationController;
+use App\Services\HeartbeatService;
+use App\Services\LocationService;
+use App\Utils\Config;
+
+class HeartbeatTest extends TestCase
+{
+    private const HEARTBEAT = [
+        'username' => 'testUser',
+        'phonenumber' => 'app456',
+        'sessionid' => 'session123',
+        'date' => '2023-11-14T22:13:21Z',
+        'battery' => '87',
+    ];
+
+    /**
+     * Set up the test environment
+     */
+    protected function setUp(): void
+    {
+        parent::setUp();
+
+        // Load configuration
+        Config::load(__DIR__ . '/../config');
+    }
+
+    /**
+     * Test that a heartbeat maps to the device columns
+     */
+    public function testSanitizesHeartbeat(): void
+    {
+        $device = HeartbeatService::sanitize(self::HEARTBEAT);
+
+        $this->assertEquals('app456', $device['phoneNumber']);
+        $this->assertEquals('testUser', $device['userName']);
+        $this->assertEquals('session123', $device['sessionID']);
+        $this->assertEquals(date('Y-m-d H:i:s', strtotime('2023-11-14T22:13:21Z')), $device['lastSeen']);
+        $this->assertSame(87, $device['battery']);
+    }
+
+    /**
+     * Test that heartbeats without a device are rejected and odd battery levels dropped
+     */
+    public function testRejectsInvalidHeartbeats(): void
+    {
+        $this->assertNull(HeartbeatService::sanitize(array_merge(self::HEARTBEAT, ['phonenumber' => ''])));
+        $this->assertNull(HeartbeatService::sanitize(array_merge(self::HEARTBEAT, ['phonenumber' => str_repeat('x', 51)])));
+        $this->assertNull(HeartbeatService::sanitize(array_merge(self::HEARTBEAT, ['battery' => '140']))['battery']);
+        $this->assertNull(HeartbeatService::sanitize(array_diff_key(self::HEARTBEAT, ['battery' => true]))['battery']);
+    }
+
+    /**
+     * Test that the endpoint stores the heartbeat without storing a location
+     */
+    public function testControllerStoresHeartbeatOnly(): void
+    {
+        $locations = $this->createMock(LocationService::class);
+        $locations->expects($this->never())->method('updateLocation');
+        $heartbeats = $this->createMock(HeartbeatService::class);
+        $heartbeats->expects($this->once())
+            ->method('save')
+            ->with($this->callback(fn($device) => $device['phoneNumber'] === 'app456'
+                && $device['lastSeen'] === date('Y-m-d H:i:s', strtotime('2023-11-14T22:13:21Z'))))
+            ->willReturn(true);
+        $controller = new LocationController($locations, null, $heartbeats);
+
+        $response = json_decode($controller->heartbeat(self::HEARTBEAT), true);
+        $this->assertEquals('success', $response['status']);
+        $this->assertArrayHasKey('hints', $response);
+
+        $response = json_decode($controller->heartbeat(['username' => 'testUser']), true);
+        $this->assertEquals('error', $response['status']);
+    }
+}
@@ -0,0 +1,131 @@
+<?php
+
+namespace Tests;
+
+use PHPUnit\Framework\TestCase;
+use App\Services\LiveFrameCodec;
+use App\Services\LiveStreamServer;
+use App\Utils\Config;
+
+class LiveStreamTest extends TestCase
+{
+    private const HELLO = ['username' => 'testUser', 'appid' => 'app456', 'sessionid' => 'session123'];
+
+    /**
+     * Set up the test environment
+     */
+    protected function setUp(): void
+    {
+        parent::setUp();
+
+        // Load configuration
+        Config::load(__DIR__ . '/../config');
+    }
+
+    /**
+     * Test that a fix frame decodes to the same fields as a form upload
+     */
+    public function testDecodesFixFrame(): void
+    {
+        $frame = 'F|app456:42|1714571109000|40.7128000|-74.0060000|11|90|15|10|1.3|gps';
+
+        $data = LiveFrameCodec::decodeFix($frame, self::HELLO);
+
+        $this->assertEquals('40.7128000', $data['latitude']);
+        $this->assertEquals('-74.0060000', $data['longitude']);
+        $this->assertEquals(11, $data['speed']);
+        $this->assertEquals(90, $data['direction']);
+        $this->assertEquals(15, $data['accuracy']);
+        $this->assertEquals('10', $data['extrainfo']);
+        $this->assertEquals('1.3', $data['distance']);
+        $this->assertEquals(date('Y-m-d H:i:s', 1714571109), $data['date']);
+        $this->assertEquals('gps', $data['locationmethod']);
+        $this->assertEquals('testUser', $data['username']);
+        $this->assertEquals('app456', $data['phonenumber']);
+        $this->assertEquals('session123', $data['sessionid']);
+        $this->assertEquals('app456:42', $data['fixid']);
+        $this->assertNull($data['tripid']);
+    }
+
+    /**
+     * Test that a fix frame may carry the trip number as its last field
+     */
+    public function testDecodesTripNumber(): void
+    {
+        $frame = 'F|app456:42|1714571109000|40.7128000|-74.0060000|11|90|15|10|1.3|gps|4';
+
+        $data = LiveFrameCodec::decodeFix($frame, self::HELLO);
+
+        $this->assertSame(4, $data['tripid']);
+        $this->assertEquals('gps', $data['locationmethod']);
+        $this->assertNull(LiveFrameCodec::decodeFix($frame . '|extra', self::HELLO));
+    }
+
+    /**
+     * Test that malformed frames are rejected but keep their fix ID for the nack
+     */
+    public function testRejectsMalformedFrames(): void
+    {
+        $this->assertNull(LiveFrameCodec::decodeFix('F|app456:42|soon|40.7|-74.0|0|0|0|0|0|gps', self::HELLO));
+        $this->assertNull(LiveFrameCodec::decodeFix('F|app456:42|1714571109000|40.7', self::HELLO));
+        $this->assertEquals('app456:42', LiveFrameCodec::fixId('F|app456:42|1714571109000|40.7'));
+        $this->assertNull(LiveFrameCodec::fixId('H|1|testUser|app456|session123'));
+
+        $this->assertEquals(self::HELLO, LiveFrameCodec::decodeHello('H|1|testUser|app456|session123'));
+        $this->assertNull(LiveFrameCodec::decodeHello('H|2|testUser|app456|session123'));
+    }
+
+    /**
+     * Test ack and nack frames
+     */
+    public function testEncodesReplies(): void
+    {
+        $this->assertEquals('A|app456:42', LiveFrameCodec::ack('app456:42'));
+        $this->assertEquals('N|app456:42|bad fix', LiveFrameCodec::nack('app456:42', "bad|fix"));
+    }
+
+    /**
+     * Test the handshake accept value against the example in RFC 6455
+     */
+    public function testAcceptKey(): void
+    {
+        $this->assertEquals('s3pPLMBiTxaQ9kYGzzhZRbK+xOo=', LiveStreamServer::acceptKey('dGhlIHNhbXBsZSBub25jZQ=='));
+    }
+
+    /**
+     * Test decoding masked client frames, including partial ones
+     */
+    public function testDecodesMaskedFrames(): void
+    {
+        $mask = "\x01\x02\x03\x04";
+        $payload = 'A|app456:42';
+        $masked = '';
+        for ($i = 0; $i < strlen($payload); $i++) {
+            $masked .= $payload[$i] ^ $mask[$i % 4];
+        }
+        $frame = "\x81" . chr(0x80 | strlen($payload)) . $mask . $masked;
+
+        $buffer = substr($frame, 0, 5);
+        $this->assertNull(LiveStreamServer::decodeFrame($buffer));
+
+        $buffer = $frame . "\x89\x80";
+        $decoded = LiveStreamServer::decodeFrame($buffer);
+        $this->assertTrue($decoded['fin']);
+        $this->assertEquals(1, $decoded['opcode']);
+        $this->assertEquals($payload, $decoded['payload']);
+        $this->assertEquals("\x89\x80", $buffer);
+    }
+
+    /**
+     * Test that server frames round-trip through the decoder
+     */
+    public function testEncodesServerFrames(): void
+    {
+        $buffer = LiveStreamServer::encodeFrame(str_repeat('x', 300));
+
+        $decoded = LiveStreamServer::decodeFrame($buffer);
+
+        $this->assertEquals(300, strlen($decoded['payload']));
+        $this->assertEquals('', $buffer);
+    }
+}
@@ -0,0 +1,79 @@
+<?php
+
+namespace Tests;
+
+use PHPUnit\Framework\TestCase;
+use App\Controllers\LocationController;
+use App\Services\LocationService;
+use App\Utils\Config;
+
+class LocationBatchTest extends TestCase
+{
+    /**
+     * Set up the test environment
+     */
+    protected function setUp(): void
+    {
+        parent::setUp();
+
+        // Load configuration
+        Config::load(__DIR__ . '/../config');
+    }
+
+    /**
+     * Test that a batch with invalid entries is still acknowledged
+     */
+    public function testAcknowledgesBatchWithInvalidEntries(): void
+    {
+        $response = json_decode($this->controller([LocationService::STORED, LocationService::INVALID])->updateBatch($this->batch(2)), true);
+
+        $this->assertEquals('success', $response['status']);
+        $this->assertEquals(2, $response['received']);
+        $this->assertEquals(1, $response['stored']);
+        $this->assertArrayHasKey('hints', $response);
+    }
+
+    /**
+     * Test that a batch is refused when an entry could not be saved, so the client resends it
+     */
+    public function testRefusesBatchWithFailedEntries(): void
+    {
+        $response = json_decode($this->controller([LocationService::STORED, LocationService::FAILED, LocationService::STORED])->updateBatch($this->batch(3)), true);
+
+        $this->assertEquals('error', $response['status']);
+        $this->assertEquals(2, $response['stored']);
+        $this->assertArrayHasKey('hints', $response);
+    }
+
+    /**
+     * Create a controller whose location service reports the given results in turn
+     *
+     * @param array $results LocationService::STORED, INVALID or FAILED per entry
+     * @return LocationController Controller under test
+     */
+    private function controller(array $results): LocationController
+    {
+        $locations = $this->createMock(LocationService::class);
+        $locations->expects($this->exactly(count($results)))
+            ->method('storeLocation')
+            ->willReturnOnConsecutiveCalls(...$results);
+
+        return new LocationController($locations);
+    }
+
+    /**
+     * Build a batch body
+     *
+     * @param int $count Number of entries
+     * @return string JSON request body
+     */
+    private function batch(int $count): string
+    {
+        $locations = [];
+        for ($i = 1; $i <= $count; $i++) {
+            $locations[] = ['username' => 'testUser', 'phonenumber' => 'app456', 'fixid' => 'app456:' . $i, 'latitude' => '47.6', 'longitude' => '-122.3'];
+        }
+
+        return json_encode(['locations' => $locations]);
+    }
+}
@@ -0,0 +1,93 @@
+<?php
+
+namespace Tests;
+
+use PHPUnit\Framework\TestCase;
+use App\Controllers\LocationController;
+use App\Services\LocationService;
+use App\Services\SessionSummaryService;
+use App\Utils\Config;
+
+class SessionSummaryTest extends TestCase
+{
+    private const SUMMARY = [
+        'sessionid' => 'session123',
+        'username' => 'testUser',
+        'phonenumber' => 'app456',
+        'startedat' => '2023-11-14T22:13:21Z',
+        'endedat' => '2023-11-14T23:13:21Z',
+        'fixcount' => 360,
+        'distance' => 10.0,
+        'movingtime' => 3200,
+        'stoppedtime' => 400,
+        'avgspeed' => 11.2,
+        'maxspeed' => 44.7,
+        'elevationgain' => 123,
+        'stops' => 2,
+    ];
+
+    /**
+     * Set up the test environment
+     */
+    protected function setUp(): void
+    {
+        parent::setUp();
+
+        // Load configuration
+        Config::load(__DIR__ . '/../config');
+    }
+
+    /**
+     * Test that an uploaded summary maps to the summary columns
+     */
+    public function testSanitizesSummary(): void
+    {
+        $summary = SessionSummaryService::sanitize(self::SUMMARY);
+
+        $this->assertEquals('session123', $summary['sessionID']);
+        $this->assertEquals('testUser', $summary['userName']);
+        $this->assertEquals('app456', $summary['phoneNumber']);
+        $this->assertEquals(date('Y-m-d H:i:s', strtotime('2023-11-14T22:13:21Z')), $summary['startedAt']);
+        $this->assertEquals(date('Y-m-d H:i:s', strtotime('2023-11-14T23:13:21Z')), $summary['endedAt']);
+        $this->assertEquals(360, $summary['fixCount']);
+        $this->assertEquals(3200, $summary['movingTime']);
+        $this->assertEquals(400, $summary['stoppedTime']);
+        $this->assertEquals(11.2, $summary['avgSpeed']);
+        $this->assertEquals(44.7, $summary['maxSpeed']);
+        $this->assertEquals(123, $summary['elevationGain']);
+        $this->assertEquals(2, $summary['stops']);
+    }
+
+    /**
+     * Test that summaries without a session or with an invalid time range are rejected
+     */
+    public function testRejectsInvalidSummaries(): void
+    {
+        $this->assertNull(SessionSummaryService::sanitize(array_merge(self::SUMMARY, ['sessionid' => ''])));
+        $this->assertNull(SessionSummaryService::sanitize(array_merge(self::SUMMARY, ['endedat' => 'soon'])));
+        $this->assertNull(SessionSummaryService::sanitize(array_merge(self::SUMMARY, [
+            'startedat' => '2023-11-14T23:13:21Z',
+            'endedat' => '2023-11-14T22:13:21Z',
+        ])));
+        $this->assertEquals(0, SessionSummaryService::sanitize(array_merge(self::SUMMARY, ['stops' => -3]))['stops']);
+    }
+
+    /**
+     * Test that the endpoint stores valid summaries and answers 400 for malformed bodies
+     */
+    public function testControllerStoresSummary(): void
+    {
+        $summaries = $this->createMock(SessionSummaryService::class);
+        $summaries->expects($this->once())
+            ->method('save')
+            ->with($this->callback(fn($summary) => $summary['sessionID'] === 'session123'))
+            ->willReturn(true);
+        $controller = new LocationController($this->createMock(LocationService::class), $summaries);
+
+        $response = json_decode($controller->updateSessionSummary(json_encode(self::SUMMARY)), true);
+        $this->assertEquals('success', $response['status']);
+
+        $response = json_decode($controller->updateSessionSummary('not json'), true);
+        $this->assertEquals('error', $response['status']);
+    }
+}
@@ -0,0 +1,151 @@
+<?php
+
+namespace Tests;
+
+use PHPUnit\Framework\TestCase;
+use App\Services\LocationService;
+use App\Services\UdpDatagramCodec;
+use App\Services\UdpUplinkServer;
+use App\Utils\Config;
+
+class UdpDatagramTest extends TestCase
+{
+    private const SECRET = 'fleet-secret';
+
+    /**
+     * Set up the test environment
+     */
+    protected function setUp(): void
+    {
+        parent::setUp();
+
+        // Load configuration
+        Config::load(__DIR__ . '/../config');
+    }
+
+    /**
+     * Sign a datagram body the way the app does
+     */
+    private function datagram(string $signed, string $secret = self::SECRET): string
+    {
+        return $signed . ',' . UdpDatagramCodec::sign($signed, $secret) . ';';
+    }
+
+    /**
+     * Test that a signed datagram decodes to one location per fix
+     */
+    public function testDecodesSignedDatagram(): void
+    {
+        $datagram = $this->datagram('GT,1,app456,77,testUser,session123,2,'
+            . '41,1714571109,40.712800,-74.006000,11,90,15,10,'
+            . 'other:7,1714571110,40.712900,-74.006100,12,91,14,11');
+
+        $decoded = UdpDatagramCodec::decode($datagram, self::SECRET);
+
+        $this->assertEquals('app456', $decoded['appid']);
+        $this->assertEquals('77', $decoded['seq']);
+        $this->assertCount(2, $decoded['locations']);
+        $first = $decoded['locations'][0];
+        $this->assertEquals('40.712800', $first['latitude']);
+        $this->assertEquals('-74.006000', $first['longitude']);
+        $this->assertEquals(11, $first['speed']);
+        $this->assertEquals(90, $first['direction']);
+        $this->assertEquals(15, $first['accuracy']);
+        $this->assertEquals('10', $first['extrainfo']);
+        $this->assertEquals(date('Y-m-d H:i:s', 1714571109), $first['date']);
+        $this->assertEquals('testUser', $first['username']);
+        $this->assertEquals('app456', $first['phonenumber']);
+        $this->assertEquals('session123', $first['sessionid']);
+        $this->assertEquals('app456:41', $first['fixid']);
+        $this->assertEquals('other:7', $decoded['locations'][1]['fixid']);
+    }
+
+    /**
+     * Test that version 2 datagrams carry the trip number and version 1 ones have none
+     */
+    public function testDecodesTripNumber(): void
+    {
+        $datagram = $this->datagram('GT,2,app456,77,testUser,session123,2,'
+            . '41,1714571109,40.712800,-74.006000,11,90,15,10,2,'
+            . '42,1714571110,40.712900,-74.006100,12,91,14,11,3');
+
+        $decoded = UdpDatagramCodec::decode($datagram, self::SECRET);
+
+        $this->assertSame(2, $decoded['locations'][0]['tripid']);
+        $this->assertSame(3, $decoded['locations'][1]['tripid']);
+        $this->assertEquals('app456:42', $decoded['locations'][1]['fixid']);
+
+        $legacy = UdpDatagramCodec::decode(
+            $this->datagram('GT,1,app456,77,testUser,session123,1,41,1714571109,40.712800,-74.006000,11,90,15,10'),
+            self::SECRET
+        );
+        $this->assertNull($legacy['locations'][0]['tripid']);
+    }
+
+    /**
+     * Test that version 3 datagrams carry the session distance and older ones report 0
+     */
+    public function testDecodesDistance(): void
+    {
+        $datagram = $this->datagram('GT,3,app456,77,testUser,session123,2,'
+            . '41,1714571109,40.712800,-74.006000,11,90,15,10,2,12.5,'
+            . '42,1714571110,40.712900,-74.006100,12,91,14,11,2,12.6');
+
+        $decoded = UdpDatagramCodec::decode($datagram, self::SECRET);
+
+        $this->assertEquals('12.5', $decoded['locations'][0]['distance']);
+        $this->assertEquals('12.6', $decoded['locations'][1]['distance']);
+        $this->assertSame(2, $decoded['locations'][1]['tripid']);
+
+        $legacy = UdpDatagramCodec::decode(
+            $this->datagram('GT,2,app456,77,testUser,session123,1,41,1714571109,40.712800,-74.006000,11,90,15,10,2'),
+            self::SECRET
+        );
+        $this->assertEquals('0', $legacy['locations'][0]['distance']);
+    }
+
+    /**
+     * Test that forged, truncated and miscounted datagrams are rejected
+     */
+    public function testRejectsInvalidDatagrams(): void
+    {
+        $signed = 'GT,1,app456,77,testUser,session123,1,41,1714571109,40.712800,-74.006000,11,90,15,10';
+
+        $this->assertNull(UdpDatagramCodec::decode($this->datagram($signed, 'wrong-secret'), self::SECRET));
+        $this->assertNull(UdpDatagramCodec::decode(str_replace('40.712800', '41.712800', $this->datagram($signed)), self::SECRET));
+        $this->assertNull(UdpDatagramCodec::decode($this->datagram(str_replace(',1,41,', ',2,41,', $signed)), self::SECRET));
+        $this->assertNull(UdpDatagramCodec::decode($this->datagram(str_replace('GT,1,', 'GT,2,', $signed)), self::SECRET));
+        $this->assertNull(UdpDatagramCodec::decode($this->datagram(str_replace('GT,1,', 'GT,4,', $signed)), self::SECRET));
+        $this->assertNull(UdpDatagramCodec::decode('GT;', self::SECRET));
+    }
+
+    /**
+     * Test the signed ack and nack replies
+     */
+    public function testEncodesReplies(): void
+    {
+        $this->assertEquals(
+            'ACK,app456,77,' . UdpDatagramCodec::sign('ACK,app456,77', self::SECRET) . ';',
+            UdpDatagramCodec::reply(true, 'app456', '77', self::SECRET)
+        );
+        $this->assertStringStartsWith('NAK,app456,77,', UdpDatagramCodec::reply(false, 'app456', '77', self::SECRET));
+        $this->assertEquals(32, strlen(UdpDatagramCodec::sign('ACK,app456,77', self::SECRET)));
+    }
+
+    /**
+     * Test that the receiver acks stored datagrams and ignores forged ones
+     */
+    public function testReceiverRepliesOnlyToAuthenticDatagrams(): void
+    {
+        $locationService = $this->createMock(LocationService::class);
+        $locationService->expects($this->once())->method('updateLocation')->willReturn(true);
+        $server = new UdpUplinkServer(self::SECRET, $locationService);
+        $signed = 'GT,1,app456,77,testUser,session123,1,41,1714571109,40.712800,-74.006000,11,90,15,10';
+
+        $this->assertEquals(
+            UdpDatagramCodec::reply(true, 'app456', '77', self::SECRET),
+            $server->handle($this->datagram($signed))
+        );
+        $this->assertNull($server->handle($this->datagram($signed, 'wrong-secret')));
+    }
+}
@@ -0,0 +1,82 @@
+<?php
+
+namespace Tests;
+
+use PHPUnit\Framework\TestCase;
+use App\Services\UploadHints;
+use App\Utils\Config;
+
+class UploadHintsTest extends TestCase
+{
+    private const NOW = 1714571109;
+
+    /**
+     * Set up the test environment
+     */
+    protected function setUp(): void
+    {
+        parent::setUp();
+
+        // Load configuration
+        Config::load(__DIR__ . '/../config');
+    }
+
+    /**
+     * Test that a lightly loaded server hands out the defaults
+     */
+    public function testDefaultsBelowThreshold(): void
+    {
+        $hints = UploadHints::forLoad(0.2, self::NOW);
+
+        $this->assertEquals(60, $hints['interval']);
+        $this->assertEquals(500, $hints['max_batch']);
+        $this->assertEquals(0, $hints['backoff_until']);
+        $this->assertEquals(self::NOW, $hints['server_time']);
+    }
+
+    /**
+     * Test that interval and batch size scale between threshold and capacity
+     */
+    public function testScalesAboveThreshold(): void
+    {
+        // Halfway between the 0.7 threshold and full capacity
+        $hints = UploadHints::forLoad(0.85, self::NOW);
+
+        $this->assertEquals(480, $hints['interval']);
+        $this->assertEquals(275, $hints['max_batch']);
+        $this->assertEquals(0, $hints['backoff_until']);
+
+        $full = UploadHints::forLoad(1.0, self::NOW);
+        $this->assertEquals(900, $full['interval']);
+        $this->assertEquals(50, $full['max_batch']);
+    }
+
+    /**
+     * Test that overload spreads clients over a backoff window
+     */
+    public function testBackoffWhenOverloaded(): void
+    {
+        $windows = [];
+        $jitter = function (int $min, int $max) use (&$windows): int {
+            $windows[] = [$min, $max];
+            return $max;
+        };
+
+        $hints = UploadHints::forLoad(1.5, self::NOW, $jitter);
+
+        $this->assertEquals([[1, 150]], $windows);
+        $this->assertEquals(self::NOW + 150, $hints['backoff_until']);
+        $this->assertEquals(900, $hints['interval']);
+    }
+
+    /**
+     * Test that rate limited clients wait at least until their window resets
+     */
+    public function testRateLimitedWaitsForWindow(): void
+    {
+        $hints = UploadHints::rateLimited(42, self::NOW);
+
+        $this->assertEquals(self::NOW + 42, $hints['backoff_until']);
+        $this->assertEquals(900, $hints['interval']);
+    }
+}
@@ -0,0 +1,40 @@
+<?php
+/**
+ * GPS Tracker Application - UDP Uplink Receiver
+ *
+ * Long-running receiver for the Android client's UDP uplink (see App\Services\UdpUplinkServer).
+ * Run it from the command line next to the web application:
+ *
+ *     php udp-server.php [listen address]
+ *
+ * The listen address defaults to the app.udp.listen setting; the shared key is read from
+ * app.udp.secret (UDP_UPLINK_SECRET) and has to be entered in the app as well.
+ *
+ * @package    GpsTracker
+ * @subpackage Server
+ * @license    MIT License
+ * @version    2.0
+ */
+
+if (PHP_SAPI !== 'cli') {
+    http_response_code(404);
+    exit;
+}
+
+// Autoloader
+require_once __DIR__ . '/vendor/autoload.php';
+
+// Bootstrap application
+require_once __DIR__ . '/src/bootstrap.php';
+
+use App\Services\UdpUplinkServer;
+
+$secret = (string)config('app.udp.secret', '');
+if ($secret === '') {
+    fwrite(STDERR, "Set UDP_UPLINK_SECRET before starting the UDP uplink receiver.\n");
+    exit(1);
+}
+
+$address = $argv[1] ?? config('app.udp.listen', 'udp://0.0.0.0:7332');
+
+(new UdpUplinkServer($secret))->run($address);